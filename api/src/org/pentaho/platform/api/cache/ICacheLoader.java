@@ -0,0 +1,35 @@
+/*!
+ * This program is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License, version 2.1 as published by the Free Software
+ * Foundation.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with this
+ * program; if not, you can obtain a copy at http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+ * or from the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * Copyright (c) 2002-2013 Pentaho Corporation..  All rights reserved.
+ */
+
+package org.pentaho.platform.api.cache;
+
+/**
+ * Computes a value that is missing from a cache region.
+ * 
+ * @see org.pentaho.platform.api.engine.ILoadingCacheManager
+ */
+public interface ICacheLoader<V> {
+
+  /**
+   * @param key
+   *          the key the value is looked up with
+   * @return the value to cache and return, or null to cache nothing
+   * @throws Exception
+   *           if the value cannot be computed, in which case nothing is cached
+   */
+  public V load( Object key ) throws Exception;
+}
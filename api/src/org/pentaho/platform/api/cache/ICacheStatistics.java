@@ -0,0 +1,59 @@
+/*!
+ * This program is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License, version 2.1 as published by the Free Software
+ * Foundation.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with this
+ * program; if not, you can obtain a copy at http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+ * or from the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * Copyright (c) 2002-2013 Pentaho Corporation..  All rights reserved.
+ */
+
+package org.pentaho.platform.api.cache;
+
+/**
+ * Usage counts of a cache region, as seen through the cache manager since the region was created.
+ */
+public interface ICacheStatistics {
+
+  /**
+   * @return the name of the region
+   */
+  public String getRegion();
+
+  /**
+   * @return the number of lookups that found a value
+   */
+  public long getHitCount();
+
+  /**
+   * @return the number of lookups that found nothing
+   */
+  public long getMissCount();
+
+  /**
+   * @return the number of values put in the region
+   */
+  public long getPutCount();
+
+  /**
+   * @return the number of values removed from the region, not counting clears and expiry
+   */
+  public long getRemoveCount();
+
+  /**
+   * @return the number of values currently in the region, or -1 if it is not known
+   */
+  public long getElementCount();
+
+  /**
+   * @return the share of lookups that found a value, or 0 if there were none
+   */
+  public double getHitRatio();
+}
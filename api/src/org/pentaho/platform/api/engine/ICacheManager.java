@@ -17,6 +17,8 @@
 
 package org.pentaho.platform.api.engine;
 
+import org.pentaho.platform.api.cache.ICacheStatistics;
+
 import java.util.List;
 import java.util.Properties;
 import java.util.Set;
@@ -251,4 +253,12 @@ public interface ICacheManager extends ILogoutListener {
    */
   public long getElementCountInGlobalCache();
 
+  /**
+   * Returns the hit, miss, put and remove counts of a region cache, along with its current element count
+   * 
+   * @param region
+   * @return a snapshot of the statistics of the region, or null if the region does not exist
+   */
+  public ICacheStatistics getRegionCacheStatistics( String region );
+
 }
@@ -0,0 +1,45 @@
+/*!
+ * This program is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License, version 2.1 as published by the Free Software
+ * Foundation.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with this
+ * program; if not, you can obtain a copy at http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+ * or from the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * Copyright (c) 2002-2013 Pentaho Corporation..  All rights reserved.
+ */
+
+package org.pentaho.platform.api.engine;
+
+/**
+ * Optionally implemented by an {@link IDocumentResourceLoader} that can tell when the resources it loads change, and
+ * under whose permissions it resolves them. Callers should check for it with <code>instanceof</code>, and not keep
+ * anything compiled from the loaded resources when the loader does not implement it.
+ */
+public interface IDocumentResourceVersionSupport {
+
+  /**
+   * Returns the time the resource that {@link IDocumentResourceLoader#loadXsl(String)} loads for a name was last
+   * modified.
+   * 
+   * @param name
+   *          the name the resource is loaded under
+   * @return the modification time in milliseconds, or <code>-1</code> if it is not known
+   */
+  public long getLastModified( String name );
+
+  /**
+   * Identifies the scope, such as the user, whose permissions resources are currently resolved under. Two resolutions
+   * of the same name under the same scope give the same resource.
+   * 
+   * @return the scope, or <code>null</code> if the resolved resources cannot be shared at all
+   */
+  public String getScope();
+
+}
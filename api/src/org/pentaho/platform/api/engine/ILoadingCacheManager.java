@@ -0,0 +1,43 @@
+/*!
+ * This program is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License, version 2.1 as published by the Free Software
+ * Foundation.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with this
+ * program; if not, you can obtain a copy at http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+ * or from the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * Copyright (c) 2002-2013 Pentaho Corporation..  All rights reserved.
+ */
+
+package org.pentaho.platform.api.engine;
+
+import org.pentaho.platform.api.cache.ICacheLoader;
+
+/**
+ * A cache manager that can compute missing values itself, computing each one once however many threads ask for it at
+ * the same time.
+ */
+public interface ILoadingCacheManager extends ICacheManager {
+
+  /**
+   * Gets an object from the cache of a specific region, computing and caching it with <code>loader</code> if it is
+   * not there. Threads asking for a key that is being computed wait for that computation rather than repeating it.
+   * 
+   * @param region
+   *          the region where the object is cached
+   * @param key
+   *          The key that the data object is stored with
+   * @param loader
+   *          computes the data object if it is not in the cache
+   * @return The corresponding data object, or null if the region does not exist or the loader returned null
+   * @throws IllegalStateException
+   *           if the loader failed with a checked exception, which is its cause; unchecked exceptions are thrown as is
+   */
+  public <V> V getFromRegionCache( String region, Object key, ICacheLoader<V> loader );
+}
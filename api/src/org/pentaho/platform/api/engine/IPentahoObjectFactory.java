@@ -40,6 +40,12 @@ import java.util.Map;
  * of object binding/scoping or any other rules for the creation and management of objects is totally up the
  * implementation. Typically, a factory implementation would be made aware of it's rules for object creation by way of a
  * well-known object specification file, see {@link #init(String, Object)}
+ * <p>
+ * Factories are usually consulted through the platform's aggregate factory, which remembers which factory defines a
+ * class or key, including the fact that none does. A factory whose object definitions change after it has been
+ * registered (beans added to or removed from a child or plugin bean factory, a refreshed context) must announce it by
+ * calling {@code org.pentaho.platform.engine.core.system.objfac.AggregateObjectFactory.definitionsChanged()};
+ * otherwise lookups may keep answering from the previous definitions.
  * 
  * @author Aaron Phillips
  */
@@ -0,0 +1,43 @@
+/*!
+ * This program is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License, version 2.1 as published by the Free Software
+ * Foundation.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with this
+ * program; if not, you can obtain a copy at http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+ * or from the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * Copyright (c) 2002-2013 Pentaho Corporation..  All rights reserved.
+ */
+
+package org.pentaho.platform.api.engine;
+
+/**
+ * Optionally implemented by an {@link IPluginManager} that reports reloads of its plugins to
+ * {@link IPluginManagerListener}s. Callers should check for it with <code>instanceof</code>, and not keep anything
+ * derived from the registered plugins when the plugin manager does not implement it.
+ */
+public interface IPluginManagerListenerSupport {
+
+  /**
+   * Registers a listener to be notified whenever the plugins are reloaded or unloaded.
+   * 
+   * @param listener
+   *          the listener to notify
+   */
+  public void addPluginManagerListener( IPluginManagerListener listener );
+
+  /**
+   * Stops notifying a listener registered with {@link #addPluginManagerListener(IPluginManagerListener)}.
+   * 
+   * @param listener
+   *          the listener to remove
+   */
+  public void removePluginManagerListener( IPluginManagerListener listener );
+
+}
@@ -0,0 +1,60 @@
+/*!
+ * This program is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License, version 2.1 as published by the Free Software
+ * Foundation.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with this
+ * program; if not, you can obtain a copy at http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+ * or from the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * Copyright (c) 2002-2013 Pentaho Corporation..  All rights reserved.
+ */
+
+
+package org.pentaho.platform.api.engine;
+
+import java.util.List;
+
+import org.pentaho.platform.api.mt.ITenant;
+
+/**
+ * Optionally implemented by an {@link IUserRoleListService} that can look up users and roles by the start of their
+ * name without listing them all, for instance by passing the prefix on to the directory it searches. Callers should
+ * check for it with <code>instanceof</code> and otherwise filter the full lists.
+ */
+public interface IUserRoleListPrefixSupport {
+
+  /**
+   * Returns at most <code>limit</code> user names starting with <code>prefix</code>, ignoring case. Cannot return
+   * <code>null</code>
+   * 
+   * @param tenant
+   *          tenant information
+   * @param prefix
+   *          the start of the user names, or <code>null</code> for all users
+   * @param limit
+   *          maximum number of names returned, or a negative number for all matches
+   * @return the users (never <code>null</code>)
+   */
+  public List<String> getUsersStartingWith( ITenant tenant, String prefix, int limit );
+
+  /**
+   * Returns at most <code>limit</code> role names starting with <code>prefix</code>, ignoring case. Cannot return
+   * <code>null</code>
+   * 
+   * @param tenant
+   *          tenant information
+   * @param prefix
+   *          the start of the role names, or <code>null</code> for all roles
+   * @param limit
+   *          maximum number of names returned, or a negative number for all matches
+   * @return the authorities (never <code>null</code>)
+   */
+  public List<String> getRolesStartingWith( ITenant tenant, String prefix, int limit );
+
+}
@@ -17,6 +17,8 @@
 
 package org.pentaho.platform.api.repository2.unified;
 
+import java.util.List;
+
 import org.pentaho.platform.api.engine.IPentahoSession;
 
 /**
@@ -45,4 +47,28 @@ public interface IRepositoryAccessVoterManager {
    */
   public boolean hasAccess( final RepositoryFile file, final RepositoryFilePermission operation,
       final RepositoryFileAcl repositoryFileAcl, final IPentahoSession session );
+
+  /**
+   * Evaluate if any registered voter needs to be consulted for the given session. Callers evaluating many items at
+   * once (e.g. a repository tree walk) can use this to skip resolving ACLs that no voter would look at.
+   * 
+   * @param session
+   * @return {@code true} if {@link #hasAccess} may deny access for this session
+   */
+  public boolean isVotingRequired( final IPentahoSession session );
+
+  /**
+   * Evaluate access to a batch of repository items in one pass. The session level checks are performed once for the
+   * whole batch instead of once per item.
+   * 
+   * @param files
+   * @param operation
+   * @param repositoryFileAcls
+   *          acl of each file, index aligned with {@code files}
+   * @param session
+   * @return the files the caller has access to, in their original order
+   */
+  public List<RepositoryFile> filterAccessible( final List<RepositoryFile> files,
+      final RepositoryFilePermission operation, final List<RepositoryFileAcl> repositoryFileAcls,
+      final IPentahoSession session );
 }
@@ -615,6 +615,31 @@ public interface IUnifiedRepository {
    */
   Map<String, Serializable> getFileMetadata( final Serializable fileId );
 
+  /**
+   * Gets the metadata of every file id provided, reading them all in one go rather than one call per file.
+   * 
+   * @param fileIds
+   *          file ids
+   * @return metadata for every file id provided, in the same order; a file without metadata gets an empty map
+   */
+  List<Map<String, Serializable>> getFileMetadataInBatch( final List<Serializable> fileIds );
+
+  /**
+   * Gets the immediate children of the given folder, files and folders alike, whose metadata holds the given value
+   * under the given key. Unlike calling {@link #getFileMetadata(Serializable)} on each child, implementations are
+   * expected to answer this from an index where one is available.
+   * 
+   * @param folderId
+   *          folder id
+   * @param metadataKey
+   *          metadata key as used in {@link #setFileMetadata(Serializable, Map)}
+   * @param metadataValue
+   *          value the metadata item must be equal to
+   * @return list of matching children, sorted; never <code>null</code>
+   */
+  List<RepositoryFile> getChildrenByMetadata( final Serializable folderId, final String metadataKey,
+      final Serializable metadataValue );
+
   /**
    * Returns a list of characters which cannot be used in file/folder names. These characters must be escaped using
    * percent-encoding. Callers may safely cache this value. Note that it is the responsibility of the implementation to
@@ -0,0 +1,129 @@
+/*!
+ * This program is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License, version 2.1 as published by the Free Software
+ * Foundation.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with this
+ * program; if not, you can obtain a copy at http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+ * or from the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * Copyright (c) 2002-2013 Pentaho Corporation..  All rights reserved.
+ */
+
+package org.pentaho.platform.engine.core.system;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.pentaho.platform.api.cache.ICacheStatistics;
+
+/**
+ * A snapshot of the usage counts of a cache region. Cache managers count with a {@link Recorder} per region and hand
+ * out snapshots of it.
+ */
+public class CacheStatistics implements ICacheStatistics {
+
+  private final String region;
+
+  private final long hitCount;
+
+  private final long missCount;
+
+  private final long putCount;
+
+  private final long removeCount;
+
+  private final long elementCount;
+
+  public CacheStatistics( final String region, final long hitCount, final long missCount, final long putCount,
+      final long removeCount, final long elementCount ) {
+    this.region = region;
+    this.hitCount = hitCount;
+    this.missCount = missCount;
+    this.putCount = putCount;
+    this.removeCount = removeCount;
+    this.elementCount = elementCount;
+  }
+
+  public String getRegion() {
+    return region;
+  }
+
+  public long getHitCount() {
+    return hitCount;
+  }
+
+  public long getMissCount() {
+    return missCount;
+  }
+
+  public long getPutCount() {
+    return putCount;
+  }
+
+  public long getRemoveCount() {
+    return removeCount;
+  }
+
+  public long getElementCount() {
+    return elementCount;
+  }
+
+  public double getHitRatio() {
+    long lookups = hitCount + missCount;
+    return ( lookups == 0 ) ? 0 : (double) hitCount / lookups;
+  }
+
+  @Override
+  public String toString() {
+    return region + ": hits=" + hitCount + ", misses=" + missCount + ", puts=" + putCount + ", removes=" //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$
+        + removeCount + ", elements=" + elementCount; //$NON-NLS-1$
+  }
+
+  /**
+   * Counts the use of one region; safe to use from any number of threads.
+   */
+  public static class Recorder {
+
+    private final String region;
+
+    private final AtomicLong hits = new AtomicLong();
+
+    private final AtomicLong misses = new AtomicLong();
+
+    private final AtomicLong puts = new AtomicLong();
+
+    private final AtomicLong removes = new AtomicLong();
+
+    public Recorder( final String region ) {
+      this.region = region;
+    }
+
+    /**
+     * Counts a lookup as a hit if it found a value, and as a miss otherwise.
+     */
+    public void recordLookup( final Object value ) {
+      if ( value != null ) {
+        hits.incrementAndGet();
+      } else {
+        misses.incrementAndGet();
+      }
+    }
+
+    public void recordPut() {
+      puts.incrementAndGet();
+    }
+
+    public void recordRemove() {
+      removes.incrementAndGet();
+    }
+
+    public CacheStatistics snapshot( final long elementCount ) {
+      return new CacheStatistics( region, hits.get(), misses.get(), puts.get(), removes.get(), elementCount );
+    }
+  }
+}
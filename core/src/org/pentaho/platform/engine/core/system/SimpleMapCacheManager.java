@@ -26,9 +26,12 @@ import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.pentaho.platform.api.cache.ICacheStatistics;
 import org.pentaho.platform.api.engine.ICacheManager;
 import org.pentaho.platform.api.engine.IPentahoSession;
 
@@ -42,6 +45,8 @@ public class SimpleMapCacheManager implements ICacheManager {
 
   protected static final Log logger = LogFactory.getLog( SimpleMapCacheManager.class );
   private final Map simpleMap;
+  private final ConcurrentMap<String, CacheStatistics.Recorder> regionStatistics =
+      new ConcurrentHashMap<String, CacheStatistics.Recorder>();
   private static SimpleMapCacheManager _instance = new SimpleMapCacheManager();
 
   public static SimpleMapCacheManager getInstance() {
@@ -82,10 +87,13 @@ public class SimpleMapCacheManager implements ICacheManager {
 
   public void putInRegionCache( String region, Object key, Object value ) {
     simpleMap.put( getCorrectedKey( region, key ), value );
+    getStatisticsRecorder( region ).recordPut();
   }
 
   public Object getFromRegionCache( String region, Object key ) {
-    return simpleMap.get( getCorrectedKey( region, key ) );
+    Object value = simpleMap.get( getCorrectedKey( region, key ) );
+    getStatisticsRecorder( region ).recordLookup( value );
+    return value;
   }
 
   public Set getAllEntriesFromRegionCache( String region ) {
@@ -110,6 +118,7 @@ public class SimpleMapCacheManager implements ICacheManager {
 
   public void removeFromRegionCache( String region, Object key ) {
     simpleMap.remove( getCorrectedKey( region, key ) );
+    getStatisticsRecorder( region ).recordRemove();
   }
 
   public boolean cacheEnabled() {
@@ -220,4 +229,22 @@ public class SimpleMapCacheManager implements ICacheManager {
     return getElementCountInRegionCache( GLOBAL );
   }
 
+  @Override
+  public ICacheStatistics getRegionCacheStatistics( String region ) {
+    // every region exists in the single map
+    return getStatisticsRecorder( region ).snapshot( getElementCountInRegionCache( region ) );
+  }
+
+  private CacheStatistics.Recorder getStatisticsRecorder( String region ) {
+    CacheStatistics.Recorder recorder = regionStatistics.get( region );
+    if ( recorder == null ) {
+      recorder = new CacheStatistics.Recorder( region );
+      CacheStatistics.Recorder existing = regionStatistics.putIfAbsent( region, recorder );
+      if ( existing != null ) {
+        recorder = existing;
+      }
+    }
+    return recorder;
+  }
+
 }
@@ -403,6 +403,7 @@ public abstract class AbstractSpringPentahoObjectFactory implements IPentahoObje
 
   protected void setBeanFactory( ConfigurableApplicationContext context ) {
     beanFactory = context;
+    AggregateObjectFactory.definitionsChanged();
   }
 
   @Override
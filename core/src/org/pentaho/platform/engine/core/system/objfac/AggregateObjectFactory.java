@@ -22,11 +22,15 @@ import java.text.MessageFormat;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.pentaho.platform.api.engine.IPentahoObjectFactory;
 import org.pentaho.platform.api.engine.IPentahoObjectReference;
@@ -41,6 +45,12 @@ import org.slf4j.LoggerFactory;
  * collecting the results. Results are ordered by "priority" attribute if present, with the highest priority object
  * returned in the calls to retrieve a single object.
  * 
+ * Which factory answers a given lookup is remembered per (class or key, properties) so that hot lookups such as
+ * {@code PentahoSystem.get(IUnifiedRepository.class)} don't have to probe every factory. Only the choice of factory is
+ * cached; the object itself is always obtained from that factory with the caller's session, so session and request
+ * scoped objects resolve as before. The cache is dropped when a factory is registered or
+ * {@link #definitionsChanged()} reports that object definitions changed.
+ * 
  * {@inheritDoc}
  * 
  * User: nbaker Date: 1/15/13
@@ -50,15 +60,34 @@ public class AggregateObjectFactory implements IPentahoObjectFactory {
   protected IPentahoObjectFactory primaryFactory;
   private Logger logger = LoggerFactory.getLogger( AggregateObjectFactory.class );
 
+  /**
+   * Bumped whenever object definitions of any factory may have changed.
+   */
+  private static final AtomicLong definitionsVersion = new AtomicLong();
+
+  private final ConcurrentMap<ResolutionKey, Resolution> resolutionCache =
+      new ConcurrentHashMap<ResolutionKey, Resolution>();
+
+  private volatile long resolutionCacheVersion = -1;
+
   public AggregateObjectFactory() {
 
   }
 
+  /**
+   * Notifies all aggregate factories that the objects defined by one of their factories may have changed (e.g. beans
+   * were published or a Spring context was refreshed), invalidating cached resolutions.
+   */
+  public static void definitionsChanged() {
+    definitionsVersion.incrementAndGet();
+  }
+
   public void registerObjectFactory( IPentahoObjectFactory fact, boolean primary ) {
     factories.add( fact );
     if ( primary ) {
       primaryFactory = fact;
     }
+    definitionsChanged();
     logger.debug( "New IPentahoObjectFactory registered: " + fact.getName() );
   }
 
@@ -78,12 +107,11 @@ public class AggregateObjectFactory implements IPentahoObjectFactory {
   public <T> T get( Class<T> interfaceClass, String key, IPentahoSession session ) throws ObjectFactoryException {
     // if they want it by id, check for that first
     if ( key != null ) {
-      for ( IPentahoObjectFactory fact : factories ) {
-        if ( fact.objectDefined( key ) ) {
-          T object = fact.get( interfaceClass, key, session );
-          logger.debug( MessageFormat.format( "Found object for key: {0} in factory: {1}", key, fact.getName() ) );
-          return object;
-        }
+      IPentahoObjectFactory fact = getFactoryDefiningKey( key );
+      if ( fact != null ) {
+        T object = fact.get( interfaceClass, key, session );
+        logger.debug( MessageFormat.format( "Found object for key: {0} in factory: {1}", key, fact.getName() ) );
+        return object;
       }
     }
 
@@ -124,13 +152,72 @@ public class AggregateObjectFactory implements IPentahoObjectFactory {
 
   @Override
   public boolean objectDefined( String key ) {
+    IPentahoObjectFactory fact = getFactoryDefiningKey( key );
+    if ( fact != null ) {
+      logger.debug( MessageFormat.format( "Object defined for key: {0} in factory: {1}", key, fact.getName() ) );
+      return true;
+    }
+    return false;
+  }
+
+  /**
+   * @return the first factory defining an object under the given key, or {@code null}
+   */
+  private IPentahoObjectFactory getFactoryDefiningKey( String key ) {
+    ResolutionKey cacheKey = new ResolutionKey( ResolutionKey.Kind.KEY, key, null );
+    long version = checkResolutionCacheVersion();
+    Resolution cached = resolutionCache.get( cacheKey );
+    if ( cached != null && cached.version == version ) {
+      IPentahoObjectFactory fact = (IPentahoObjectFactory) cached.value;
+      if ( fact == null || fact.objectDefined( key ) ) {
+        return fact;
+      }
+    }
+    IPentahoObjectFactory found = null;
     for ( IPentahoObjectFactory fact : factories ) {
       if ( fact.objectDefined( key ) ) {
-        logger.debug( MessageFormat.format( "Object defined for key: {0} in factory: {1}", key, fact.getName() ) );
-        return true;
+        found = fact;
+        break;
       }
     }
-    return false;
+    resolutionCache.put( cacheKey, new Resolution( version, found ) );
+    return found;
+  }
+
+  /**
+   * @return the factories defining objects of the given class, in iteration order
+   */
+  @SuppressWarnings( "unchecked" )
+  private List<IPentahoObjectFactory> getFactoriesDefiningClass( Class<?> clazz ) {
+    ResolutionKey cacheKey = new ResolutionKey( ResolutionKey.Kind.CLASS, clazz, null );
+    long version = checkResolutionCacheVersion();
+    Resolution cached = resolutionCache.get( cacheKey );
+    if ( cached != null && cached.version == version ) {
+      return (List<IPentahoObjectFactory>) cached.value;
+    }
+    List<IPentahoObjectFactory> found = new ArrayList<IPentahoObjectFactory>();
+    for ( IPentahoObjectFactory fact : factories ) {
+      if ( fact.objectDefined( clazz ) ) {
+        found.add( fact );
+      }
+    }
+    found = Collections.unmodifiableList( found );
+    resolutionCache.put( cacheKey, new Resolution( version, found ) );
+    return found;
+  }
+
+  /**
+   * Drops all cached resolutions if definitions changed since they were computed.
+   * 
+   * @return the definitions version new resolutions must be recorded with
+   */
+  private long checkResolutionCacheVersion() {
+    long version = definitionsVersion.get();
+    if ( version != resolutionCacheVersion ) {
+      resolutionCache.clear();
+      resolutionCacheVersion = version;
+    }
+    return version;
   }
 
   /**
@@ -166,12 +253,10 @@ public class AggregateObjectFactory implements IPentahoObjectFactory {
 
     List<IPentahoObjectReference<T>> referenceList = new ArrayList<IPentahoObjectReference<T>>();
 
-    for ( IPentahoObjectFactory fact : factories ) {
-      if ( fact.objectDefined( interfaceClass ) ) {
-        List<IPentahoObjectReference<T>> refs = fact.getObjectReferences( interfaceClass, curSession, properties );
-        if ( refs != null ) {
-          referenceList.addAll( refs );
-        }
+    for ( IPentahoObjectFactory fact : getFactoriesDefiningClass( interfaceClass ) ) {
+      List<IPentahoObjectReference<T>> refs = fact.getObjectReferences( interfaceClass, curSession, properties );
+      if ( refs != null ) {
+        referenceList.addAll( refs );
       }
     }
 
@@ -189,29 +274,7 @@ public class AggregateObjectFactory implements IPentahoObjectFactory {
   @Override
   public <T> IPentahoObjectReference<T> getObjectReference( Class<T> clazz, IPentahoSession curSession )
     throws ObjectFactoryException {
-
-    Set<IPentahoObjectReference<T>> references = new HashSet<IPentahoObjectReference<T>>();
-
-    for ( IPentahoObjectFactory fact : factories ) {
-      if ( fact.objectDefined( clazz ) ) {
-        IPentahoObjectReference<T> found = fact.getObjectReference( clazz, curSession );
-        if ( found != null ) {
-          references.add( found );
-        }
-
-      }
-    }
-    IPentahoObjectReference<T> highestRef = null;
-    int highestRefPriority = -1;
-    for ( IPentahoObjectReference<T> ref : references ) {
-      int pri = computePriority( ref );
-      if ( pri > highestRefPriority ) {
-        highestRef = ref;
-        highestRefPriority = pri;
-      }
-    }
-
-    return highestRef;
+    return getObjectReference( clazz, curSession, null );
   }
 
   @Override
@@ -224,11 +287,9 @@ public class AggregateObjectFactory implements IPentahoObjectFactory {
       return highestRef.getObject();
     }
 
-    for ( IPentahoObjectFactory fact : factories ) {
-      if ( fact.objectDefined( clazz.getSimpleName() ) ) {
-        T object = fact.get( clazz, clazz.getSimpleName(), session );
-        return object;
-      }
+    IPentahoObjectFactory fact = getFactoryDefiningKey( clazz.getSimpleName() );
+    if ( fact != null ) {
+      return fact.get( clazz, clazz.getSimpleName(), session );
     }
     String msg =
         Messages.getInstance().getString( "AbstractSpringPentahoObjectFactory.WARN_FAILED_TO_RETRIEVE_OBJECT",
@@ -239,13 +300,11 @@ public class AggregateObjectFactory implements IPentahoObjectFactory {
 
   @Override
   public boolean objectDefined( Class<?> clazz ) {
-    for ( IPentahoObjectFactory fact : factories ) {
-      if ( fact.objectDefined( clazz ) ) {
-
-        logger.debug( MessageFormat.format( "Found object for class: {0} in factory: {1}", clazz.getName(), fact
-            .getName() ) );
-        return true;
-      }
+    List<IPentahoObjectFactory> defining = getFactoriesDefiningClass( clazz );
+    if ( !defining.isEmpty() ) {
+      logger.debug( MessageFormat.format( "Found object for class: {0} in factory: {1}", clazz.getName(), defining
+          .get( 0 ).getName() ) );
+      return true;
     }
     return false;
   }
@@ -254,16 +313,30 @@ public class AggregateObjectFactory implements IPentahoObjectFactory {
   public <T> IPentahoObjectReference<T> getObjectReference( Class<T> interfaceClass, IPentahoSession curSession,
       Map<String, String> properties ) throws ObjectFactoryException {
 
-    Set<IPentahoObjectReference<T>> references = new HashSet<IPentahoObjectReference<T>>();
-
-    for ( IPentahoObjectFactory fact : factories ) {
+    ResolutionKey cacheKey = new ResolutionKey( ResolutionKey.Kind.REFERENCE, interfaceClass, properties );
+    long version = checkResolutionCacheVersion();
+    Resolution cached = resolutionCache.get( cacheKey );
+    if ( cached != null && cached.version == version ) {
+      IPentahoObjectFactory fact = (IPentahoObjectFactory) cached.value;
       if ( fact.objectDefined( interfaceClass ) ) {
         IPentahoObjectReference<T> found = fact.getObjectReference( interfaceClass, curSession, properties );
         if ( found != null ) {
-          references.add( found );
+          return found;
         }
       }
     }
+
+    Set<IPentahoObjectReference<T>> references = new HashSet<IPentahoObjectReference<T>>();
+    Map<IPentahoObjectReference<T>, IPentahoObjectFactory> owners =
+        new HashMap<IPentahoObjectReference<T>, IPentahoObjectFactory>();
+
+    for ( IPentahoObjectFactory fact : getFactoriesDefiningClass( interfaceClass ) ) {
+      IPentahoObjectReference<T> found = fact.getObjectReference( interfaceClass, curSession, properties );
+      if ( found != null ) {
+        references.add( found );
+        owners.put( found, fact );
+      }
+    }
     IPentahoObjectReference<T> highestRef = null;
     int highestRefPriority = -1;
     for ( IPentahoObjectReference<T> ref : references ) {
@@ -274,11 +347,75 @@ public class AggregateObjectFactory implements IPentahoObjectFactory {
       }
     }
 
+    if ( highestRef != null ) {
+      resolutionCache.put( cacheKey, new Resolution( version, owners.get( highestRef ) ) );
+    }
     return highestRef;
   }
 
   public void clear() {
     this.factories.clear();
+    definitionsChanged();
+  }
+
+  /**
+   * Identifies a cached resolution: what was looked up (class or key) and the property filter used.
+   */
+  private static final class ResolutionKey {
+
+    enum Kind {
+      KEY, CLASS, REFERENCE
+    }
+
+    private final Kind kind;
+
+    private final Object target;
+
+    private final Map<String, String> properties;
+
+    ResolutionKey( final Kind kind, final Object target, final Map<String, String> properties ) {
+      this.kind = kind;
+      this.target = target;
+      // copy so later changes to the caller's map don't corrupt the key
+      this.properties =
+          properties == null || properties.isEmpty() ? null : new HashMap<String, String>( properties );
+    }
+
+    @Override
+    public int hashCode() {
+      int result = kind.hashCode();
+      result = 31 * result + target.hashCode();
+      result = 31 * result + ( properties != null ? properties.hashCode() : 0 );
+      return result;
+    }
+
+    @Override
+    public boolean equals( Object o ) {
+      if ( this == o ) {
+        return true;
+      }
+      if ( o == null || getClass() != o.getClass() ) {
+        return false;
+      }
+      ResolutionKey that = (ResolutionKey) o;
+      return kind == that.kind && target.equals( that.target )
+          && ( properties != null ? properties.equals( that.properties ) : that.properties == null );
+    }
+  }
+
+  /**
+   * A cached resolution along with the definitions version it was computed against.
+   */
+  private static final class Resolution {
+
+    private final long version;
+
+    private final Object value;
+
+    Resolution( final long version, final Object value ) {
+      this.version = version;
+      this.value = value;
+    }
   }
 
   private static ReferencePriorityComparitor referencePriorityComparitor = new ReferencePriorityComparitor();
@@ -73,7 +73,7 @@ public class StandaloneSpringPentahoObjectFactory extends AbstractSpringPentahoO
       XmlBeanDefinitionReader xmlReader = new XmlBeanDefinitionReader( appCtx );
       xmlReader.loadBeanDefinitions( fsr );
 
-      beanFactory = appCtx;
+      setBeanFactory( appCtx );
     } else {
       if ( !( context instanceof ConfigurableApplicationContext ) ) {
         String msg =
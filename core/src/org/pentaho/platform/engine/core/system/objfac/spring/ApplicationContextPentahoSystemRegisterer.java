@@ -19,8 +19,10 @@
 package org.pentaho.platform.engine.core.system.objfac.spring;
 
 import org.pentaho.platform.engine.core.system.PentahoSystem;
+import org.pentaho.platform.engine.core.system.objfac.AggregateObjectFactory;
 import org.pentaho.platform.engine.core.system.objfac.StandaloneSpringPentahoObjectFactory;
 import org.springframework.beans.BeansException;
+import org.springframework.beans.factory.DisposableBean;
 import org.springframework.beans.factory.config.BeanFactoryPostProcessor;
 import org.springframework.beans.factory.config.ConfigurableListableBeanFactory;
 import org.springframework.context.ApplicationContext;
@@ -30,12 +32,13 @@ import org.springframework.core.PriorityOrdered;
 
 /**
  * When added as a bean to a Spring context this class will register the ApplicationContext as a
- * StandalongSpringPentahoObjectFactory with the PentahoSystem
+ * StandalongSpringPentahoObjectFactory with the PentahoSystem. Registering the context, which happens again on every
+ * refresh, and closing it invalidate the resolutions cached by the {@link AggregateObjectFactory}.
  * 
  * User: nbaker Date: 3/31/13
  */
 public class ApplicationContextPentahoSystemRegisterer implements ApplicationContextAware, BeanFactoryPostProcessor,
-    PriorityOrdered {
+    PriorityOrdered, DisposableBean {
 
   @Override
   public void setApplicationContext( ApplicationContext applicationContext ) throws BeansException {
@@ -51,6 +54,14 @@ public class ApplicationContextPentahoSystemRegisterer implements ApplicationCon
 
   }
 
+  /**
+   * Called as the context closes, after which its beans must no longer be handed out from the cached resolutions.
+   */
+  @Override
+  public void destroy() {
+    AggregateObjectFactory.definitionsChanged();
+  }
+
   @Override
   public int getOrder() {
     return Ordered.HIGHEST_PRECEDENCE;
@@ -24,6 +24,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.WeakHashMap;
 
+import org.pentaho.platform.engine.core.system.objfac.AggregateObjectFactory;
 import org.springframework.beans.factory.ListableBeanFactory;
 import org.springframework.context.ApplicationContext;
 
@@ -70,6 +71,7 @@ public class PublishedBeanRegistry {
       registryMap.put( clazz, beansImplementingType );
     }
     beansImplementingType.add( beanName );
+    AggregateObjectFactory.definitionsChanged();
   }
 
   /**
@@ -112,5 +114,6 @@ public class PublishedBeanRegistry {
 
   public static void registerFactory( ApplicationContext applicationContext ) {
     factoryMarkerCache.put( applicationContext, applicationContext.getBean( Const.FACTORY_MARKER ) );
+    AggregateObjectFactory.definitionsChanged();
   }
 }
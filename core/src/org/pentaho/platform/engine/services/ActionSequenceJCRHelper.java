@@ -19,13 +19,18 @@
 package org.pentaho.platform.engine.services;
 
 import java.io.IOException;
+import java.io.Serializable;
 import java.io.StringWriter;
 import java.util.ArrayList;
+import java.util.Date;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Locale;
 import java.util.Properties;
 import java.util.StringTokenizer;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.commons.io.FilenameUtils;
 import org.apache.commons.io.IOUtils;
@@ -55,6 +60,29 @@ public class ActionSequenceJCRHelper {
   protected static final String PROPERTIES_SUFFIX = ".properties"; //$NON-NLS-1$
   protected static final Log logger = LogFactory.getLog( ActionSequenceJCRHelper.class );
 
+  /**
+   * System property holding the maximum number of parsed documents kept in the document cache. A value of zero or
+   * less disables the cache.
+   */
+  public static final String DOCUMENT_CACHE_SIZE_PROPERTY =
+      "org.pentaho.platform.engine.services.ActionSequenceJCRHelper.cachesize"; //$NON-NLS-1$
+
+  private static final int DEFAULT_DOCUMENT_CACHE_SIZE = 500;
+
+  /**
+   * Parsed and localized documents keyed by file id and locale. Each entry remembers the version of the file it was
+   * built from so that a changed file replaces its stale entry rather than accumulating a new one.
+   */
+  private static final ConcurrentMap<DocumentKey, CachedDocument> documentCache =
+      new ConcurrentHashMap<DocumentKey, CachedDocument>();
+
+  private static final AtomicLong documentCacheHits = new AtomicLong();
+
+  private static final AtomicLong documentCacheMisses = new AtomicLong();
+
+  private static final int maxCachedDocuments = Integer.getInteger( DOCUMENT_CACHE_SIZE_PROPERTY,
+      DEFAULT_DOCUMENT_CACHE_SIZE );
+
   private IPentahoSession pentahoSession;
   private IUnifiedRepository repository;
 
@@ -63,10 +91,14 @@ public class ActionSequenceJCRHelper {
   }
 
   public ActionSequenceJCRHelper( IPentahoSession pentahoSession ) {
+    this( pentahoSession, PentahoSystem.get( IUnifiedRepository.class, pentahoSession ) );
+  }
+
+  public ActionSequenceJCRHelper( IPentahoSession pentahoSession, IUnifiedRepository repository ) {
     super();
     assert pentahoSession != null;
     this.pentahoSession = pentahoSession;
-    repository = PentahoSystem.get( IUnifiedRepository.class, pentahoSession );
+    this.repository = repository;
     if ( repository == null ) {
       final String errorMessage =
           Messages.getInstance().getErrorString( "ActionSequenceJCRHelper.ERROR_0001_INVALID_REPOSITORY" ); //$NON-NLS-1$
@@ -102,10 +134,83 @@ public class ActionSequenceJCRHelper {
     return actionSequence;
   }
 
+  /**
+   * Returns the parsed and localized document stored at <code>documentPath</code>. Parsed documents are cached per
+   * file version and locale; every caller receives its own copy, so callers are free to modify the result.
+   */
   public Document getSolutionDocument( final String documentPath, final RepositoryFilePermission actionOperation ) {
 
     RepositoryFile file = repository.getFile( documentPath );
+    if ( file == null ) {
+      return null;
+    }
+
+    String version = getVersionStamp( file );
+    if ( version == null || maxCachedDocuments <= 0 ) {
+      return loadSolutionDocument( documentPath, file );
+    }
+
+    DocumentKey key = new DocumentKey( file.getId(), getLocale() );
+    CachedDocument cached = documentCache.get( key );
+    if ( cached != null && cached.version.equals( version ) ) {
+      documentCacheHits.incrementAndGet();
+      return (Document) cached.document.clone();
+    }
+    documentCacheMisses.incrementAndGet();
+
+    Document document = loadSolutionDocument( documentPath, file );
+    if ( document == null ) {
+      documentCache.remove( key );
+      return null;
+    }
+    if ( documentCache.size() >= maxCachedDocuments && !documentCache.containsKey( key ) ) {
+      evictOne();
+    }
+    documentCache.put( key, new CachedDocument( version, (Document) document.clone() ) );
+    return document;
+  }
+
+  /**
+   * Removes every parsed document from the cache, e.g. after locale bundles of action sequences have been changed.
+   */
+  public static void clearDocumentCache() {
+    documentCache.clear();
+  }
+
+  public static long getDocumentCacheHits() {
+    return documentCacheHits.get();
+  }
 
+  public static long getDocumentCacheMisses() {
+    return documentCacheMisses.get();
+  }
+
+  public static int getDocumentCacheSize() {
+    return documentCache.size();
+  }
+
+  private static void evictOne() {
+    Iterator<DocumentKey> keys = documentCache.keySet().iterator();
+    if ( keys.hasNext() ) {
+      keys.next();
+      keys.remove();
+    }
+  }
+
+  /**
+   * Identifies the revision of <code>file</code> a cached document was built from, or <code>null</code> when the
+   * repository reports neither a version nor a modification date and the file cannot be cached safely.
+   */
+  private static String getVersionStamp( final RepositoryFile file ) {
+    Serializable versionId = file.getVersionId();
+    Date lastModified = file.getLastModifiedDate();
+    if ( file.getId() == null || ( versionId == null && lastModified == null ) ) {
+      return null;
+    }
+    return String.valueOf( versionId ) + ':' + ( lastModified != null ? lastModified.getTime() : 0L );
+  }
+
+  private Document loadSolutionDocument( final String documentPath, final RepositoryFile file ) {
     Document document = null;
     SimpleRepositoryFileData data = null;
     if(file != null) {
@@ -316,4 +421,45 @@ public class ActionSequenceJCRHelper {
     return matchedFiles.toArray( new RepositoryFile[] {} );
   }
 
+  private static final class DocumentKey {
+
+    private final Serializable fileId;
+
+    private final Locale locale;
+
+    DocumentKey( final Serializable fileId, final Locale locale ) {
+      this.fileId = fileId;
+      this.locale = locale;
+    }
+
+    @Override
+    public boolean equals( final Object obj ) {
+      if ( this == obj ) {
+        return true;
+      }
+      if ( !( obj instanceof DocumentKey ) ) {
+        return false;
+      }
+      DocumentKey other = (DocumentKey) obj;
+      return fileId.equals( other.fileId ) && ( locale == null ? other.locale == null : locale.equals( other.locale ) );
+    }
+
+    @Override
+    public int hashCode() {
+      return 31 * fileId.hashCode() + ( locale == null ? 0 : locale.hashCode() );
+    }
+  }
+
+  private static final class CachedDocument {
+
+    private final String version;
+
+    private final Document document;
+
+    CachedDocument( final String version, final Document document ) {
+      this.version = version;
+      this.document = document;
+    }
+  }
+
 }
@@ -30,14 +30,17 @@ import javax.xml.transform.stream.StreamSource;
 
 import org.pentaho.platform.api.engine.IActionSequenceResource;
 import org.pentaho.platform.api.engine.IDocumentResourceLoader;
+import org.pentaho.platform.api.engine.IDocumentResourceVersionSupport;
+import org.pentaho.platform.api.engine.IPentahoSession;
 import org.pentaho.platform.api.repository2.unified.RepositoryFilePermission;
+import org.pentaho.platform.engine.core.system.PentahoSessionHolder;
 import org.pentaho.platform.engine.core.system.PentahoSystem;
 import org.pentaho.platform.engine.services.actionsequence.ActionSequenceResource;
 import org.pentaho.platform.util.logging.Logger;
 import org.pentaho.platform.util.messages.LocaleHelper;
 import org.xml.sax.InputSource;
 
-public class SolutionURIResolver implements URIResolver, IDocumentResourceLoader {
+public class SolutionURIResolver implements URIResolver, IDocumentResourceLoader, IDocumentResourceVersionSupport {
 
   public InputSource resolveEntity( final String publicId, final String systemId ) {
     InputStream xslIS = null;
@@ -103,4 +106,14 @@ public class SolutionURIResolver implements URIResolver, IDocumentResourceLoader
     return xslIS;
   }
 
+  public long getLastModified( final String name ) {
+    return ActionSequenceResource.getLastModifiedDate( name, LocaleHelper.getLocale() );
+  }
+
+  public String getScope() {
+    // repository files are read with the permissions of the session's user
+    IPentahoSession session = PentahoSessionHolder.getSession();
+    return session == null ? null : session.getName();
+  }
+
 }
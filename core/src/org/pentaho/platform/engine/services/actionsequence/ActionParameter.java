@@ -100,6 +100,19 @@ public class ActionParameter implements IActionParameter {
     }
   }
 
+  /**
+   * Creates a copy of this parameter that shares its value but can be given a new value without affecting this one.
+   */
+  public ActionParameter copy() {
+    ActionParameter copy = new ActionParameter( name, type, value, variables, null );
+    copy.defaultValue = defaultValue;
+    copy.paramSelections = paramSelections;
+    copy.promptType = promptType;
+    copy.saveLocations = ( saveLocations == null ) ? null : new ArrayList( saveLocations );
+    copy.isOutputParameter = isOutputParameter;
+    return copy;
+  }
+
   public List getSaveLocations() {
     return ( saveLocations == null ) ? new ArrayList() : saveLocations;
   }
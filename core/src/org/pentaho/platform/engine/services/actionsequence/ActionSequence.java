@@ -21,6 +21,7 @@ package org.pentaho.platform.engine.services.actionsequence;
 import java.util.List;
 import java.util.Map;
 
+import org.dom4j.Node;
 import org.pentaho.platform.api.engine.IActionSequence;
 import org.pentaho.platform.api.engine.IConditionalExecution;
 import org.pentaho.platform.api.engine.ISequenceDefinition;
@@ -36,6 +37,16 @@ public class ActionSequence implements IActionSequence {
 
   private boolean loopUsingPeek;
 
+  private boolean loopInParallel;
+
+  private int loopMaxThreads;
+
+  private boolean loopPreservesOrder = true;
+
+  private boolean loopContinuesOnError;
+
+  private Node actionsNode;
+
   protected ActionSequence( final String loopParameter, final ISequenceDefinition sequenceDefinition,
       final List actionDefinitions, boolean loopUsingPeek ) {
     this.loopParameter = loopParameter;
@@ -128,4 +139,62 @@ public class ActionSequence implements IActionSequence {
     return loopUsingPeek;
   }
 
+  /**
+   * Returns whether the iterations of the loop may run concurrently. Each concurrent iteration executes against its
+   * own copy of the actions and of the parameters visible to them. Only sequences built by {@link SequenceDefinition}
+   * can run in parallel, which is why this is not part of {@link IActionSequence}.
+   * 
+   * @return true if the loop was declared with <code>parallel="true"</code>, otherwise false
+   */
+  public boolean getLoopInParallel() {
+    return loopInParallel;
+  }
+
+  /**
+   * @return the maximum number of loop iterations that may run at the same time, or a value less than one if the
+   *         system default applies
+   */
+  public int getLoopMaxThreads() {
+    return loopMaxThreads;
+  }
+
+  /**
+   * @return true if the results of parallel loop iterations are applied in loop order, false if they are applied as
+   *         iterations complete
+   */
+  public boolean getLoopPreservesOrder() {
+    return loopPreservesOrder;
+  }
+
+  /**
+   * @return true if a failing parallel loop iteration lets the remaining iterations run, false if the first failure
+   *         cancels the iterations that have not started yet
+   */
+  public boolean getLoopContinuesOnError() {
+    return loopContinuesOnError;
+  }
+
+  void setParallelLoop( final boolean inParallel, final int maxThreads, final boolean preservesOrder,
+      final boolean continuesOnError ) {
+    this.loopInParallel = inParallel;
+    this.loopMaxThreads = maxThreads;
+    this.loopPreservesOrder = preservesOrder;
+    this.loopContinuesOnError = continuesOnError;
+  }
+
+  ISequenceDefinition getSequenceDefinition() {
+    return sequenceDefinition;
+  }
+
+  /**
+   * @return the <code>actions</code> node this sequence was built from, used to build independent copies of it
+   */
+  Node getActionsNode() {
+    return actionsNode;
+  }
+
+  void setActionsNode( final Node actionsNode ) {
+    this.actionsNode = actionsNode;
+  }
+
 }
@@ -99,11 +99,40 @@ public class SequenceDefinition implements ISequenceDefinition {
     return ( SequenceDefinition.getNextLoopGroup( seqDef, actionNode, solutionPath, logger, loggingLevel ) );
   }
 
+  /**
+   * Builds an independent copy of <code>sequence</code> from the definition it was parsed from. The copy has its own
+   * action definitions, so components resolved for it are not shared with the original. Used to give every iteration
+   * of a parallel loop its own set of components.
+   * 
+   * @return the copy, or <code>null</code> if the sequence was not built by this class
+   */
+  public static IActionSequence copyLoopGroup( final IActionSequence sequence, final ILogger logger,
+      final int loggingLevel ) {
+    if ( !( sequence instanceof ActionSequence ) || ( ( (ActionSequence) sequence ).getActionsNode() == null ) ) {
+      return null;
+    }
+    ActionSequence original = (ActionSequence) sequence;
+    return SequenceDefinition.getNextLoopGroup( original.getSequenceDefinition(), original.getActionsNode(), original
+        .getSolutionPath(), logger, loggingLevel );
+  }
+
   private static IActionSequence getNextLoopGroup( final ISequenceDefinition seqDef, final Node actionsNode,
       final String solutionPath, final ILogger logger, final int loggingLevel ) {
 
     String loopParameterName = XmlDom4JHelper.getNodeText( "@loop-on", actionsNode ); //$NON-NLS-1$
     boolean loopUsingPeek = "true".equalsIgnoreCase( XmlDom4JHelper.getNodeText( "@peek-only", actionsNode ) ); //$NON-NLS-1$ //$NON-NLS-2$
+    boolean loopInParallel = "true".equalsIgnoreCase( XmlDom4JHelper.getNodeText( "@parallel", actionsNode ) ); //$NON-NLS-1$ //$NON-NLS-2$
+    boolean loopPreservesOrder = !"false".equalsIgnoreCase( XmlDom4JHelper.getNodeText( "@preserve-order", actionsNode ) ); //$NON-NLS-1$ //$NON-NLS-2$
+    boolean loopContinuesOnError = "continue".equalsIgnoreCase( XmlDom4JHelper.getNodeText( "@on-error", actionsNode ) ); //$NON-NLS-1$ //$NON-NLS-2$
+    int loopMaxThreads = 0;
+    String maxThreads = XmlDom4JHelper.getNodeText( "@max-threads", actionsNode ); //$NON-NLS-1$
+    if ( maxThreads != null ) {
+      try {
+        loopMaxThreads = Integer.parseInt( maxThreads.trim() );
+      } catch ( NumberFormatException e ) {
+        logger.warn( Messages.getInstance().getString( "SequenceDefinition.WARN_INVALID_MAX_THREADS", maxThreads ) ); //$NON-NLS-1$
+      }
+    }
 
     Node actionDefinitionNode;
     ActionDefinition actionDefinition;
@@ -129,6 +158,8 @@ public class SequenceDefinition implements ISequenceDefinition {
         SequenceDefinition.parseConditionalExecution( actionsNode, logger, "condition" ); //$NON-NLS-1$
 
     ActionSequence sequence = new ActionSequence( loopParameterName, seqDef, actionDefinitionList, loopUsingPeek );
+    sequence.setParallelLoop( loopInParallel, loopMaxThreads, loopPreservesOrder, loopContinuesOnError );
+    sequence.setActionsNode( actionsNode );
 
     sequence.setConditionalExecution( conditionalExecution );
     return sequence;
@@ -0,0 +1,377 @@
+/*
+ * This program is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License, version 2 as published by the Free Software
+ * Foundation.
+ *
+ * You should have received a copy of the GNU General Public License along with this
+ * program; if not, you can obtain a copy at http://www.gnu.org/licenses/gpl-2.0.html
+ * or from the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ *
+ * Copyright 2006 - 2013 Pentaho Corporation.  All rights reserved.
+ */
+
+package org.pentaho.platform.engine.services.audit;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.pentaho.platform.engine.core.messages.Messages;
+import org.pentaho.platform.engine.core.system.PentahoSystem;
+import org.pentaho.platform.util.logging.Logger;
+
+/**
+ * Takes audit records off the request path: records are put on a bounded queue and written in batches by a single
+ * background thread.
+ * <p>
+ * A batch is written once it holds <code>batchSize</code> records or once the oldest record in it has waited
+ * <code>flushInterval</code> milliseconds. When the queue is full, callers either wait for room (the default) or,
+ * when the writer is created with <code>dropWhenFull</code>, the record is dropped and counted.
+ * <p>
+ * Records still queued when the platform shuts down are written by {@link #shutdownAll()}, which
+ * {@link AsyncAuditSystemListener} calls from {@link org.pentaho.platform.engine.core.system.PentahoSystem#shutdown()}
+ * as it is listed in the default systemListeners.xml. No JVM shutdown hook is registered, so undeploying the webapp
+ * does not leave a hook, and with it the webapp class loader, behind.
+ * <p>
+ * The settings below are read from pentaho.xml by {@link #create(String, IAuditSink)}:
+ * <ul>
+ * <li><code>audit/async/enabled</code> - <code>false</code> to write every record on the calling thread</li>
+ * <li><code>audit/async/queueSize</code> - maximum number of queued records, defaults to 10000</li>
+ * <li><code>audit/async/batchSize</code> - maximum number of records per batch, defaults to 100</li>
+ * <li><code>audit/async/flushInterval</code> - milliseconds a record may wait for its batch, defaults to 1000</li>
+ * <li><code>audit/async/whenFull</code> - <code>block</code> (default) or <code>drop</code></li>
+ * </ul>
+ */
+public class AsyncAuditWriter {
+
+  /**
+   * Destination of the batches written by an {@link AsyncAuditWriter}.
+   */
+  public interface IAuditSink {
+
+    /**
+     * Writes <code>records</code>, in the order given. Called from a single thread at a time.
+     */
+    void write( List<Record> records ) throws Exception;
+  }
+
+  /**
+   * The values of one {@link org.pentaho.platform.api.engine.IAuditEntry#auditAll} call, stamped with the time the
+   * call was made.
+   */
+  public static class Record {
+
+    final String jobId;
+
+    final String instId;
+
+    final String objId;
+
+    final String objType;
+
+    final String actor;
+
+    final String messageType;
+
+    final String messageName;
+
+    final String messageTxtValue;
+
+    final BigDecimal messageNumValue;
+
+    final double duration;
+
+    final long timestamp;
+
+    public Record( final String jobId, final String instId, final String objId, final String objType,
+        final String actor, final String messageType, final String messageName, final String messageTxtValue,
+        final BigDecimal messageNumValue, final double duration ) {
+      this.jobId = jobId;
+      this.instId = instId;
+      this.objId = objId;
+      this.objType = objType;
+      this.actor = actor;
+      this.messageType = messageType;
+      this.messageName = messageName;
+      this.messageTxtValue = messageTxtValue;
+      this.messageNumValue = messageNumValue;
+      this.duration = duration;
+      this.timestamp = System.currentTimeMillis();
+    }
+  }
+
+  private static final int DEFAULT_QUEUE_SIZE = 10000;
+
+  private static final int DEFAULT_BATCH_SIZE = 100;
+
+  private static final long DEFAULT_FLUSH_INTERVAL = 1000L;
+
+  private static final long SHUTDOWN_TIMEOUT = 30000L;
+
+  /**
+   * Put on the queue by {@link #shutdown()} to wake up the writer thread; never written.
+   */
+  private static final Record STOP = new Record( null, null, null, null, null, null, null, null, null, 0 );
+
+  private static final Set<AsyncAuditWriter> WRITERS = new CopyOnWriteArraySet<AsyncAuditWriter>();
+
+  private final String name;
+
+  private final IAuditSink sink;
+
+  private final BlockingQueue<Record> queue;
+
+  private final int batchSize;
+
+  private final long flushInterval;
+
+  private final boolean dropWhenFull;
+
+  private final AtomicLong queued = new AtomicLong();
+
+  private final AtomicLong dropped = new AtomicLong();
+
+  private final Object writtenLock = new Object();
+
+  private long written;
+
+  private volatile boolean running = true;
+
+  /**
+   * Held for reading while a record is queued and for writing while the writer stops accepting records, so no record
+   * can be queued after the writer thread has seen the last one.
+   */
+  private final ReadWriteLock runningLock = new ReentrantReadWriteLock();
+
+  private final Thread writerThread;
+
+  public AsyncAuditWriter( final String name, final IAuditSink sink, final int queueSize, final int batchSize,
+      final long flushInterval, final boolean dropWhenFull ) {
+    this.name = name;
+    this.sink = sink;
+    this.queue = new ArrayBlockingQueue<Record>( Math.max( 1, queueSize ) );
+    this.batchSize = Math.max( 1, batchSize );
+    this.flushInterval = Math.max( 1L, flushInterval );
+    this.dropWhenFull = dropWhenFull;
+
+    writerThread = new Thread( new Runnable() {
+      public void run() {
+        writeLoop();
+      }
+    }, name );
+    writerThread.setDaemon( true );
+    writerThread.start();
+    WRITERS.add( this );
+  }
+
+  /**
+   * Shuts down every writer that is still running, writing the records they still hold. Called when the platform shuts
+   * down.
+   */
+  public static void shutdownAll() {
+    for ( AsyncAuditWriter writer : WRITERS ) {
+      writer.shutdown();
+    }
+  }
+
+  /**
+   * Creates a writer configured from the <code>audit/async</code> settings of pentaho.xml, or returns
+   * <code>null</code> if asynchronous auditing has been switched off.
+   */
+  public static AsyncAuditWriter create( final String name, final IAuditSink sink ) {
+    if ( "false".equalsIgnoreCase( PentahoSystem.getSystemSetting( "audit/async/enabled", "true" ) ) ) { //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+      return null;
+    }
+    int queueSize = getIntSetting( "audit/async/queueSize", DEFAULT_QUEUE_SIZE ); //$NON-NLS-1$
+    int batchSize = getIntSetting( "audit/async/batchSize", DEFAULT_BATCH_SIZE ); //$NON-NLS-1$
+    long flushInterval = getIntSetting( "audit/async/flushInterval", (int) DEFAULT_FLUSH_INTERVAL ); //$NON-NLS-1$
+    boolean dropWhenFull =
+        "drop".equalsIgnoreCase( PentahoSystem.getSystemSetting( "audit/async/whenFull", "block" ) ); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+    return new AsyncAuditWriter( name, sink, queueSize, batchSize, flushInterval, dropWhenFull );
+  }
+
+  private static int getIntSetting( final String path, final int defaultValue ) {
+    String value = PentahoSystem.getSystemSetting( path, null );
+    if ( value != null ) {
+      try {
+        return Integer.parseInt( value.trim() );
+      } catch ( NumberFormatException e ) {
+        Logger.warn( AsyncAuditWriter.class.getName(), Messages.getInstance().getString(
+            "AUDITWRITER.WARN_INVALID_SETTING", path, value ) ); //$NON-NLS-1$
+      }
+    }
+    return defaultValue;
+  }
+
+  /**
+   * Queues <code>record</code> for writing.
+   *
+   * @return false if the record was dropped because the queue was full or the writer has been shut down
+   */
+  public boolean submit( final Record record ) {
+    boolean accepted;
+    runningLock.readLock().lock();
+    try {
+      if ( !running ) {
+        return false;
+      }
+      if ( dropWhenFull ) {
+        accepted = queue.offer( record );
+      } else {
+        try {
+          queue.put( record );
+          accepted = true;
+        } catch ( InterruptedException e ) {
+          Thread.currentThread().interrupt();
+          accepted = false;
+        }
+      }
+    } finally {
+      runningLock.readLock().unlock();
+    }
+    if ( accepted ) {
+      queued.incrementAndGet();
+    } else if ( dropped.incrementAndGet() % DEFAULT_QUEUE_SIZE == 1 ) {
+      // log the first drop and then every so often, not every record
+      Logger.warn( getClass().getName(), Messages.getInstance().getString(
+          "AUDITWRITER.WARN_RECORDS_DROPPED", name, Long.toString( dropped.get() ) ) ); //$NON-NLS-1$
+    }
+    return accepted;
+  }
+
+  /**
+   * Waits until every record submitted before this call has been handed to the sink, or until <code>timeout</code>
+   * milliseconds have passed.
+   *
+   * @return true if all records were written in time
+   */
+  public boolean flush( final long timeout ) {
+    long target = queued.get();
+    long deadline = System.currentTimeMillis() + timeout;
+    synchronized ( writtenLock ) {
+      while ( written < target ) {
+        long remaining = deadline - System.currentTimeMillis();
+        if ( remaining <= 0 || !writerThread.isAlive() ) {
+          return false;
+        }
+        try {
+          writtenLock.wait( remaining );
+        } catch ( InterruptedException e ) {
+          Thread.currentThread().interrupt();
+          return false;
+        }
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Stops accepting records, writes the ones still queued and stops the writer thread. A batch that is being written
+   * when this is called is allowed to finish; the writer thread is never interrupted.
+   */
+  public void shutdown() {
+    runningLock.writeLock().lock();
+    try {
+      if ( !running ) {
+        return;
+      }
+      running = false;
+    } finally {
+      runningLock.writeLock().unlock();
+    }
+    WRITERS.remove( this );
+    // wake the writer thread if it is waiting for records; if the queue is full it is not waiting
+    queue.offer( STOP );
+    try {
+      writerThread.join( SHUTDOWN_TIMEOUT );
+    } catch ( InterruptedException e ) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /**
+   * @return true once {@link #shutdown()} has been called; records submitted after that are refused
+   */
+  public boolean isShutdown() {
+    return !running;
+  }
+
+  public long getQueuedCount() {
+    return queued.get();
+  }
+
+  public long getDroppedCount() {
+    return dropped.get();
+  }
+
+  public int getPendingCount() {
+    return queue.size();
+  }
+
+  private void writeLoop() {
+    List<Record> batch = new ArrayList<Record>( batchSize );
+    while ( running || !queue.isEmpty() ) {
+      try {
+        fillBatch( batch );
+      } catch ( InterruptedException e ) {
+        // nothing interrupts this thread on purpose, keep going until shutdown() stops it
+        queue.drainTo( batch, batchSize - batch.size() );
+      }
+      batch.remove( STOP );
+      if ( !batch.isEmpty() ) {
+        writeBatch( batch );
+        batch.clear();
+      }
+    }
+  }
+
+  private void fillBatch( final List<Record> batch ) throws InterruptedException {
+    Record first = running ? queue.poll( flushInterval, TimeUnit.MILLISECONDS ) : queue.poll();
+    if ( first == null ) {
+      return;
+    }
+    batch.add( first );
+    long deadline = System.currentTimeMillis() + flushInterval;
+    while ( batch.size() < batchSize ) {
+      queue.drainTo( batch, batchSize - batch.size() );
+      long remaining = deadline - System.currentTimeMillis();
+      if ( batch.size() >= batchSize || remaining <= 0 || !running ) {
+        return;
+      }
+      Record next = queue.poll( remaining, TimeUnit.MILLISECONDS );
+      if ( next == null ) {
+        return;
+      }
+      batch.add( next );
+    }
+  }
+
+  private void writeBatch( final List<Record> batch ) {
+    try {
+      sink.write( batch );
+    } catch ( Throwable t ) {
+      Logger.error( getClass().getName(), Messages.getInstance().getErrorString(
+          "AUDITWRITER.ERROR_0001_BATCH_FAILED", name, Integer.toString( batch.size() ) ), t ); //$NON-NLS-1$
+    } finally {
+      synchronized ( writtenLock ) {
+        written += batch.size();
+        writtenLock.notifyAll();
+      }
+    }
+  }
+
+}
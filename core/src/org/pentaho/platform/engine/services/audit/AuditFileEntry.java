@@ -25,7 +25,9 @@ import java.io.IOException;
 import java.math.BigDecimal;
 import java.text.DecimalFormat;
 import java.text.SimpleDateFormat;
+import java.util.Collections;
 import java.util.Date;
+import java.util.List;
 
 import org.pentaho.platform.api.engine.AuditException;
 import org.pentaho.platform.api.engine.IAuditEntry;
@@ -34,10 +36,10 @@ import org.pentaho.platform.engine.core.system.PentahoSystem;
 import org.pentaho.platform.util.logging.Logger;
 
 /**
- * @author mbatchel
+ * Records audit entries as tab separated lines in the audit log file. Unless <code>audit/async/enabled</code> is
+ * <code>false</code>, entries are queued and appended in batches by a background thread; see {@link AsyncAuditWriter}.
  * 
- *         TODO To change the template for this generated type comment go to Window - Preferences - Java - Code Style -
- *         Code Templates
+ * @author mbatchel
  */
 public class AuditFileEntry implements IAuditEntry {
   private static final String auditDirPath = "system/logs/audit"; //$NON-NLS-1$
@@ -47,6 +49,10 @@ public class AuditFileEntry implements IAuditEntry {
 
   private static File auditFile = null;
 
+  private static AsyncAuditWriter writer;
+
+  private static boolean writerInitialized;
+
   private static String ID_SEPARATOR = PentahoSystem.getSystemSetting( "audit/id_separator", "\t" ); //$NON-NLS-1$ //$NON-NLS-2$
 
   private static final SimpleDateFormat auditDateFormat = new SimpleDateFormat( PentahoSystem.getSystemSetting(
@@ -67,49 +73,82 @@ public class AuditFileEntry implements IAuditEntry {
     }
   }
 
-  public synchronized void auditAll( final String jobId, final String instId, final String objId, final String objType,
+  public void auditAll( final String jobId, final String instId, final String objId, final String objType,
       final String actor, final String messageType, final String messageName, final String messageTxtValue,
       final BigDecimal messageNumValue, final double duration ) throws AuditException {
 
     if ( AuditFileEntry.auditFile == null ) {
       return;
     }
-    try {
-      BufferedWriter fw = new BufferedWriter( new FileWriter( AuditFileEntry.auditFile, true ) );
+    AsyncAuditWriter.Record record =
+        new AsyncAuditWriter.Record( jobId, instId, objId, objType, actor, messageType, messageName, messageTxtValue,
+            messageNumValue, duration );
+    AsyncAuditWriter writer = AuditFileEntry.getWriter();
+    // once the platform has shut the writer down, late records are written on the calling thread
+    if ( ( writer == null ) || ( !writer.submit( record ) && writer.isShutdown() ) ) {
+      append( Collections.singletonList( record ) );
+    }
+  }
+
+  /**
+   * Returns the writer shared by all file audit entries, or <code>null</code> when records are to be written on the
+   * calling thread.
+   */
+  private static synchronized AsyncAuditWriter getWriter() {
+    if ( !AuditFileEntry.writerInitialized ) {
+      AuditFileEntry.writer = AsyncAuditWriter.create( "AuditFileEntry-writer", new AsyncAuditWriter.IAuditSink() { //$NON-NLS-1$
+            public void write( final List<AsyncAuditWriter.Record> records ) throws AuditException {
+              append( records );
+            }
+          } );
+      AuditFileEntry.writerInitialized = true;
+    }
+    return AuditFileEntry.writer;
+  }
+
+  /**
+   * Appends one line per record to the audit file, opening it once for all of them.
+   */
+  static void append( final List<AsyncAuditWriter.Record> records ) throws AuditException {
+    synchronized ( AuditFileEntry.auditDateFormat ) {
       try {
-        Date dt = new Date();
-        fw.write( AuditFileEntry.auditDateFormat.format( dt ) );
-        fw.write( AuditFileEntry.ID_SEPARATOR );
-        fw.write( getWritable( jobId ) );
-        fw.write( AuditFileEntry.ID_SEPARATOR );
-        fw.write( getWritable( instId ) );
-        fw.write( AuditFileEntry.ID_SEPARATOR );
-        fw.write( getWritable( objId ) );
-        fw.write( AuditFileEntry.ID_SEPARATOR );
-        fw.write( getWritable( objType ) );
-        fw.write( AuditFileEntry.ID_SEPARATOR );
-        fw.write( getWritable( actor ) );
-        fw.write( AuditFileEntry.ID_SEPARATOR );
-        fw.write( getWritable( messageType ) );
-        fw.write( AuditFileEntry.ID_SEPARATOR );
-        fw.write( getWritable( messageName ) );
-        fw.write( AuditFileEntry.ID_SEPARATOR );
-        fw.write( getWritable( messageTxtValue ) );
-        fw.write( AuditFileEntry.ID_SEPARATOR );
-        fw.write( getWritable( messageNumValue ) );
-        fw.write( AuditFileEntry.ID_SEPARATOR );
-        fw.write( getWritable( duration ) );
-        fw.newLine();
-      } finally {
-        fw.flush();
-        fw.close();
+        BufferedWriter fw = new BufferedWriter( new FileWriter( AuditFileEntry.auditFile, true ) );
+        try {
+          for ( AsyncAuditWriter.Record record : records ) {
+            fw.write( AuditFileEntry.auditDateFormat.format( new Date( record.timestamp ) ) );
+            fw.write( AuditFileEntry.ID_SEPARATOR );
+            fw.write( getWritable( record.jobId ) );
+            fw.write( AuditFileEntry.ID_SEPARATOR );
+            fw.write( getWritable( record.instId ) );
+            fw.write( AuditFileEntry.ID_SEPARATOR );
+            fw.write( getWritable( record.objId ) );
+            fw.write( AuditFileEntry.ID_SEPARATOR );
+            fw.write( getWritable( record.objType ) );
+            fw.write( AuditFileEntry.ID_SEPARATOR );
+            fw.write( getWritable( record.actor ) );
+            fw.write( AuditFileEntry.ID_SEPARATOR );
+            fw.write( getWritable( record.messageType ) );
+            fw.write( AuditFileEntry.ID_SEPARATOR );
+            fw.write( getWritable( record.messageName ) );
+            fw.write( AuditFileEntry.ID_SEPARATOR );
+            fw.write( getWritable( record.messageTxtValue ) );
+            fw.write( AuditFileEntry.ID_SEPARATOR );
+            fw.write( getWritable( record.messageNumValue ) );
+            fw.write( AuditFileEntry.ID_SEPARATOR );
+            fw.write( getWritable( record.duration ) );
+            fw.newLine();
+          }
+        } finally {
+          fw.flush();
+          fw.close();
+        }
+      } catch ( IOException ex ) {
+        throw new AuditException( ex );
       }
-    } catch ( IOException ex ) {
-      throw new AuditException( ex );
     }
   }
 
-  private String getWritable( final Object obj ) {
+  private static String getWritable( final Object obj ) {
     if ( obj instanceof BigDecimal ) {
       DecimalFormat format = new DecimalFormat( "#.###" ); //$NON-NLS-1$
       return format.format( obj );
@@ -24,6 +24,8 @@ import java.sql.PreparedStatement;
 import java.sql.SQLException;
 import java.sql.Timestamp;
 import java.sql.Types;
+import java.util.Collections;
+import java.util.List;
 
 import org.pentaho.platform.api.engine.AuditException;
 import org.pentaho.platform.api.engine.IAuditEntry;
@@ -33,12 +35,19 @@ import org.pentaho.platform.engine.core.system.PentahoSystem;
 import org.pentaho.platform.util.logging.Logger;
 
 /**
+ * Records audit entries in the audit database. Unless <code>audit/async/enabled</code> is <code>false</code>, entries
+ * are queued and inserted in JDBC batches by a background thread; see {@link AsyncAuditWriter}.
+ * 
  * @author mbatchel
  * 
  */
 public class AuditSQLEntry implements IAuditEntry {
   private static AuditConnection audc;
 
+  private static AsyncAuditWriter writer;
+
+  private static boolean writerInitialized;
+
   /**
    * This ugliness exists because of bug http://jira.pentaho.com/browse/BISERVER-3478. Once this is fixed, we can move
    * this initialization into a one liner for each setting in the class construction.
@@ -84,7 +93,7 @@ public class AuditSQLEntry implements IAuditEntry {
             "auditConnection/insertSQL", Messages.getInstance().getString( "AUDSQLENT.CODE_AUDIT_INSERT_STATEMENT" ) ); //$NON-NLS-1$ //$NON-NLS-2$
   }
 
-  private void setString( final PreparedStatement stmt, final int num, final String val ) throws SQLException {
+  private static void setString( final PreparedStatement stmt, final int num, final String val ) throws SQLException {
     if ( val != null ) {
       stmt.setString( num, val );
     } else {
@@ -92,7 +101,7 @@ public class AuditSQLEntry implements IAuditEntry {
     }
   }
 
-  private void setObject( final PreparedStatement stmt, final int num, final String val ) throws SQLException {
+  private static void setObject( final PreparedStatement stmt, final int num, final String val ) throws SQLException {
     if ( val != null ) {
       stmt.setObject( num, val );
     } else {
@@ -100,7 +109,7 @@ public class AuditSQLEntry implements IAuditEntry {
     }
   }
 
-  private void setBigDec( final PreparedStatement stmt, final int num, final BigDecimal val ) throws SQLException {
+  private static void setBigDec( final PreparedStatement stmt, final int num, final BigDecimal val ) throws SQLException {
     if ( val != null ) {
       stmt.setBigDecimal( num, val );
     } else {
@@ -116,26 +125,66 @@ public class AuditSQLEntry implements IAuditEntry {
       final String actor, final String messageType, final String messageName, final String messageTxtValue,
       final BigDecimal messageNumValue, final double duration ) throws AuditException {
 
+    AsyncAuditWriter.Record record =
+        new AsyncAuditWriter.Record( jobId, instId, objId, objType, actor, messageType, messageName, messageTxtValue,
+            messageNumValue, duration );
+    AsyncAuditWriter writer = AuditSQLEntry.getWriter();
+    // once the platform has shut the writer down, late records are written on the calling thread
+    if ( ( writer == null ) || ( !writer.submit( record ) && writer.isShutdown() ) ) {
+      insert( Collections.singletonList( record ) );
+    }
+  }
+
+  /**
+   * Returns the writer shared by all SQL audit entries, or <code>null</code> when records are to be inserted on the
+   * calling thread.
+   */
+  private static synchronized AsyncAuditWriter getWriter() {
+    if ( !AuditSQLEntry.writerInitialized ) {
+      AuditSQLEntry.writer = AsyncAuditWriter.create( "AuditSQLEntry-writer", new AsyncAuditWriter.IAuditSink() { //$NON-NLS-1$
+            public void write( final List<AsyncAuditWriter.Record> records ) throws AuditException {
+              insert( records );
+            }
+          } );
+      AuditSQLEntry.writerInitialized = true;
+    }
+    return AuditSQLEntry.writer;
+  }
+
+  /**
+   * Inserts <code>records</code> with a single prepared statement, as one JDBC batch when the driver supports it.
+   */
+  static void insert( final List<AsyncAuditWriter.Record> records ) throws AuditException {
     Connection con = null;
     try {
       con = AuditSQLEntry.audc.getAuditConnection();
       try {
         PreparedStatement stmt = con.prepareStatement( AuditSQLEntry.INSERT_STMT );
         try {
-          setString( stmt, 1, jobId );
-          setString( stmt, 2, instId );
-          setString( stmt, 3, objId );
-          setString( stmt, 4, objType );
-          setString( stmt, 5, actor );
-          setString( stmt, 6, messageType );
-          setString( stmt, 7, messageName );
-          setObject( stmt, 8, messageTxtValue );
-          setBigDec( stmt, 9, messageNumValue );
-          setBigDec( stmt, 10, new BigDecimal( duration ) );
-          stmt.setTimestamp( 11, new Timestamp( System.currentTimeMillis() ) );
-          stmt.executeUpdate();
+          boolean batch = ( records.size() > 1 ) && con.getMetaData().supportsBatchUpdates();
+          for ( AsyncAuditWriter.Record record : records ) {
+            setString( stmt, 1, record.jobId );
+            setString( stmt, 2, record.instId );
+            setString( stmt, 3, record.objId );
+            setString( stmt, 4, record.objType );
+            setString( stmt, 5, record.actor );
+            setString( stmt, 6, record.messageType );
+            setString( stmt, 7, record.messageName );
+            setObject( stmt, 8, record.messageTxtValue );
+            setBigDec( stmt, 9, record.messageNumValue );
+            setBigDec( stmt, 10, new BigDecimal( record.duration ) );
+            stmt.setTimestamp( 11, new Timestamp( record.timestamp ) );
+            if ( batch ) {
+              stmt.addBatch();
+            } else {
+              stmt.executeUpdate();
+            }
+          }
+          if ( batch ) {
+            stmt.executeBatch();
+          }
         } catch ( SQLException ex ) {
-          Logger.error( this.getClass().getName(), ex.getMessage(), ex );
+          Logger.error( AuditSQLEntry.class.getName(), ex.getMessage(), ex );
           try {
             con.rollback();
           } catch ( Exception rollbackExc ) {
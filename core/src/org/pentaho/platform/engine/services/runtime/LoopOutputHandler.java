@@ -0,0 +1,317 @@
+/*
+ * This program is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License, version 2 as published by the Free Software
+ * Foundation.
+ *
+ * You should have received a copy of the GNU General Public License along with this
+ * program; if not, you can obtain a copy at http://www.gnu.org/licenses/gpl-2.0.html
+ * or from the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ *
+ * Copyright 2006 - 2013 Pentaho Corporation.  All rights reserved.
+ */
+
+package org.pentaho.platform.engine.services.runtime;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.pentaho.commons.connection.IPentahoStreamSource;
+import org.pentaho.platform.api.engine.IMimeTypeListener;
+import org.pentaho.platform.api.engine.IOutputHandler;
+import org.pentaho.platform.api.engine.IPentahoSession;
+import org.pentaho.platform.api.repository.ContentException;
+import org.pentaho.platform.api.repository.IContentItem;
+
+/**
+ * The output handler seen by one iteration of a parallel loop. Outputs the iteration sets and content it writes are
+ * buffered here and only handed to the shared output handler by {@link #apply()}, which the loop calls on the looping
+ * thread when it merges the iteration. Content therefore reaches the response one iteration at a time, in merge order,
+ * instead of interleaved. Calls that cannot be deferred go to the shared handler one at a time.
+ */
+class LoopOutputHandler implements IOutputHandler {
+
+  private final IOutputHandler delegate;
+
+  private final Map<IContentItem, LoopContentItem> contentItems = new IdentityHashMap<IContentItem, LoopContentItem>();
+
+  private final List<LoopContentItem> contentOrder = new ArrayList<LoopContentItem>();
+
+  private final List<Object[]> outputs = new ArrayList<Object[]>();
+
+  LoopOutputHandler( final IOutputHandler delegate ) {
+    this.delegate = delegate;
+  }
+
+  /**
+   * Writes the content and outputs of the iteration to the shared output handler, content first, each in the order
+   * the iteration produced it.
+   */
+  synchronized void apply() throws IOException {
+    synchronized ( delegate ) {
+      for ( LoopContentItem item : contentOrder ) {
+        item.apply();
+      }
+      for ( Object[] output : outputs ) {
+        Object value = output[1];
+        if ( value instanceof LoopContentItem ) {
+          value = ( (LoopContentItem) value ).delegate;
+        }
+        delegate.setOutput( (String) output[0], value );
+      }
+    }
+    contentOrder.clear();
+    contentItems.clear();
+    outputs.clear();
+  }
+
+  private synchronized IContentItem wrap( final IContentItem item ) {
+    if ( item == null ) {
+      return null;
+    }
+    LoopContentItem wrapper = contentItems.get( item );
+    if ( wrapper == null ) {
+      wrapper = new LoopContentItem( item );
+      contentItems.put( item, wrapper );
+      contentOrder.add( wrapper );
+    }
+    return wrapper;
+  }
+
+  public void setSession( final IPentahoSession session ) {
+    synchronized ( delegate ) {
+      delegate.setSession( session );
+    }
+  }
+
+  public IPentahoSession getSession() {
+    synchronized ( delegate ) {
+      return delegate.getSession();
+    }
+  }
+
+  public boolean contentDone() {
+    synchronized ( delegate ) {
+      return delegate.contentDone();
+    }
+  }
+
+  public boolean isResponseExpected() {
+    synchronized ( delegate ) {
+      return delegate.isResponseExpected();
+    }
+  }
+
+  public IContentItem getFeedbackContentItem() {
+    IContentItem item;
+    synchronized ( delegate ) {
+      item = delegate.getFeedbackContentItem();
+    }
+    return wrap( item );
+  }
+
+  public IContentItem getOutputContentItem( final String objectName, final String contentName,
+      final String instanceId, final String mimeType ) {
+    IContentItem item;
+    synchronized ( delegate ) {
+      item = delegate.getOutputContentItem( objectName, contentName, instanceId, mimeType );
+    }
+    return wrap( item );
+  }
+
+  public boolean allowFeedback() {
+    synchronized ( delegate ) {
+      return delegate.allowFeedback();
+    }
+  }
+
+  public void setOutputPreference( final int outputType ) {
+    synchronized ( delegate ) {
+      delegate.setOutputPreference( outputType );
+    }
+  }
+
+  public int getOutputPreference() {
+    synchronized ( delegate ) {
+      return delegate.getOutputPreference();
+    }
+  }
+
+  public synchronized void setOutput( final String name, final Object value ) throws IOException {
+    outputs.add( new Object[] { name, value } );
+  }
+
+  public IMimeTypeListener getMimeTypeListener() {
+    synchronized ( delegate ) {
+      return delegate.getMimeTypeListener();
+    }
+  }
+
+  public void setMimeTypeListener( final IMimeTypeListener mimeTypeListener ) {
+    synchronized ( delegate ) {
+      delegate.setMimeTypeListener( mimeTypeListener );
+    }
+  }
+
+  /**
+   * Records what an iteration does to a content item so it can be replayed against the real item on merge. Once
+   * replayed, calls go straight to the real item.
+   */
+  private static class LoopContentItem implements IContentItem {
+
+    private static final int OPEN = 0;
+
+    private static final int CLOSE = 1;
+
+    private static final int MIME_TYPE = 2;
+
+    private static final int NAME = 3;
+
+    private final IContentItem delegate;
+
+    private final List<Object[]> operations = new ArrayList<Object[]>();
+
+    private ByteArrayOutputStream lastStream;
+
+    private boolean applied;
+
+    LoopContentItem( final IContentItem delegate ) {
+      this.delegate = delegate;
+    }
+
+    synchronized void apply() throws IOException {
+      for ( Object[] operation : operations ) {
+        switch ( ( (Integer) operation[0] ).intValue() ) {
+          case OPEN:
+            OutputStream out = delegate.getOutputStream( (String) operation[1] );
+            ( (ByteArrayOutputStream) operation[2] ).writeTo( out );
+            out.flush();
+            break;
+          case CLOSE:
+            delegate.closeOutputStream();
+            break;
+          case MIME_TYPE:
+            delegate.setMimeType( (String) operation[1] );
+            break;
+          default:
+            delegate.setName( (String) operation[1] );
+        }
+      }
+      operations.clear();
+      lastStream = null;
+      applied = true;
+    }
+
+    public synchronized String getPath() {
+      return delegate.getPath();
+    }
+
+    public synchronized String getMimeType() {
+      String mimeType = getRecorded( MIME_TYPE );
+      return ( mimeType == null ) ? delegate.getMimeType() : mimeType;
+    }
+
+    /**
+     * @return the value of the last recorded operation of this type, or <code>null</code> if there is none or the
+     *         operations have been replayed
+     */
+    private String getRecorded( final int type ) {
+      if ( !applied ) {
+        for ( int i = operations.size() - 1; i >= 0; i-- ) {
+          Object[] operation = operations.get( i );
+          if ( ( (Integer) operation[0] ).intValue() == type ) {
+            return (String) operation[1];
+          }
+        }
+      }
+      return null;
+    }
+
+    public synchronized InputStream getInputStream() throws ContentException {
+      if ( !applied && ( lastStream != null ) ) {
+        return new ByteArrayInputStream( lastStream.toByteArray() );
+      }
+      return delegate.getInputStream();
+    }
+
+    /**
+     * Until the item is replayed, the data source reads what the iteration has written, like
+     * {@link #getInputStream()}, as the real item is still empty.
+     */
+    public synchronized IPentahoStreamSource getDataSource() {
+      if ( applied || ( lastStream == null ) ) {
+        return delegate.getDataSource();
+      }
+      final ByteArrayOutputStream buffer = lastStream;
+      final IPentahoStreamSource source = delegate.getDataSource();
+      return new IPentahoStreamSource() {
+
+        public String getContentType() {
+          return getMimeType();
+        }
+
+        public InputStream getInputStream() throws IOException {
+          return new ByteArrayInputStream( buffer.toByteArray() );
+        }
+
+        public String getName() {
+          String name;
+          synchronized ( LoopContentItem.this ) {
+            name = getRecorded( NAME );
+          }
+          return ( ( name == null ) && ( source != null ) ) ? source.getName() : name;
+        }
+
+        public OutputStream getOutputStream() throws IOException {
+          return buffer;
+        }
+      };
+    }
+
+    public synchronized OutputStream getOutputStream( final String actionName ) throws IOException {
+      if ( applied ) {
+        return delegate.getOutputStream( actionName );
+      }
+      lastStream = new ByteArrayOutputStream();
+      operations.add( new Object[] { OPEN, actionName, lastStream } );
+      return lastStream;
+    }
+
+    public synchronized void closeOutputStream() {
+      if ( applied ) {
+        delegate.closeOutputStream();
+        return;
+      }
+      operations.add( new Object[] { CLOSE } );
+    }
+
+    public synchronized void setMimeType( final String mimeType ) {
+      if ( applied ) {
+        delegate.setMimeType( mimeType );
+        return;
+      }
+      operations.add( new Object[] { MIME_TYPE, mimeType } );
+    }
+
+    public synchronized void setName( final String name ) {
+      if ( applied ) {
+        delegate.setName( name );
+        return;
+      }
+      operations.add( new Object[] { NAME, name } );
+    }
+  }
+
+}
@@ -0,0 +1,314 @@
+/*
+ * This program is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License, version 2 as published by the Free Software
+ * Foundation.
+ *
+ * You should have received a copy of the GNU General Public License along with this
+ * program; if not, you can obtain a copy at http://www.gnu.org/licenses/gpl-2.0.html
+ * or from the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ *
+ * Copyright 2006 - 2013 Pentaho Corporation.  All rights reserved.
+ */
+
+package org.pentaho.platform.engine.services.runtime;
+
+import java.math.BigDecimal;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.pentaho.platform.api.repository.IRuntimeElement;
+
+/**
+ * The runtime data seen by one iteration of a parallel loop. Properties the iteration sets are kept here and only
+ * written to the shared runtime data by {@link #apply()}, which the loop calls on the looping thread when it merges the
+ * iteration. Reads see the iteration's own values first and otherwise go to the shared runtime data, one call at a
+ * time. Runtime data implementations are not thread-safe, so this is what lets iterations run concurrently.
+ * <p>
+ * Only properties are buffered. The identity and state of the runtime data (parent, instance and solution ids,
+ * allowable attribute names, loaded flag) are shared by all iterations, so setting them goes straight to the shared
+ * runtime data, one call at a time.
+ */
+class LoopRuntimeElement implements IRuntimeElement {
+
+  private final IRuntimeElement delegate;
+
+  private final Map<String, Object> written = new LinkedHashMap<String, Object>();
+
+  LoopRuntimeElement( final IRuntimeElement delegate ) {
+    this.delegate = delegate;
+  }
+
+  /**
+   * Writes the properties set by the iteration to the shared runtime data, in the order they were set.
+   */
+  @SuppressWarnings( "rawtypes" )
+  void apply() {
+    synchronized ( delegate ) {
+      for ( Map.Entry<String, Object> entry : written.entrySet() ) {
+        String key = entry.getKey();
+        Object value = entry.getValue();
+        if ( value instanceof BigDecimal ) {
+          delegate.setBigDecimalProperty( key, (BigDecimal) value );
+        } else if ( value instanceof Date ) {
+          delegate.setDateProperty( key, (Date) value );
+        } else if ( value instanceof Long ) {
+          delegate.setLongProperty( key, (Long) value );
+        } else if ( value instanceof List ) {
+          delegate.setListProperty( key, (List) value );
+        } else if ( value instanceof Map ) {
+          delegate.setMapProperty( key, (Map) value );
+        } else {
+          delegate.setStringProperty( key, (String) value );
+        }
+      }
+    }
+    written.clear();
+  }
+
+  private synchronized void write( final String key, final Object value ) {
+    // re-insert so apply() replays the writes in the order they were last made
+    written.remove( key );
+    written.put( key, value );
+  }
+
+  private synchronized boolean isWritten( final String key ) {
+    return written.containsKey( key );
+  }
+
+  private synchronized Object getWritten( final String key, final Class<?> type ) {
+    Object value = written.get( key );
+    return type.isInstance( value ) ? value : null;
+  }
+
+  public String getParentId() {
+    synchronized ( delegate ) {
+      return delegate.getParentId();
+    }
+  }
+
+  public void setParentId( final String parentId ) {
+    synchronized ( delegate ) {
+      delegate.setParentId( parentId );
+    }
+  }
+
+  public String getParentType() {
+    synchronized ( delegate ) {
+      return delegate.getParentType();
+    }
+  }
+
+  public void setParentType( final String parentType ) {
+    synchronized ( delegate ) {
+      delegate.setParentType( parentType );
+    }
+  }
+
+  public String getInstanceId() {
+    synchronized ( delegate ) {
+      return delegate.getInstanceId();
+    }
+  }
+
+  public void setInstanceId( final String instanceId ) {
+    synchronized ( delegate ) {
+      delegate.setInstanceId( instanceId );
+    }
+  }
+
+  public String getSolutionId() {
+    synchronized ( delegate ) {
+      return delegate.getSolutionId();
+    }
+  }
+
+  public void setSolutionId( final String solutionId ) {
+    synchronized ( delegate ) {
+      delegate.setSolutionId( solutionId );
+    }
+  }
+
+  public int getRevision() {
+    synchronized ( delegate ) {
+      return delegate.getRevision();
+    }
+  }
+
+  public String getStringProperty( final String key ) {
+    return getStringProperty( key, null );
+  }
+
+  public String getStringProperty( final String key, final String defaultValue ) {
+    if ( isWritten( key ) ) {
+      String value = (String) getWritten( key, String.class );
+      return ( value == null ) ? defaultValue : value;
+    }
+    synchronized ( delegate ) {
+      return delegate.getStringProperty( key, defaultValue );
+    }
+  }
+
+  public void setStringProperty( final String key, final String value ) {
+    write( key, value );
+  }
+
+  public BigDecimal getBigDecimalProperty( final String key ) {
+    return getBigDecimalProperty( key, null );
+  }
+
+  public BigDecimal getBigDecimalProperty( final String key, final BigDecimal defaultValue ) {
+    if ( isWritten( key ) ) {
+      BigDecimal value = (BigDecimal) getWritten( key, BigDecimal.class );
+      return ( value == null ) ? defaultValue : value;
+    }
+    synchronized ( delegate ) {
+      return delegate.getBigDecimalProperty( key, defaultValue );
+    }
+  }
+
+  public void setBigDecimalProperty( final String key, final BigDecimal value ) {
+    write( key, value );
+  }
+
+  public Date getDateProperty( final String key ) {
+    return getDateProperty( key, null );
+  }
+
+  public Date getDateProperty( final String key, final Date defaultValue ) {
+    if ( isWritten( key ) ) {
+      Date value = (Date) getWritten( key, Date.class );
+      return ( value == null ) ? defaultValue : value;
+    }
+    synchronized ( delegate ) {
+      return delegate.getDateProperty( key, defaultValue );
+    }
+  }
+
+  public void setDateProperty( final String key, final Date value ) {
+    write( key, value );
+  }
+
+  public Long getLongProperty( final String key, final Long defaultValue ) {
+    if ( isWritten( key ) ) {
+      Long value = (Long) getWritten( key, Long.class );
+      return ( value == null ) ? defaultValue : value;
+    }
+    synchronized ( delegate ) {
+      return delegate.getLongProperty( key, defaultValue );
+    }
+  }
+
+  public long getLongProperty( final String key, final long defaultValue ) {
+    Long value = getLongProperty( key, (Long) null );
+    return ( value == null ) ? defaultValue : value.longValue();
+  }
+
+  public void setLongProperty( final String key, final Long value ) {
+    write( key, value );
+  }
+
+  public void setLongProperty( final String key, final long value ) {
+    write( key, new Long( value ) );
+  }
+
+  @SuppressWarnings( "rawtypes" )
+  public List getListProperty( final String key ) {
+    if ( isWritten( key ) ) {
+      return (List) getWritten( key, List.class );
+    }
+    synchronized ( delegate ) {
+      return delegate.getListProperty( key );
+    }
+  }
+
+  @SuppressWarnings( "rawtypes" )
+  public Map getMapProperty( final String key ) {
+    if ( isWritten( key ) ) {
+      return (Map) getWritten( key, Map.class );
+    }
+    synchronized ( delegate ) {
+      return delegate.getMapProperty( key );
+    }
+  }
+
+  @SuppressWarnings( "rawtypes" )
+  public void setListProperty( final String key, final List value ) {
+    write( key, value );
+  }
+
+  @SuppressWarnings( "rawtypes" )
+  public void setMapProperty( final String key, final Map value ) {
+    write( key, value );
+  }
+
+  public String toXML() {
+    synchronized ( delegate ) {
+      return delegate.toXML();
+    }
+  }
+
+  public int getLoggingLevel() {
+    synchronized ( delegate ) {
+      return delegate.getLoggingLevel();
+    }
+  }
+
+  @SuppressWarnings( "rawtypes" )
+  public void setAllowableAttributeNames( final Collection allowableReadAttributeNames ) {
+    synchronized ( delegate ) {
+      delegate.setAllowableAttributeNames( allowableReadAttributeNames );
+    }
+  }
+
+  @SuppressWarnings( { "rawtypes", "unchecked" } )
+  public Set getParameterNames() {
+    Set names;
+    synchronized ( delegate ) {
+      names = new HashSet( delegate.getParameterNames() );
+    }
+    synchronized ( this ) {
+      names.addAll( written.keySet() );
+    }
+    return names;
+  }
+
+  /**
+   * The type of a property set by the iteration is only known once it has been applied, until then the type the shared
+   * runtime data holds for it, if any, is returned.
+   */
+  public String getParameterType( final String name ) {
+    synchronized ( delegate ) {
+      return delegate.getParameterType( name );
+    }
+  }
+
+  public void setLoaded( final boolean value ) {
+    synchronized ( delegate ) {
+      delegate.setLoaded( value );
+    }
+  }
+
+  public boolean getLoaded() {
+    synchronized ( delegate ) {
+      return delegate.getLoaded();
+    }
+  }
+
+  /**
+   * Does nothing, the iteration's properties are saved with the shared runtime data once the loop has applied them.
+   */
+  public void forceSave() {
+  }
+
+}
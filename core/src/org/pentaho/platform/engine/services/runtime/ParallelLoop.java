@@ -0,0 +1,350 @@
+/*
+ * This program is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License, version 2 as published by the Free Software
+ * Foundation.
+ *
+ * You should have received a copy of the GNU General Public License along with this
+ * program; if not, you can obtain a copy at http://www.gnu.org/licenses/gpl-2.0.html
+ * or from the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ *
+ * Copyright 2006 - 2013 Pentaho Corporation.  All rights reserved.
+ */
+
+package org.pentaho.platform.engine.services.runtime;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.pentaho.platform.api.engine.ActionSequenceException;
+import org.pentaho.platform.api.engine.IActionCompleteListener;
+import org.pentaho.platform.api.engine.IActionParameter;
+import org.pentaho.platform.api.engine.IActionSequence;
+import org.pentaho.platform.api.engine.IExecutionListener;
+import org.pentaho.platform.api.engine.IPentahoSession;
+import org.pentaho.platform.engine.core.system.PentahoSessionHolder;
+import org.pentaho.platform.engine.core.system.PentahoSystem;
+import org.pentaho.platform.engine.services.actionsequence.ActionSequence;
+import org.pentaho.platform.engine.services.actionsequence.SequenceDefinition;
+import org.pentaho.platform.util.messages.LocaleHelper;
+
+/**
+ * Runs the iterations of a loop declared with <code>parallel="true"</code> on a pool of threads shared by all parallel
+ * loops. The pool is bounded by the {@link #POOL_SIZE_SETTING} system setting and each loop by its
+ * <code>max-threads</code>. A parallel loop nested in an iteration of another runs its iterations on the calling pool
+ * thread, so nested loops cannot starve the pool.
+ * <p>
+ * Every iteration runs in its own {@link RuntimeContext}, against its own copy of the actions and of the parameters,
+ * so iterations cannot see each other's values. Runtime data and output written by an iteration are buffered in that
+ * context until it is merged, so <code>max-threads</code> bounds the iterations running or waiting to be merged, not
+ * only those running. Loop variables are read, components are resolved and iterations are
+ * announced to the {@link IExecutionListener} on the looping thread, in loop order; only the actions themselves run on
+ * the pool. Once an iteration completes, its messages and output parameters are merged back into the looping context,
+ * again on the looping thread. This happens in loop order unless the loop sets <code>preserve-order="false"</code>, in
+ * which case iterations are merged as they complete.
+ * <p>
+ * By default the first failed iteration stops the loop from starting new iterations and is rethrown once the running
+ * iterations have finished. With <code>on-error="continue"</code> every iteration runs and the first failure is
+ * rethrown at the end.
+ */
+class ParallelLoop {
+
+  /**
+   * System setting holding the number of concurrent iterations used when a loop does not declare
+   * <code>max-threads</code>.
+   */
+  static final String MAX_THREADS_SETTING = "parallel-loop-max-threads"; //$NON-NLS-1$
+
+  private static final int DEFAULT_MAX_THREADS = 4;
+
+  /**
+   * System setting holding the number of threads shared by all parallel loops. Read when the first parallel loop runs.
+   */
+  static final String POOL_SIZE_SETTING = "parallel-loop-pool-size"; //$NON-NLS-1$
+
+  private static final int DEFAULT_POOL_SIZE = 16;
+
+  private static final long POOL_KEEP_ALIVE_SECONDS = 60;
+
+  private static final Object POOL_LOCK = new Object();
+
+  private static ThreadPoolExecutor pool;
+
+  private static final ThreadLocal<Boolean> ON_POOL_THREAD = new ThreadLocal<Boolean>();
+
+  private static final Executor CALLER_RUNS = new Executor() {
+    public void execute( final Runnable command ) {
+      command.run();
+    }
+  };
+
+  interface IterationSource {
+
+    /**
+     * @return the loop variables of the next iteration keyed by parameter name, or <code>null</code> when the loop is
+     *         exhausted
+     */
+    Map<String, IActionParameter> next();
+  }
+
+  private final RuntimeContext context;
+
+  private final ActionSequence sequence;
+
+  private final int maxThreads;
+
+  private final SortedMap<Integer, Iteration> completed = new TreeMap<Integer, Iteration>();
+
+  /**
+   * One permit per iteration submitted and not yet merged or discarded.
+   */
+  private final Semaphore slots;
+
+  private int nextToMerge;
+
+  private ActionSequenceException failure;
+
+  ParallelLoop( final RuntimeContext context, final ActionSequence sequence ) {
+    this.context = context;
+    this.sequence = sequence;
+    this.maxThreads = ( sequence.getLoopMaxThreads() > 0 ) ? sequence.getLoopMaxThreads() : getDefaultMaxThreads();
+    this.slots = new Semaphore( maxThreads );
+  }
+
+  void run( final IterationSource source, final IActionCompleteListener doneListener,
+      final IExecutionListener execListener, final boolean async ) throws ActionSequenceException {
+
+    final IPentahoSession session = context.getSession();
+    final Locale locale = LocaleHelper.getLocale();
+    Executor executor = Boolean.TRUE.equals( ON_POOL_THREAD.get() ) ? CALLER_RUNS : getPool();
+    CompletionService<Iteration> completion = new ExecutorCompletionService<Iteration>( executor );
+    List<Future<Iteration>> running = new ArrayList<Future<Iteration>>();
+    int submitted = 0;
+    int finished = 0;
+    boolean interrupted = false;
+    try {
+      Map<String, IActionParameter> variables = source.next();
+      while ( ( variables != null ) && !isStopped() ) {
+        context.startLoopIteration( submitted, execListener );
+        RuntimeContext worker = context.createLoopWorker( variables );
+        final Iteration iteration =
+            new Iteration( submitted, worker, SequenceDefinition.copyLoopGroup( sequence, worker, context
+                .getLoggingLevel() ) );
+        iteration.prepare();
+
+        // bound the number of iterations read ahead of the ones merged; permits are only given back by merging, which
+        // happens on this thread, so wait for iterations to complete rather than for a permit
+        while ( !slots.tryAcquire() ) {
+          finished++;
+          complete( completion.take() );
+        }
+        running.add( completion.submit( new Callable<Iteration>() {
+          public Iteration call() {
+            // pool threads are shared, so whatever was bound to the thread before is restored afterwards
+            IPentahoSession previousSession = PentahoSessionHolder.getSession();
+            Locale previousLocale = LocaleHelper.getLocale();
+            PentahoSessionHolder.setSession( session );
+            LocaleHelper.setLocale( locale );
+            try {
+              iteration.execute( doneListener, execListener, async );
+            } finally {
+              if ( previousSession == null ) {
+                PentahoSessionHolder.removeSession();
+              } else {
+                PentahoSessionHolder.setSession( previousSession );
+              }
+              LocaleHelper.setLocale( previousLocale );
+            }
+            return iteration;
+          }
+        } ) );
+        submitted++;
+
+        Future<Iteration> done;
+        while ( ( done = completion.poll() ) != null ) {
+          finished++;
+          complete( done );
+        }
+        if ( !isStopped() ) {
+          variables = source.next();
+        }
+      }
+      while ( finished < submitted ) {
+        finished++;
+        complete( completion.take() );
+      }
+    } catch ( InterruptedException e ) {
+      interrupted = true;
+      Thread.currentThread().interrupt();
+      throw context.createLoopFailure( "RuntimeContext.ERROR_0037_LOOP_INTERRUPTED", submitted, e ); //$NON-NLS-1$
+    } finally {
+      if ( finished < submitted ) {
+        // the loop is abandoned, iterations that have not started never will; running ones are only interrupted
+        // when the looping thread itself was
+        for ( Future<Iteration> future : running ) {
+          future.cancel( interrupted );
+        }
+      }
+    }
+
+    if ( failure != null ) {
+      throw failure;
+    }
+  }
+
+  private boolean isStopped() {
+    return ( failure != null ) && !sequence.getLoopContinuesOnError();
+  }
+
+  private void complete( final Future<Iteration> done ) throws InterruptedException {
+    Iteration iteration;
+    try {
+      iteration = done.get();
+    } catch ( ExecutionException e ) {
+      // iterations catch their own failures, this only happens if the task itself broke
+      throw new IllegalStateException( e.getCause() );
+    }
+    if ( !sequence.getLoopPreservesOrder() ) {
+      merge( iteration );
+      return;
+    }
+    completed.put( iteration.index, iteration );
+    while ( completed.containsKey( nextToMerge ) ) {
+      merge( completed.remove( nextToMerge ) );
+      nextToMerge++;
+    }
+  }
+
+  private void merge( final Iteration iteration ) {
+    try {
+      if ( isStopped() ) {
+        // the loop already failed, iterations past the failure are not kept
+        context.mergeLoopIteration( iteration.worker, false );
+        return;
+      }
+      context.mergeLoopIteration( iteration.worker, iteration.error == null );
+      if ( ( iteration.error != null ) && ( failure == null ) ) {
+        failure = iteration.error;
+      }
+    } finally {
+      // the iteration's buffered output is gone, another may be read ahead
+      slots.release();
+    }
+  }
+
+  private static int getDefaultMaxThreads() {
+    return getPositiveSetting( MAX_THREADS_SETTING, DEFAULT_MAX_THREADS );
+  }
+
+  private static int getPositiveSetting( final String name, final int defaultValue ) {
+    String setting = PentahoSystem.getSystemSetting( name, null );
+    if ( setting != null ) {
+      try {
+        int value = Integer.parseInt( setting.trim() );
+        if ( value > 0 ) {
+          return value;
+        }
+      } catch ( NumberFormatException e ) {
+        // fall through to the default
+      }
+    }
+    return defaultValue;
+  }
+
+  /**
+   * Returns the pool shared by all parallel loops, creating it on first use. Its threads are daemons and exit after
+   * being idle for a minute, so an idle platform holds no loop threads.
+   */
+  private static Executor getPool() {
+    synchronized ( POOL_LOCK ) {
+      if ( pool == null ) {
+        int size = getPositiveSetting( POOL_SIZE_SETTING, DEFAULT_POOL_SIZE );
+        final AtomicInteger threadCount = new AtomicInteger();
+        pool =
+            new ThreadPoolExecutor( size, size, POOL_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                  public Thread newThread( final Runnable task ) {
+                    Thread thread = new Thread( new Runnable() {
+                      public void run() {
+                        ON_POOL_THREAD.set( Boolean.TRUE );
+                        task.run();
+                      }
+                    }, "parallel-loop-" + threadCount.incrementAndGet() ); //$NON-NLS-1$
+                    thread.setDaemon( true );
+                    return thread;
+                  }
+                } );
+        pool.allowCoreThreadTimeOut( true );
+      }
+      return pool;
+    }
+  }
+
+  private class Iteration {
+
+    private final int index;
+
+    private final RuntimeContext worker;
+
+    private final IActionSequence actions;
+
+    private ActionSequenceException error;
+
+    Iteration( final int index, final RuntimeContext worker, final IActionSequence actions ) {
+      this.index = index;
+      this.worker = worker;
+      this.actions = actions;
+    }
+
+    void prepare() {
+      try {
+        worker.prepareLoopIteration( actions );
+      } catch ( ActionSequenceException e ) {
+        e.setLoopIndex( index );
+        error = e;
+      }
+    }
+
+    void execute( final IActionCompleteListener doneListener, final IExecutionListener execListener,
+        final boolean async ) {
+      if ( error != null ) {
+        // components could not be prepared, the failure is reported when the iteration is merged
+        return;
+      }
+      try {
+        worker.executeLoopIteration( actions, doneListener, execListener, async );
+      } catch ( ActionSequenceException e ) {
+        e.setLoopIndex( index );
+        error = e;
+        /*
+         * Components may throw unchecked exceptions; they are wrapped so the loop can report them like any other
+         * failed iteration instead of losing them on a pool thread.
+         */
+      } catch ( Throwable t ) {
+        error = context.createLoopFailure( "RuntimeContext.ERROR_0036_LOOP_ITERATION_FAILED", index, t ); //$NON-NLS-1$
+      }
+    }
+  }
+
+}
@@ -89,6 +89,26 @@ public class ParameterManager implements IParameterManager {
     sequenceOutputDefs.putAll( actionSequence.getOutputDefinitions() );
   }
 
+  /**
+   * Creates a manager holding copies of the parameters of <code>parent</code>. Values set on the copy are not seen by
+   * <code>parent</code>, which lets loop iterations run side by side.
+   */
+  ParameterManager( final ParameterManager parent ) {
+    this();
+    for ( Iterator it = parent.allParams.entrySet().iterator(); it.hasNext(); ) {
+      Map.Entry entry = (Map.Entry) it.next();
+      Object param = entry.getValue();
+      if ( param instanceof ActionParameter ) {
+        param = ( (ActionParameter) param ).copy();
+      }
+      allParams.put( entry.getKey(), param );
+    }
+    allResources.putAll( parent.allResources );
+    sequenceInputNames = parent.sequenceInputNames;
+    sequenceResourceNames = parent.sequenceResourceNames;
+    sequenceOutputDefs.putAll( parent.sequenceOutputDefs );
+  }
+
   public Map getAllParameters() {
     return ( allParams );
   }
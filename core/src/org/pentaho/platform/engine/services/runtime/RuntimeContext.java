@@ -101,6 +101,7 @@ import org.pentaho.platform.engine.services.PentahoMessenger;
 import org.pentaho.platform.engine.services.SolutionURIResolver;
 import org.pentaho.platform.engine.services.actionsequence.ActionParameter;
 import org.pentaho.platform.engine.services.actionsequence.ActionParameterSource;
+import org.pentaho.platform.engine.services.actionsequence.ActionSequence;
 import org.pentaho.platform.engine.services.actionsequence.ActionSequenceParameterMgr;
 import org.pentaho.platform.engine.services.actionsequence.ActionSequenceResourceWrapper;
 import org.pentaho.platform.engine.services.messages.Messages;
@@ -199,6 +200,12 @@ public class RuntimeContext extends PentahoMessenger implements IRuntimeContext
 
   private IPluginManager pluginManager;
 
+  /**
+   * Values of the parameters a parallel loop iteration started with, keyed by parameter name. Only set on the contexts
+   * created by {@link #createLoopWorker(Map)}.
+   */
+  private Map<Object, Object> loopInheritedValues;
+
   static {
     RuntimeContext.getComponentClassMap();
   }
@@ -265,6 +272,27 @@ public class RuntimeContext extends PentahoMessenger implements IRuntimeContext
 
   }
 
+  /**
+   * Creates the context one iteration of a parallel loop runs in. The iteration sees a copy of the parameters of
+   * <code>parent</code>, collects its own messages and buffers what it writes to the runtime data and the output
+   * handler; see {@link #mergeLoopIteration(RuntimeContext, boolean)}.
+   */
+  private RuntimeContext( final RuntimeContext parent ) {
+    this( parent.instanceId, parent.solutionEngine, null, ( parent.runtimeData == null ) ? null
+        : new LoopRuntimeElement( parent.runtimeData ), parent.session, ( parent.outputHandler == null ) ? null
+        : new LoopOutputHandler( parent.outputHandler ), parent.processId, parent.urlFactory,
+        parent.parameterProviders, new ArrayList(), parent.createFeedbackParameterCallback );
+    this.instanceId = parent.instanceId;
+    this.logId = parent.logId;
+    this.actionSequence = parent.actionSequence;
+    this.audit = parent.audit;
+    this.parameterXsl = parent.parameterXsl;
+    this.parameterTarget = parent.parameterTarget;
+    this.status = IRuntimeContext.RUNTIME_STATUS_RUNNING;
+    setLoggingLevel( parent.getLoggingLevel() );
+    paramManager = new ParameterManager( (ParameterManager) parent.paramManager );
+  }
+
   private IRuntimeElement createChild( boolean persisted ) {
     IRuntimeElement childRuntimeData = null;
     IRuntimeRepository runtimeRepository = PentahoSystem.get( IRuntimeRepository.class, session );
@@ -1040,10 +1068,29 @@ public class RuntimeContext extends PentahoMessenger implements IRuntimeContext
           "RuntimeContext.ERROR_0033_NOT_PEEKABLE" ), //$NON-NLS-1$
           session.getName(), instanceId, getActionSequence().getSequenceName(), null );
     }
-    Object[] row = peekOnly ? ( (IPeekable) loopSet ).peek() : loopSet.next();
     Object[][] headerSet = loopSet.getMetaData().getColumnHeaders();
     // TODO handle OLAP result sets
-    Object[] headers = headerSet[0];
+    final Object[] headers = headerSet[0];
+    if ( isParallelLoop( loopParm, sequence, peekOnly ) ) {
+      new ParallelLoop( this, (ActionSequence) sequence ).run( new ParallelLoop.IterationSource() {
+        public Map<String, IActionParameter> next() {
+          Object[] nextRow = loopSet.next();
+          if ( nextRow == null ) {
+            return null;
+          }
+          Map<String, IActionParameter> variables = new HashMap<String, IActionParameter>();
+          for ( int columnNo = 0; columnNo < headers.length; columnNo++ ) {
+            String name = headers[columnNo].toString();
+            Object value = nextRow[columnNo];
+            variables.put( name, new ActionParameter( name, getLoopValueType( name, value ), value, null, null ) );
+          }
+          return variables;
+        }
+      }, doneListener, execListener, async );
+      status = IRuntimeContext.RUNTIME_STATUS_SUCCESS;
+      return;
+    }
+    Object[] row = peekOnly ? ( (IPeekable) loopSet ).peek() : loopSet.next();
     while ( row != null ) {
       loopCount++;
       if ( RuntimeContext.debug ) {
@@ -1059,24 +1106,7 @@ public class RuntimeContext extends PentahoMessenger implements IRuntimeContext
         for ( int columnNo = 0; columnNo < headers.length; columnNo++ ) {
           String name = headers[columnNo].toString();
           Object value = row[columnNo];
-          String type = null;
-          if ( value instanceof String ) {
-            type = IActionParameter.TYPE_STRING;
-          } else if ( value instanceof Date ) {
-            type = IActionParameter.TYPE_DATE;
-          } else if ( ( value instanceof Long ) || ( value instanceof Integer ) ) {
-            type = IActionParameter.TYPE_INTEGER;
-          } else if ( ( value instanceof BigDecimal ) || ( value instanceof Double ) || ( value instanceof Float ) ) {
-            type = IActionParameter.TYPE_DECIMAL;
-          } else if ( value instanceof String[] ) {
-            type = IActionParameter.TYPE_STRING;
-          } else if ( value == null ) {
-            warn( Messages.getInstance().getString( "RuntimeContext.WARN_VARIABLE_IN_LOOP_IS_NULL", name ) ); //$NON-NLS-1$
-          } else {
-            type = IActionParameter.TYPE_OBJECT;
-            warn( Messages.getInstance().getString(
-                "RuntimeContext.WARN_VARIABLE_IN_LOOP_NOT_RECOGNIZED", name, value.getClass().toString() ) ); //$NON-NLS-1$
-          }
+          String type = getLoopValueType( name, value );
           // TODO make sure any previous loop values are removed
           ap = paramManager.getInput( name );
           if ( ap == null ) {
@@ -1104,6 +1134,20 @@ public class RuntimeContext extends PentahoMessenger implements IRuntimeContext
       final IActionCompleteListener doneListener, final IExecutionListener execListener, final boolean async )
     throws ActionSequenceException {
 
+    if ( isParallelLoop( loopParm, sequence, false ) ) {
+      final Iterator it = loopList.iterator();
+      new ParallelLoop( this, (ActionSequence) sequence ).run( new ParallelLoop.IterationSource() {
+        public Map<String, IActionParameter> next() {
+          if ( !it.hasNext() ) {
+            return null;
+          }
+          return Collections.singletonMap( loopParm.getName(), createListLoopParameter( loopParm, it.next() ) );
+        }
+      }, doneListener, execListener, async );
+      status = IRuntimeContext.RUNTIME_STATUS_SUCCESS;
+      return;
+    }
+
     // execute the actions
     int loopCount = -1;
     for ( Iterator it = loopList.iterator(); it.hasNext(); ) {
@@ -1118,14 +1162,7 @@ public class RuntimeContext extends PentahoMessenger implements IRuntimeContext
       }
       Object loopVar = it.next();
       if ( loopParm != null ) {
-        IActionParameter ap;
-        if ( loopVar instanceof Map ) {
-          ap = new ActionParameter( loopParm.getName(), "property-map", loopVar, null, null ); //$NON-NLS-1$
-        } else {
-          ap = new ActionParameter( loopParm.getName(), "string", loopVar, null, null ); //$NON-NLS-1$
-        }
-
-        addInputParameter( loopParm.getName(), ap );
+        addInputParameter( loopParm.getName(), createListLoopParameter( loopParm, loopVar ) );
       }
 
       try {
@@ -1141,6 +1178,142 @@ public class RuntimeContext extends PentahoMessenger implements IRuntimeContext
     status = IRuntimeContext.RUNTIME_STATUS_SUCCESS;
   }
 
+  private IActionParameter createListLoopParameter( final IActionParameter loopParm, final Object loopVar ) {
+    if ( loopVar instanceof Map ) {
+      return new ActionParameter( loopParm.getName(), "property-map", loopVar, null, null ); //$NON-NLS-1$
+    }
+    return new ActionParameter( loopParm.getName(), "string", loopVar, null, null ); //$NON-NLS-1$
+  }
+
+  private String getLoopValueType( final String name, final Object value ) {
+    String type = null;
+    if ( value instanceof String ) {
+      type = IActionParameter.TYPE_STRING;
+    } else if ( value instanceof Date ) {
+      type = IActionParameter.TYPE_DATE;
+    } else if ( ( value instanceof Long ) || ( value instanceof Integer ) ) {
+      type = IActionParameter.TYPE_INTEGER;
+    } else if ( ( value instanceof BigDecimal ) || ( value instanceof Double ) || ( value instanceof Float ) ) {
+      type = IActionParameter.TYPE_DECIMAL;
+    } else if ( value instanceof String[] ) {
+      type = IActionParameter.TYPE_STRING;
+    } else if ( value == null ) {
+      warn( Messages.getInstance().getString( "RuntimeContext.WARN_VARIABLE_IN_LOOP_IS_NULL", name ) ); //$NON-NLS-1$
+    } else {
+      type = IActionParameter.TYPE_OBJECT;
+      warn( Messages.getInstance().getString(
+          "RuntimeContext.WARN_VARIABLE_IN_LOOP_NOT_RECOGNIZED", name, value.getClass().toString() ) ); //$NON-NLS-1$
+    }
+    return type;
+  }
+
+  /**
+   * A loop runs in parallel when its actions element asks for it and its iterations can be isolated from each other.
+   * Peek-only loops hand the result set to the actions themselves and always run serially.
+   */
+  private boolean isParallelLoop( final IActionParameter loopParm, final IActionSequence sequence,
+      final boolean peekOnly ) {
+    if ( !( sequence instanceof ActionSequence ) || !( (ActionSequence) sequence ).getLoopInParallel()
+        || ( loopParm == null ) ) {
+      return false;
+    }
+    if ( peekOnly || !( paramManager instanceof ParameterManager ) ) {
+      warn( Messages.getInstance().getString( "RuntimeContext.WARN_PARALLEL_LOOP_NOT_SUPPORTED", loopParm.getName() ) ); //$NON-NLS-1$
+      return false;
+    }
+    return true;
+  }
+
+  /**
+   * Announces iteration <code>loopIndex</code> of a parallel loop. Called on the looping thread, in loop order.
+   */
+  void startLoopIteration( final int loopIndex, final IExecutionListener execListener ) {
+    if ( RuntimeContext.debug ) {
+      debug( Messages.getInstance().getString( "RuntimeContext.DEBUG_EXECUTING_ACTION", Integer.toString( loopIndex ) ) ); //$NON-NLS-1$
+    }
+    if ( execListener != null ) {
+      execListener.loop( this, loopIndex );
+    }
+  }
+
+  /**
+   * Creates the context for one iteration of a parallel loop, with <code>loopVariables</code> set on top of a copy of
+   * the current parameters.
+   */
+  RuntimeContext createLoopWorker( final Map<String, IActionParameter> loopVariables ) {
+    RuntimeContext worker = new RuntimeContext( this );
+    worker.loopInheritedValues = new HashMap<Object, Object>();
+    for ( Iterator it = worker.paramManager.getAllParameters().entrySet().iterator(); it.hasNext(); ) {
+      Map.Entry entry = (Map.Entry) it.next();
+      IActionParameter param = (IActionParameter) entry.getValue();
+      worker.loopInheritedValues.put( entry.getKey(), ( param == null ) ? null : param.getValue() );
+    }
+    for ( Map.Entry<String, IActionParameter> variable : loopVariables.entrySet() ) {
+      worker.addInputParameter( variable.getKey(), variable.getValue() );
+    }
+    return worker;
+  }
+
+  /**
+   * Resolves and validates the components of <code>iterationSequence</code> against this (worker) context. Called on
+   * the looping thread, so component factories are never used concurrently.
+   */
+  void prepareLoopIteration( final IActionSequence iterationSequence ) throws ActionSequenceException {
+    validateComponents( iterationSequence, null );
+  }
+
+  /**
+   * Runs the components prepared by {@link #prepareLoopIteration(IActionSequence)}. Called on a pool thread.
+   */
+  void executeLoopIteration( final IActionSequence iterationSequence, final IActionCompleteListener doneListener,
+      final IExecutionListener execListener, final boolean async ) throws ActionSequenceException {
+    performActions( iterationSequence, doneListener, execListener, async );
+  }
+
+  /**
+   * Folds the outcome of a parallel loop iteration back into this context: its messages always, and if it
+   * <code>succeeded</code> the runtime data, content and outputs it wrote and the parameters it created or changed,
+   * the same way a serial iteration leaves them behind. Called on the looping thread.
+   */
+  void mergeLoopIteration( final RuntimeContext worker, final boolean succeeded ) {
+    if ( getMessages() != null ) {
+      getMessages().addAll( worker.getMessages() );
+    }
+    if ( !succeeded ) {
+      return;
+    }
+    if ( worker.runtimeData instanceof LoopRuntimeElement ) {
+      ( (LoopRuntimeElement) worker.runtimeData ).apply();
+    }
+    if ( worker.outputHandler instanceof LoopOutputHandler ) {
+      try {
+        ( (LoopOutputHandler) worker.outputHandler ).apply();
+      } catch ( IOException e ) {
+        error( Messages.getInstance().getErrorString( "RuntimeContext.ERROR_0038_LOOP_OUTPUT_FAILED" ), e ); //$NON-NLS-1$
+      }
+    }
+    for ( Iterator it = worker.paramManager.getAllParameters().entrySet().iterator(); it.hasNext(); ) {
+      Map.Entry entry = (Map.Entry) it.next();
+      IActionParameter param = (IActionParameter) entry.getValue();
+      if ( param == null ) {
+        continue;
+      }
+      if ( !worker.loopInheritedValues.containsKey( entry.getKey() )
+          || ( worker.loopInheritedValues.get( entry.getKey() ) != param.getValue() ) ) {
+        paramManager.addToAllInputs( (String) entry.getKey(), param );
+      }
+    }
+  }
+
+  ActionSequenceException createLoopFailure( final String messageKey, final int loopIndex, final Throwable cause ) {
+    String message = Messages.getInstance().getErrorString( messageKey, Integer.toString( loopIndex ) );
+    ActionSequenceException failure =
+        new ActionExecutionException( message, cause, session.getName(), instanceId, getActionSequence()
+            .getSequenceName(), null );
+    failure.setLoopIndex( loopIndex );
+    return failure;
+  }
+
   private void performActions( final IActionSequence sequence, final IActionCompleteListener doneListener,
       final IExecutionListener execListener, final boolean async ) throws ActionSequenceException {
     IConditionalExecution conditional = sequence.getConditionalExecution();
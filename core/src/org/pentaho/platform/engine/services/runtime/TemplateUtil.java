@@ -20,8 +20,10 @@ package org.pentaho.platform.engine.services.runtime;
 
 import java.util.ArrayList;
 import java.util.Calendar;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
@@ -69,6 +71,22 @@ public class TemplateUtil {
 
   private static final List<String> SystemInputs = new ArrayList<String>();
 
+  private static final int MAX_CACHED_TEMPLATES = 512;
+
+  private static final int MAX_CACHED_PATTERNS = 64;
+
+  private static final int MAX_CACHED_DATE_EXPRESSIONS = 1024;
+
+  private static final int MAX_CACHED_DATE_EXPRESSION_LENGTH = 256;
+
+  private static final Map<TemplateKey, CompiledTemplate> templateCache = TemplateUtil
+      .newLruCache( TemplateUtil.MAX_CACHED_TEMPLATES );
+
+  private static final Map<String, Pattern> patternCache = TemplateUtil.newLruCache( TemplateUtil.MAX_CACHED_PATTERNS );
+
+  private static final Map<String, DateExpression> dateExpressionCache = TemplateUtil
+      .newLruCache( TemplateUtil.MAX_CACHED_DATE_EXPRESSIONS );
+
   private static final Log logger = LogFactory.getLog( TemplateUtil.class );
 
   static {
@@ -107,7 +125,11 @@ public class TemplateUtil {
 
   public static String applyTemplate( final String template, final IRuntimeContext context,
       final String parameterPatternStr ) {
-    Pattern pattern = Pattern.compile( parameterPatternStr );
+    Pattern pattern = TemplateUtil.patternCache.get( parameterPatternStr );
+    if ( pattern == null ) {
+      pattern = Pattern.compile( parameterPatternStr );
+      TemplateUtil.patternCache.put( parameterPatternStr, pattern );
+    }
     return TemplateUtil.applyTemplate( template, new InputProperties( context ), pattern, null );
   }
 
@@ -120,6 +142,9 @@ public class TemplateUtil {
    * Processes a template by processing the parameters declared in the template. The parameters to be replaced are
    * enclosed in curly brackets. Parameters can be the input values (as specified by the name of the input value) or
    * date expressions. Parameters that can not be processed are left in the template.
+   * <p>
+   * The template is only searched for parameters the first time it is seen with a given pattern; the parameters found
+   * are cached and later calls only look up their values.
    * 
    * @param template
    *          the template specification.
@@ -136,78 +161,66 @@ public class TemplateUtil {
    */
   public static String applyTemplate( final String template, final Properties inputs, final Pattern parameterPattern,
       final IParameterResolver resolver ) {
-    StringBuffer results = new StringBuffer();
-    Matcher parameterMatcher = parameterPattern.matcher( template );
+    CompiledTemplate compiled = TemplateUtil.compile( template, parameterPattern );
+    StringBuffer results = new StringBuffer( template.length() + 16 );
+    Matcher parameterMatcher = null;
     int copyStart = 0;
 
-    while ( parameterMatcher.find() ) {
-      int start = parameterMatcher.start();
-      String parameter = parameterMatcher.group( 1 );
+    for ( TemplateParameter parameter : compiled.parameters ) {
       String value = null;
-      int colonPosition = parameter.indexOf( ':' );
-      boolean hasSpaces = parameter.indexOf( ' ' ) != -1;
-      boolean isTableTemplate = !hasSpaces && parameter.indexOf( ":col:" ) != -1; //$NON-NLS-1$
-      boolean isComponentResoved = !hasSpaces && colonPosition != -1;
-      boolean isNamedParameter = !hasSpaces;
-      boolean isDateParamter = hasSpaces;
-      if ( isTableTemplate ) {
-        TemplateUtil.applyTableTemplate( template, inputs, parameterPattern, results );
+      if ( parameter.isTableTemplate ) {
+        TemplateUtil.applyTableTemplate( compiled, inputs, results );
         return results.toString();
       }
-      if ( isComponentResoved ) {
+      if ( parameter.isComponentResolved ) {
         // Allow alternate parameter resolution to be provided by the
         // component.
         if ( resolver != null ) {
-          int newCopyStart = resolver.resolveParameter( template, parameter, parameterMatcher, copyStart, results );
+          // resolvers read the position of the parameter from the matcher
+          if ( parameterMatcher == null ) {
+            parameterMatcher = parameterPattern.matcher( template );
+          }
+          parameterMatcher.find( parameter.start );
+          int newCopyStart =
+              resolver.resolveParameter( template, parameter.name, parameterMatcher, copyStart, results );
           if ( newCopyStart >= 0 ) {
             copyStart = newCopyStart;
             continue;
           }
         }
-        StringTokenizer tokenizer = new StringTokenizer( parameter, ":" ); //$NON-NLS-1$
-        if ( tokenizer.countTokens() >= 5 ) {
+        if ( parameter.dataTableKey != null ) {
           // this looks like a data table key
-          parameter = tokenizer.nextToken();
-          String keyColumn = tokenizer.nextToken();
-          String keyValue = tokenizer.nextToken();
-          String valueColumn = tokenizer.nextToken();
-          StringBuffer defaultValue = new StringBuffer();
-          defaultValue.append( tokenizer.nextToken() );
-          while ( tokenizer.hasMoreTokens() ) {
-            defaultValue.append( ':' ).append( tokenizer.nextToken() );
-          }
           // see if we can find this in the data
           if ( inputs instanceof InputProperties ) {
-            value =
-                ( (InputProperties) inputs ).getProperty( parameter, keyColumn, keyValue, valueColumn, defaultValue
-                    .toString() );
+            String[] key = parameter.dataTableKey;
+            value = ( (InputProperties) inputs ).getProperty( key[0], key[1], key[2], key[3], key[4] );
           }
         }
-      } else if ( isNamedParameter ) {
+      } else if ( parameter.isNamedParameter ) {
         // TODO support type conversion
-        value = inputs.getProperty( parameter );
+        value = inputs.getProperty( parameter.name );
         if ( value == null ) {
           if ( TemplateUtil.logger.isDebugEnabled() ) {
-            TemplateUtil.logger.debug( Messages.getInstance().getString( "TemplateUtil.NOT_FOUND", parameter ) ); //$NON-NLS-1$
+            TemplateUtil.logger.debug( Messages.getInstance().getString( "TemplateUtil.NOT_FOUND", parameter.name ) ); //$NON-NLS-1$
           }
         }
       }
 
-      results.append( template.substring( copyStart, start ) );
-      copyStart = parameterMatcher.end();
-      if ( isDateParamter || value == null ) {
-        value = TemplateUtil.matchDateRegex( parameter, inputs );
+      results.append( template, copyStart, parameter.start );
+      copyStart = parameter.end;
+      if ( parameter.isDateParameter || value == null ) {
+        value = parameter.dateExpression.evaluate( inputs );
       }
 
       if ( value == null ) {
-        results.append( parameterMatcher.group() );
+        results.append( parameter.text );
       } else {
         results.append( value );
       }
     }
 
     if ( copyStart < template.length() ) {
-      results.append( template.substring( copyStart ) );
+      results.append( template, copyStart, template.length() );
     }
 
     return results.toString();
@@ -215,15 +228,20 @@ public class TemplateUtil {
 
   public static void applyTableTemplate( final String template, final Properties inputs,
       final Pattern parameterPattern, final StringBuffer results ) {
-    Matcher parameterMatcher = parameterPattern.matcher( template );
+    TemplateUtil.applyTableTemplate( TemplateUtil.compile( template, parameterPattern ), inputs, results );
+  }
+
+  private static void applyTableTemplate( final CompiledTemplate compiled, final Properties inputs,
+      final StringBuffer results ) {
+    String template = compiled.template;
     ArrayList<String> partsList = new ArrayList<String>();
     ArrayList<Integer> columnsList = new ArrayList<Integer>();
     int idx = 0;
     int lastEnd = 0;
     IPentahoResultSet data = null;
-    while ( parameterMatcher.find() ) {
-      int start = parameterMatcher.start();
-      String parameter = parameterMatcher.group( 1 );
+    for ( TemplateParameter templateParameter : compiled.parameters ) {
+      int start = templateParameter.start;
+      String parameter = templateParameter.name;
       // pull out the repeating part
       int pos1 = parameter.indexOf( ":col:" ); //$NON-NLS-1$ 
       if ( pos1 > -1 ) {
@@ -260,7 +278,7 @@ public class TemplateUtil {
           }
         }
         partsList.add( part );
-        lastEnd = parameterMatcher.end();
+        lastEnd = templateParameter.end;
       } else {
         // don't support this yet
       }
@@ -370,12 +388,29 @@ public class TemplateUtil {
   }
 
   /**
-   * Uses regex matching to see if the input parameter appears to be a date expression
+   * Uses regex matching to see if the input parameter appears to be a date expression. Which kind of expression a
+   * parameter is, if any, is only worked out once and cached.
    * 
    * @param parameter
    * @return the value of the calculated date
    */
   public static String matchDateRegex( String parameter, final Properties inputs ) {
+    if ( parameter.length() > TemplateUtil.MAX_CACHED_DATE_EXPRESSION_LENGTH ) {
+      // far too long to be a date, and not worth holding on to
+      return DateExpression.compile( parameter ).evaluate( inputs );
+    }
+    DateExpression expression = TemplateUtil.dateExpressionCache.get( parameter );
+    if ( expression == null ) {
+      expression = DateExpression.compile( parameter );
+      TemplateUtil.dateExpressionCache.put( parameter, expression );
+    }
+    return expression.evaluate( inputs );
+  }
+
+  /**
+   * Evaluates a date expression by matching it against each kind of date expression in turn.
+   */
+  private static String evaluateDateRegex( String parameter, final Properties inputs ) {
 
     // try a 'expression' pattern
     Matcher dateMatcher = TemplateUtil.dateExpressionPattern.matcher( parameter );
@@ -606,6 +641,243 @@ public class TemplateUtil {
     }
   }
 
+  private static <K, V> Map<K, V> newLruCache( final int maxEntries ) {
+    return Collections.synchronizedMap( new LinkedHashMap<K, V>( 16, 0.75f, true ) {
+      private static final long serialVersionUID = 1L;
+
+      @Override
+      protected boolean removeEldestEntry( final Map.Entry<K, V> eldest ) {
+        return size() > maxEntries;
+      }
+    } );
+  }
+
+  private static CompiledTemplate compile( final String template, final Pattern parameterPattern ) {
+    TemplateKey key = new TemplateKey( template, parameterPattern );
+    CompiledTemplate compiled = TemplateUtil.templateCache.get( key );
+    if ( compiled == null ) {
+      compiled = new CompiledTemplate( template, parameterPattern );
+      TemplateUtil.templateCache.put( key, compiled );
+    }
+    return compiled;
+  }
+
+  /**
+   * Identifies a template together with the pattern its parameters are found with.
+   */
+  private static class TemplateKey {
+
+    private final String template;
+
+    private final String pattern;
+
+    private final int flags;
+
+    TemplateKey( final String template, final Pattern parameterPattern ) {
+      this.template = template;
+      this.pattern = parameterPattern.pattern();
+      this.flags = parameterPattern.flags();
+    }
+
+    @Override
+    public int hashCode() {
+      return template.hashCode() * 31 + pattern.hashCode();
+    }
+
+    @Override
+    public boolean equals( final Object obj ) {
+      if ( !( obj instanceof TemplateKey ) ) {
+        return false;
+      }
+      TemplateKey other = (TemplateKey) obj;
+      return flags == other.flags && template.equals( other.template ) && pattern.equals( other.pattern );
+    }
+  }
+
+  /**
+   * A template split into its parameters, in the order they appear. The text between them is copied from the template
+   * itself.
+   */
+  private static class CompiledTemplate {
+
+    private final String template;
+
+    private final TemplateParameter[] parameters;
+
+    CompiledTemplate( final String template, final Pattern parameterPattern ) {
+      this.template = template;
+      List<TemplateParameter> found = new ArrayList<TemplateParameter>();
+      Matcher parameterMatcher = parameterPattern.matcher( template );
+      while ( parameterMatcher.find() ) {
+        found.add( new TemplateParameter( parameterMatcher ) );
+      }
+      parameters = found.toArray( new TemplateParameter[found.size()] );
+    }
+  }
+
+  /**
+   * A parameter of a template, classified the way {@link TemplateUtil#applyTemplate(String, Properties, Pattern,
+   * IParameterResolver)} treats it.
+   */
+  private static class TemplateParameter {
+
+    private final int start;
+
+    private final int end;
+
+    /** the parameter without its brackets */
+    private final String name;
+
+    /** the parameter as it appears in the template, left in place if it cannot be resolved */
+    private final String text;
+
+    private final boolean isTableTemplate;
+
+    private final boolean isComponentResolved;
+
+    private final boolean isNamedParameter;
+
+    private final boolean isDateParameter;
+
+    /** the input, key column, key value, value column and default value of a data table key, if it is one */
+    private final String[] dataTableKey;
+
+    private final DateExpression dateExpression;
+
+    TemplateParameter( final Matcher parameterMatcher ) {
+      start = parameterMatcher.start();
+      end = parameterMatcher.end();
+      name = parameterMatcher.group( 1 );
+      text = parameterMatcher.group();
+      int colonPosition = name.indexOf( ':' );
+      boolean hasSpaces = name.indexOf( ' ' ) != -1;
+      isTableTemplate = !hasSpaces && name.indexOf( ":col:" ) != -1; //$NON-NLS-1$
+      isComponentResolved = !hasSpaces && colonPosition != -1;
+      isNamedParameter = !hasSpaces;
+      isDateParameter = hasSpaces;
+
+      String[] key = null;
+      if ( isComponentResolved ) {
+        StringTokenizer tokenizer = new StringTokenizer( name, ":" ); //$NON-NLS-1$
+        if ( tokenizer.countTokens() >= 5 ) {
+          key = new String[5];
+          for ( int i = 0; i < 4; i++ ) {
+            key[i] = tokenizer.nextToken();
+          }
+          StringBuffer defaultValue = new StringBuffer();
+          defaultValue.append( tokenizer.nextToken() );
+          while ( tokenizer.hasMoreTokens() ) {
+            defaultValue.append( ':' ).append( tokenizer.nextToken() );
+          }
+          key[4] = defaultValue.toString();
+        }
+      }
+      dataTableKey = key;
+      // a data table key that is not found is tried as a date by the name of its input alone
+      dateExpression = DateExpression.compile( key == null ? name : key[0] );
+    }
+  }
+
+  /**
+   * What {@link TemplateUtil#matchDateRegex(String, Properties)} makes of a parameter, worked out once so that only
+   * the date itself is calculated on each use.
+   */
+  private static class DateExpression {
+
+    /** not a date expression */
+    private static final int NONE = 0;
+
+    /**
+     * a relative date expression, calculated with {@link DateMath}, which when that gives no date is matched against
+     * the other kinds of expression
+     */
+    private static final int CALCULATE = 1;
+
+    /**
+     * a <code>DATEMATH('expression')</code> wrapping another expression, which when that gives no date is matched
+     * against the other kinds of expression
+     */
+    private static final int NESTED = 2;
+
+    /** a date in yyyy-MM-dd format */
+    private static final int LITERAL = 3;
+
+    /** depends on the inputs, such as <code>DATEMATH:varname</code>, so it is matched again on every use */
+    private static final int DYNAMIC = 4;
+
+    private static final DateExpression NOT_A_DATE = new DateExpression( DateExpression.NONE, null, null, null );
+
+    private final int type;
+
+    /** the parameter as written */
+    private final String parameter;
+
+    /** the expression to calculate or the date itself */
+    private final String expression;
+
+    private final DateExpression nested;
+
+    DateExpression( final int type, final String parameter, final String expression, final DateExpression nested ) {
+      this.type = type;
+      this.parameter = parameter;
+      this.expression = expression;
+      this.nested = nested;
+    }
+
+    static DateExpression compile( final String parameter ) {
+      if ( TemplateUtil.dateExpressionPattern.matcher( parameter ).matches() ) {
+        // default to yyyy-MM-dd format for date strings
+        return new DateExpression( DateExpression.CALCULATE, parameter, parameter.indexOf( ';' ) != -1 ? parameter
+            : parameter + ";yyyy-MM-dd", null ); //$NON-NLS-1$
+      }
+      if ( TemplateUtil.dateMathExpressionPattern.matcher( parameter ).matches() ) {
+        int pos = parameter.indexOf( '\'' );
+        if ( pos == -1 ) {
+          pos = parameter.indexOf( '"' );
+        }
+        if ( pos != -1 ) {
+          String inner = parameter.substring( pos + 1 );
+          pos = inner.lastIndexOf( '\'' );
+          if ( pos == -1 ) {
+            pos = inner.lastIndexOf( '"' );
+          }
+          if ( pos != -1 ) {
+            inner = inner.substring( 0, pos );
+            return new DateExpression( DateExpression.NESTED, parameter, null, DateExpression.compile( inner ) );
+          }
+        }
+        return new DateExpression( DateExpression.DYNAMIC, parameter, null, null );
+      }
+      if ( TemplateUtil.dateMathVarPattern.matcher( parameter ).matches() ) {
+        return new DateExpression( DateExpression.DYNAMIC, parameter, null, null );
+      }
+      if ( TemplateUtil.datePattern.matcher( parameter ).matches() ) {
+        return new DateExpression( DateExpression.LITERAL, parameter, parameter, null );
+      }
+      return DateExpression.NOT_A_DATE;
+    }
+
+    String evaluate( final Properties inputs ) {
+      String value;
+      switch ( type ) {
+        case CALCULATE:
+          value = DateMath.calculateDateString( null, expression );
+          break;
+        case NESTED:
+          value = nested.evaluate( inputs );
+          break;
+        case LITERAL:
+          return expression;
+        case DYNAMIC:
+          return TemplateUtil.evaluateDateRegex( parameter, inputs );
+        default:
+          return null;
+      }
+      // fall through to the other kinds of expression, as matching the parameter in turn does
+      return value != null ? value : TemplateUtil.evaluateDateRegex( parameter, inputs );
+    }
+  }
+
   public static Properties parametersToProperties( final IParameterProvider parameterProvider ) {
     Properties properties = new Properties();
     Iterator names = parameterProvider.getParameterNames();
@@ -0,0 +1,595 @@
+/*
+ * This program is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License, version 2 as published by the Free Software
+ * Foundation.
+ *
+ * You should have received a copy of the GNU General Public License along with this
+ * program; if not, you can obtain a copy at http://www.gnu.org/licenses/gpl-2.0.html
+ * or from the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ *
+ * Copyright 2006 - 2013 Pentaho Corporation.  All rights reserved.
+ */
+
+package org.pentaho.platform.uifoundation.chart;
+
+import java.awt.geom.Rectangle2D;
+import java.io.File;
+import java.io.FileFilter;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.codec.binary.Hex;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.jfree.chart.ChartRenderingInfo;
+import org.jfree.chart.entity.ChartEntity;
+import org.jfree.chart.entity.EntityCollection;
+import org.jfree.data.category.CategoryDataset;
+import org.jfree.data.general.Dataset;
+import org.jfree.data.general.PieDataset;
+import org.jfree.data.general.ValueDataset;
+import org.jfree.data.xy.XYDataset;
+import org.jfree.data.xy.XYZDataset;
+import org.pentaho.platform.engine.core.system.PentahoSystem;
+import org.pentaho.platform.uifoundation.messages.Messages;
+import org.pentaho.platform.util.messages.LocaleHelper;
+
+/**
+ * Holds rendered charts so that a chart viewed over and over with the same data, for instance on a dashboard shared by
+ * many users, is drawn once.
+ * <p>
+ * Renders are content addressed: the key is a digest of the dataset values, the chart definition, the title, the size,
+ * the output type and the locale, and the image is written to <code>system/tmp/chart_&lt;key&gt;.png</code> (or
+ * <code>.svg</code>), so identical charts share one file and one URL, and the key doubles as the image's ETag.
+ * <p>
+ * The cache has two tiers, bounded separately. The image files, together with the rendering info image maps are built
+ * from, are bounded by number and by total size on disk; a file is deleted when its entry is evicted, rather than when
+ * the session that first rendered it ends. The image bytes kept in memory for serving are bounded by total size. The
+ * bounds default to the <code>chart-render-cache-max-entries</code> (500),
+ * <code>chart-render-cache-max-disk-kb</code> (65536) and <code>chart-render-cache-max-memory-kb</code> (8192) system
+ * settings. The most recent render is always kept, whatever the bounds.
+ * <p>
+ * The page showing a chart fetches its image in a later request, so the file of an evicted chart is not deleted at
+ * once, but kept for the <code>chart-render-cache-evicted-file-grace-seconds</code> system setting (60) and deleted by
+ * a later {@link #put(String, String, byte[], ChartRenderingInfo)} once that time is up. Files waiting to be deleted do
+ * not count towards the disk bound.
+ */
+public class ChartRenderCache {
+
+  /**
+   * System setting holding the number of rendered charts kept.
+   */
+  public static final String MAX_ENTRIES_SETTING = "chart-render-cache-max-entries"; //$NON-NLS-1$
+
+  /**
+   * System setting holding the total size, in kilobytes, of the rendered chart files kept.
+   */
+  public static final String MAX_DISK_KB_SETTING = "chart-render-cache-max-disk-kb"; //$NON-NLS-1$
+
+  /**
+   * System setting holding the total size, in kilobytes, of the rendered charts kept in memory.
+   */
+  public static final String MAX_MEMORY_KB_SETTING = "chart-render-cache-max-memory-kb"; //$NON-NLS-1$
+
+  /**
+   * System setting holding the number of seconds the file of an evicted chart is kept, so that pages rendered before
+   * the eviction can still fetch it.
+   */
+  public static final String EVICTED_FILE_GRACE_SECONDS_SETTING = "chart-render-cache-evicted-file-grace-seconds"; //$NON-NLS-1$
+
+  public static final int DEFAULT_MAX_ENTRIES = 500;
+
+  public static final int DEFAULT_MAX_DISK_KB = 65536;
+
+  public static final int DEFAULT_MAX_MEMORY_KB = 8192;
+
+  public static final int DEFAULT_EVICTED_FILE_GRACE_SECONDS = 60;
+
+  /**
+   * Prefix of the names of the files written by the cache.
+   */
+  public static final String FILENAME_PREFIX = "chart_"; //$NON-NLS-1$
+
+  private static final String TEMP_DIRECTORY = "system/tmp"; //$NON-NLS-1$
+
+  private static final String ENCODING = "UTF-8"; //$NON-NLS-1$
+
+  private static final Log log = LogFactory.getLog( ChartRenderCache.class );
+
+  private static ChartRenderCache instance;
+
+  private final File directory;
+
+  private final int maxEntries;
+
+  private final long maxDiskBytes;
+
+  private final long maxMemoryBytes;
+
+  private final long evictedFileGraceMillis;
+
+  private final LinkedHashMap<String, RenderedChart> charts = new LinkedHashMap<String, RenderedChart>( 16, 0.75f,
+      true );
+
+  private final LinkedHashMap<String, byte[]> contents = new LinkedHashMap<String, byte[]>( 16, 0.75f, true );
+
+  /**
+   * Files of evicted charts waiting to be deleted, with the time they were evicted, in eviction order.
+   */
+  private final LinkedHashMap<File, Long> evictedFiles = new LinkedHashMap<File, Long>();
+
+  private long diskBytes;
+
+  private long memoryBytes;
+
+  /**
+   * Creates a cache writing its files to <code>directory</code> and keeping the files of evicted charts for the default
+   * grace period.
+   */
+  public ChartRenderCache( final File directory, final int maxEntries, final long maxDiskBytes,
+      final long maxMemoryBytes ) {
+    this( directory, maxEntries, maxDiskBytes, maxMemoryBytes, DEFAULT_EVICTED_FILE_GRACE_SECONDS * 1000L );
+  }
+
+  /**
+   * Creates a cache writing its files to <code>directory</code>. Files left there by an earlier cache are deleted, as
+   * the rendering info needed to reuse them is gone.
+   * 
+   * @param evictedFileGraceMillis
+   *          how long the file of an evicted chart is kept before it is deleted; 0 deletes it at once
+   */
+  public ChartRenderCache( final File directory, final int maxEntries, final long maxDiskBytes,
+      final long maxMemoryBytes, final long evictedFileGraceMillis ) {
+    this.directory = directory;
+    this.maxEntries = maxEntries;
+    this.maxDiskBytes = maxDiskBytes;
+    this.maxMemoryBytes = maxMemoryBytes;
+    this.evictedFileGraceMillis = evictedFileGraceMillis;
+    if ( !directory.isDirectory() ) {
+      directory.mkdirs();
+    }
+    deleteStaleFiles();
+  }
+
+  public static synchronized ChartRenderCache getInstance() {
+    if ( instance == null ) {
+      File directory = new File( PentahoSystem.getApplicationContext().getSolutionPath( TEMP_DIRECTORY ) );
+      instance =
+          new ChartRenderCache( directory, getSetting( MAX_ENTRIES_SETTING, DEFAULT_MAX_ENTRIES ), getSetting(
+              MAX_DISK_KB_SETTING, DEFAULT_MAX_DISK_KB ) * 1024L, getSetting( MAX_MEMORY_KB_SETTING,
+              DEFAULT_MAX_MEMORY_KB ) * 1024L, getSetting( EVICTED_FILE_GRACE_SECONDS_SETTING,
+              DEFAULT_EVICTED_FILE_GRACE_SECONDS ) * 1000L );
+    }
+    return instance;
+  }
+
+  private static int getSetting( final String name, final int defaultValue ) {
+    String setting = PentahoSystem.getSystemSetting( name, null );
+    if ( setting != null ) {
+      try {
+        return Integer.parseInt( setting.trim() );
+      } catch ( NumberFormatException e ) {
+        log.warn( Messages.getInstance().getString( "ChartRenderCache.WARN_INVALID_SETTING", name, setting ) ); //$NON-NLS-1$
+      }
+    }
+    return defaultValue;
+  }
+
+  /**
+   * Computes the key of a chart from everything its image depends on.
+   * 
+   * @param dataset
+   *          the dataset to chart
+   * @param definition
+   *          the chart definition the dataset was created from, typically its XML
+   * @param title
+   *          the title of the chart
+   * @param units
+   *          the units of the chart value
+   * @param width
+   *          the width of the image
+   * @param height
+   *          the height of the image
+   * @param outputType
+   *          the type of the image
+   * @return the key, or <code>null</code> if the values of this type of dataset cannot be read
+   */
+  public static String getKey( final Dataset dataset, final String definition, final String title, final String units,
+      final int width, final int height, final int outputType ) {
+    MessageDigest digest;
+    try {
+      digest = MessageDigest.getInstance( "SHA-1" ); //$NON-NLS-1$
+    } catch ( NoSuchAlgorithmException e ) {
+      return null;
+    }
+    if ( !updateDataset( digest, dataset ) ) {
+      return null;
+    }
+    update( digest, definition );
+    update( digest, title );
+    update( digest, units );
+    update( digest, width + "x" + height + ":" + outputType + ":" + LocaleHelper.getLocale() ); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+    return new String( Hex.encodeHex( digest.digest() ) );
+  }
+
+  private static boolean updateDataset( final MessageDigest digest, final Dataset dataset ) {
+    if ( dataset == null ) {
+      return false;
+    }
+    update( digest, dataset.getClass().getName() );
+    if ( dataset instanceof XYDataset ) {
+      XYDataset xyDataset = (XYDataset) dataset;
+      XYZDataset xyzDataset = dataset instanceof XYZDataset ? (XYZDataset) dataset : null;
+      update( digest, xyDataset.getSeriesCount() );
+      for ( int series = 0; series < xyDataset.getSeriesCount(); series++ ) {
+        update( digest, xyDataset.getSeriesKey( series ) );
+        update( digest, xyDataset.getItemCount( series ) );
+        for ( int item = 0; item < xyDataset.getItemCount( series ); item++ ) {
+          update( digest, xyDataset.getXValue( series, item ) );
+          update( digest, xyDataset.getYValue( series, item ) );
+          if ( xyzDataset != null ) {
+            update( digest, xyzDataset.getZValue( series, item ) );
+          }
+        }
+      }
+    } else if ( dataset instanceof CategoryDataset ) {
+      CategoryDataset categoryDataset = (CategoryDataset) dataset;
+      update( digest, categoryDataset.getRowCount() );
+      update( digest, categoryDataset.getColumnCount() );
+      for ( int column = 0; column < categoryDataset.getColumnCount(); column++ ) {
+        update( digest, categoryDataset.getColumnKey( column ) );
+      }
+      for ( int row = 0; row < categoryDataset.getRowCount(); row++ ) {
+        update( digest, categoryDataset.getRowKey( row ) );
+        for ( int column = 0; column < categoryDataset.getColumnCount(); column++ ) {
+          update( digest, categoryDataset.getValue( row, column ) );
+        }
+      }
+    } else if ( dataset instanceof PieDataset ) {
+      PieDataset pieDataset = (PieDataset) dataset;
+      update( digest, pieDataset.getItemCount() );
+      for ( int item = 0; item < pieDataset.getItemCount(); item++ ) {
+        update( digest, pieDataset.getKey( item ) );
+        update( digest, pieDataset.getValue( item ) );
+      }
+    } else if ( dataset instanceof ValueDataset ) {
+      update( digest, ( (ValueDataset) dataset ).getValue() );
+    } else {
+      return false;
+    }
+    return true;
+  }
+
+  private static void update( final MessageDigest digest, final Object value ) {
+    if ( value == null ) {
+      digest.update( (byte) 0 );
+      return;
+    }
+    byte[] bytes;
+    try {
+      bytes = value.toString().getBytes( ENCODING );
+    } catch ( UnsupportedEncodingException e ) {
+      throw new IllegalStateException( e );
+    }
+    // prefix each value with its length, so that the boundaries between values count
+    int length = bytes.length;
+    digest.update( new byte[] { 1, (byte) ( length >>> 24 ), (byte) ( length >>> 16 ), (byte) ( length >>> 8 ),
+      (byte) length } );
+    digest.update( bytes );
+  }
+
+  /**
+   * @return the chart rendered for this key, or <code>null</code> if there is none or its file has gone
+   */
+  public synchronized RenderedChart get( final String key ) {
+    RenderedChart chart = charts.get( key );
+    if ( ( chart != null ) && !chart.getFile().exists() ) {
+      remove( key );
+      return null;
+    }
+    return chart;
+  }
+
+  /**
+   * @return the chart whose file has this name, or <code>null</code> if the file is not one of the cache's
+   */
+  public RenderedChart getByFileName( final String fileName ) {
+    if ( ( fileName == null ) || !fileName.startsWith( FILENAME_PREFIX ) || ( fileName.indexOf( '.' ) < 0 ) ) {
+      return null;
+    }
+    RenderedChart chart = get( fileName.substring( FILENAME_PREFIX.length(), fileName.indexOf( '.' ) ) );
+    return ( chart != null ) && chart.getFileName().equals( fileName ) ? chart : null;
+  }
+
+  /**
+   * Writes a rendered chart to its file and caches it, evicting the least recently used charts beyond the bounds, and
+   * deletes the files of charts evicted longer ago than the grace period.
+   * 
+   * @param key
+   *          the key computed by {@link #getKey(Dataset, String, String, String, int, int, int)}
+   * @param extension
+   *          the extension of the file, including the dot
+   * @param content
+   *          the image
+   * @param info
+   *          the rendering info filled in while drawing the image, which must not be changed afterwards
+   * @return the cached chart
+   * @throws IOException
+   *           if the file cannot be written
+   */
+  public RenderedChart put( final String key, final String extension, final byte[] content,
+      final ChartRenderingInfo info ) throws IOException {
+    File file = new File( directory, FILENAME_PREFIX + key + extension );
+    writeFile( file, content );
+    RenderedChart chart = new RenderedChart( key, file, content.length, info );
+    List<File> expired;
+    synchronized ( this ) {
+      // the file has just been rewritten, so it must survive the eviction of an earlier render of the same chart
+      evictedFiles.remove( file );
+      RenderedChart previous = charts.put( key, chart );
+      if ( previous != null ) {
+        diskBytes -= previous.getLength();
+      }
+      diskBytes += chart.getLength();
+      putContent( key, content );
+      Iterator<RenderedChart> iterator = charts.values().iterator();
+      while ( ( ( charts.size() > maxEntries ) || ( diskBytes > maxDiskBytes ) ) && ( charts.size() > 1 ) ) {
+        RenderedChart eldest = iterator.next();
+        iterator.remove();
+        diskBytes -= eldest.getLength();
+        removeContent( eldest.getKey() );
+        evictedFiles.put( eldest.getFile(), System.currentTimeMillis() );
+      }
+      expired = removeExpiredFiles();
+    }
+    for ( File expiredFile : expired ) {
+      expiredFile.delete();
+    }
+    return chart;
+  }
+
+  /**
+   * Deletes the files of charts evicted longer ago than the grace period, which is otherwise done by the next
+   * {@link #put(String, String, byte[], ChartRenderingInfo)}.
+   */
+  public void deleteExpiredFiles() {
+    List<File> expired;
+    synchronized ( this ) {
+      expired = removeExpiredFiles();
+    }
+    for ( File expiredFile : expired ) {
+      expiredFile.delete();
+    }
+  }
+
+  private List<File> removeExpiredFiles() {
+    List<File> expired = new ArrayList<File>();
+    long now = System.currentTimeMillis();
+    Iterator<Map.Entry<File, Long>> iterator = evictedFiles.entrySet().iterator();
+    while ( iterator.hasNext() ) {
+      Map.Entry<File, Long> entry = iterator.next();
+      if ( now - entry.getValue() < evictedFileGraceMillis ) {
+        // the files are in eviction order, so the rest were evicted later still
+        break;
+      }
+      expired.add( entry.getKey() );
+      iterator.remove();
+    }
+    return expired;
+  }
+
+  /**
+   * Returns the image of a cached chart, from memory if it is still held there, or else from its file.
+   * 
+   * @throws IOException
+   *           if the file cannot be read, e.g. because the chart has been evicted meanwhile
+   */
+  public byte[] getContent( final RenderedChart chart ) throws IOException {
+    synchronized ( this ) {
+      byte[] content = contents.get( chart.getKey() );
+      if ( content != null ) {
+        return content;
+      }
+    }
+    byte[] content = FileUtils.readFileToByteArray( chart.getFile() );
+    synchronized ( this ) {
+      if ( charts.containsKey( chart.getKey() ) ) {
+        putContent( chart.getKey(), content );
+      }
+    }
+    return content;
+  }
+
+  public synchronized void remove( final String key ) {
+    RenderedChart chart = charts.remove( key );
+    if ( chart != null ) {
+      diskBytes -= chart.getLength();
+      removeContent( key );
+      chart.getFile().delete();
+    }
+  }
+
+  /**
+   * Drops all cached charts and deletes their files, including those of evicted charts still in their grace period.
+   */
+  public synchronized void clear() {
+    for ( RenderedChart chart : charts.values() ) {
+      chart.getFile().delete();
+    }
+    for ( File evictedFile : evictedFiles.keySet() ) {
+      evictedFile.delete();
+    }
+    evictedFiles.clear();
+    charts.clear();
+    contents.clear();
+    diskBytes = 0;
+    memoryBytes = 0;
+  }
+
+  public synchronized int size() {
+    return charts.size();
+  }
+
+  /**
+   * @return the total size of the cached chart files
+   */
+  public synchronized long getDiskSize() {
+    return diskBytes;
+  }
+
+  /**
+   * @return the total size of the chart images held in memory
+   */
+  public synchronized long getMemorySize() {
+    return memoryBytes;
+  }
+
+  private void putContent( final String key, final byte[] content ) {
+    removeContent( key );
+    if ( content.length > maxMemoryBytes ) {
+      return;
+    }
+    contents.put( key, content );
+    memoryBytes += content.length;
+    Iterator<byte[]> iterator = contents.values().iterator();
+    while ( memoryBytes > maxMemoryBytes ) {
+      memoryBytes -= iterator.next().length;
+      iterator.remove();
+    }
+  }
+
+  private void removeContent( final String key ) {
+    byte[] content = contents.remove( key );
+    if ( content != null ) {
+      memoryBytes -= content.length;
+    }
+  }
+
+  /**
+   * Writes the file under a temporary name first, so that it is never served half written.
+   */
+  private void writeFile( final File file, final byte[] content ) throws IOException {
+    File tempFile = File.createTempFile( FILENAME_PREFIX, ".tmp", directory ); //$NON-NLS-1$
+    OutputStream out = new FileOutputStream( tempFile );
+    try {
+      out.write( content );
+    } finally {
+      out.close();
+    }
+    if ( !tempFile.renameTo( file ) ) {
+      // some platforms do not rename onto an existing file, which holds the same chart if it exists
+      file.delete();
+      if ( !tempFile.renameTo( file ) ) {
+        tempFile.delete();
+        throw new IOException( Messages.getInstance().getErrorString(
+            "ChartRenderCache.ERROR_0001_CANT_WRITE_FILE", file.getPath() ) ); //$NON-NLS-1$
+      }
+    }
+  }
+
+  private void deleteStaleFiles() {
+    File[] staleFiles = directory.listFiles( new FileFilter() {
+      public boolean accept( final File file ) {
+        return file.isFile() && file.getName().startsWith( FILENAME_PREFIX );
+      }
+    } );
+    if ( staleFiles != null ) {
+      for ( File staleFile : staleFiles ) {
+        staleFile.delete();
+      }
+    }
+  }
+
+  /**
+   * A chart image in the cache's directory, with the rendering info it was drawn with.
+   */
+  public static class RenderedChart {
+
+    private final String key;
+
+    private final File file;
+
+    private final long length;
+
+    private final ChartRenderingInfo info;
+
+    RenderedChart( final String key, final File file, final long length, final ChartRenderingInfo info ) {
+      this.key = key;
+      this.file = file;
+      this.length = length;
+      this.info = info;
+    }
+
+    public String getKey() {
+      return key;
+    }
+
+    public File getFile() {
+      return file;
+    }
+
+    /**
+     * @return the name of the file, which is how the image is requested from the temporary directory
+     */
+    public String getFileName() {
+      return file.getName();
+    }
+
+    public long getLength() {
+      return length;
+    }
+
+    /**
+     * @return a strong ETag for the image, which never changes as the file name depends on its content
+     */
+    public String getETag() {
+      return "\"" + key + "\""; //$NON-NLS-1$ //$NON-NLS-2$
+    }
+
+    /**
+     * Fills <code>target</code> in as if it had been passed when the chart was drawn. The entities are copies, so
+     * callers are free to set their URLs and tool tips.
+     */
+    public void copyInfo( final ChartRenderingInfo target ) {
+      if ( ( target == null ) || ( info == null ) ) {
+        return;
+      }
+      ChartRenderingInfo copy;
+      try {
+        copy = (ChartRenderingInfo) info.clone();
+      } catch ( CloneNotSupportedException e ) {
+        throw new IllegalStateException( e );
+      }
+      target.setChartArea( copy.getChartArea() );
+      target.getPlotInfo().setPlotArea( copyOf( info.getPlotInfo().getPlotArea() ) );
+      target.getPlotInfo().setDataArea( copyOf( info.getPlotInfo().getDataArea() ) );
+      EntityCollection entities = target.getEntityCollection();
+      if ( ( entities != null ) && ( copy.getEntityCollection() != null ) ) {
+        Iterator iterator = copy.getEntityCollection().iterator();
+        while ( iterator.hasNext() ) {
+          entities.add( (ChartEntity) iterator.next() );
+        }
+      }
+    }
+
+    private static Rectangle2D copyOf( final Rectangle2D area ) {
+      return area == null ? null : (Rectangle2D) area.clone();
+    }
+  }
+}
@@ -28,10 +28,12 @@ import java.awt.Stroke;
 import java.awt.TexturePaint;
 import java.awt.geom.Rectangle2D;
 import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
 import java.io.Writer;
@@ -59,6 +61,7 @@ import org.jfree.chart.axis.NumberAxis3D;
 import org.jfree.chart.axis.NumberTickUnit;
 import org.jfree.chart.axis.ValueAxis;
 import org.jfree.chart.block.BlockBorder;
+import org.jfree.chart.entity.StandardEntityCollection;
 import org.jfree.chart.labels.ItemLabelAnchor;
 import org.jfree.chart.labels.ItemLabelPosition;
 import org.jfree.chart.labels.PieToolTipGenerator;
@@ -115,6 +118,7 @@ import org.pentaho.platform.api.repository2.unified.RepositoryFilePermission;
 import org.pentaho.platform.engine.core.system.PentahoSystem;
 import org.pentaho.platform.engine.services.actionsequence.ActionSequenceResource;
 import org.pentaho.platform.uifoundation.messages.Messages;
+import org.pentaho.platform.util.UUIDUtil;
 import org.pentaho.platform.util.messages.LocaleHelper;
 import org.w3c.dom.Document;
 
@@ -1141,6 +1145,29 @@ public class JFreeChartEngine {
    */
   private static void saveChartAsSVG( final JFreeChart chart, final String path, final int width, final int height,
       final ChartRenderingInfo info ) throws IOException {
+    OutputStream out = new FileOutputStream( new File( path + ".svg" ) ); //$NON-NLS-1$
+    try {
+      JFreeChartEngine.writeChartAsSVG( chart, out, width, height, info );
+    } finally {
+      out.close();
+    }
+  }
+
+  /**
+   * Write a JFreeChart object to a stream as SVG
+   * 
+   * @param chart
+   *          The chart object to create an image from
+   * @param out
+   *          The stream to write the image to, which is left open
+   * @param width
+   *          The width of the image in pixels
+   * @param height
+   *          The height of the image in pixels
+   * @throws IOException
+   */
+  private static void writeChartAsSVG( final JFreeChart chart, final OutputStream out, final int width,
+      final int height, final ChartRenderingInfo info ) throws IOException {
     // THE FOLLOWING CODE BASED ON THE EXAMPLE IN THE BATIK DOCUMENTATION...
     // Get a DOMImplementation
     org.w3c.dom.DOMImplementation domImpl = GenericDOMImplementation.getDOMImplementation();
@@ -1152,12 +1179,12 @@ public class JFreeChartEngine {
     svgGenerator.getGeneratorContext().setPrecision( 6 );
     // Ask the chart to render into the SVG Graphics2D implementation
     chart.draw( svgGenerator, new Rectangle2D.Double( 0, 0, width, height ), info );
-    // Finally, stream out SVG to a file using UTF-8 character to byte
+    // Finally, stream out SVG using UTF-8 character to byte
     // encoding
     boolean useCSS = true;
-    Writer out =
-        new OutputStreamWriter( new FileOutputStream( new File( path + ".svg" ) ), LocaleHelper.getSystemEncoding() ); //$NON-NLS-1$
-    svgGenerator.stream( out, useCSS );
+    Writer writer = new OutputStreamWriter( out, LocaleHelper.getSystemEncoding() );
+    svgGenerator.stream( writer, useCSS );
+    writer.flush();
   }
 
   /**
@@ -1252,6 +1279,75 @@ public class JFreeChartEngine {
     }
   }
 
+  /**
+   * Create an image file using dataset object, or reuse the one already created for the same chart. This method takes
+   * a dataset object, e.g. a DialWidgetDefinition, creates a JFreeChart object from it, and then creates an image file
+   * in the temporary directory, named after a digest of the dataset values, the chart definition, the title, the size
+   * and the output type. When an image for the same digest is held by the {@link ChartRenderCache}, the chart is
+   * neither created nor drawn again. The cache owns the file and deletes it when evicting it.
+   * 
+   * @param dataset
+   *          The dataset
+   * @param chartDefinition
+   *          The definition the dataset was created from, typically its XML
+   * @param title
+   *          The title of the chart
+   * @param units
+   *          The units of the chart value
+   * @param width
+   *          The width of the image to create
+   * @param height
+   *          The height of the image to create
+   * @param outputType
+   *          The type of the image to create, OUTPUT_PNG or OUTPUT_SVG
+   * @param writer
+   *          A writer to writer the image map into
+   * @param info
+   *          The rendering info to fill in, as if the chart had been drawn with it
+   * @param logger
+   *          The logger to log any messages to
+   * @return the name of the image file in the temporary directory, or <code>null</code> if it could not be created
+   */
+  public static String saveCachedChart( final Dataset dataset, final String chartDefinition, final String title,
+      final String units, final int width, final int height, final int outputType, final PrintWriter writer,
+      final ChartRenderingInfo info, final ILogger logger ) {
+    if ( ( outputType != JFreeChartEngine.OUTPUT_PNG ) && ( outputType != JFreeChartEngine.OUTPUT_SVG ) ) {
+      return null;
+    }
+    ChartRenderCache cache = ChartRenderCache.getInstance();
+    String key = ChartRenderCache.getKey( dataset, chartDefinition, title, units, width, height, outputType );
+    ChartRenderCache.RenderedChart rendered = key == null ? null : cache.get( key );
+    if ( rendered == null ) {
+      JFreeChart chart = JFreeChartEngine.getChart( dataset, title, units, width, height, logger );
+      if ( chart == null ) {
+        return null;
+      }
+      if ( key == null ) {
+        // the dataset cannot be digested, so give the image a name of its own; the cache still deletes it in time
+        key = UUIDUtil.getUUIDAsString().replace( "-", "" ); //$NON-NLS-1$ //$NON-NLS-2$
+      }
+      ChartRenderingInfo renderedInfo = new ChartRenderingInfo( new StandardEntityCollection() );
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      try {
+        if ( outputType == JFreeChartEngine.OUTPUT_SVG ) {
+          JFreeChartEngine.writeChartAsSVG( chart, out, width, height, renderedInfo );
+          rendered = cache.put( key, ".svg", out.toByteArray(), renderedInfo ); //$NON-NLS-1$
+        } else {
+          ChartUtilities.writeChartAsPNG( out, chart, width, height, renderedInfo );
+          rendered = cache.put( key, ".png", out.toByteArray(), renderedInfo ); //$NON-NLS-1$
+        }
+      } catch ( IOException e ) {
+        logger.error( Messages.getInstance().getString( "ChartEngine.ERROR_0001_COULD_NOT_CREATE_CHART" ), e ); //$NON-NLS-1$
+        return null;
+      }
+    }
+    rendered.copyInfo( info );
+    if ( ( writer != null ) && ( info != null ) && ( outputType == JFreeChartEngine.OUTPUT_PNG ) ) {
+      ChartUtilities.writeImageMap( writer, "map-name", info, true ); //$NON-NLS-1$
+    }
+    return rendered.getFileName();
+  }
+
   /**
    * Create a chart-object using dataset object. This method takes a dataset object, e.g. a DialWidgetDefinition, and
    * creates and returns a JFreeChart object from it.
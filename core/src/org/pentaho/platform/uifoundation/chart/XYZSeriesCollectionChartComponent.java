@@ -174,14 +174,11 @@ public class XYZSeriesCollectionChartComponent extends AbstractJFreeChartCompone
     Element root = result.addElement( "charts" ); //$NON-NLS-1$
     XYZSeriesCollectionChartDefinition chartDataDefinition = (XYZSeriesCollectionChartDefinition) dataDefinition;
     if ( chartDataDefinition.getSeriesCount() > 0 ) {
-      // create temporary file names
-      String[] tempFileInfo = createTempFile();
-      String fileName = tempFileInfo[AbstractChartComponent.FILENAME_INDEX];
-      String filePathWithoutExtension = tempFileInfo[AbstractChartComponent.FILENAME_WITHOUT_EXTENSION_INDEX];
-
+      // render the chart, or reuse the image rendered for the same data and definition
       ChartRenderingInfo info = new ChartRenderingInfo( new StandardEntityCollection() );
-      JFreeChartEngine.saveChart( chartDataDefinition, chartTitle,
-          "", filePathWithoutExtension, width, height, JFreeChartEngine.OUTPUT_PNG, printWriter, info, this ); //$NON-NLS-1$
+      String fileName =
+          JFreeChartEngine.saveCachedChart( chartDataDefinition, chartDefinition.asXML(), chartTitle,
+              "", width, height, JFreeChartEngine.OUTPUT_PNG, printWriter, info, this ); //$NON-NLS-1$
       applyOuterURLTemplateParam();
       populateInfo( info );
       Element chartElement = root.addElement( "chart" ); //$NON-NLS-1$
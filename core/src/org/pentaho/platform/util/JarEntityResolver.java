@@ -19,15 +19,17 @@ package org.pentaho.platform.util;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.net.URL;
 
 import javax.xml.transform.Source;
 import javax.xml.transform.stream.StreamSource;
 
 import org.pentaho.platform.api.engine.IDocumentResourceLoader;
+import org.pentaho.platform.api.engine.IDocumentResourceVersionSupport;
 import org.xml.sax.InputSource;
 import org.xml.sax.SAXException;
 
-public class JarEntityResolver implements IDocumentResourceLoader {
+public class JarEntityResolver implements IDocumentResourceLoader, IDocumentResourceVersionSupport {
 
   private static JarEntityResolver instance;
 
@@ -80,4 +82,20 @@ public class JarEntityResolver implements IDocumentResourceLoader {
     return null;
   }
 
+  public long getLastModified( final String name ) {
+    try {
+      URL url = getClass().getClassLoader().getResource( name );
+      if ( url != null ) {
+        return url.openConnection().getLastModified();
+      }
+    } catch ( Exception e ) {
+    }
+    return -1;
+  }
+
+  public String getScope() {
+    // class path resources are the same for everyone
+    return ""; //$NON-NLS-1$
+  }
+
 }
@@ -41,7 +41,6 @@ import java.util.regex.Pattern;
 import javax.xml.transform.Transformer;
 import javax.xml.transform.TransformerConfigurationException;
 import javax.xml.transform.TransformerException;
-import javax.xml.transform.TransformerFactory;
 import javax.xml.transform.URIResolver;
 import javax.xml.transform.stream.StreamResult;
 import javax.xml.transform.stream.StreamSource;
@@ -50,6 +49,7 @@ import org.apache.commons.lang.StringEscapeUtils;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.pentaho.platform.api.engine.IDocumentResourceLoader;
+import org.pentaho.platform.api.engine.IDocumentResourceVersionSupport;
 import org.pentaho.platform.util.FileHelper;
 import org.pentaho.platform.util.logging.Logger;
 import org.pentaho.platform.util.messages.LocaleHelper;
@@ -339,8 +339,10 @@ public class XmlHelper {
       final InputStream docInStrm, Map params, final IDocumentResourceLoader loader ) throws TransformerException {
     StringBuffer result = null;
 
-    InputStream xslInStrm = XmlHelper.getLocalizedXsl( xslPath, xslName, loader );
-    if ( null == xslInStrm ) {
+    // a stylesheet compiled before is taken from the cache without being read
+    LocalizedXsl xsl = XmlHelper.loadLocalizedXsl( xslPath, xslName, loader, true );
+    InputStream xslInStrm = xsl == null ? null : xsl.in;
+    if ( null == xsl ) {
       Logger.error( XmlHelper.class.getName(), Messages.getInstance().getErrorString(
           "XmlHelper.ERROR_0003_NULL_XSL_SOURCE" ) ); //$NON-NLS-1$
     } else if ( null == docInStrm ) {
@@ -357,13 +359,21 @@ public class XmlHelper {
       params.put( "output-encoding", LocaleHelper.getSystemEncoding() ); //$NON-NLS-1$
 
       try {
-        result = XmlHelper.transformXml( xslInStrm, docInStrm, params, loader );
+        Transformer t = xsl.transformer;
+        if ( t == null ) {
+          t =
+              XslTemplatesCache.getInstance().newTransformer( xsl.name, xsl.version, new StreamSource( xslInStrm ),
+                  loader );
+        }
+        result = XmlHelper.transformXml( t, new StreamSource( docInStrm ), params );
       } catch ( TransformerException e ) {
         Logger.error( XmlHelper.class.getName(), Messages.getInstance().getErrorString(
             "XmlHelper.ERROR_0006_TRANSFORM_XML_ERROR", e.getMessage(), xslName ), e ); //$NON-NLS-1$
         throw e;
       } finally {
-        FileHelper.closeInputStream( xslInStrm );
+        if ( xslInStrm != null ) {
+          FileHelper.closeInputStream( xslInStrm );
+        }
       }
     }
     return result;
@@ -417,17 +427,20 @@ public class XmlHelper {
    */
   protected static final StringBuffer transformXml( final StreamSource xslSrc, final StreamSource docSrc,
       final Map params, final URIResolver resolver ) throws TransformerConfigurationException, TransformerException {
+    Transformer t = XslTemplatesCache.getInstance().newTransformer( xslSrc, resolver ); // can throw
+    // TransformerConfigurationException
+    return XmlHelper.transformXml( t, docSrc, params );
+  }
+
+  /**
+   * Transforms docSrc with a transformer taken from {@link XslTemplatesCache}.
+   */
+  private static StringBuffer transformXml( final Transformer t, final StreamSource docSrc, final Map params )
+    throws TransformerException {
 
     StringBuffer sb = null;
     StringWriter writer = new StringWriter();
 
-    TransformerFactory tf = TransformerFactory.newInstance();
-    if ( null != resolver ) {
-      tf.setURIResolver( resolver );
-    }
-    // TODO need to look into compiling the XSLs...
-    Transformer t = tf.newTransformer( xslSrc ); // can throw
-    // TransformerConfigurationException
     // Start the transformation
     if ( params != null ) {
       Set keys = params.keySet();
@@ -458,18 +471,29 @@ public class XmlHelper {
    */
   public static final InputStream getLocalizedXsl( final String path, final String xslName,
       final IDocumentResourceLoader loader ) {
+    LocalizedXsl xsl = XmlHelper.loadLocalizedXsl( path, xslName, loader, false );
+    return xsl == null ? null : xsl.in;
+  }
+
+  /**
+   * @param cached
+   *          whether a stylesheet found in {@link XslTemplatesCache} is returned with its transformer instead of being
+   *          read
+   */
+  private static LocalizedXsl loadLocalizedXsl( final String path, final String xslName,
+      final IDocumentResourceLoader loader, final boolean cached ) {
     String fullPath = null;
     String defaultPath = null;
-    InputStream file = null;
+    LocalizedXsl file = null;
     if ( null != path ) {
       // try to find it on the specified path
       fullPath = ( path + File.separator + xslName ).replace( '\\', '/' );
-      file = XmlHelper.getLocalizedFile( fullPath, LocaleHelper.getLocale(), loader );
+      file = XmlHelper.loadLocalizedFile( fullPath, LocaleHelper.getLocale(), loader, cached );
     }
     if ( null == file ) {
       // didn't find the file, let's try default path
       defaultPath = ( XmlHelper.DEFAULT_XSL_FOLDER + xslName ).replace( '\\', '/' );
-      file = XmlHelper.getLocalizedFile( defaultPath, LocaleHelper.getLocale(), loader );
+      file = XmlHelper.loadLocalizedFile( defaultPath, LocaleHelper.getLocale(), loader, cached );
     }
     if ( null == file ) {
       // we should not get this far...
@@ -481,6 +505,12 @@ public class XmlHelper {
 
   public static InputStream getLocalizedFile( final String fullPath, final Locale locale,
       final IDocumentResourceLoader loader ) {
+    LocalizedXsl file = XmlHelper.loadLocalizedFile( fullPath, locale, loader, false );
+    return file == null ? null : file.in;
+  }
+
+  private static LocalizedXsl loadLocalizedFile( final String fullPath, final Locale locale,
+      final IDocumentResourceLoader loader, final boolean cached ) {
     String language = locale.getLanguage();
     String country = locale.getCountry();
     String variant = locale.getVariant();
@@ -493,19 +523,19 @@ public class XmlHelper {
                                                                                      // of bounds
     String extension = dotIndex == -1 ? "" : fileName.substring( dotIndex ); // Exception that occurs when a filename has no extension //$NON-NLS-1$
 
-    InputStream in = null;
+    LocalizedXsl in = null;
     try {
       if ( !variant.equals( "" ) ) { //$NON-NLS-1$
-        in = loader.loadXsl( baseName + "_" + language + "_" + country + "_" + variant + extension ); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+        in = LocalizedXsl.load( baseName + "_" + language + "_" + country + "_" + variant + extension, loader, cached ); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
       }
       if ( in == null ) {
-        in = loader.loadXsl( baseName + "_" + language + "_" + country + extension ); //$NON-NLS-1$//$NON-NLS-2$
+        in = LocalizedXsl.load( baseName + "_" + language + "_" + country + extension, loader, cached ); //$NON-NLS-1$//$NON-NLS-2$
       }
       if ( in == null ) {
-        in = loader.loadXsl( baseName + "_" + language + extension ); //$NON-NLS-1$
+        in = LocalizedXsl.load( baseName + "_" + language + extension, loader, cached ); //$NON-NLS-1$
       }
       if ( in == null ) {
-        in = loader.loadXsl( baseName + extension );
+        in = LocalizedXsl.load( baseName + extension, loader, cached );
       }
     } catch ( Exception e ) {
       Logger.error( XmlHelper.class.getName(), "Error loading localized file: " + fullPath ); //$NON-NLS-1$
@@ -524,4 +554,47 @@ public class XmlHelper {
     return "<?xml version=\"" + version + "\" encoding = \"" + encoding + "\" ?>"; //$NON-NLS-1$  //$NON-NLS-2$ //$NON-NLS-3$
   }
 
+  /**
+   * A stylesheet loaded by an {@link IDocumentResourceLoader}, with the name it was found under and its version, which
+   * is taken before it is read so that a change while reading shows as a newer version next time. A stylesheet found in
+   * {@link XslTemplatesCache} has a transformer instead of a stream.
+   */
+  private static class LocalizedXsl {
+
+    private final String name;
+
+    private final long version;
+
+    private final InputStream in;
+
+    private final Transformer transformer;
+
+    private LocalizedXsl( final String name, final long version, final InputStream in, final Transformer transformer ) {
+      this.name = name;
+      this.version = version;
+      this.in = in;
+      this.transformer = transformer;
+    }
+
+    private static LocalizedXsl load( final String name, final IDocumentResourceLoader loader, final boolean cached ) {
+      long version =
+          loader instanceof IDocumentResourceVersionSupport ? ( (IDocumentResourceVersionSupport) loader )
+              .getLastModified( name ) : -1;
+      if ( cached ) {
+        // a known version means the stylesheet exists under this name, so it may be cached
+        try {
+          Transformer transformer = XslTemplatesCache.getInstance().getCachedTransformer( name, version, loader );
+          if ( transformer != null ) {
+            return new LocalizedXsl( name, version, null, transformer );
+          }
+        } catch ( TransformerConfigurationException e ) {
+          // read and compile the stylesheet again
+          XmlHelper.logger.debug( e );
+        }
+      }
+      InputStream in = loader.loadXsl( name );
+      return in == null ? null : new LocalizedXsl( name, version, in, null );
+    }
+  }
+
 }
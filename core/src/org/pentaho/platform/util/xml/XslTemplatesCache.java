@@ -0,0 +1,259 @@
+/*!
+ * This program is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License, version 2.1 as published by the Free Software
+ * Foundation.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with this
+ * program; if not, you can obtain a copy at http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+ * or from the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * Copyright (c) 2002-2013 Pentaho Corporation..  All rights reserved.
+ */
+
+package org.pentaho.platform.util.xml;
+
+import java.io.File;
+import java.net.URI;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.xml.transform.Source;
+import javax.xml.transform.Templates;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerConfigurationException;
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.URIResolver;
+import javax.xml.transform.stream.StreamSource;
+
+import org.pentaho.platform.api.engine.IDocumentResourceVersionSupport;
+import org.pentaho.platform.util.messages.LocaleHelper;
+
+/**
+ * Holds compiled XSL stylesheets so that a stylesheet is parsed and compiled once rather than on every transform.
+ * Compiled {@link Templates} are thread safe; each caller gets its own cheap {@link Transformer} from them.
+ * <p>
+ * A stylesheet is only cached when its version, usually its modification time, is known. It is identified by its
+ * name, the current locale and the scope of the resolver loading its includes, see
+ * {@link IDocumentResourceVersionSupport#getScope()}, and recompiled when its version changes. A stylesheet that
+ * includes or imports others through a resolver without a scope is never cached, as those may have been resolved
+ * under the permissions of the current user. Included stylesheets are only read when the including stylesheet is
+ * compiled, so changes to them are seen once the including stylesheet changes or {@link #clear()} is called.
+ */
+public class XslTemplatesCache {
+
+  public static final int DEFAULT_MAX_ENTRIES = 256;
+
+  private static final XslTemplatesCache instance = new XslTemplatesCache( XslTemplatesCache.DEFAULT_MAX_ENTRIES );
+
+  private final Map<String, Entry> entries;
+
+  public XslTemplatesCache( final int maxEntries ) {
+    entries = new LinkedHashMap<String, Entry>( 16, 0.75f, true ) {
+      private static final long serialVersionUID = 1L;
+
+      @Override
+      protected boolean removeEldestEntry( final Map.Entry<String, Entry> eldest ) {
+        return size() > maxEntries;
+      }
+    };
+  }
+
+  public static XslTemplatesCache getInstance() {
+    return XslTemplatesCache.instance;
+  }
+
+  /**
+   * Returns a new transformer for the stylesheet in <code>xslSrc</code>. A stylesheet with a <code>file:</code>
+   * system id is cached under it and versioned by the file's modification time, any other is compiled every time.
+   * 
+   * @param xslSrc
+   *          the stylesheet
+   * @param resolver
+   *          resolves the stylesheets it includes and the documents it reads, may be <code>null</code>
+   * @return a transformer that is not shared with any other caller
+   * @throws TransformerConfigurationException
+   *           if the stylesheet cannot be read or compiled
+   */
+  public Transformer newTransformer( final StreamSource xslSrc, final URIResolver resolver )
+    throws TransformerConfigurationException {
+    String systemId = xslSrc.getSystemId();
+    long version = -1;
+    if ( systemId != null && systemId.startsWith( "file:" ) ) { //$NON-NLS-1$
+      try {
+        version = new File( new URI( systemId ) ).lastModified();
+      } catch ( Exception e ) {
+        // not a plain file, so not cached
+      }
+    }
+    return newTransformer( systemId, version <= 0 ? -1 : version, xslSrc, resolver );
+  }
+
+  /**
+   * Returns a new transformer for the stylesheet in <code>xslSrc</code>, compiling it only if it was not compiled
+   * before or its version has changed since. The stylesheet is not read at all when it is taken from the cache.
+   * 
+   * @param name
+   *          the name the stylesheet was loaded under, or <code>null</code> if it has none, in which case it is not
+   *          cached
+   * @param version
+   *          the version of the stylesheet, such as its modification time, or <code>-1</code> if it is not known, in
+   *          which case it is not cached
+   * @param xslSrc
+   *          the stylesheet
+   * @param resolver
+   *          resolves the stylesheets it includes and the documents it reads, may be <code>null</code>
+   * @return a transformer that is not shared with any other caller
+   * @throws TransformerConfigurationException
+   *           if the stylesheet cannot be read or compiled
+   */
+  public Transformer newTransformer( final String name, final long version, final StreamSource xslSrc,
+      final URIResolver resolver ) throws TransformerConfigurationException {
+    if ( name == null || version < 0 ) {
+      return newTransformer( compile( xslSrc, resolver ), resolver );
+    }
+
+    String scope = XslTemplatesCache.getScope( resolver );
+    Entry entry = getEntry( name, version, scope );
+    if ( entry == null ) {
+      RecordingResolver recordingResolver = new RecordingResolver( resolver );
+      Templates templates = compile( xslSrc, recordingResolver );
+      if ( scope == null && recordingResolver.resolved && resolver != null ) {
+        return newTransformer( templates, resolver );
+      }
+      // compiled outside the lock; two threads missing together both compile and the last one is kept
+      entry = new Entry( version, templates, recordingResolver.resolved );
+      synchronized ( entries ) {
+        entries.put( XslTemplatesCache.getKey( name, scope ), entry );
+      }
+    }
+    return newTransformer( entry.templates, resolver );
+  }
+
+  /**
+   * Returns a new transformer for a stylesheet compiled before at this version, without the stylesheet having to be
+   * loaded. When it returns <code>null</code> the stylesheet has to be loaded and passed to
+   * {@link #newTransformer(String, long, StreamSource, URIResolver)}.
+   * 
+   * @param name
+   *          the name the stylesheet is loaded under
+   * @param version
+   *          the current version of the stylesheet, or <code>-1</code> if it is not known
+   * @param resolver
+   *          resolves the stylesheets it includes and the documents it reads, may be <code>null</code>
+   * @return a transformer that is not shared with any other caller, or <code>null</code> if the stylesheet is not
+   *         cached at this version for this resolver's scope
+   * @throws TransformerConfigurationException
+   *           if no transformer can be created from the cached stylesheet
+   */
+  public Transformer getCachedTransformer( final String name, final long version, final URIResolver resolver )
+    throws TransformerConfigurationException {
+    if ( name == null || version < 0 ) {
+      return null;
+    }
+    Entry entry = getEntry( name, version, XslTemplatesCache.getScope( resolver ) );
+    return entry == null ? null : newTransformer( entry.templates, resolver );
+  }
+
+  private Entry getEntry( final String name, final long version, final String scope ) {
+    Entry entry;
+    synchronized ( entries ) {
+      entry = entries.get( XslTemplatesCache.getKey( name, scope ) );
+    }
+    // without a scope only stylesheets that resolved nothing through the resolver can be shared
+    if ( entry == null || entry.version != version || ( scope == null && entry.resolvedIncludes ) ) {
+      return null;
+    }
+    return entry;
+  }
+
+  private static String getKey( final String name, final String scope ) {
+    return name + '\n' + LocaleHelper.getLocale() + '\n' + ( scope == null ? "" : scope ); //$NON-NLS-1$
+  }
+
+  public void clear() {
+    synchronized ( entries ) {
+      entries.clear();
+    }
+  }
+
+  public int size() {
+    synchronized ( entries ) {
+      return entries.size();
+    }
+  }
+
+  /**
+   * The scope includes are resolved under: empty for the transformer factory's own resolution, the resolver's scope
+   * if it has one, or <code>null</code> if it is not known.
+   */
+  private static String getScope( final URIResolver resolver ) {
+    if ( resolver == null ) {
+      return ""; //$NON-NLS-1$
+    }
+    if ( resolver instanceof IDocumentResourceVersionSupport ) {
+      String scope = ( (IDocumentResourceVersionSupport) resolver ).getScope();
+      return scope == null ? null : resolver.getClass().getName() + ':' + scope;
+    }
+    return null;
+  }
+
+  private Templates compile( final StreamSource xslSrc, final URIResolver resolver )
+    throws TransformerConfigurationException {
+    // factories are not thread safe, and are only needed when compiling
+    TransformerFactory tf = TransformerFactory.newInstance();
+    if ( null != resolver ) {
+      tf.setURIResolver( resolver );
+    }
+    return tf.newTemplates( xslSrc );
+  }
+
+  private Transformer newTransformer( final Templates templates, final URIResolver resolver )
+    throws TransformerConfigurationException {
+    Transformer t = templates.newTransformer();
+    if ( null != resolver ) {
+      t.setURIResolver( resolver );
+    }
+    return t;
+  }
+
+  /**
+   * Notes whether compiling a stylesheet resolved any include or import, passing each to the resolver it wraps.
+   */
+  private static class RecordingResolver implements URIResolver {
+
+    private final URIResolver resolver;
+
+    private volatile boolean resolved;
+
+    RecordingResolver( final URIResolver resolver ) {
+      this.resolver = resolver;
+    }
+
+    public Source resolve( final String href, final String base ) throws TransformerException {
+      resolved = true;
+      // null lets the transformer factory resolve it itself
+      return resolver == null ? null : resolver.resolve( href, base );
+    }
+  }
+
+  private static class Entry {
+
+    private final long version;
+
+    private final Templates templates;
+
+    private final boolean resolvedIncludes;
+
+    Entry( final long version, final Templates templates, final boolean resolvedIncludes ) {
+      this.version = version;
+      this.templates = templates;
+      this.resolvedIncludes = resolvedIncludes;
+    }
+  }
+}
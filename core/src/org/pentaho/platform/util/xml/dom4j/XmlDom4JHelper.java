@@ -49,6 +49,7 @@ import org.dom4j.io.SAXReader;
 import org.dom4j.io.XMLWriter;
 import org.pentaho.platform.api.util.XmlParseException;
 import org.pentaho.platform.util.messages.Messages;
+import org.pentaho.platform.util.xml.XslTemplatesCache;
 import org.xml.sax.EntityResolver;
 
 // TODO sbarkdull, exernalize strings, comment methods
@@ -174,12 +175,7 @@ public class XmlDom4JHelper {
     StringBuffer sb = null;
     StringWriter writer = new StringWriter();
 
-    TransformerFactory tf = TransformerFactory.newInstance();
-    if ( null != resolver ) {
-      tf.setURIResolver( resolver );
-    }
-    // TODO need to look into compiling the XSLs...
-    Transformer t = tf.newTransformer( xslSrc ); // can throw
+    Transformer t = XslTemplatesCache.getInstance().newTransformer( xslSrc, resolver ); // can throw
     // TransformerConfigurationException
     // Start the transformation
     if ( params != null ) {
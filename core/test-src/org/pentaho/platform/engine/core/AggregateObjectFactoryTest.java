@@ -19,7 +19,11 @@
 package org.pentaho.platform.engine.core;
 
 import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
 import static junit.framework.Assert.assertNotNull;
+import static junit.framework.Assert.assertNotSame;
+import static junit.framework.Assert.assertSame;
+import static junit.framework.Assert.assertTrue;
 
 import java.util.Collections;
 import java.util.List;
@@ -27,6 +31,7 @@ import java.util.List;
 import org.junit.Test;
 import org.pentaho.platform.api.engine.IMimeTypeListener;
 import org.pentaho.platform.api.engine.IPentahoDefinableObjectFactory;
+import org.pentaho.platform.api.engine.IPentahoSession;
 import org.pentaho.platform.engine.core.system.PentahoSystem;
 import org.pentaho.platform.engine.core.system.StandaloneSession;
 import org.pentaho.platform.engine.core.system.objfac.AggregateObjectFactory;
@@ -105,4 +110,35 @@ public class AggregateObjectFactoryTest {
     assertEquals( "Higher Priority MimeTypeListener", ( (MimeTypeListener) republishedAsInterface ).name );
 
   }
+
+  @Test
+  public void testCachedResolutionFollowsDefinitionChanges() throws Exception {
+
+    StandaloneSession session = new StandaloneSession();
+    StandaloneObjectFactory factory = new StandaloneObjectFactory();
+    factory.init( null, null );
+
+    AggregateObjectFactory aggFactory = new AggregateObjectFactory();
+    aggFactory.registerObjectFactory( factory );
+
+    // negative lookups must not stick once the object gets defined
+    assertFalse( aggFactory.objectDefined( GoodObject.class ) );
+    factory.defineObject( "GoodObject", GoodObject.class.getName(), IPentahoDefinableObjectFactory.Scope.SESSION );
+    assertTrue( aggFactory.objectDefined( GoodObject.class ) );
+
+    // repeated lookups resolve through the cache but still honor the session scope
+    GoodObject first = aggFactory.get( GoodObject.class, session );
+    assertSame( first, aggFactory.get( GoodObject.class, session ) );
+    assertSame( session, first.initSession );
+
+    IPentahoSession otherSession = new StandaloneSession();
+    GoodObject other = aggFactory.get( GoodObject.class, otherSession );
+    assertNotSame( first, other );
+    assertSame( otherSession, other.initSession );
+
+    // a redefinition is picked up as well
+    GoodObject instance = new GoodObject();
+    factory.defineInstance( "GoodObject", instance );
+    assertSame( instance, aggFactory.get( GoodObject.class, session ) );
+  }
 }
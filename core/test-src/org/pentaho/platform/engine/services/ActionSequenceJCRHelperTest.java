@@ -0,0 +1,117 @@
+/*
+ * This program is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License, version 2 as published by the Free Software
+ * Foundation.
+ *
+ * You should have received a copy of the GNU General Public License along with this
+ * program; if not, you can obtain a copy at http://www.gnu.org/licenses/gpl-2.0.html
+ * or from the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ *
+ * Copyright 2006 - 2013 Pentaho Corporation.  All rights reserved.
+ */
+
+package org.pentaho.platform.engine.services;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+
+import java.io.ByteArrayInputStream;
+import java.util.Date;
+
+import org.dom4j.Document;
+import org.jmock.Expectations;
+import org.jmock.Mockery;
+import org.junit.Before;
+import org.junit.Test;
+import org.pentaho.platform.api.engine.IPentahoSession;
+import org.pentaho.platform.api.repository2.unified.IUnifiedRepository;
+import org.pentaho.platform.api.repository2.unified.RepositoryFile;
+import org.pentaho.platform.api.repository2.unified.RepositoryFilePermission;
+import org.pentaho.platform.api.repository2.unified.data.simple.SimpleRepositoryFileData;
+import org.pentaho.platform.engine.core.system.StandaloneSession;
+
+@SuppressWarnings( "nls" )
+public class ActionSequenceJCRHelperTest {
+
+  private static final String PATH = "/public/test/cached.xaction";
+
+  private static final String XACTION = "<action-sequence><title>Cached</title></action-sequence>";
+
+  private Mockery mockery = new Mockery();
+
+  private IUnifiedRepository repository;
+
+  private IPentahoSession session;
+
+  @Before
+  public void setUp() {
+    ActionSequenceJCRHelper.clearDocumentCache();
+    repository = mockery.mock( IUnifiedRepository.class );
+    session = new StandaloneSession( "joe" );
+  }
+
+  @Test
+  public void testDocumentIsParsedOncePerVersion() {
+    final RepositoryFile file = file( new Date( 1000L ) );
+    mockery.checking( new Expectations() {
+      {
+        allowing( repository ).getFile( PATH );
+        will( returnValue( file ) );
+        oneOf( repository ).getDataForRead( file.getId(), SimpleRepositoryFileData.class );
+        will( returnValue( data() ) );
+      }
+    } );
+
+    ActionSequenceJCRHelper helper = new ActionSequenceJCRHelper( session, repository );
+    long hits = ActionSequenceJCRHelper.getDocumentCacheHits();
+    Document first = helper.getSolutionDocument( PATH, RepositoryFilePermission.READ );
+    Document second = helper.getSolutionDocument( PATH, RepositoryFilePermission.READ );
+    mockery.assertIsSatisfied();
+
+    assertEquals( hits + 1, ActionSequenceJCRHelper.getDocumentCacheHits() );
+    assertNotSame( first, second );
+    // changes made by one caller must not leak into the cached copy
+    first.selectSingleNode( "/action-sequence/title" ).setText( "Changed" );
+    assertEquals( "Cached", second.selectSingleNode( "/action-sequence/title" ).getText() );
+    assertEquals( "Cached", helper.getSolutionDocument( PATH, RepositoryFilePermission.READ ).selectSingleNode(
+        "/action-sequence/title" ).getText() );
+  }
+
+  @Test
+  public void testChangedFileIsReloaded() {
+    final RepositoryFile original = file( new Date( 1000L ) );
+    final RepositoryFile changed = file( new Date( 2000L ) );
+    mockery.checking( new Expectations() {
+      {
+        oneOf( repository ).getFile( PATH );
+        will( returnValue( original ) );
+        oneOf( repository ).getFile( PATH );
+        will( returnValue( changed ) );
+        exactly( 2 ).of( repository ).getDataForRead( original.getId(), SimpleRepositoryFileData.class );
+        will( onConsecutiveCalls( returnValue( data() ), returnValue( data() ) ) );
+      }
+    } );
+
+    ActionSequenceJCRHelper helper = new ActionSequenceJCRHelper( session, repository );
+    helper.getSolutionDocument( PATH, RepositoryFilePermission.READ );
+    helper.getSolutionDocument( PATH, RepositoryFilePermission.READ );
+    mockery.assertIsSatisfied();
+    assertEquals( 1, ActionSequenceJCRHelper.getDocumentCacheSize() );
+  }
+
+  private RepositoryFile file( final Date lastModified ) {
+    return new RepositoryFile.Builder( "xaction-1", "cached.xaction" ).path( PATH ).lastModificationDate(
+        lastModified ).build();
+  }
+
+  private SimpleRepositoryFileData data() {
+    return new SimpleRepositoryFileData( new ByteArrayInputStream( XACTION.getBytes() ), "UTF-8", "text/xml" );
+  }
+
+}
@@ -0,0 +1,150 @@
+/*
+ * This program is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License, version 2 as published by the Free Software
+ * Foundation.
+ *
+ * You should have received a copy of the GNU General Public License along with this
+ * program; if not, you can obtain a copy at http://www.gnu.org/licenses/gpl-2.0.html
+ * or from the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ *
+ * Copyright 2006 - 2013 Pentaho Corporation.  All rights reserved.
+ */
+
+package org.pentaho.platform.engine.services;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.Test;
+import org.pentaho.platform.engine.services.audit.AsyncAuditSystemListener;
+import org.pentaho.platform.engine.services.audit.AsyncAuditWriter;
+
+@SuppressWarnings( "nls" )
+public class AsyncAuditWriterTest {
+
+  @Test
+  public void testRecordsAreWrittenInBatches() {
+    final List<Integer> batchSizes = Collections.synchronizedList( new ArrayList<Integer>() );
+    AsyncAuditWriter writer = new AsyncAuditWriter( "test-writer", new AsyncAuditWriter.IAuditSink() {
+      public void write( List<AsyncAuditWriter.Record> records ) {
+        batchSizes.add( records.size() );
+      }
+    }, 100, 10, 50L, false );
+    try {
+      for ( int i = 0; i < 25; i++ ) {
+        assertTrue( writer.submit( record( i ) ) );
+      }
+      assertTrue( "records were not written in time", writer.flush( 5000L ) );
+
+      int total = 0;
+      for ( Integer size : batchSizes ) {
+        assertTrue( "batch larger than the batch size: " + size, size <= 10 );
+        total += size;
+      }
+      assertEquals( 25, total );
+    } finally {
+      writer.shutdown();
+    }
+  }
+
+  @Test
+  public void testRecordsAreDroppedWhenFull() throws Exception {
+    final CountDownLatch release = new CountDownLatch( 1 );
+    final CountDownLatch writing = new CountDownLatch( 1 );
+    AsyncAuditWriter writer = new AsyncAuditWriter( "test-writer", new AsyncAuditWriter.IAuditSink() {
+      public void write( List<AsyncAuditWriter.Record> records ) throws Exception {
+        writing.countDown();
+        release.await();
+      }
+    }, 2, 1, 10L, true );
+    try {
+      assertTrue( writer.submit( record( 0 ) ) );
+      writing.await();
+      // the writer is now stuck on the first record, the queue holds two more
+      assertTrue( writer.submit( record( 1 ) ) );
+      assertTrue( writer.submit( record( 2 ) ) );
+      assertFalse( writer.submit( record( 3 ) ) );
+      assertEquals( 1, writer.getDroppedCount() );
+    } finally {
+      release.countDown();
+      writer.shutdown();
+    }
+  }
+
+  @Test
+  public void testShutdownWritesQueuedRecords() {
+    final List<AsyncAuditWriter.Record> written =
+        Collections.synchronizedList( new ArrayList<AsyncAuditWriter.Record>() );
+    AsyncAuditWriter writer = new AsyncAuditWriter( "test-writer", new AsyncAuditWriter.IAuditSink() {
+      public void write( List<AsyncAuditWriter.Record> records ) {
+        written.addAll( records );
+      }
+    }, 100, 50, 60000L, false );
+    for ( int i = 0; i < 5; i++ ) {
+      writer.submit( record( i ) );
+    }
+    writer.shutdown();
+    assertEquals( 5, written.size() );
+    assertFalse( writer.submit( record( 5 ) ) );
+  }
+
+  @Test
+  public void testShutdownLetsTheRunningBatchFinish() throws Exception {
+    final CountDownLatch writing = new CountDownLatch( 1 );
+    final AtomicBoolean interrupted = new AtomicBoolean();
+    final List<AsyncAuditWriter.Record> written =
+        Collections.synchronizedList( new ArrayList<AsyncAuditWriter.Record>() );
+    AsyncAuditWriter writer = new AsyncAuditWriter( "test-writer", new AsyncAuditWriter.IAuditSink() {
+      public void write( List<AsyncAuditWriter.Record> records ) {
+        writing.countDown();
+        try {
+          Thread.sleep( 200L );
+        } catch ( InterruptedException e ) {
+          interrupted.set( true );
+        }
+        written.addAll( records );
+      }
+    }, 100, 1, 10L, false );
+    writer.submit( record( 0 ) );
+    writing.await();
+    writer.submit( record( 1 ) );
+    writer.shutdown();
+    assertFalse( "shutdown interrupted the sink", interrupted.get() );
+    assertEquals( 2, written.size() );
+  }
+
+  @Test
+  public void testShutdownAllWritesQueuedRecords() {
+    final List<AsyncAuditWriter.Record> written =
+        Collections.synchronizedList( new ArrayList<AsyncAuditWriter.Record>() );
+    AsyncAuditWriter writer = new AsyncAuditWriter( "test-writer", new AsyncAuditWriter.IAuditSink() {
+      public void write( List<AsyncAuditWriter.Record> records ) {
+        written.addAll( records );
+      }
+    }, 100, 50, 60000L, false );
+    for ( int i = 0; i < 3; i++ ) {
+      writer.submit( record( i ) );
+    }
+    new AsyncAuditSystemListener().shutdown();
+    assertTrue( writer.isShutdown() );
+    assertEquals( 3, written.size() );
+  }
+
+  private AsyncAuditWriter.Record record( int i ) {
+    return new AsyncAuditWriter.Record( "job", "inst" + i, "obj", "type", "actor", "message", "name", "text", null, i );
+  }
+
+}
@@ -97,6 +97,101 @@ public class TemplateUtilTest extends TestCase implements IParameterResolver {
 
   }
 
+  public void testTemplateWithSeveralParameters() {
+
+    Properties props = new Properties();
+    props.put( "region", "East" );
+    props.put( "year", "2013" );
+
+    String template = "select * from sales where region = '{region}' and year = {year} and day = {2013-01-31}"
+        + " and {unknown} = 1";
+    String expected = "select * from sales where region = 'East' and year = 2013 and day = 2013-01-31"
+        + " and {unknown} = 1";
+
+    // the second call is served from the compiled template
+    assertEquals( expected, TemplateUtil.applyTemplate( template, props, (IParameterResolver) null ) );
+    assertEquals( expected, TemplateUtil.applyTemplate( template, props, (IParameterResolver) null ) );
+
+    props.put( "region", "West" );
+    assertEquals( expected.replace( "East", "West" ), TemplateUtil.applyTemplate( template, props,
+        (IParameterResolver) null ) );
+
+  }
+
+  public void testResolverSeesParameterPosition() {
+
+    IParameterResolver resolver = new IParameterResolver() {
+      public int resolveParameter( String template, String parameter, Matcher parameterMatcher, int copyStart,
+          StringBuffer results ) {
+        if ( !parameter.startsWith( "PREPARE:" ) ) {
+          return -1;
+        }
+        results.append( template.substring( copyStart, parameterMatcher.start() ) );
+        results.append( '?' );
+        return parameterMatcher.end();
+      }
+    };
+
+    Properties props = new Properties();
+    props.put( "name", "value" );
+    String template = "a = {PREPARE:one} and b = {name} and c = {PREPARE:two} and d = {OTHER:three}";
+    for ( int i = 0; i < 2; i++ ) {
+      assertEquals( "a = ? and b = value and c = ? and d = {OTHER:three}", TemplateUtil.applyTemplate( template,
+          props, resolver ) );
+    }
+
+  }
+
+  public void testDataTableKeyFallsBackToDateOfInputName() {
+
+    Properties props = new Properties();
+    props.put( "region", "East" );
+
+    // not in the data, so the name of the input alone is tried as a date
+    String template = "day = {2013-01-31:col1:East:col2:none} and region = {region:col1:East:col2:none}";
+    for ( int i = 0; i < 2; i++ ) {
+      assertEquals( "day = 2013-01-31 and region = {region:col1:East:col2:none}", TemplateUtil.applyTemplate(
+          template, props, (IParameterResolver) null ) );
+    }
+
+  }
+
+  public void testDateMathFallsThroughToOtherExpressions() {
+
+    Properties props = new Properties();
+    props.put( "day", "2013-02-28" );
+
+    // the wrapped expression is matched as a variable reference
+    for ( int i = 0; i < 2; i++ ) {
+      assertEquals( "2013-02-28", TemplateUtil.matchDateRegex( "DATEMATH('DATEMATH:day')", props ) );
+      assertEquals( "2013-02-28", TemplateUtil.matchDateRegex( "DATEMATH(\"2013-02-28\")", props ) );
+    }
+
+    // a wrapped expression that is no date of any kind gives no date, and the parameter is left in place
+    assertNull( TemplateUtil.matchDateRegex( "DATEMATH('no date')", props ) );
+    assertEquals( "{DATEMATH('no date')}", TemplateUtil.applyTemplate( "{DATEMATH('no date')}", props,
+        (IParameterResolver) null ) );
+
+  }
+
+  public void testDateMathVariableFollowsInputs() {
+
+    Properties props = new Properties();
+    props.put( "day", "2013-02-28" );
+    assertEquals( "2013-02-28", TemplateUtil.matchDateRegex( "DATEMATH:day", props ) );
+
+    props.put( "day", "2013-03-31" );
+    assertEquals( "2013-03-31", TemplateUtil.matchDateRegex( "DATEMATH:day", props ) );
+
+    props.put( "day", "+1:DS" );
+    assertEquals( DateMath.calculateDateString( null, "+1:DS;yyyy-MM-dd" ), TemplateUtil.matchDateRegex(
+        "DATEMATH:day", props ) );
+
+    props.remove( "day" );
+    assertNull( TemplateUtil.matchDateRegex( "DATEMATH:day", props ) );
+
+  }
+
   private void doCompare( String exp ) {
     if ( exp.indexOf( ';' ) == -1 ) {
       doCompare( exp, exp + ";yyyy-MM-dd" );
@@ -179,6 +179,23 @@ public class ActionDelegateTest {
     assertEquals( "should see the message from action1 here", "Action 1 was here!", action2.getMessageBoard() );
   }
 
+  @Test
+  public void testParallelLoop() throws ActionSequenceException {
+    // the first action is resolved when the sequence is validated, every iteration then resolves its own
+    TestAction[] actions = new TestAction[] { new TestAction(), new TestAction(), new TestAction(), new TestAction(),
+      new TestAction() };
+
+    execute( "testParallelLoop.xaction", actions );
+
+    assertFalse( "actions resolved during validation should not run in a parallel loop", actions[0]
+        .isExecuteWasCalled() );
+    String[] expected = new String[] { "first", "second", "third", "fourth" };
+    for ( int i = 0; i < expected.length; i++ ) {
+      assertTrue( "iteration " + i + " did not run", actions[i + 1].isExecuteWasCalled() );
+      assertEquals( "iteration " + i + " saw the wrong loop value", expected[i], actions[i + 1].getMessage() );
+    }
+  }
+
   @Test
   public void testVarArgs() throws ActionSequenceException {
     TestVarArgsAction action = new TestVarArgsAction();
@@ -0,0 +1,129 @@
+/*
+ * This program is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License, version 2 as published by the Free Software
+ * Foundation.
+ *
+ * You should have received a copy of the GNU General Public License along with this
+ * program; if not, you can obtain a copy at http://www.gnu.org/licenses/gpl-2.0.html
+ * or from the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ *
+ * Copyright 2006 - 2013 Pentaho Corporation.  All rights reserved.
+ */
+
+package org.pentaho.platform.engine.services.runtime;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.Test;
+import org.pentaho.commons.connection.IPentahoStreamSource;
+import org.pentaho.platform.api.engine.IOutputHandler;
+import org.pentaho.platform.api.repository.IContentItem;
+import org.pentaho.platform.engine.core.output.SimpleOutputHandler;
+
+/**
+ * Tests the per-iteration runtime data and output handler of parallel loops.
+ */
+@SuppressWarnings( "nls" )
+public class LoopIterationBufferTest {
+
+  @Test
+  public void testRuntimeDataIsWrittenOnApply() {
+    SimpleRuntimeElement shared = new SimpleRuntimeElement( "instance" );
+    shared.setStringProperty( "name", "before" );
+    LoopRuntimeElement iteration = new LoopRuntimeElement( shared );
+
+    iteration.setStringProperty( "name", "after" );
+    iteration.setLongProperty( "count", 5L );
+
+    assertEquals( "the iteration should see its own value", "after", iteration.getStringProperty( "name" ) );
+    assertEquals( 5L, iteration.getLongProperty( "count", 0L ) );
+    assertEquals( "the shared runtime data should not change before the merge", "before", shared
+        .getStringProperty( "name" ) );
+    assertNull( shared.getLongProperty( "count", (Long) null ) );
+    assertTrue( iteration.getParameterNames().contains( "count" ) );
+
+    iteration.apply();
+
+    assertEquals( "after", shared.getStringProperty( "name" ) );
+    assertEquals( 5L, shared.getLongProperty( "count", 0L ) );
+  }
+
+  @Test
+  public void testIterationsDoNotSeeEachOthersRuntimeData() {
+    SimpleRuntimeElement shared = new SimpleRuntimeElement( "instance" );
+    LoopRuntimeElement first = new LoopRuntimeElement( shared );
+    LoopRuntimeElement second = new LoopRuntimeElement( shared );
+
+    first.setStringProperty( "name", "first" );
+
+    assertNull( second.getStringProperty( "name" ) );
+    first.apply();
+    assertEquals( "applied values become visible to other iterations", "first", second.getStringProperty( "name" ) );
+  }
+
+  @Test
+  public void testIdentityGoesToTheSharedRuntimeData() {
+    SimpleRuntimeElement shared = new SimpleRuntimeElement( "instance" );
+    LoopRuntimeElement iteration = new LoopRuntimeElement( shared );
+
+    iteration.setParentId( "parent" );
+    iteration.setLoaded( true );
+
+    assertEquals( "parent", shared.getParentId() );
+    assertTrue( shared.getLoaded() );
+  }
+
+  @Test
+  public void testDataSourceReadsBufferedContent() throws Exception {
+    ByteArrayOutputStream response = new ByteArrayOutputStream();
+    LoopOutputHandler iteration = new LoopOutputHandler( new SimpleOutputHandler( response, false ) );
+    IContentItem content =
+        iteration.getOutputContentItem( IOutputHandler.RESPONSE, IOutputHandler.CONTENT, null, null );
+    content.setMimeType( "text/plain" );
+    content.getOutputStream( "action" ).write( "report".getBytes() );
+
+    IPentahoStreamSource source = content.getDataSource();
+    assertEquals( "text/plain", source.getContentType() );
+    assertEquals( "the data source should read the iteration's content before the merge", "report", IOUtils
+        .toString( source.getInputStream() ) );
+
+    iteration.apply();
+    assertEquals( "report", response.toString() );
+  }
+
+  @Test
+  public void testContentIsWrittenInMergeOrder() throws Exception {
+    ByteArrayOutputStream response = new ByteArrayOutputStream();
+    SimpleOutputHandler shared = new SimpleOutputHandler( response, false );
+    LoopOutputHandler first = new LoopOutputHandler( shared );
+    LoopOutputHandler second = new LoopOutputHandler( shared );
+
+    IContentItem firstContent =
+        first.getOutputContentItem( IOutputHandler.RESPONSE, IOutputHandler.CONTENT, null, null );
+    IContentItem secondContent =
+        second.getOutputContentItem( IOutputHandler.RESPONSE, IOutputHandler.CONTENT, null, null );
+    firstContent.getOutputStream( "action" ).write( "1a".getBytes() );
+    secondContent.getOutputStream( "action" ).write( "2a".getBytes() );
+    firstContent.getOutputStream( "action" ).write( "1b".getBytes() );
+    second.setOutput( IOutputHandler.CONTENT, "2b" );
+
+    assertEquals( "nothing should reach the response before the merge", 0, response.size() );
+
+    second.apply();
+    first.apply();
+
+    assertEquals( "2a2b1a1b", response.toString() );
+  }
+
+}
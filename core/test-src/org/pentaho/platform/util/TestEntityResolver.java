@@ -18,6 +18,7 @@
 
 package org.pentaho.platform.util;
 
+import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
@@ -26,10 +27,11 @@ import javax.xml.transform.Source;
 import javax.xml.transform.stream.StreamSource;
 
 import org.pentaho.platform.api.engine.IDocumentResourceLoader;
+import org.pentaho.platform.api.engine.IDocumentResourceVersionSupport;
 import org.xml.sax.InputSource;
 import org.xml.sax.SAXException;
 
-public class TestEntityResolver implements IDocumentResourceLoader {
+public class TestEntityResolver implements IDocumentResourceLoader, IDocumentResourceVersionSupport {
 
   private static TestEntityResolver instance;
 
@@ -82,4 +84,13 @@ public class TestEntityResolver implements IDocumentResourceLoader {
     return null;
   }
 
+  public long getLastModified( final String name ) {
+    File file = new File( name );
+    return file.exists() ? file.lastModified() : -1;
+  }
+
+  public String getScope() {
+    return "";
+  }
+
 }
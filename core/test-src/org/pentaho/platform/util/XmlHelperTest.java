@@ -25,11 +25,18 @@ import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.StringReader;
+import java.io.StringWriter;
 import java.util.HashMap;
 import java.util.Map;
 
+import javax.xml.transform.Source;
+import javax.xml.transform.Transformer;
 import javax.xml.transform.TransformerConfigurationException;
 import javax.xml.transform.TransformerException;
+import javax.xml.transform.URIResolver;
+import javax.xml.transform.stream.StreamResult;
+import javax.xml.transform.stream.StreamSource;
 
 import junit.framework.Assert;
 import junit.framework.TestCase;
@@ -40,8 +47,10 @@ import org.dom4j.DocumentException;
 import org.dom4j.DocumentHelper;
 import org.dom4j.Element;
 import org.dom4j.tree.DefaultElement;
+import org.pentaho.platform.api.engine.IDocumentResourceVersionSupport;
 import org.pentaho.platform.util.messages.LocaleHelper;
 import org.pentaho.platform.util.xml.XmlHelper;
+import org.pentaho.platform.util.xml.XslTemplatesCache;
 import org.pentaho.platform.util.xml.dom4j.XmlDom4JHelper;
 import org.pentaho.platform.util.xml.w3c.XmlW3CHelper;
 
@@ -143,6 +152,182 @@ public class XmlHelperTest extends TestCase {
     }
   }
 
+  private static final String XSL_ONE =
+      "<xsl:stylesheet version=\"1.0\" xmlns:xsl=\"http://www.w3.org/1999/XSL/Transform\">" //$NON-NLS-1$
+          + "<xsl:output method=\"text\"/><xsl:template match=\"/\">one</xsl:template></xsl:stylesheet>"; //$NON-NLS-1$
+
+  private static final String XSL_TWO = XSL_ONE.replace( ">one<", ">two<" ); //$NON-NLS-1$ //$NON-NLS-2$
+
+  private static final String XSL_INCLUDING =
+      "<xsl:stylesheet version=\"1.0\" xmlns:xsl=\"http://www.w3.org/1999/XSL/Transform\">" //$NON-NLS-1$
+          + "<xsl:include href=\"included.xsl\"/></xsl:stylesheet>"; //$NON-NLS-1$
+
+  public void testXslTemplatesCacheRecompilesChangedVersion() throws Exception {
+    XslTemplatesCache cache = new XslTemplatesCache( 10 );
+
+    Assert.assertEquals( "one", transform( cache, "test.xsl", 1, XSL_ONE, null ) ); //$NON-NLS-1$ //$NON-NLS-2$
+    // same version, so the stylesheet is not read again
+    Assert.assertEquals( "one", transform( cache, "test.xsl", 1, XSL_TWO, null ) ); //$NON-NLS-1$ //$NON-NLS-2$
+    Assert.assertEquals( 1, cache.size() );
+
+    Assert.assertEquals( "two", transform( cache, "test.xsl", 2, XSL_TWO, null ) ); //$NON-NLS-1$ //$NON-NLS-2$
+    Assert.assertEquals( 1, cache.size() );
+  }
+
+  public void testXslTemplatesCacheSkipsUnversionedXsl() throws Exception {
+    XslTemplatesCache cache = new XslTemplatesCache( 10 );
+
+    Assert.assertEquals( "one", transform( cache, "test.xsl", -1, XSL_ONE, null ) ); //$NON-NLS-1$ //$NON-NLS-2$
+    Assert.assertEquals( "two", transform( cache, "test.xsl", -1, XSL_TWO, null ) ); //$NON-NLS-1$ //$NON-NLS-2$
+    Assert.assertEquals( "one", transform( cache, null, 1, XSL_ONE, null ) ); //$NON-NLS-1$
+    Assert.assertEquals( "two", transform( cache, null, 1, XSL_TWO, null ) ); //$NON-NLS-1$
+    Assert.assertEquals( 0, cache.size() );
+  }
+
+  public void testXslTemplatesCacheKeysIncludesOnResolverScope() throws Exception {
+    XslTemplatesCache cache = new XslTemplatesCache( 10 );
+
+    Assert.assertEquals( "joe", transform( cache, "test.xsl", 1, XSL_INCLUDING, new ScopedResolver( "joe" ) ) ); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+    Assert.assertEquals( "suzy", transform( cache, "test.xsl", 1, XSL_INCLUDING, new ScopedResolver( "suzy" ) ) ); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+    Assert.assertEquals( "joe", transform( cache, "test.xsl", 1, XSL_INCLUDING, new ScopedResolver( "joe" ) ) ); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+    Assert.assertEquals( 2, cache.size() );
+  }
+
+  public void testXslTemplatesCacheSkipsIncludesOfUnscopedResolver() throws Exception {
+    XslTemplatesCache cache = new XslTemplatesCache( 10 );
+
+    Assert.assertEquals( "joe", transform( cache, "test.xsl", 1, XSL_INCLUDING, new UnscopedResolver( "joe" ) ) ); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+    Assert.assertEquals( "suzy", transform( cache, "test.xsl", 1, XSL_INCLUDING, new UnscopedResolver( "suzy" ) ) ); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+    Assert.assertEquals( 0, cache.size() );
+
+    // a stylesheet including nothing does not depend on the resolver
+    Assert.assertEquals( "one", transform( cache, "plain.xsl", 1, XSL_ONE, new UnscopedResolver( "joe" ) ) ); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+    Assert.assertEquals( 1, cache.size() );
+  }
+
+  private String transform( XslTemplatesCache cache, String name, long version, String xsl, URIResolver resolver )
+    throws Exception {
+    Transformer t = cache.newTransformer( name, version, new StreamSource( new StringReader( xsl ) ), resolver );
+    StringWriter writer = new StringWriter();
+    t.transform( new StreamSource( new StringReader( "<root/>" ) ), new StreamResult( writer ) ); //$NON-NLS-1$
+    return writer.toString();
+  }
+
+  /**
+   * Resolves the included stylesheet to one printing the name it was created with.
+   */
+  private static class UnscopedResolver implements URIResolver {
+
+    protected final String name;
+
+    UnscopedResolver( String name ) {
+      this.name = name;
+    }
+
+    public Source resolve( String href, String base ) {
+      return new StreamSource( new StringReader( XSL_ONE.replace( ">one<", ">" + name + "<" ) ) ); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+    }
+  }
+
+  private static class ScopedResolver extends UnscopedResolver implements IDocumentResourceVersionSupport {
+
+    ScopedResolver( String name ) {
+      super( name );
+    }
+
+    public long getLastModified( String resource ) {
+      return -1;
+    }
+
+    public String getScope() {
+      return name;
+    }
+  }
+
+  public void testTransformXmlCachesLoadedXsl() throws Exception {
+    String xslPath = "test-res/solution/system/custom/xsl"; //$NON-NLS-1$
+    String xslName = "CustomReportParametersForPortlet.xsl"; //$NON-NLS-1$
+    String docFile = "test-res/solution/test/xml/XmlHelperTest1.xml"; //$NON-NLS-1$
+    XslTemplatesCache.getInstance().clear();
+
+    String first = transformFile( xslName, xslPath, docFile );
+    Assert.assertEquals( 1, XslTemplatesCache.getInstance().size() );
+    String second = transformFile( xslName, xslPath, docFile );
+    Assert.assertEquals( first, second );
+    Assert.assertEquals( 1, XslTemplatesCache.getInstance().size() );
+
+    // compiling it directly gives the same result
+    InputStream xslIn = new FileInputStream( xslPath + "/" + xslName ); //$NON-NLS-1$
+    InputStream docIn = new FileInputStream( docFile );
+    try {
+      Map params = new HashMap();
+      params.put( "output-encoding", LocaleHelper.getSystemEncoding() ); //$NON-NLS-1$
+      Assert.assertEquals( first, XmlHelper.transformXml( xslIn, docIn, params, new TestEntityResolver() ).toString() );
+    } finally {
+      xslIn.close();
+      docIn.close();
+    }
+    XslTemplatesCache.getInstance().clear();
+  }
+
+  public void testTransformXmlDoesNotReadCachedXsl() throws Exception {
+    String xslPath = "test-res/solution/system/custom/xsl"; //$NON-NLS-1$
+    String xslName = "CustomReportParametersForPortlet.xsl"; //$NON-NLS-1$
+    String docFile = "test-res/solution/test/xml/XmlHelperTest1.xml"; //$NON-NLS-1$
+    XslTemplatesCache.getInstance().clear();
+
+    CountingResolver resolver = new CountingResolver();
+    String first = transformFile( xslName, xslPath, docFile, resolver );
+    Assert.assertEquals( 1, resolver.loaded );
+    Assert.assertEquals( first, transformFile( xslName, xslPath, docFile, resolver ) );
+    Assert.assertEquals( 1, resolver.loaded );
+
+    // the stylesheet is read again once it changes
+    resolver.version = 1;
+    Assert.assertEquals( first, transformFile( xslName, xslPath, docFile, resolver ) );
+    Assert.assertEquals( 2, resolver.loaded );
+    XslTemplatesCache.getInstance().clear();
+  }
+
+  private String transformFile( String xslName, String xslPath, String docFile ) throws Exception {
+    return transformFile( xslName, xslPath, docFile, new TestEntityResolver() );
+  }
+
+  private String transformFile( String xslName, String xslPath, String docFile, TestEntityResolver resolver )
+    throws Exception {
+    InputStream docIn = new FileInputStream( docFile );
+    try {
+      return XmlHelper.transformXml( xslName, xslPath, docIn, null, resolver ).toString();
+    } finally {
+      docIn.close();
+    }
+  }
+
+  /**
+   * Counts the stylesheets it opens, with a version that can be changed without touching the file.
+   */
+  private static class CountingResolver extends TestEntityResolver {
+
+    private int loaded;
+
+    private long version;
+
+    @Override
+    public InputStream loadXsl( final String name ) {
+      InputStream in = super.loadXsl( name );
+      if ( in != null ) {
+        loaded++;
+      }
+      return in;
+    }
+
+    @Override
+    public long getLastModified( final String name ) {
+      long lastModified = super.getLastModified( name );
+      return lastModified < 0 ? lastModified : version;
+    }
+  }
+
   public void testFailureGetDocFromString() {
     try {
       Document doc = XmlDom4JHelper.getDocFromString( "1231231231231", null ); //$NON-NLS-1$
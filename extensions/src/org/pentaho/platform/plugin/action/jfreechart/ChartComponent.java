@@ -109,8 +109,6 @@ public class ChartComponent extends ComponentBase {
 
   private static final String PNG_BYTES_TYPE = "png-bytes"; //$NON-NLS-1$
 
-  private static final String TEMP_DIRECTORY = "system/tmp/"; //$NON-NLS-1$
-
   private static final String FILENAME_PREFIX = "tmp_chart_"; //$NON-NLS-1$
 
   private static final String USE_BASE_URL_TAG = "use-base-url"; //$NON-NLS-1$
@@ -450,22 +448,27 @@ public class ChartComponent extends ComponentBase {
         boolean createMapFile = !isDefinedOutput( ChartComponent.HTML_MAPPING_HTML );
         boolean hasTemplate = urlTemplate != null && urlTemplate.length() > 0;
 
-        File[] fileResults = createTempFile( outputType, hasTemplate, !keepTempFile );
-
-        if ( fileResults == null ) {
-          error( Messages.getInstance().getErrorString( "ChartComponent.ERROR_0003_CANT_CREATE_TEMP_FILES" ) ); //$NON-NLS-1$
-          return false;
+        File mapFile = null;
+        if ( hasTemplate ) {
+          mapFile = createMapFile( !keepTempFile );
+          if ( mapFile == null ) {
+            error( Messages.getInstance().getErrorString( "ChartComponent.ERROR_0003_CANT_CREATE_TEMP_FILES" ) ); //$NON-NLS-1$
+            return false;
+          }
         }
 
-        String chartId =
-            fileResults[ChartComponent.FILE_NAME].getName().substring( 0,
-                fileResults[ChartComponent.FILE_NAME].getName().indexOf( '.' ) );
-        String filePathWithoutExtension = ChartComponent.TEMP_DIRECTORY + chartId;
+        // the image is shared by everyone charting the same data the same way, and kept for as long as the render
+        // cache holds it rather than until the end of the session
         PrintWriter printWriter = new PrintWriter( new StringWriter() );
         ChartRenderingInfo info = new ChartRenderingInfo( new StandardEntityCollection() );
 
-        JFreeChartEngine.saveChart( dataDefinition, title,
-            "", filePathWithoutExtension, width, height, outputType, printWriter, info, this ); //$NON-NLS-1$
+        String chartFileName =
+            JFreeChartEngine.saveCachedChart( dataDefinition, chartAttributes.asXML(), title,
+                "", width, height, outputType, printWriter, info, this ); //$NON-NLS-1$
+        if ( chartFileName == null ) {
+          error( Messages.getInstance().getErrorString( "ChartComponent.ERROR_0004_CANT_CREATE_IMAGE" ) ); //$NON-NLS-1$
+          return false;
+        }
 
         // Creating the image map
         boolean useBaseUrl = true;
@@ -486,23 +489,21 @@ public class ChartComponent extends ComponentBase {
         String mapString = null;
         if ( hasTemplate ) {
           try {
-            String mapId =
-                fileResults[ChartComponent.MAP_NAME].getName().substring( 0,
-                    fileResults[ChartComponent.MAP_NAME].getName().indexOf( '.' ) );
+            String mapId = mapFile.getName().substring( 0, mapFile.getName().indexOf( '.' ) );
             mapString =
                 ImageMapUtilities.getImageMap( mapId, info, new StandardToolTipTagFragmentGenerator(),
                     new PentahoChartURLTagFragmentGenerator( urlTemplate, urlTarget, useBaseUrl, dataDefinition,
                         parameterName, outerParameterName ) );
 
             if ( createMapFile ) {
-              BufferedWriter out = new BufferedWriter( new FileWriter( fileResults[ChartComponent.MAP_NAME] ) );
+              BufferedWriter out = new BufferedWriter( new FileWriter( mapFile ) );
               out.write( mapString );
               out.flush();
               out.close();
             }
           } catch ( IOException e ) {
             error( Messages.getInstance().getErrorString(
-                "ChartComponent.ERROR_0001_CANT_WRITE_MAP", fileResults[ChartComponent.MAP_NAME].getPath() ) ); //$NON-NLS-1$
+                "ChartComponent.ERROR_0001_CANT_WRITE_MAP", mapFile.getPath() ) ); //$NON-NLS-1$
             return false;
           } catch ( Exception e ) {
             error( e.getLocalizedMessage(), e );
@@ -546,11 +547,11 @@ public class ChartComponent extends ComponentBase {
 
             if ( outputName.equals( ChartComponent.CHART_FILE_NAME_OUTPUT ) ) {
 
-              outputValue = fileResults[ChartComponent.FILE_NAME].getName();
+              outputValue = chartFileName;
 
             } else if ( outputName.equals( ChartComponent.HTML_MAPPING_OUTPUT ) ) {
               if ( hasTemplate ) {
-                outputValue = fileResults[ChartComponent.MAP_NAME].getName();
+                outputValue = mapFile.getName();
               }
             } else if ( outputName.equals( ChartComponent.HTML_MAPPING_HTML ) ) {
 
@@ -581,13 +582,12 @@ public class ChartComponent extends ComponentBase {
               outputValue += "height=\"" + height + "\" "; //$NON-NLS-1$//$NON-NLS-2$
               if ( hasTemplate ) {
                 outputValue +=
-                    "usemap=\"#" + fileResults[ChartComponent.MAP_NAME].getName().substring( 0,
-                      fileResults[ ChartComponent.MAP_NAME ].getName().indexOf( '.' ) ) + "\" "; //$NON-NLS-1$//$NON-NLS-2$
+                    "usemap=\"#" + mapFile.getName().substring( 0, mapFile.getName().indexOf( '.' ) ) + "\" "; //$NON-NLS-1$//$NON-NLS-2$
               }
               IPentahoRequestContext requestContext = PentahoRequestContextHolder.getRequestContext();
               String contextPath = requestContext.getContextPath();
               outputValue +=
-                  "src=\"" + contextPath + "getImage?image=" + fileResults[ChartComponent.FILE_NAME].getName() + "\"/>"; //$NON-NLS-1$//$NON-NLS-2$ //$NON-NLS-3$
+                  "src=\"" + contextPath + "getImage?image=" + chartFileName + "\"/>"; //$NON-NLS-1$//$NON-NLS-2$ //$NON-NLS-3$
 
             }
 
@@ -624,6 +624,18 @@ public class ChartComponent extends ComponentBase {
     return true;
   }
 
+  /**
+   * @return a temporary file for the image map, or <code>null</code> if it cannot be created
+   */
+  protected File createMapFile( boolean trackFile ) {
+    try {
+      return PentahoSystem.getApplicationContext().createTempFile( getSession(), ChartComponent.FILENAME_PREFIX,
+          ChartComponent.MAP_EXTENSION, trackFile );
+    } catch ( IOException e ) {
+      return null;
+    }
+  }
+
   /**
    * @return String that represents the file path to a temporary file
    */
@@ -17,6 +17,7 @@
 
 package org.pentaho.platform.plugin.action.kettle;
 
+import org.apache.commons.codec.digest.DigestUtils;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.dom4j.Node;
@@ -51,6 +52,7 @@ import org.pentaho.platform.api.engine.ILogger;
 import org.pentaho.platform.engine.core.system.PentahoSystem;
 import org.pentaho.platform.engine.services.solution.ComponentBase;
 import org.pentaho.platform.plugin.action.messages.Messages;
+import org.pentaho.platform.plugin.services.connections.spill.SpillingResultSet;
 import org.pentaho.platform.util.xml.w3c.XmlW3CHelper;
 
 import java.io.File;
@@ -123,6 +125,9 @@ public class KettleComponent extends ComponentBase implements RowListener {
 
   private static final String TRANSFORM_ERROR_COUNT_OUTPUT = "transformation-output-error-rows-count"; //$NON-NLS-1$
 
+  // when "true", transformation-output-rows is handed on while the transformation is still running
+  private static final String TRANSFORM_STREAMING = "transformation-output-streaming"; //$NON-NLS-1$
+
   public static final String PARAMETER_MAP_CMD_ARG = "set-argument"; //$NON-NLS-1$
 
   public static final String PARAMETER_MAP_VARIABLE = "set-variable"; //$NON-NLS-1$
@@ -144,9 +149,23 @@ public class KettleComponent extends ComponentBase implements RowListener {
   /** The username to login with */
   private String username;
 
-  private MemoryResultSet results;
+  /**
+   * The collected output rows; they spill to a file tracked by the session, as they are handed on as an output and
+   * never disposed
+   */
+  private SpillingResultSet results;
+
+  /** The collected error rows, disposed once counted unless they are handed on as an output */
+  private SpillingResultSet errorResults;
+
+  /** The output rows when they are streamed rather than collected */
+  private StreamingResultSet streamingResults;
+
+  /** Set once a streamed transformation is left running, and so must not be cleaned up by executeAction */
+  private boolean streaming;
 
-  private MemoryResultSet errorResults;
+  /** Set when transformation or job metadata was parsed rather than taken from the {@link KettleMetaCache} */
+  private boolean metaParsed;
 
   private String executionStatus;
 
@@ -317,6 +336,9 @@ public class KettleComponent extends ComponentBase implements RowListener {
 
     TransMeta transMeta = null;
     JobMeta jobMeta = null;
+    streamingResults = null;
+    streaming = false;
+    metaParsed = false;
 
     // Build lists of parameters, variables and command line arguments
 
@@ -465,15 +487,13 @@ public class KettleComponent extends ComponentBase implements RowListener {
         try {
           if ( fileAddress != null ) { // We have an actual loadable
             // filesystem and file
-            transMeta = new TransMeta( fileAddress, repository, true );
+            transMeta = loadTransformFromFile( fileAddress, repository );
             transMeta.setFilename( fileAddress );
           } else {
             String jobXmlStr = getResourceAsString( getResource( KettleComponent.TRANSFORMFILE ) );
             jobXmlStr = jobXmlStr.replaceAll( "\\$\\{pentaho.solutionpath\\}", solutionPath ); //$NON-NLS-1$
             jobXmlStr = jobXmlStr.replaceAll( "\\%\\%pentaho.solutionpath\\%\\%", solutionPath ); //$NON-NLS-1$
-            org.w3c.dom.Document doc = XmlW3CHelper.getDomFromString( jobXmlStr );
-            // create a tranformation from the document
-            transMeta = new TransMeta( doc.getFirstChild(), repository );
+            transMeta = loadTransformFromXml( transformResource.getAddress(), jobXmlStr, repository );
           }
         } catch ( Exception e ) {
           error( Messages.getInstance().getErrorString(
@@ -528,7 +548,7 @@ public class KettleComponent extends ComponentBase implements RowListener {
             // if we get a valid repository its great, if not try it
             // without
 
-            jobMeta = new JobMeta( solutionPath + fileAddress, repository );
+            jobMeta = loadJobFromFile( solutionPath + fileAddress, jobXmlStr, repository );
           } catch ( Exception e ) {
             error( Messages.getInstance().getString( "Kettle.ERROR_0023_NO_META" ), e ); //$NON-NLS-1$
           } finally {
@@ -590,7 +610,7 @@ public class KettleComponent extends ComponentBase implements RowListener {
         }
       }
 
-      if ( transMeta != null ) {
+      if ( transMeta != null && !streaming ) {
         try {
           cleanLogChannel( transMeta );
           transMeta.clear();
@@ -619,11 +639,81 @@ public class KettleComponent extends ComponentBase implements RowListener {
       setOutputValue( EXECUTION_STATUS_OUTPUT, executionStatus );
     }
 
-    XMLHandlerCache.getInstance().clear();
+    if ( metaParsed ) {
+      // only filled while parsing
+      XMLHandlerCache.getInstance().clear();
+    }
     return result;
 
   }
 
+  /**
+   * Parses a transformation file, or takes it from the {@link KettleMetaCache} while the file is unchanged.
+   */
+  private TransMeta loadTransformFromFile( final String fileAddress, final Repository repository )
+    throws KettleException {
+    File file = new File( fileAddress );
+    // metadata loaded against a repository refers to it, so it is not shared
+    String version = ( repository == null && file.isFile() ) ? file.lastModified() + ":" + file.length() : null; //$NON-NLS-1$
+    if ( version != null ) {
+      TransMeta transMeta = KettleMetaCache.getInstance().getTransMeta( fileAddress, version );
+      if ( transMeta != null ) {
+        transMeta.setInternalKettleVariables();
+        return transMeta;
+      }
+    }
+    metaParsed = true;
+    TransMeta transMeta = new TransMeta( fileAddress, repository, true );
+    if ( version != null ) {
+      KettleMetaCache.getInstance().putTransMeta( fileAddress, version, transMeta );
+    }
+    return transMeta;
+  }
+
+  /**
+   * Parses a transformation, or takes it from the {@link KettleMetaCache} if the same XML was parsed before.
+   */
+  private TransMeta loadTransformFromXml( final String address, final String transformXml,
+      final Repository repository ) throws KettleException {
+    String version = ( repository == null ) ? DigestUtils.md5Hex( transformXml ) : null;
+    if ( version != null ) {
+      TransMeta transMeta = KettleMetaCache.getInstance().getTransMeta( address, version );
+      if ( transMeta != null ) {
+        transMeta.setInternalKettleVariables();
+        return transMeta;
+      }
+    }
+    metaParsed = true;
+    org.w3c.dom.Document doc = XmlW3CHelper.getDomFromString( transformXml );
+    // create a tranformation from the document
+    TransMeta transMeta = new TransMeta( doc.getFirstChild(), repository );
+    if ( version != null ) {
+      KettleMetaCache.getInstance().putTransMeta( address, version, transMeta );
+    }
+    return transMeta;
+  }
+
+  /**
+   * Parses a job file, or takes it from the {@link KettleMetaCache} if the same XML was parsed before.
+   */
+  private JobMeta loadJobFromFile( final String fileName, final String jobXml, final Repository repository )
+    throws KettleException {
+    String version = ( repository == null ) ? DigestUtils.md5Hex( jobXml ) : null;
+    if ( version != null ) {
+      JobMeta jobMeta = KettleMetaCache.getInstance().getJobMeta( fileName, version );
+      if ( jobMeta != null ) {
+        jobMeta.setInternalKettleVariables();
+        return jobMeta;
+      }
+    }
+    metaParsed = true;
+    JobMeta jobMeta = new JobMeta( fileName, repository );
+    if ( version != null ) {
+      KettleMetaCache.getInstance().putJobMeta( fileName, version, jobMeta );
+    }
+    return jobMeta;
+  }
+
   private void cleanLogChannel( LoggingObjectInterface loi ) {
     try {
       cleanLogChannelFromMap( loi );
@@ -739,6 +829,14 @@ public class KettleComponent extends ComponentBase implements RowListener {
             "Kettle.ERROR_0013_TRANSFORMATION_START_FAILED" ), e ); //$NON-NLS-1$
       }
 
+      if ( streamingResults != null ) {
+        // hand the rows on as they come; the transformation is cleaned up once it finishes
+        setOutputValue( outputName, streamingResults );
+        streamTransformation( trans, transMeta );
+        prepareKettleOutput( trans );
+        return success;
+      }
+
       try {
         // It's running in a separate thread to allow monitoring,
         // etc.
@@ -773,8 +871,14 @@ public class KettleComponent extends ComponentBase implements RowListener {
         if ( isDefinedOutput( TRANSFORM_ERROR_COUNT_OUTPUT ) ) {
           setOutputValue( TRANSFORM_ERROR_COUNT_OUTPUT, errorResults.getRowCount() );
         }
+        if ( !isDefinedOutput( TRANSFORM_ERROR_OUTPUT ) ) {
+          errorResults.dispose();
+          errorResults = null;
+        }
       }
     } catch ( KettleComponentException e ) {
+      // nothing has been handed on, so drop the rows collected so far
+      disposeResults();
       success = false;
       error( Messages.getInstance().getErrorString( "Kettle.ERROR_0008_ERROR_RUNNING", e.toString() ), e ); //$NON-NLS-1$
     }
@@ -813,8 +917,12 @@ public class KettleComponent extends ComponentBase implements RowListener {
             }
 
             MemoryMetaData metaData = new MemoryMetaData( columns, null );
-            results = new MemoryResultSet( metaData );
-            errorResults = new MemoryResultSet( metaData );
+            if ( isStreamingRequested() ) {
+              streamingResults = new StreamingResultSet( metaData );
+            } else {
+              results = new SpillingResultSet( metaData );
+              errorResults = new SpillingResultSet( metaData );
+            }
 
             // add ourself as a row listener
             step.step.addRowListener( this );
@@ -831,6 +939,60 @@ public class KettleComponent extends ComponentBase implements RowListener {
     return success;
   }
 
+  private boolean isStreamingRequested() {
+    if ( !isDefinedInput( KettleComponent.TRANSFORM_STREAMING )
+        || !Boolean.valueOf( getInputStringValue( KettleComponent.TRANSFORM_STREAMING ) ).booleanValue() ) {
+      return false;
+    }
+    // these are only known once all rows are written
+    for ( String output : new String[] { TRANSFORM_SUCCESS_COUNT_OUTPUT, TRANSFORM_ERROR_OUTPUT,
+      TRANSFORM_ERROR_COUNT_OUTPUT } ) {
+      if ( isDefinedOutput( output ) ) {
+        warn( Messages.getInstance().getString( "Kettle.WARN_OUTPUT_NOT_STREAMED", output ) ); //$NON-NLS-1$
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Leaves the transformation running, and ends the streamed rows and cleans up once it finishes. Closing the rows
+   * before that stops the transformation.
+   */
+  private void streamTransformation( final Trans trans, final TransMeta transMeta ) {
+    streaming = true;
+    final StreamingResultSet rows = streamingResults;
+    rows.setCloseCallback( new Runnable() {
+      public void run() {
+        trans.stopAll();
+      }
+    } );
+    Thread finisher = new Thread( new Runnable() {
+      public void run() {
+        try {
+          trans.waitUntilFinished();
+          if ( trans.getErrors() > 0 && !rows.isClosed() ) {
+            rows.fail( Messages.getInstance().getErrorString( "Kettle.ERROR_0014_ERROR_DURING_EXECUTE" ) ); //$NON-NLS-1$
+          } else {
+            rows.finish();
+          }
+        } catch ( InterruptedException e ) {
+          rows.close();
+        } finally {
+          try {
+            cleanLogChannel( trans );
+            trans.cleanup();
+            cleanLogChannel( transMeta );
+            transMeta.clear();
+          } catch ( Exception ignored ) {
+            //ignore
+          }
+        }
+      }
+    }, "kettle-stream-" + transMeta.getName() ); //$NON-NLS-1$
+    finisher.setDaemon( true );
+    finisher.start();
+  }
+
   private String getMonitorStepName() {
     String result = null;
 
@@ -1214,11 +1376,15 @@ public class KettleComponent extends ComponentBase implements RowListener {
   }
 
   public void rowWrittenEvent( final RowMetaInterface rowMeta, final Object[] row ) throws KettleStepException {
-    processRow( results, rowMeta, row );
+    if ( streamingResults != null ) {
+      streamRow( streamingResults, rowMeta, row );
+    } else {
+      collectRow( results, rowMeta, row );
+    }
   }
 
   public void errorRowWrittenEvent( final RowMetaInterface rowMeta, final Object[] row ) throws KettleStepException {
-    processRow( errorResults, rowMeta, row );
+    collectRow( errorResults, rowMeta, row );
   }
 
   public void processRow( MemoryResultSet memResults, final RowMetaInterface rowMeta, final Object[] row )
@@ -1226,9 +1392,50 @@ public class KettleComponent extends ComponentBase implements RowListener {
     if ( memResults == null ) {
       return;
     }
+    memResults.addRow( toPentahoRow( memResults.getColumnCount(), rowMeta, row ) );
+  }
+
+  private void collectRow( final SpillingResultSet rows, final RowMetaInterface rowMeta, final Object[] row )
+    throws KettleStepException {
+    if ( rows == null ) {
+      return;
+    }
+    rows.addRow( toPentahoRow( rows.getColumnCount(), rowMeta, row ) );
+  }
+
+  private void disposeResults() {
+    if ( results != null ) {
+      results.dispose();
+      results = null;
+    }
+    if ( errorResults != null ) {
+      errorResults.dispose();
+      errorResults = null;
+    }
+  }
+
+  /**
+   * Waits for the consumer to take the row if it is behind; rows are dropped once it has closed the result set, which
+   * stops the transformation.
+   */
+  private void streamRow( final StreamingResultSet rows, final RowMetaInterface rowMeta, final Object[] row )
+    throws KettleStepException {
+    if ( rows.isClosed() ) {
+      return;
+    }
+    try {
+      rows.addRow( toPentahoRow( rows.getColumnCount(), rowMeta, row ) );
+    } catch ( InterruptedException e ) {
+      Thread.currentThread().interrupt();
+      throw new KettleStepException( e );
+    }
+  }
+
+  private Object[] toPentahoRow( final int columnCount, final RowMetaInterface rowMeta, final Object[] row )
+    throws KettleStepException {
     try {
-      Object[] pentahoRow = new Object[memResults.getColumnCount()];
-      for ( int columnNo = 0; columnNo < memResults.getColumnCount(); columnNo++ ) {
+      Object[] pentahoRow = new Object[columnCount];
+      for ( int columnNo = 0; columnNo < columnCount; columnNo++ ) {
         ValueMetaInterface valueMeta = rowMeta.getValueMeta( columnNo );
 
         switch ( valueMeta.getType() ) {
@@ -1257,7 +1464,7 @@ public class KettleComponent extends ComponentBase implements RowListener {
             pentahoRow[columnNo] = rowMeta.getString( row, columnNo );
         }
       }
-      memResults.addRow( pentahoRow );
+      return pentahoRow;
     } catch ( KettleValueException e ) {
       throw new KettleStepException( e );
     }
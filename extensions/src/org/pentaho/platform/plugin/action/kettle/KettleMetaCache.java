@@ -0,0 +1,169 @@
+/*!
+ * This program is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License, version 2.1 as published by the Free Software
+ * Foundation.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with this
+ * program; if not, you can obtain a copy at http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+ * or from the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * Copyright (c) 2002-2013 Pentaho Corporation..  All rights reserved.
+ */
+
+package org.pentaho.platform.plugin.action.kettle;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.pentaho.di.job.JobMeta;
+import org.pentaho.di.trans.TransMeta;
+import org.pentaho.platform.engine.core.system.PentahoSystem;
+import org.pentaho.platform.plugin.action.messages.Messages;
+
+/**
+ * Holds parsed transformation and job metadata so that a transformation run over and over, for instance one feeding
+ * a dashboard, is parsed once rather than on every execution.
+ * <p>
+ * Metadata is cached by path and by a version supplied by the caller (the modification time of a file, or a digest of
+ * the XML it was parsed from); a different version replaces the cached one. As parameters, variables and arguments are
+ * set on the metadata for each execution and it is cleared afterwards, the cache only ever hands out clones.
+ * <p>
+ * The number of cached entries defaults to the <code>kettle-meta-cache-max-entries</code> system setting (100 if
+ * unset); 0 disables the cache.
+ */
+public class KettleMetaCache {
+
+  /**
+   * System setting holding the number of transformations and jobs kept.
+   */
+  public static final String MAX_ENTRIES_SETTING = "kettle-meta-cache-max-entries"; //$NON-NLS-1$
+
+  public static final int DEFAULT_MAX_ENTRIES = 100;
+
+  private static final Log log = LogFactory.getLog( KettleMetaCache.class );
+
+  private static KettleMetaCache instance;
+
+  private final int maxEntries;
+
+  private final Map<String, Entry> entries;
+
+  public KettleMetaCache( final int maxEntries ) {
+    this.maxEntries = maxEntries;
+    entries = new LinkedHashMap<String, Entry>( 16, 0.75f, true ) {
+      private static final long serialVersionUID = 1L;
+
+      @Override
+      protected boolean removeEldestEntry( final Map.Entry<String, Entry> eldest ) {
+        return size() > KettleMetaCache.this.maxEntries;
+      }
+    };
+  }
+
+  public static synchronized KettleMetaCache getInstance() {
+    if ( instance == null ) {
+      instance = new KettleMetaCache( getDefaultMaxEntries() );
+    }
+    return instance;
+  }
+
+  private static int getDefaultMaxEntries() {
+    String setting = PentahoSystem.getSystemSetting( MAX_ENTRIES_SETTING, null );
+    if ( setting != null ) {
+      try {
+        return Integer.parseInt( setting.trim() );
+      } catch ( NumberFormatException e ) {
+        log.warn( Messages.getInstance().getString( "KettleMetaCache.WARN_INVALID_MAX_ENTRIES", setting ) ); //$NON-NLS-1$
+      }
+    }
+    return DEFAULT_MAX_ENTRIES;
+  }
+
+  /**
+   * @return a clone of the transformation cached for this path and version, or <code>null</code>
+   */
+  public TransMeta getTransMeta( final String path, final String version ) {
+    Entry entry = getEntry( "trans:" + path, version ); //$NON-NLS-1$
+    if ( entry == null ) {
+      return null;
+    }
+    synchronized ( entry ) {
+      return (TransMeta) ( (TransMeta) entry.meta ).clone();
+    }
+  }
+
+  /**
+   * Caches a clone of <code>transMeta</code>, which the caller remains free to change.
+   */
+  public void putTransMeta( final String path, final String version, final TransMeta transMeta ) {
+    if ( maxEntries > 0 ) {
+      putEntry( "trans:" + path, new Entry( version, transMeta.clone() ) ); //$NON-NLS-1$
+    }
+  }
+
+  /**
+   * @return a clone of the job cached for this path and version, or <code>null</code>
+   */
+  public JobMeta getJobMeta( final String path, final String version ) {
+    Entry entry = getEntry( "job:" + path, version ); //$NON-NLS-1$
+    if ( entry == null ) {
+      return null;
+    }
+    synchronized ( entry ) {
+      return (JobMeta) ( (JobMeta) entry.meta ).clone();
+    }
+  }
+
+  /**
+   * Caches a clone of <code>jobMeta</code>, which the caller remains free to change.
+   */
+  public void putJobMeta( final String path, final String version, final JobMeta jobMeta ) {
+    if ( maxEntries > 0 ) {
+      putEntry( "job:" + path, new Entry( version, jobMeta.clone() ) ); //$NON-NLS-1$
+    }
+  }
+
+  public void clear() {
+    synchronized ( entries ) {
+      entries.clear();
+    }
+  }
+
+  public int size() {
+    synchronized ( entries ) {
+      return entries.size();
+    }
+  }
+
+  private Entry getEntry( final String key, final String version ) {
+    synchronized ( entries ) {
+      Entry entry = entries.get( key );
+      return ( entry != null && entry.version.equals( version ) ) ? entry : null;
+    }
+  }
+
+  private void putEntry( final String key, final Entry entry ) {
+    synchronized ( entries ) {
+      entries.put( key, entry );
+    }
+  }
+
+  private static class Entry {
+
+    private final String version;
+
+    private final Object meta;
+
+    Entry( final String version, final Object meta ) {
+      this.version = version;
+      this.meta = meta;
+    }
+  }
+}
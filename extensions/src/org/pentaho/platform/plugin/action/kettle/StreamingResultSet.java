@@ -0,0 +1,241 @@
+/*!
+ * This program is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License, version 2.1 as published by the Free Software
+ * Foundation.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with this
+ * program; if not, you can obtain a copy at http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+ * or from the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * Copyright (c) 2002-2013 Pentaho Corporation..  All rights reserved.
+ */
+
+package org.pentaho.platform.plugin.action.kettle;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.pentaho.commons.connection.IPeekable;
+import org.pentaho.commons.connection.IPentahoMetaData;
+import org.pentaho.commons.connection.IPentahoResultSet;
+import org.pentaho.platform.plugin.action.messages.Messages;
+import org.pentaho.platform.plugin.services.connections.spill.SpillingResultSet;
+
+/**
+ * A forward only result set over rows that are still being produced, for instance by a running transformation.
+ * <p>
+ * The producer hands rows over with {@link #addRow(Object[])} and ends them with {@link #finish()} or
+ * {@link #fail(String)}; the consumer reads them with {@link #next()}, which waits for the next row. At most
+ * <code>capacity</code> rows are buffered: a producer that gets ahead of its consumer waits for it, and gives up when
+ * the consumer has not read a row for <code>producerTimeout</code> milliseconds or has closed the result set.
+ * Closing the result set runs the callback given to {@link #setCloseCallback(Runnable)}, which stops the producer.
+ */
+public class StreamingResultSet implements IPentahoResultSet, IPeekable {
+
+  public static final int DEFAULT_CAPACITY = 1000;
+
+  public static final long DEFAULT_PRODUCER_TIMEOUT = 10 * 60 * 1000L;
+
+  private static final Log log = LogFactory.getLog( StreamingResultSet.class );
+
+  /** marks the end of the rows in the queue */
+  private static final Object[] END = new Object[0];
+
+  private static final long POLL_INTERVAL = 1000L;
+
+  private IPentahoMetaData metaData;
+
+  private final BlockingQueue<Object[]> rows;
+
+  private final long producerTimeout;
+
+  private volatile boolean closed;
+
+  private volatile String failure;
+
+  private boolean ended;
+
+  private Object[] peeked;
+
+  private Runnable closeCallback;
+
+  public StreamingResultSet( final IPentahoMetaData metaData ) {
+    this( metaData, DEFAULT_CAPACITY, DEFAULT_PRODUCER_TIMEOUT );
+  }
+
+  public StreamingResultSet( final IPentahoMetaData metaData, final int capacity, final long producerTimeout ) {
+    this.metaData = metaData;
+    this.rows = new ArrayBlockingQueue<Object[]>( capacity );
+    this.producerTimeout = producerTimeout;
+  }
+
+  /**
+   * @param closeCallback
+   *          run once when the consumer closes the result set, from the consumer's thread
+   */
+  public synchronized void setCloseCallback( final Runnable closeCallback ) {
+    this.closeCallback = closeCallback;
+  }
+
+  /**
+   * Hands a row to the consumer, waiting while the buffer is full.
+   * 
+   * @return false if the consumer closed the result set or stopped reading, in which case the producer should stop
+   */
+  public boolean addRow( final Object[] row ) throws InterruptedException {
+    return put( row );
+  }
+
+  /**
+   * Ends the rows; {@link #next()} returns <code>null</code> once the buffered rows are read.
+   */
+  public void finish() throws InterruptedException {
+    put( END );
+  }
+
+  /**
+   * Ends the rows with an error, which {@link #next()} throws once the buffered rows are read.
+   */
+  public void fail( final String message ) throws InterruptedException {
+    failure = message;
+    put( END );
+  }
+
+  public boolean isClosed() {
+    return closed;
+  }
+
+  private boolean put( final Object[] row ) throws InterruptedException {
+    long waited = 0;
+    while ( !closed ) {
+      if ( rows.offer( row, POLL_INTERVAL, TimeUnit.MILLISECONDS ) ) {
+        return !closed;
+      }
+      waited += POLL_INTERVAL;
+      if ( waited >= producerTimeout ) {
+        log.warn( Messages.getInstance().getString( "StreamingResultSet.WARN_CONSUMER_TIMEOUT" ) ); //$NON-NLS-1$
+        close();
+        return false;
+      }
+    }
+    return false;
+  }
+
+  public Object[] peek() {
+    if ( peeked == null ) {
+      peeked = take();
+    }
+    return peeked;
+  }
+
+  public Object[] next() {
+    Object[] row = peek();
+    peeked = null;
+    return row;
+  }
+
+  private Object[] take() {
+    if ( ended || closed ) {
+      return null;
+    }
+    Object[] row;
+    try {
+      row = rows.take();
+    } catch ( InterruptedException e ) {
+      Thread.currentThread().interrupt();
+      close();
+      return null;
+    }
+    if ( row == END ) {
+      ended = true;
+      if ( failure != null ) {
+        throw new IllegalStateException( failure );
+      }
+      return null;
+    }
+    return row;
+  }
+
+  /**
+   * The rows can only be read once.
+   */
+  public void beforeFirst() {
+    log.info( Messages.getInstance().getString( "StreamingResultSet.INFO_IGNORE_BEFORE_FIRST" ) ); //$NON-NLS-1$
+  }
+
+  public boolean isScrollable() {
+    return false;
+  }
+
+  public int getColumnCount() {
+    return ( metaData != null ) ? metaData.getColumnCount() : 0;
+  }
+
+  /**
+   * @return -1, as the number of rows is not known until they are all read
+   */
+  public int getRowCount() {
+    return -1;
+  }
+
+  public Object getValueAt( final int row, final int column ) {
+    return null;
+  }
+
+  public Object[] getDataColumn( final int column ) {
+    return null;
+  }
+
+  public Object[] getDataRow( final int row ) {
+    return null;
+  }
+
+  /**
+   * Reads the remaining rows into a scrollable copy.
+   */
+  public IPentahoResultSet memoryCopy() {
+    return SpillingResultSet.copyOf( this, metaData );
+  }
+
+  public void setMetaData( final IPentahoMetaData metaData ) {
+    this.metaData = metaData;
+  }
+
+  public IPentahoMetaData getMetaData() {
+    return metaData;
+  }
+
+  /**
+   * Stops reading; rows not yet read are dropped and the producer is stopped.
+   */
+  public void close() {
+    Runnable callback;
+    synchronized ( this ) {
+      if ( closed ) {
+        return;
+      }
+      closed = true;
+      callback = closeCallback;
+    }
+    rows.clear();
+    if ( callback != null ) {
+      callback.run();
+    }
+  }
+
+  public void closeConnection() {
+    close();
+  }
+
+  public void dispose() {
+    close();
+  }
+}
@@ -27,6 +27,7 @@ import mondrian.xmla.DataSourcesConfig.DataSources;
 import org.apache.commons.collections.list.SetUniqueList;
 import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang.StringUtils;
+import org.apache.commons.lang.builder.ToStringBuilder;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.commons.vfs.FileSystemException;
@@ -86,6 +87,11 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
 
 /**
  * Reads in file containing Mondrian data sources and catalogs. (Contains code copied from <code>XmlaServlet</code>.)
@@ -114,6 +120,17 @@ public class MondrianCatalogHelper implements IMondrianCatalogService {
 
   public static final String MONDRIAN_DATASOURCE_FOLDER = "mondrian"; //$NON-NLS-1$
 
+  /**
+   * Locales whose catalogs have been indexed, keyed by the string form used as their key in the cache region.
+   */
+  private final ConcurrentMap<String, Locale> indexedLocales = new ConcurrentHashMap<String, Locale>();
+
+  /**
+   * Serializes changes to the catalog index. Lookups never take it once the current locale has been indexed, and
+   * schema parsing happens outside of it.
+   */
+  private final Object indexLock = new Object();
+
   // ~ Constructors ====================================================================================================
 
   @SuppressWarnings ( "unchecked" )
@@ -214,28 +231,79 @@ public class MondrianCatalogHelper implements IMondrianCatalogService {
 
   // ~ Methods =========================================================================================================
 
-  protected synchronized void init( final IPentahoSession pentahoSession ) {
+  protected void init( final IPentahoSession pentahoSession ) {
     // First check if the catalogs are initialized for the current locale
     final ICacheManager cacheMgr = PentahoSystem.getCacheManager( pentahoSession );
-    if ( cacheMgr.cacheEnabled( MONDRIAN_CATALOG_CACHE_REGION )
-      && cacheMgr.getFromRegionCache( MONDRIAN_CATALOG_CACHE_REGION, getLocale().toString() ) != null ) {
+    if ( isIndexed( cacheMgr ) ) {
       return;
     }
-    if ( MondrianCatalogHelper.logger.isDebugEnabled() ) {
-      MondrianCatalogHelper.logger.debug( "init" ); //$NON-NLS-1$
+    synchronized ( indexLock ) {
+      if ( isIndexed( cacheMgr ) ) {
+        return;
+      }
+      if ( MondrianCatalogHelper.logger.isDebugEnabled() ) {
+        MondrianCatalogHelper.logger.debug( "init" ); //$NON-NLS-1$
+      }
+      // By default, we will use the system to load all schemas into the cache.
+      // access to these schemas is controlled later via the hasAccess() method
+      loadCatalogsIntoCache( makeDataSources(), PentahoSessionHolder.getSession() );
+      AggregationManager.instance().getCacheControl( null, null ).flushSchemaCache();
     }
-    // By default, we will use the system to load all schemas into the cache.
-    // access to these schemas is controlled later via the hasAccess() method
-    loadCatalogsIntoCache( makeDataSources(), PentahoSessionHolder.getSession() );
-    AggregationManager.instance().getCacheControl( null, null ).flushSchemaCache();
   }
 
-  public synchronized void reInit( final IPentahoSession pentahoSession ) {
+  private boolean isIndexed( final ICacheManager cacheMgr ) {
+    return cacheMgr.cacheEnabled( MONDRIAN_CATALOG_CACHE_REGION )
+      && cacheMgr.getFromRegionCache( MONDRIAN_CATALOG_CACHE_REGION, getLocale().toString() ) != null;
+  }
+
+  public void reInit( final IPentahoSession pentahoSession ) {
+    synchronized ( indexLock ) {
+      final ICacheManager cacheMgr = PentahoSystem.getCacheManager( pentahoSession );
+      if ( cacheMgr.cacheEnabled( MONDRIAN_CATALOG_CACHE_REGION ) ) {
+        cacheMgr.clearRegionCache( MONDRIAN_CATALOG_CACHE_REGION );
+      }
+      indexedLocales.clear();
+      init( pentahoSession );
+    }
+  }
+
+  /**
+   * Replaces the cached entries of one repository catalog in every indexed locale, leaving the other catalogs alone.
+   * The schema is parsed again the next time it is asked for.
+   *
+   * @param catalogName    name of the catalog folder under /etc/mondrian
+   * @param dataSourceInfo the catalog's data source info, or <code>null</code> if the catalog has been removed
+   * @param pentahoSession the session with which this request is associated (Used to locate the cache)
+   */
+  protected void invalidateCatalog( final String catalogName, final String dataSourceInfo,
+                                    final IPentahoSession pentahoSession ) {
     final ICacheManager cacheMgr = PentahoSystem.getCacheManager( pentahoSession );
-    if ( cacheMgr.cacheEnabled( MONDRIAN_CATALOG_CACHE_REGION ) ) {
-      cacheMgr.clearRegionCache( MONDRIAN_CATALOG_CACHE_REGION );
+    if ( !cacheMgr.cacheEnabled( MONDRIAN_CATALOG_CACHE_REGION ) ) {
+      return;
     }
-    init( pentahoSession );
+    String definition = "mondrian:/" + catalogName; //$NON-NLS-1$
+    synchronized ( indexLock ) {
+      for ( Map.Entry<String, Locale> indexed : indexedLocales.entrySet() ) {
+        Map<String, Object> catalogs =
+          (Map<String, Object>) cacheMgr.getFromRegionCache( MONDRIAN_CATALOG_CACHE_REGION, indexed.getKey() );
+        if ( catalogs == null ) {
+          continue;
+        }
+        Object previous = catalogs.get( catalogName );
+        if ( previous instanceof MondrianCatalog ) {
+          catalogs.remove( ( (MondrianCatalog) previous ).getDefinition() );
+          catalogs.remove( catalogName );
+        }
+        catalogs.remove( definition );
+        if ( dataSourceInfo != null ) {
+          MondrianCatalog catalog =
+            new LazyMondrianCatalog( this, catalogName, dataSourceInfo, definition, indexed.getValue() );
+          catalogs.put( catalog.getName(), catalog );
+          catalogs.put( catalog.getDefinition(), catalog );
+        }
+      }
+    }
+    AggregationManager.instance().getCacheControl( null, null ).flushSchemaCache();
   }
 
   private static Locale getLocale() {
@@ -503,8 +571,8 @@ public class MondrianCatalogHelper implements IMondrianCatalogService {
   /**
    * use the in memory session value of input stream (used by test harness)
    */
-  public synchronized void addCatalog( final MondrianCatalog catalog, final boolean overwrite,
-                                       final IPentahoSession pentahoSession ) throws MondrianCatalogServiceException {
+  public void addCatalog( final MondrianCatalog catalog, final boolean overwrite,
+                          final IPentahoSession pentahoSession ) throws MondrianCatalogServiceException {
     String mondrianSchema = (String) pentahoSession.getAttribute( "MONDRIAN_SCHEMA_XML_CONTENT" ); //$NON-NLS-1$
     InputStream schemaInputStream = IOUtils.toInputStream( mondrianSchema );
     addCatalog( schemaInputStream, catalog, overwrite, pentahoSession );
@@ -520,8 +588,8 @@ public class MondrianCatalogHelper implements IMondrianCatalogService {
    * @throws MondrianCatalogServiceException
    *
    */
-  public synchronized void addCatalog( InputStream schemaInputStream, final MondrianCatalog catalog,
-                                       final boolean overwrite, final IPentahoSession pentahoSession )
+  public void addCatalog( InputStream schemaInputStream, final MondrianCatalog catalog,
+                          final boolean overwrite, final IPentahoSession pentahoSession )
     throws MondrianCatalogServiceException {
     if ( MondrianCatalogHelper.logger.isDebugEnabled() ) {
       MondrianCatalogHelper.logger.debug( "addCatalog" ); //$NON-NLS-1$
@@ -585,10 +653,9 @@ public class MondrianCatalogHelper implements IMondrianCatalogService {
     }
 
     if ( MondrianCatalogHelper.logger.isDebugEnabled() ) {
-      MondrianCatalogHelper.logger
-        .debug( "refreshing from dataSourcesConfig (" + dataSourcesConfig + ")" ); //$NON-NLS-1$ //$NON-NLS-2$
+      MondrianCatalogHelper.logger.debug( "refreshing catalog " + catalog.getName() ); //$NON-NLS-1$
     }
-    reInit( pentahoSession );
+    invalidateCatalog( catalog.getName(), catalog.getDataSourceInfo(), pentahoSession );
   }
 
   public void importSchema( File mondrianFile, String databaseConnection, String parameters ) {
@@ -622,7 +689,7 @@ public class MondrianCatalogHelper implements IMondrianCatalogService {
           .get( IUnifiedRepository.class ) );
       helper.addSchema( schemaInputStream, catalogName, datasourceInfo );
 
-      reInit( PentahoSessionHolder.getSession() );
+      invalidateCatalog( catalogName, datasourceInfo, PentahoSessionHolder.getSession() );
 
     } catch ( SAXParseException e ) {
       throw new MondrianCatalogServiceException( Messages.getInstance().getString(
@@ -705,6 +772,11 @@ public class MondrianCatalogHelper implements IMondrianCatalogService {
 
   }
 
+  /**
+   * Indexes the catalogs of <code>dataSources</code> for the current locale. Catalogs whose name is known without
+   * reading their schema are indexed as they are and have their schema parsed the first time it is asked for; only
+   * catalogs named after a schema stored outside of the repository are parsed here.
+   */
   protected void loadCatalogsIntoCache( final DataSourcesConfig.DataSources dataSources,
                                         final IPentahoSession pentahoSession ) {
 
@@ -714,33 +786,28 @@ public class MondrianCatalogHelper implements IMondrianCatalogService {
       // Create the region
       cacheMgr.addCacheRegion( MONDRIAN_CATALOG_CACHE_REGION );
     }
-    if ( cacheMgr.getFromRegionCache( MONDRIAN_CATALOG_CACHE_REGION, getLocale().toString() ) == null ) {
-      // Put the map in the region
-      cacheMgr.putInRegionCache( MONDRIAN_CATALOG_CACHE_REGION, getLocale().toString(),
-        new HashMap<String, List<MondrianCatalog>>() );
-    }
-
-    for ( DataSourcesConfig.DataSource dataSource : dataSources.dataSources ) {
-      List<String> catalogNames = new ArrayList<String>();
-      for ( DataSourcesConfig.Catalog catalog : dataSource.catalogs.catalogs ) {
-        catalogNames.add( catalog.name );
-      }
+    final Locale locale = getLocale();
 
-      Map<String, MondrianCatalog> catalogs =
-        (Map<String, MondrianCatalog>) cacheMgr.getFromRegionCache( MONDRIAN_CATALOG_CACHE_REGION, getLocale()
-          .toString() );
+    // the map is filled before it is published so lookups never see a partial index
+    Map<String, MondrianCatalog> catalogs = new ConcurrentHashMap<String, MondrianCatalog>();
 
+    for ( DataSourcesConfig.DataSource dataSource : dataSources.dataSources ) {
       for ( DataSourcesConfig.Catalog catalog : dataSource.catalogs.catalogs ) {
         if ( catalog.definition.startsWith( "mondrian:" ) || catalog.definition
           .startsWith( "solution:" ) ) { //$NON-NLS-1$ //$NON-NLS-2$
 
           // try catch here so the whole thing doesn't blow up if one datasource is configured incorrectly.
           try {
-            MondrianSchema schema = makeSchema( docAtUrlToString( catalog.definition, pentahoSession ) );
-
-            MondrianCatalog mondrianCatalog =
-              new MondrianCatalog( useSchemaNameAsCatalogName ? schema.getName() : catalog.name,
-                catalog.dataSourceInfo, catalog.definition, schema );
+            MondrianCatalog mondrianCatalog;
+            // repository catalogs are stored in a folder named after their schema
+            if ( !useSchemaNameAsCatalogName || catalog.definition.startsWith( "mondrian:" ) ) { //$NON-NLS-1$
+              mondrianCatalog =
+                new LazyMondrianCatalog( this, catalog.name, catalog.dataSourceInfo, catalog.definition, locale );
+            } else {
+              MondrianSchema schema = makeSchema( docAtUrlToString( catalog.definition, pentahoSession ) );
+              mondrianCatalog =
+                new MondrianCatalog( schema.getName(), catalog.dataSourceInfo, catalog.definition, schema );
+            }
 
             catalogs.put( mondrianCatalog.getName(), mondrianCatalog );
             catalogs.put( mondrianCatalog.getDefinition(), mondrianCatalog );
@@ -755,6 +822,38 @@ public class MondrianCatalogHelper implements IMondrianCatalogService {
         }
       }
     }
+
+    Map<String, MondrianCatalog> cached =
+      (Map<String, MondrianCatalog>) cacheMgr.getFromRegionCache( MONDRIAN_CATALOG_CACHE_REGION, locale.toString() );
+    if ( cached != null ) {
+      cached.putAll( catalogs );
+    } else {
+      // Put the map in the region
+      cacheMgr.putInRegionCache( MONDRIAN_CATALOG_CACHE_REGION, locale.toString(), catalogs );
+    }
+    indexedLocales.put( locale.toString(), locale );
+  }
+
+  /**
+   * Parses the schema of a catalog in the given locale. Errors are logged and reported as a <code>null</code> schema,
+   * the way a catalog that fails to load is left out of the index.
+   */
+  private MondrianSchema loadSchema( final String definition, final Locale locale ) {
+    if ( MondrianCatalogHelper.logger.isDebugEnabled() ) {
+      MondrianCatalogHelper.logger.debug( "loading schema " + definition + " for " + locale ); //$NON-NLS-1$ //$NON-NLS-2$
+    }
+    // the catalog may be read on a thread in another locale than the one it was indexed for
+    Locale previous = LocaleHelper.getLocaleOverride();
+    LocaleHelper.setLocaleOverride( locale );
+    try {
+      return makeSchema( docAtUrlToString( definition, PentahoSessionHolder.getSession() ) );
+    } catch ( Exception e ) {
+      MondrianCatalogHelper.logger.error( Messages.getInstance().getErrorString(
+        "MondrianCatalogHelper.ERROR_0013_FAILED_TO_LOAD_SCHEMA", definition ), e ); //$NON-NLS-1$
+      return null;
+    } finally {
+      LocaleHelper.setLocaleOverride( previous );
+    }
   }
 
   @Deprecated
@@ -1055,6 +1154,82 @@ public class MondrianCatalogHelper implements IMondrianCatalogService {
     RepositoryFile deletingFile = solutionRepository.getFile( RepositoryFile.SEPARATOR + "etc" //$NON-NLS-1$
       + RepositoryFile.SEPARATOR + "mondrian" + RepositoryFile.SEPARATOR + catalog.getName() ); //$NON-NLS-1$
     solutionRepository.deleteFile( deletingFile.getId(), "" ); //$NON-NLS-1$
-    reInit( pentahoSession );
+    invalidateCatalog( catalog.getName(), null, pentahoSession );
+  }
+
+  /**
+   * Catalog whose schema is parsed the first time it is asked for. Threads asking for the schema while it is being
+   * parsed wait for that one parse; catalogs are parsed independently of each other.
+   */
+  private static class LazyMondrianCatalog extends MondrianCatalog {
+
+    private static final long serialVersionUID = 1L;
+
+    private final Locale locale;
+
+    private transient MondrianCatalogHelper helper;
+
+    private transient FutureTask<MondrianSchema> load;
+
+    private volatile MondrianSchema schema;
+
+    LazyMondrianCatalog( final MondrianCatalogHelper helper, final String name, final String dataSourceInfo,
+                         final String definition, final Locale locale ) {
+      super( name, dataSourceInfo, definition, null );
+      this.helper = helper;
+      this.locale = locale;
+    }
+
+    @Override
+    public MondrianSchema getSchema() {
+      MondrianSchema loaded = schema;
+      if ( loaded != null ) {
+        return loaded;
+      }
+      FutureTask<MondrianSchema> task;
+      boolean owner = false;
+      synchronized ( this ) {
+        if ( load == null ) {
+          load = new FutureTask<MondrianSchema>( new Callable<MondrianSchema>() {
+            public MondrianSchema call() {
+              MondrianCatalogHelper catalogHelper = getHelper();
+              return ( catalogHelper != null ) ? catalogHelper.loadSchema( getDefinition(), locale ) : null;
+            }
+          } );
+          owner = true;
+        }
+        task = load;
+      }
+      if ( owner ) {
+        task.run();
+      }
+      try {
+        schema = task.get();
+      } catch ( InterruptedException e ) {
+        Thread.currentThread().interrupt();
+      } catch ( ExecutionException e ) {
+        MondrianCatalogHelper.logger.error( Messages.getInstance().getErrorString(
+          "MondrianCatalogHelper.ERROR_0013_FAILED_TO_LOAD_SCHEMA", getDefinition() ), e.getCause() ); //$NON-NLS-1$
+      }
+      return schema;
+    }
+
+    private MondrianCatalogHelper getHelper() {
+      if ( helper == null ) {
+        // the helper is not serialized with the catalog, look it up again
+        IMondrianCatalogService service =
+          PentahoSystem.get( IMondrianCatalogService.class, "IMondrianCatalogService", null ); //$NON-NLS-1$
+        if ( service instanceof MondrianCatalogHelper ) {
+          helper = (MondrianCatalogHelper) service;
+        }
+      }
+      return helper;
+    }
+
+    @Override
+    public String toString() {
+      return new ToStringBuilder( this ).append( "name", getName() ).append( "dataSourceInfo", getDataSourceInfo() )
+        .append( "definition", getDefinition() ).append( "schema", schema ).toString(); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$
+    }
   }
 }
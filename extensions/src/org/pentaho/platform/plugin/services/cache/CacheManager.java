@@ -24,20 +24,23 @@ import org.hibernate.cache.Cache;
 import org.hibernate.cache.CacheException;
 import org.hibernate.cache.CacheProvider;
 import org.pentaho.platform.api.cache.ICacheExpirationRegistry;
+import org.pentaho.platform.api.cache.ICacheStatistics;
 import org.pentaho.platform.api.engine.ICacheManager;
 import org.pentaho.platform.api.engine.IPentahoSession;
 import org.pentaho.platform.api.engine.ISystemSettings;
+import org.pentaho.platform.engine.core.system.CacheStatistics;
 import org.pentaho.platform.engine.core.system.PentahoSystem;
 import org.pentaho.platform.engine.services.messages.Messages;
 import org.pentaho.platform.util.xml.dom4j.XmlDom4JHelper;
 
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 /**
  * This class provides an access point for pluggable caching mechanisms. Right now, it only supports the caching
@@ -76,6 +79,9 @@ import java.util.Set;
  * No information is actually stored in the user session object. For an example of this, see <code><br>
  * putInSessionCache(IPentahoSession session, String key, Object value)</code>
  * <p>
+ * The keys of the session-based data are kept per session id as well, so that removing the data of a session on
+ * logout only touches the entries of that session rather than scanning the whole session region.
+ * <p>
  * Data that is server-wide (i.e. global) uses different methods for storage/retrieval/management. For an example of
  * this, see <code><br> 
  * getFromGlobalCache(Object key)</code>
@@ -114,7 +120,12 @@ public class CacheManager implements ICacheManager {
   // ~ Instance Fields ======================================================
   private CacheProvider cacheProvider;
 
-  private Map<String, Cache> regionCache;
+  private ConcurrentMap<String, Cache> regionCache;
+
+  private final ConcurrentMap<String, CacheStatistics.Recorder> regionStatistics =
+      new ConcurrentHashMap<String, CacheStatistics.Recorder>();
+
+  private final SessionKeyIndex sessionKeys = new SessionKeyIndex();
 
   private String cacheProviderClassName;
 
@@ -168,7 +179,7 @@ public class CacheManager implements ICacheManager {
       if ( obj instanceof CacheProvider ) {
         this.cacheProvider = (CacheProvider) obj;
         cacheProvider.start( cacheProperties );
-        regionCache = new HashMap<String, Cache>();
+        regionCache = new ConcurrentHashMap<String, Cache>();
         Cache cache = buildCache( SESSION, cacheProperties );
         if ( cache == null ) {
           CacheManager.logger
@@ -250,7 +261,8 @@ public class CacheManager implements ICacheManager {
           CacheManager.logger
               .error( Messages.getInstance().getString( "CacheManager.ERROR_0005_UNABLE_TO_BUILD_CACHE" ) ); //$NON-NLS-1$
         } else {
-          regionCache.put( region, cache );
+          // another thread may have added the region meanwhile
+          regionCache.putIfAbsent( region, cache );
           returnValue = true;
         }
       } else {
@@ -272,7 +284,8 @@ public class CacheManager implements ICacheManager {
           CacheManager.logger
               .error( Messages.getInstance().getString( "CacheManager.ERROR_0005_UNABLE_TO_BUILD_CACHE" ) ); //$NON-NLS-1$
         } else {
-          regionCache.put( region, cache );
+          // another thread may have added the region meanwhile
+          regionCache.putIfAbsent( region, cache );
           returnValue = true;
         }
       } else {
@@ -292,6 +305,9 @@ public class CacheManager implements ICacheManager {
       if ( cache != null ) {
         try {
           cache.clear();
+          if ( SESSION.equals( region ) ) {
+            sessionKeys.clear();
+          }
         } catch ( CacheException e ) {
           CacheManager.logger.error( Messages.getInstance().getString(
             "CacheManager.ERROR_0006_CACHE_EXCEPTION", e.getLocalizedMessage() ) ); //$NON-NLS-1$
@@ -323,6 +339,10 @@ public class CacheManager implements ICacheManager {
       if ( cacheEnabled( region ) ) {
         Cache cache = regionCache.get( region );
         cache.put( key, value );
+        getStatisticsRecorder( region ).recordPut();
+        if ( SESSION.equals( region ) ) {
+          sessionKeys.add( key );
+        }
       } else {
         CacheManager.logger.warn( Messages.getInstance().getString(
             "CacheManager.WARN_0003_REGION_DOES_NOT_EXIST", region ) ); //$NON-NLS-1$
@@ -338,6 +358,7 @@ public class CacheManager implements ICacheManager {
       Cache cache = regionCache.get( region );
       if ( cacheEnabled( region ) ) {
         returnValue = cache.get( key );
+        getStatisticsRecorder( region ).recordLookup( returnValue );
       } else {
         CacheManager.logger.warn( Messages.getInstance().getString(
             "CacheManager.WARN_0003_REGION_DOES_NOT_EXIST", region ) ); //$NON-NLS-1$
@@ -406,6 +427,10 @@ public class CacheManager implements ICacheManager {
       Cache cache = regionCache.get( region );
       if ( cacheEnabled( region ) ) {
         cache.remove( key );
+        getStatisticsRecorder( region ).recordRemove();
+        if ( SESSION.equals( region ) ) {
+          sessionKeys.remove( key );
+        }
       } else {
         CacheManager.logger.warn( Messages.getInstance().getString(
             "CacheManager.WARN_0003_REGION_DOES_NOT_EXIST", region ) ); //$NON-NLS-1$
@@ -430,6 +455,7 @@ public class CacheManager implements ICacheManager {
           cache.clear();
         }
       }
+      sessionKeys.clear();
     }
   }
 
@@ -444,17 +470,12 @@ public class CacheManager implements ICacheManager {
   public void killSessionCache( IPentahoSession session ) {
     if ( cacheEnabled ) {
       Cache cache = regionCache.get( SESSION );
-      if ( cache != null ) {
-        Map cacheMap = cache.toMap();
-        if ( cacheMap != null ) {
-          Set set = cacheMap.keySet();
-          Iterator it = set.iterator();
-          while ( it.hasNext() ) {
-            String key = (String) it.next();
-            if ( key.indexOf( session.getId() ) >= 0 ) {
-              cache.remove( key );
-            }
-          }
+      String sessionId = session.getId();
+      if ( cache != null && sessionId != null ) {
+        CacheStatistics.Recorder statistics = getStatisticsRecorder( SESSION );
+        for ( Object key : sessionKeys.removeSession( sessionId ) ) {
+          cache.remove( key );
+          statistics.recordRemove();
         }
       }
     }
@@ -535,4 +556,24 @@ public class CacheManager implements ICacheManager {
   public long getElementCountInGlobalCache() {
     return getElementCountInRegionCache( GLOBAL );
   }
+
+  @Override
+  public ICacheStatistics getRegionCacheStatistics( String region ) {
+    if ( !cacheEnabled || !regionCache.containsKey( region ) ) {
+      return null;
+    }
+    return getStatisticsRecorder( region ).snapshot( getElementCountInRegionCache( region ) );
+  }
+
+  private CacheStatistics.Recorder getStatisticsRecorder( String region ) {
+    CacheStatistics.Recorder recorder = regionStatistics.get( region );
+    if ( recorder == null ) {
+      recorder = new CacheStatistics.Recorder( region );
+      CacheStatistics.Recorder existing = regionStatistics.putIfAbsent( region, recorder );
+      if ( existing != null ) {
+        recorder = existing;
+      }
+    }
+    return recorder;
+  }
 }
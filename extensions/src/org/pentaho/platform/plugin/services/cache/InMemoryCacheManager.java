@@ -0,0 +1,394 @@
+/*!
+ * This program is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License, version 2.1 as published by the Free Software
+ * Foundation.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with this
+ * program; if not, you can obtain a copy at http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+ * or from the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * Copyright (c) 2002-2013 Pentaho Corporation..  All rights reserved.
+ */
+
+package org.pentaho.platform.plugin.services.cache;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.pentaho.platform.api.cache.ICacheExpirationRegistry;
+import org.pentaho.platform.api.cache.ICacheLoader;
+import org.pentaho.platform.api.cache.ICacheStatistics;
+import org.pentaho.platform.api.engine.ILoadingCacheManager;
+import org.pentaho.platform.api.engine.IPentahoSession;
+import org.pentaho.platform.engine.core.system.PentahoSystem;
+import org.pentaho.platform.plugin.services.messages.Messages;
+
+/**
+ * A cache manager that keeps its regions in memory itself rather than going through a Hibernate
+ * <code>CacheProvider</code>. It can replace {@link CacheManager} as the <code>ICacheManager</code> bean in
+ * <code>pentahoObjects.spring.xml</code>:
+ * 
+ * <pre>
+ *  &lt;bean id=&quot;ICacheManager&quot; scope=&quot;singleton&quot;
+ *      class=&quot;org.pentaho.platform.plugin.services.cache.InMemoryCacheManager&quot;&gt;
+ *    &lt;property name=&quot;defaultMaxEntries&quot; value=&quot;10000&quot;/&gt;
+ *    &lt;property name=&quot;defaultTimeToIdleSeconds&quot; value=&quot;1800&quot;/&gt;
+ *  &lt;/bean&gt;
+ * </pre>
+ * <p>
+ * Each region is bounded by a number of entries and by a total weight, evicts the least recently used entries, and
+ * expires entries a time after they were written and after they were last used (see {@link InMemoryCacheRegion}).
+ * The bean properties are the defaults of every region; a region added with
+ * {@link #addCacheRegion(String, Properties)} can override them with the properties {@value #MAX_ENTRIES},
+ * {@value #MAX_WEIGHT}, {@value #TIME_TO_LIVE_SECONDS}, {@value #TIME_TO_IDLE_SECONDS} and {@value #WEIGHER}, the
+ * last being the class name of an {@link InMemoryCacheRegion.Weigher}.
+ * <p>
+ * Session data is kept in the {@link #SESSION} region under the session id and the key, like {@link CacheManager}
+ * does, and the keys are indexed by session so that a logout only touches the entries of that session. Values can be
+ * computed on a miss with {@link #getFromRegionCache(String, Object, ICacheLoader)}, once per key. Every region is
+ * registered with the {@link ICacheExpirationRegistry}, if there is one.
+ */
+public class InMemoryCacheManager implements ILoadingCacheManager {
+
+  public static final String MAX_ENTRIES = "maxEntries"; //$NON-NLS-1$
+
+  public static final String MAX_WEIGHT = "maxWeight"; //$NON-NLS-1$
+
+  public static final String TIME_TO_LIVE_SECONDS = "timeToLiveSeconds"; //$NON-NLS-1$
+
+  public static final String TIME_TO_IDLE_SECONDS = "timeToIdleSeconds"; //$NON-NLS-1$
+
+  public static final String WEIGHER = "weigher"; //$NON-NLS-1$
+
+  protected static final Log logger = LogFactory.getLog( InMemoryCacheManager.class );
+
+  private final ConcurrentMap<String, InMemoryCacheRegion> regions =
+      new ConcurrentHashMap<String, InMemoryCacheRegion>();
+
+  private final SessionKeyIndex sessionKeys = new SessionKeyIndex();
+
+  private final ICacheExpirationRegistry cacheExpirationRegistry;
+
+  private int defaultMaxEntries = 10000;
+
+  private long defaultMaxWeight;
+
+  private long defaultTimeToLiveSeconds;
+
+  private long defaultTimeToIdleSeconds;
+
+  public InMemoryCacheManager() {
+    this( PentahoSystem.get( ICacheExpirationRegistry.class, null ) );
+    PentahoSystem.addLogoutListener( this );
+  }
+
+  /**
+   * @param cacheExpirationRegistry
+   *          registers the regions, may be null
+   */
+  public InMemoryCacheManager( ICacheExpirationRegistry cacheExpirationRegistry ) {
+    this.cacheExpirationRegistry = cacheExpirationRegistry;
+    if ( cacheExpirationRegistry == null ) {
+      logger.warn( Messages.getInstance().getString( "CacheManager.WARN_0004_NO_CACHE_EXPIRATION_REGISTRY" ) ); //$NON-NLS-1$
+    }
+    addCacheRegion( SESSION );
+    addCacheRegion( GLOBAL );
+  }
+
+  public int getDefaultMaxEntries() {
+    return defaultMaxEntries;
+  }
+
+  /**
+   * The regions that exist when this is set, such as {@link #SESSION} and {@link #GLOBAL}, are rebuilt empty with the
+   * new default; so are they by the other default setters.
+   */
+  public void setDefaultMaxEntries( int defaultMaxEntries ) {
+    this.defaultMaxEntries = defaultMaxEntries;
+    rebuildRegions();
+  }
+
+  public long getDefaultMaxWeight() {
+    return defaultMaxWeight;
+  }
+
+  public void setDefaultMaxWeight( long defaultMaxWeight ) {
+    this.defaultMaxWeight = defaultMaxWeight;
+    rebuildRegions();
+  }
+
+  public long getDefaultTimeToLiveSeconds() {
+    return defaultTimeToLiveSeconds;
+  }
+
+  public void setDefaultTimeToLiveSeconds( long defaultTimeToLiveSeconds ) {
+    this.defaultTimeToLiveSeconds = defaultTimeToLiveSeconds;
+    rebuildRegions();
+  }
+
+  public long getDefaultTimeToIdleSeconds() {
+    return defaultTimeToIdleSeconds;
+  }
+
+  public void setDefaultTimeToIdleSeconds( long defaultTimeToIdleSeconds ) {
+    this.defaultTimeToIdleSeconds = defaultTimeToIdleSeconds;
+    rebuildRegions();
+  }
+
+  // the setters are called by Spring before the regions are used
+  private void rebuildRegions() {
+    for ( String region : regions.keySet() ) {
+      InMemoryCacheRegion cache = buildCache( region, null );
+      InMemoryCacheRegion old = regions.put( region, cache );
+      if ( old != null && cacheExpirationRegistry != null ) {
+        cacheExpirationRegistry.unRegister( old );
+      }
+      register( cache );
+    }
+    sessionKeys.clear();
+  }
+
+  public void cacheStop() {
+    for ( InMemoryCacheRegion cache : regions.values() ) {
+      cache.clear();
+      if ( cacheExpirationRegistry != null ) {
+        cacheExpirationRegistry.unRegister( cache );
+      }
+    }
+    sessionKeys.clear();
+  }
+
+  public boolean cacheEnabled() {
+    return true;
+  }
+
+  public boolean cacheEnabled( String region ) {
+    return regions.containsKey( region );
+  }
+
+  public void onLogout( final IPentahoSession session ) {
+    removeRegionCache( session.getName() );
+  }
+
+  public boolean addCacheRegion( String region ) {
+    return addCacheRegion( region, null );
+  }
+
+  public boolean addCacheRegion( String region, Properties cacheProperties ) {
+    if ( regions.containsKey( region ) ) {
+      logger.warn( Messages.getInstance().getString( "CacheManager.WARN_0002_REGION_ALREADY_EXIST", region ) ); //$NON-NLS-1$
+      return true;
+    }
+    InMemoryCacheRegion cache = buildCache( region, cacheProperties );
+    if ( regions.putIfAbsent( region, cache ) == null ) {
+      register( cache );
+    }
+    return true;
+  }
+
+  public void clearRegionCache( String region ) {
+    InMemoryCacheRegion cache = regions.get( region );
+    if ( cache != null ) {
+      cache.clear();
+      if ( SESSION.equals( region ) ) {
+        sessionKeys.clear();
+      }
+    } else {
+      logger.info( Messages.getInstance().getString( "CacheManager.INFO_0001_CACHE_DOES_NOT_EXIST", region ) ); //$NON-NLS-1$
+    }
+  }
+
+  /**
+   * Clears the region, which like with {@link CacheManager} stays available.
+   */
+  public void removeRegionCache( String region ) {
+    if ( cacheEnabled( region ) ) {
+      clearRegionCache( region );
+    }
+  }
+
+  public void putInRegionCache( String region, Object key, Object value ) {
+    InMemoryCacheRegion cache = getRegion( region );
+    if ( cache != null ) {
+      cache.put( key, value );
+      if ( SESSION.equals( region ) ) {
+        sessionKeys.add( key );
+      }
+    }
+  }
+
+  public Object getFromRegionCache( String region, Object key ) {
+    InMemoryCacheRegion cache = getRegion( region );
+    return ( cache != null ) ? cache.get( key ) : null;
+  }
+
+  public <V> V getFromRegionCache( String region, Object key, ICacheLoader<V> loader ) {
+    InMemoryCacheRegion cache = getRegion( region );
+    if ( cache == null ) {
+      return null;
+    }
+    V value = cache.get( key, loader );
+    if ( value != null && SESSION.equals( region ) ) {
+      sessionKeys.add( key );
+    }
+    return value;
+  }
+
+  @SuppressWarnings( "rawtypes" )
+  public List getAllValuesFromRegionCache( String region ) {
+    InMemoryCacheRegion cache = regions.get( region );
+    return ( cache != null ) ? cache.values() : new ArrayList<Object>();
+  }
+
+  @SuppressWarnings( "rawtypes" )
+  public Set getAllKeysFromRegionCache( String region ) {
+    InMemoryCacheRegion cache = regions.get( region );
+    return ( cache != null ) ? cache.keySet() : null;
+  }
+
+  @SuppressWarnings( "rawtypes" )
+  public Set getAllEntriesFromRegionCache( String region ) {
+    InMemoryCacheRegion cache = regions.get( region );
+    return ( cache != null ) ? cache.toMap().entrySet() : null;
+  }
+
+  public void removeFromRegionCache( String region, Object key ) {
+    InMemoryCacheRegion cache = getRegion( region );
+    if ( cache != null ) {
+      cache.remove( key );
+      if ( SESSION.equals( region ) ) {
+        sessionKeys.remove( key );
+      }
+    }
+  }
+
+  public void clearCache() {
+    for ( InMemoryCacheRegion cache : regions.values() ) {
+      cache.clear();
+    }
+    sessionKeys.clear();
+  }
+
+  public Object getFromGlobalCache( Object key ) {
+    return getFromRegionCache( GLOBAL, key );
+  }
+
+  public void putInGlobalCache( Object key, Object value ) {
+    putInRegionCache( GLOBAL, key, value );
+  }
+
+  public void removeFromGlobalCache( Object key ) {
+    removeFromRegionCache( GLOBAL, key );
+  }
+
+  public Object getFromSessionCache( IPentahoSession session, String key ) {
+    return getFromRegionCache( SESSION, getCorrectedKey( session, key ) );
+  }
+
+  public void putInSessionCache( IPentahoSession session, String key, Object value ) {
+    putInRegionCache( SESSION, getCorrectedKey( session, key ), value );
+  }
+
+  public void removeFromSessionCache( IPentahoSession session, String key ) {
+    removeFromRegionCache( SESSION, getCorrectedKey( session, key ) );
+  }
+
+  public void killSessionCache( IPentahoSession session ) {
+    InMemoryCacheRegion cache = regions.get( SESSION );
+    String sessionId = session.getId();
+    if ( cache != null && sessionId != null ) {
+      for ( Object key : sessionKeys.removeSession( sessionId ) ) {
+        cache.remove( key );
+      }
+    }
+  }
+
+  public void killSessionCaches() {
+    removeRegionCache( SESSION );
+  }
+
+  public long getElementCountInRegionCache( String region ) {
+    InMemoryCacheRegion cache = regions.get( region );
+    return ( cache != null ) ? cache.size() : -1;
+  }
+
+  public long getElementCountInSessionCache() {
+    return getElementCountInRegionCache( SESSION );
+  }
+
+  public long getElementCountInGlobalCache() {
+    return getElementCountInRegionCache( GLOBAL );
+  }
+
+  public ICacheStatistics getRegionCacheStatistics( String region ) {
+    InMemoryCacheRegion cache = regions.get( region );
+    return ( cache != null ) ? cache.getStatistics() : null;
+  }
+
+  private InMemoryCacheRegion getRegion( String region ) {
+    InMemoryCacheRegion cache = regions.get( region );
+    if ( cache == null ) {
+      logger.warn( Messages.getInstance().getString( "CacheManager.WARN_0003_REGION_DOES_NOT_EXIST", region ) ); //$NON-NLS-1$
+    }
+    return cache;
+  }
+
+  private void register( InMemoryCacheRegion cache ) {
+    if ( cacheExpirationRegistry != null ) {
+      cacheExpirationRegistry.register( cache );
+    }
+  }
+
+  private String getCorrectedKey( final IPentahoSession session, final String key ) {
+    String sessionId = session.getId();
+    if ( sessionId == null ) {
+      throw new IllegalArgumentException( Messages.getInstance().getErrorString(
+          "InMemoryCacheManager.ERROR_0001_NOSESSION" ) ); //$NON-NLS-1$
+    }
+    return sessionId + "\t" + key; //$NON-NLS-1$
+  }
+
+  private InMemoryCacheRegion buildCache( String region, Properties cacheProperties ) {
+    Map<Object, Object> properties = ( cacheProperties != null ) ? cacheProperties : new Properties();
+    int maxEntries = (int) getLong( region, properties, MAX_ENTRIES, defaultMaxEntries );
+    long maxWeight = getLong( region, properties, MAX_WEIGHT, defaultMaxWeight );
+    long timeToLive = getLong( region, properties, TIME_TO_LIVE_SECONDS, defaultTimeToLiveSeconds ) * 1000;
+    long timeToIdle = getLong( region, properties, TIME_TO_IDLE_SECONDS, defaultTimeToIdleSeconds ) * 1000;
+    InMemoryCacheRegion.Weigher weigher = null;
+    Object weigherClass = properties.get( WEIGHER );
+    if ( weigherClass != null ) {
+      try {
+        weigher = (InMemoryCacheRegion.Weigher) Class.forName( weigherClass.toString().trim() ).newInstance();
+      } catch ( Exception e ) {
+        logger.error( Messages.getInstance().getErrorString(
+            "InMemoryCacheManager.ERROR_0002_BAD_WEIGHER", String.valueOf( weigherClass ), region ), e ); //$NON-NLS-1$
+      }
+    }
+    return new InMemoryCacheRegion( region, maxEntries, maxWeight, timeToLive, timeToIdle, weigher );
+  }
+
+  private static long getLong( String region, Map<Object, Object> properties, String name, long defaultValue ) {
+    Object value = properties.get( name );
+    if ( value != null ) {
+      try {
+        return Long.parseLong( value.toString().trim() );
+      } catch ( NumberFormatException e ) {
+        logger.warn( Messages.getInstance().getString(
+            "InMemoryCacheManager.WARN_0001_BAD_PROPERTY", name, String.valueOf( value ), region ) ); //$NON-NLS-1$
+      }
+    }
+    return defaultValue;
+  }
+}
@@ -0,0 +1,335 @@
+/*!
+ * This program is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License, version 2.1 as published by the Free Software
+ * Foundation.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with this
+ * program; if not, you can obtain a copy at http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+ * or from the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * Copyright (c) 2002-2013 Pentaho Corporation..  All rights reserved.
+ */
+
+package org.pentaho.platform.plugin.services.cache;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+import org.pentaho.platform.api.cache.ICacheLoader;
+import org.pentaho.platform.api.cache.ILastModifiedCacheItem;
+import org.pentaho.platform.engine.core.system.CacheStatistics;
+
+/**
+ * A region of the {@link InMemoryCacheManager}: a map bounded by entry count and by total weight, evicting the least
+ * recently used entries first, whose entries expire a fixed time after they were written and after they were last
+ * read.
+ * <p>
+ * Expired entries are dropped when they are read, and by a sweep of the whole region that a write triggers at most
+ * once per half of the shorter expiry time. Values computed by {@link #get(Object, ICacheLoader)} are computed once
+ * per key however many threads ask at the same time, outside the region's lock.
+ */
+public class InMemoryCacheRegion implements ILastModifiedCacheItem {
+
+  /**
+   * Gives the weight of a cached value, which the region's maximum weight bounds the total of.
+   */
+  public interface Weigher {
+    long weigh( Object key, Object value );
+  }
+
+  /** weighs every entry as 1, so that the maximum weight is a maximum number of entries */
+  public static final Weigher SINGLETON_WEIGHER = new Weigher() {
+    public long weigh( Object key, Object value ) {
+      return 1;
+    }
+  };
+
+  private final String name;
+
+  private final int maxEntries;
+
+  private final long maxWeight;
+
+  private final long timeToLive;
+
+  private final long timeToIdle;
+
+  private final Weigher weigher;
+
+  private final CacheStatistics.Recorder statistics;
+
+  private final LinkedHashMap<Object, Entry> entries = new LinkedHashMap<Object, Entry>( 16, 0.75f, true );
+
+  private final ConcurrentMap<Object, FutureTask<Object>> loading = new ConcurrentHashMap<Object, FutureTask<Object>>();
+
+  private long weight;
+
+  private long nextSweep;
+
+  private volatile long lastModified = System.currentTimeMillis();
+
+  /**
+   * @param maxEntries
+   *          the most entries kept, or 0 for no limit
+   * @param maxWeight
+   *          the largest total weight kept, or 0 for no limit
+   * @param timeToLive
+   *          milliseconds an entry is kept after it is written, or 0 to keep it until evicted
+   * @param timeToIdle
+   *          milliseconds an entry is kept after it is last read or written, or 0 to keep it until evicted
+   * @param weigher
+   *          weighs the entries, or null to weigh each as 1
+   */
+  public InMemoryCacheRegion( String name, int maxEntries, long maxWeight, long timeToLive, long timeToIdle,
+      Weigher weigher ) {
+    this.name = name;
+    this.maxEntries = maxEntries;
+    this.maxWeight = maxWeight;
+    this.timeToLive = timeToLive;
+    this.timeToIdle = timeToIdle;
+    this.weigher = ( weigher != null ) ? weigher : SINGLETON_WEIGHER;
+    this.statistics = new CacheStatistics.Recorder( name );
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  public long getLastModified() {
+    return lastModified;
+  }
+
+  public String getCacheKey() {
+    return name;
+  }
+
+  /**
+   * @return the value, or null if there is none or it expired
+   */
+  public Object get( Object key ) {
+    Object value = null;
+    long now = System.currentTimeMillis();
+    synchronized ( entries ) {
+      Entry entry = entries.get( key );
+      if ( entry != null ) {
+        if ( isExpired( entry, now ) ) {
+          removeEntry( key );
+        } else {
+          entry.accessed = now;
+          value = entry.value;
+        }
+      }
+    }
+    statistics.recordLookup( value );
+    return value;
+  }
+
+  /**
+   * Returns the value, computing it with <code>loader</code> and caching it if there is none. A thread asking for a
+   * key that another thread is computing waits for it.
+   */
+  @SuppressWarnings( "unchecked" )
+  public <V> V get( final Object key, final ICacheLoader<V> loader ) {
+    Object value = get( key );
+    if ( value != null ) {
+      return (V) value;
+    }
+    FutureTask<Object> task = new FutureTask<Object>( new Callable<Object>() {
+      public Object call() throws Exception {
+        return loader.load( key );
+      }
+    } );
+    FutureTask<Object> running = loading.putIfAbsent( key, task );
+    if ( running == null ) {
+      running = task;
+      task.run();
+    }
+    try {
+      value = running.get();
+    } catch ( InterruptedException e ) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException( e );
+    } catch ( ExecutionException e ) {
+      Throwable cause = e.getCause();
+      if ( cause instanceof RuntimeException ) {
+        throw (RuntimeException) cause;
+      } else if ( cause instanceof Error ) {
+        throw (Error) cause;
+      }
+      throw new IllegalStateException( cause );
+    } finally {
+      if ( running == task ) {
+        if ( value != null ) {
+          synchronized ( entries ) {
+            // unless the key was removed or the region cleared while loading
+            if ( loading.get( key ) == task ) {
+              putEntry( key, value );
+            }
+          }
+          statistics.recordPut();
+        }
+        loading.remove( key, task );
+      }
+    }
+    return (V) value;
+  }
+
+  public void put( Object key, Object value ) {
+    synchronized ( entries ) {
+      loading.remove( key );
+      putEntry( key, value );
+    }
+    statistics.recordPut();
+  }
+
+  public void remove( Object key ) {
+    synchronized ( entries ) {
+      loading.remove( key );
+      removeEntry( key );
+    }
+    statistics.recordRemove();
+    lastModified = System.currentTimeMillis();
+  }
+
+  public void clear() {
+    synchronized ( entries ) {
+      loading.clear();
+      entries.clear();
+      weight = 0;
+    }
+    lastModified = System.currentTimeMillis();
+  }
+
+  public int size() {
+    synchronized ( entries ) {
+      return entries.size();
+    }
+  }
+
+  public long getWeight() {
+    synchronized ( entries ) {
+      return weight;
+    }
+  }
+
+  /**
+   * @return a copy of the keys and values that have not expired
+   */
+  public Map<Object, Object> toMap() {
+    long now = System.currentTimeMillis();
+    Map<Object, Object> map = new HashMap<Object, Object>();
+    synchronized ( entries ) {
+      for ( Map.Entry<Object, Entry> entry : entries.entrySet() ) {
+        if ( !isExpired( entry.getValue(), now ) ) {
+          map.put( entry.getKey(), entry.getValue().value );
+        }
+      }
+    }
+    return map;
+  }
+
+  public Set<Object> keySet() {
+    return new HashSet<Object>( toMap().keySet() );
+  }
+
+  public List<Object> values() {
+    return new ArrayList<Object>( toMap().values() );
+  }
+
+  public CacheStatistics getStatistics() {
+    return statistics.snapshot( size() );
+  }
+
+  // called holding the lock
+  private void putEntry( Object key, Object value ) {
+    long now = System.currentTimeMillis();
+    Entry entry = new Entry( value, weigher.weigh( key, value ), now );
+    Entry old = entries.put( key, entry );
+    if ( old != null ) {
+      weight -= old.weight;
+    }
+    weight += entry.weight;
+    evict();
+    if ( ( timeToLive > 0 || timeToIdle > 0 ) && now >= nextSweep ) {
+      sweep( now );
+    }
+    lastModified = now;
+  }
+
+  // called holding the lock
+  private void removeEntry( Object key ) {
+    Entry old = entries.remove( key );
+    if ( old != null ) {
+      weight -= old.weight;
+    }
+  }
+
+  // called holding the lock; the iteration order is least recently used first
+  private void evict() {
+    Iterator<Entry> it = entries.values().iterator();
+    while ( it.hasNext()
+        && ( ( maxEntries > 0 && entries.size() > maxEntries ) || ( maxWeight > 0 && weight > maxWeight ) ) ) {
+      weight -= it.next().weight;
+      it.remove();
+    }
+  }
+
+  // called holding the lock
+  private void sweep( long now ) {
+    Iterator<Entry> it = entries.values().iterator();
+    while ( it.hasNext() ) {
+      Entry entry = it.next();
+      if ( isExpired( entry, now ) ) {
+        weight -= entry.weight;
+        it.remove();
+      }
+    }
+    long interval = Long.MAX_VALUE;
+    if ( timeToLive > 0 ) {
+      interval = timeToLive;
+    }
+    if ( timeToIdle > 0 ) {
+      interval = Math.min( interval, timeToIdle );
+    }
+    nextSweep = now + Math.max( 1, interval / 2 );
+  }
+
+  private boolean isExpired( Entry entry, long now ) {
+    return ( timeToLive > 0 && now - entry.written >= timeToLive )
+        || ( timeToIdle > 0 && now - entry.accessed >= timeToIdle );
+  }
+
+  private static class Entry {
+
+    private final Object value;
+
+    private final long weight;
+
+    private final long written;
+
+    private long accessed;
+
+    Entry( Object value, long weight, long written ) {
+      this.value = value;
+      this.weight = weight;
+      this.written = written;
+      this.accessed = written;
+    }
+  }
+}
@@ -0,0 +1,114 @@
+/*!
+ * This program is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License, version 2.1 as published by the Free Software
+ * Foundation.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with this
+ * program; if not, you can obtain a copy at http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+ * or from the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * Copyright (c) 2002-2013 Pentaho Corporation..  All rights reserved.
+ */
+
+package org.pentaho.platform.plugin.services.cache;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * The keys of a session region by session id, so that the entries of one session can be found without scanning the
+ * whole region. Keys made by the cache managers start with the session id and a tab; other keys put straight into the
+ * session region are kept apart and matched on whether they contain the session id anywhere.
+ * <p>
+ * Entries evicted by the cache itself leave their key behind until the session goes, which is harmless as removing a
+ * missing key does nothing.
+ */
+class SessionKeyIndex {
+
+  private final ConcurrentMap<String, Set<Object>> sessionKeys = new ConcurrentHashMap<String, Set<Object>>();
+
+  /** keys that do not carry a session id in the usual form */
+  private final Set<Object> unpartitionedKeys = newKeySet();
+
+  public void add( Object key ) {
+    String sessionId = getSessionId( key );
+    if ( sessionId == null ) {
+      unpartitionedKeys.add( key );
+      return;
+    }
+    Set<Object> keys = sessionKeys.get( sessionId );
+    if ( keys == null ) {
+      keys = newKeySet();
+      Set<Object> existing = sessionKeys.putIfAbsent( sessionId, keys );
+      if ( existing != null ) {
+        keys = existing;
+      }
+    }
+    keys.add( key );
+  }
+
+  public void remove( Object key ) {
+    String sessionId = getSessionId( key );
+    if ( sessionId == null ) {
+      unpartitionedKeys.remove( key );
+      return;
+    }
+    // an emptied set is left in place, as dropping it could lose a key being added concurrently; the session's set
+    // goes away when the session does
+    Set<Object> keys = sessionKeys.get( sessionId );
+    if ( keys != null ) {
+      keys.remove( key );
+    }
+  }
+
+  /**
+   * Forgets the keys of a session.
+   * 
+   * @return the keys of the session, for the caller to remove from the cache
+   */
+  public List<Object> removeSession( String sessionId ) {
+    List<Object> removed = new ArrayList<Object>();
+    Set<Object> keys = sessionKeys.remove( sessionId );
+    if ( keys != null ) {
+      removed.addAll( keys );
+    }
+    Iterator<Object> it = unpartitionedKeys.iterator();
+    while ( it.hasNext() ) {
+      Object key = it.next();
+      if ( key.toString().indexOf( sessionId ) >= 0 ) {
+        removed.add( key );
+        it.remove();
+      }
+    }
+    return removed;
+  }
+
+  public void clear() {
+    sessionKeys.clear();
+    unpartitionedKeys.clear();
+  }
+
+  private static String getSessionId( Object key ) {
+    if ( key instanceof String ) {
+      int tab = ( (String) key ).indexOf( '\t' );
+      if ( tab > 0 ) {
+        return ( (String) key ).substring( 0, tab );
+      }
+    }
+    return null;
+  }
+
+  private static Set<Object> newKeySet() {
+    return Collections.newSetFromMap( new ConcurrentHashMap<Object, Boolean>() );
+  }
+}
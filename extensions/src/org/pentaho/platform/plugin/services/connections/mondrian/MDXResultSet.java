@@ -24,7 +24,7 @@ import org.pentaho.commons.connection.IPeekable;
 import org.pentaho.commons.connection.IPentahoMetaData;
 import org.pentaho.commons.connection.IPentahoResultSet;
 import org.pentaho.commons.connection.memory.MemoryMetaData;
-import org.pentaho.commons.connection.memory.MemoryResultSet;
+import org.pentaho.platform.plugin.services.connections.spill.SpillingResultSet;
 
 /**
  * @author wseyler
@@ -199,14 +199,7 @@ public class MDXResultSet implements IPentahoResultSet, IPeekable, IMultiDimensi
       Object[][] rowHeaders = metadata.getRowHeaders();
 
       MemoryMetaData cachedMetaData = new MemoryMetaData( columnHeaders, rowHeaders );
-      MemoryResultSet cachedResultSet = new MemoryResultSet( cachedMetaData );
-
-      Object[] rowObjects = next();
-      while ( rowObjects != null ) {
-        cachedResultSet.addRow( rowObjects );
-        rowObjects = next();
-      }
-      return cachedResultSet;
+      return SpillingResultSet.copyOf( this, cachedMetaData );
     } finally {
       close();
     }
@@ -0,0 +1,560 @@
+/*
+ * This program is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License, version 2 as published by the Free Software
+ * Foundation.
+ *
+ * You should have received a copy of the GNU General Public License along with this
+ * program; if not, you can obtain a copy at http://www.gnu.org/licenses/gpl-2.0.html
+ * or from the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ *
+ * Copyright 2006 - 2013 Pentaho Corporation.  All rights reserved.
+ */
+
+package org.pentaho.platform.plugin.services.connections.spill;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.pentaho.commons.connection.IPeekable;
+import org.pentaho.commons.connection.IPentahoMetaData;
+import org.pentaho.commons.connection.IPentahoResultSet;
+import org.pentaho.platform.api.engine.IApplicationContext;
+import org.pentaho.platform.api.engine.IPentahoSession;
+import org.pentaho.platform.engine.core.system.PentahoSessionHolder;
+import org.pentaho.platform.engine.core.system.PentahoSystem;
+import org.pentaho.platform.plugin.services.messages.Messages;
+
+/**
+ * A detached, scrollable result set that keeps a bounded number of rows on the heap.
+ * <p>
+ * The first {@link #getMaxRowsInMemory()} rows are held in memory, just like
+ * {@link org.pentaho.commons.connection.memory.MemoryResultSet}. Further rows are appended to a temporary file in a
+ * compact, type-tagged binary form and read back on demand, so a non-live copy of a very large query result costs disk
+ * space rather than heap. Scrolling ({@link #beforeFirst()}, {@link #getValueAt(int, int)}) and {@link IPeekable} work
+ * the same for both parts; the file keeps the offset of every {@value #BLOCK_SIZE}th row so that random access only has
+ * to read forward from the nearest block.
+ * <p>
+ * The temporary file is removed by {@link #dispose()}. As most result sets are handed on as action outputs and never
+ * disposed, the file is also created through the application context and tracked by the session current when the result
+ * set was created, so it is removed when that session ends at the latest, whichever thread adds the rows; outside a
+ * session it is removed when the JVM exits.
+ * <p>
+ * The number of rows kept in memory defaults to the <code>result-set-max-rows-in-memory</code> system setting (50000
+ * if unset); a negative value never spills.
+ */
+public class SpillingResultSet implements IPentahoResultSet, IPeekable {
+
+  /**
+   * System setting holding the number of rows kept in memory before rows are spilled to disk.
+   */
+  public static final String MAX_ROWS_IN_MEMORY_SETTING = "result-set-max-rows-in-memory"; //$NON-NLS-1$
+
+  public static final int DEFAULT_MAX_ROWS_IN_MEMORY = 50000;
+
+  static final int BLOCK_SIZE = 256;
+
+  private static final String SPILL_FILE_PREFIX = "resultSet"; //$NON-NLS-1$
+
+  private static final String SPILL_FILE_SUFFIX = ".tmp"; //$NON-NLS-1$
+
+  // type tags of the spill file format
+  private static final byte NULL = 0;
+
+  private static final byte STRING = 1;
+
+  private static final byte INTEGER = 2;
+
+  private static final byte LONG = 3;
+
+  private static final byte DOUBLE = 4;
+
+  private static final byte BIG_DECIMAL = 5;
+
+  private static final byte TIMESTAMP = 6;
+
+  private static final byte SQL_DATE = 7;
+
+  private static final byte SQL_TIME = 8;
+
+  private static final byte DATE = 9;
+
+  private static final byte BOOLEAN = 10;
+
+  private static final byte SHORT = 11;
+
+  private static final byte BYTE = 12;
+
+  private static final byte FLOAT = 13;
+
+  private static final byte BIG_INTEGER = 14;
+
+  private static final byte BYTES = 15;
+
+  private static final byte SERIALIZED = 16;
+
+  private static final Log log = LogFactory.getLog( SpillingResultSet.class );
+
+  private IPentahoMetaData metaData;
+
+  private final int maxRowsInMemory;
+
+  /** Tracks the spill file; taken on creation as rows may be added from other threads */
+  private final IPentahoSession session;
+
+  private final List<Object[]> memoryRows = new ArrayList<Object[]>();
+
+  private int spilledRowCount;
+
+  private File spillFile;
+
+  private CountingOutputStream spillCounter;
+
+  private DataOutputStream spillWriter;
+
+  private boolean spillWriterDirty;
+
+  private long[] blockOffsets = new long[16];
+
+  private DataInputStream spillReader;
+
+  private int spillReaderRow;
+
+  private int cachedRowIndex = -1;
+
+  private Object[] cachedRow;
+
+  private int cursor;
+
+  public SpillingResultSet( final IPentahoMetaData metaData ) {
+    this( metaData, getDefaultMaxRowsInMemory() );
+  }
+
+  public SpillingResultSet( final IPentahoMetaData metaData, final int maxRowsInMemory ) {
+    this.metaData = metaData;
+    this.maxRowsInMemory = maxRowsInMemory;
+    this.session = PentahoSessionHolder.getSession();
+  }
+
+  /**
+   * Copies the remaining rows of <code>source</code> into a new result set with the given metadata.
+   */
+  public static SpillingResultSet copyOf( final IPentahoResultSet source, final IPentahoMetaData metaData ) {
+    SpillingResultSet copy = new SpillingResultSet( metaData );
+    Object[] row = source.next();
+    while ( row != null ) {
+      copy.addRow( row );
+      row = source.next();
+    }
+    return copy;
+  }
+
+  private static int getDefaultMaxRowsInMemory() {
+    String setting = PentahoSystem.getSystemSetting( MAX_ROWS_IN_MEMORY_SETTING, null );
+    if ( setting != null ) {
+      try {
+        return Integer.parseInt( setting.trim() );
+      } catch ( NumberFormatException e ) {
+        log.warn( Messages.getInstance().getString( "SpillingResultSet.WARN_INVALID_MAX_ROWS", setting ) ); //$NON-NLS-1$
+      }
+    }
+    return DEFAULT_MAX_ROWS_IN_MEMORY;
+  }
+
+  private File createSpillFile() throws IOException {
+    IApplicationContext context = PentahoSystem.getApplicationContext();
+    if ( ( context != null ) && ( session != null ) ) {
+      File file = context.createTempFile( session, SPILL_FILE_PREFIX, SPILL_FILE_SUFFIX, true );
+      if ( file != null ) {
+        return file;
+      }
+    }
+    File file = File.createTempFile( SPILL_FILE_PREFIX, SPILL_FILE_SUFFIX );
+    file.deleteOnExit();
+    return file;
+  }
+
+  public int getMaxRowsInMemory() {
+    return maxRowsInMemory;
+  }
+
+  /**
+   * @return true once rows have been written to the temporary file
+   */
+  public boolean isSpilled() {
+    return spillFile != null;
+  }
+
+  public void setMetaData( final IPentahoMetaData metaData ) {
+    this.metaData = metaData;
+  }
+
+  public IPentahoMetaData getMetaData() {
+    return metaData;
+  }
+
+  public void addRow( final Object[] row ) {
+    if ( ( maxRowsInMemory < 0 ) || ( memoryRows.size() < maxRowsInMemory ) ) {
+      memoryRows.add( row );
+      return;
+    }
+    try {
+      if ( spillWriter == null ) {
+        spillFile = createSpillFile();
+        spillCounter = new CountingOutputStream( new BufferedOutputStream( new FileOutputStream( spillFile ) ) );
+        spillWriter = new DataOutputStream( spillCounter );
+      }
+      if ( spilledRowCount % BLOCK_SIZE == 0 ) {
+        int block = spilledRowCount / BLOCK_SIZE;
+        if ( block == blockOffsets.length ) {
+          long[] offsets = new long[blockOffsets.length * 2];
+          System.arraycopy( blockOffsets, 0, offsets, 0, blockOffsets.length );
+          blockOffsets = offsets;
+        }
+        blockOffsets[block] = spillCounter.count;
+      }
+      writeRow( spillWriter, row );
+      spilledRowCount++;
+      spillWriterDirty = true;
+    } catch ( IOException e ) {
+      throw new IllegalStateException( Messages.getInstance().getErrorString(
+          "SpillingResultSet.ERROR_0001_SPILL_FAILED", String.valueOf( spillFile ) ), e ); //$NON-NLS-1$
+    }
+  }
+
+  public Object[] peek() {
+    return ( cursor < getRowCount() ) ? getRow( cursor ) : null;
+  }
+
+  public Object[] next() {
+    if ( cursor < getRowCount() ) {
+      return getRow( cursor++ );
+    }
+    return null;
+  }
+
+  public void beforeFirst() {
+    cursor = 0;
+  }
+
+  public boolean isScrollable() {
+    return true;
+  }
+
+  public int getColumnCount() {
+    return ( metaData != null ) ? metaData.getColumnCount() : 0;
+  }
+
+  public int getRowCount() {
+    return memoryRows.size() + spilledRowCount;
+  }
+
+  public Object getValueAt( final int row, final int column ) {
+    if ( ( row < 0 ) || ( row >= getRowCount() ) ) {
+      return null;
+    }
+    Object[] values = getRow( row );
+    return ( column >= 0 && column < values.length ) ? values[column] : null;
+  }
+
+  public Object[] getDataColumn( final int column ) {
+    Object[] result = new Object[getRowCount()];
+    for ( int row = 0; row < result.length; row++ ) {
+      result[row] = getValueAt( row, column );
+    }
+    return result;
+  }
+
+  public Object[] getDataRow( final int row ) {
+    if ( ( row < 0 ) || ( row >= getRowCount() ) ) {
+      return null;
+    }
+    return getRow( row );
+  }
+
+  public IPentahoResultSet memoryCopy() {
+    SpillingResultSet copy = new SpillingResultSet( metaData, maxRowsInMemory );
+    for ( int row = 0; row < getRowCount(); row++ ) {
+      copy.addRow( getRow( row ) );
+    }
+    return copy;
+  }
+
+  /**
+   * Rows stay available after close so the result set can be read again; use {@link #dispose()} to release them.
+   */
+  public void close() {
+    closeReader();
+  }
+
+  public void closeConnection() {
+    close();
+  }
+
+  /**
+   * Drops all rows and deletes the temporary file.
+   */
+  public void dispose() {
+    closeReader();
+    IOUtils.closeQuietly( spillWriter );
+    spillWriter = null;
+    spillCounter = null;
+    if ( spillFile != null ) {
+      FileUtils.deleteQuietly( spillFile );
+      spillFile = null;
+    }
+    memoryRows.clear();
+    spilledRowCount = 0;
+    cachedRowIndex = -1;
+    cachedRow = null;
+    cursor = 0;
+  }
+
+  private Object[] getRow( final int row ) {
+    if ( row < memoryRows.size() ) {
+      return memoryRows.get( row );
+    }
+    if ( row == cachedRowIndex ) {
+      return cachedRow;
+    }
+    int spilledRow = row - memoryRows.size();
+    try {
+      if ( spillWriterDirty ) {
+        spillWriter.flush();
+        spillWriterDirty = false;
+      }
+      if ( ( spillReader == null ) || ( spilledRow < spillReaderRow )
+          || ( spilledRow / BLOCK_SIZE > spillReaderRow / BLOCK_SIZE ) ) {
+        seek( spilledRow / BLOCK_SIZE );
+      }
+      Object[] values = null;
+      while ( spillReaderRow <= spilledRow ) {
+        values = readRow( spillReader );
+        spillReaderRow++;
+      }
+      cachedRowIndex = row;
+      cachedRow = values;
+      return values;
+    } catch ( IOException e ) {
+      closeReader();
+      throw new IllegalStateException( Messages.getInstance().getErrorString(
+          "SpillingResultSet.ERROR_0002_READ_FAILED", String.valueOf( spillFile ) ), e ); //$NON-NLS-1$
+    }
+  }
+
+  private void seek( final int block ) throws IOException {
+    closeReader();
+    FileInputStream in = new FileInputStream( spillFile );
+    try {
+      in.getChannel().position( blockOffsets[block] );
+    } catch ( IOException e ) {
+      IOUtils.closeQuietly( in );
+      throw e;
+    }
+    spillReader = new DataInputStream( new BufferedInputStream( in ) );
+    spillReaderRow = block * BLOCK_SIZE;
+  }
+
+  private void closeReader() {
+    IOUtils.closeQuietly( spillReader );
+    spillReader = null;
+    spillReaderRow = 0;
+  }
+
+  private static void writeRow( final DataOutputStream out, final Object[] row ) throws IOException {
+    out.writeInt( row.length );
+    for ( Object value : row ) {
+      writeValue( out, value );
+    }
+  }
+
+  private static Object[] readRow( final DataInputStream in ) throws IOException {
+    Object[] row = new Object[in.readInt()];
+    for ( int column = 0; column < row.length; column++ ) {
+      row[column] = readValue( in );
+    }
+    return row;
+  }
+
+  private static void writeValue( final DataOutputStream out, final Object value ) throws IOException {
+    if ( value == null ) {
+      out.writeByte( NULL );
+    } else if ( value instanceof String ) {
+      out.writeByte( STRING );
+      writeBytes( out, ( (String) value ).getBytes( "UTF-8" ) ); //$NON-NLS-1$
+    } else if ( value instanceof Integer ) {
+      out.writeByte( INTEGER );
+      out.writeInt( ( (Integer) value ).intValue() );
+    } else if ( value instanceof Long ) {
+      out.writeByte( LONG );
+      out.writeLong( ( (Long) value ).longValue() );
+    } else if ( value instanceof Double ) {
+      out.writeByte( DOUBLE );
+      out.writeDouble( ( (Double) value ).doubleValue() );
+    } else if ( value.getClass() == BigDecimal.class ) {
+      BigDecimal decimal = (BigDecimal) value;
+      out.writeByte( BIG_DECIMAL );
+      out.writeInt( decimal.scale() );
+      writeBytes( out, decimal.unscaledValue().toByteArray() );
+    } else if ( value.getClass() == java.sql.Timestamp.class ) {
+      java.sql.Timestamp timestamp = (java.sql.Timestamp) value;
+      out.writeByte( TIMESTAMP );
+      out.writeLong( timestamp.getTime() );
+      out.writeInt( timestamp.getNanos() );
+    } else if ( value.getClass() == java.sql.Date.class ) {
+      out.writeByte( SQL_DATE );
+      out.writeLong( ( (java.sql.Date) value ).getTime() );
+    } else if ( value.getClass() == java.sql.Time.class ) {
+      out.writeByte( SQL_TIME );
+      out.writeLong( ( (java.sql.Time) value ).getTime() );
+    } else if ( value.getClass() == java.util.Date.class ) {
+      out.writeByte( DATE );
+      out.writeLong( ( (java.util.Date) value ).getTime() );
+    } else if ( value instanceof Boolean ) {
+      out.writeByte( BOOLEAN );
+      out.writeBoolean( ( (Boolean) value ).booleanValue() );
+    } else if ( value instanceof Short ) {
+      out.writeByte( SHORT );
+      out.writeShort( ( (Short) value ).shortValue() );
+    } else if ( value instanceof Byte ) {
+      out.writeByte( BYTE );
+      out.writeByte( ( (Byte) value ).byteValue() );
+    } else if ( value instanceof Float ) {
+      out.writeByte( FLOAT );
+      out.writeFloat( ( (Float) value ).floatValue() );
+    } else if ( value.getClass() == BigInteger.class ) {
+      out.writeByte( BIG_INTEGER );
+      writeBytes( out, ( (BigInteger) value ).toByteArray() );
+    } else if ( value instanceof byte[] ) {
+      out.writeByte( BYTES );
+      writeBytes( out, (byte[]) value );
+    } else if ( value instanceof Serializable ) {
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      ObjectOutputStream objectOut = new ObjectOutputStream( bytes );
+      objectOut.writeObject( value );
+      objectOut.close();
+      out.writeByte( SERIALIZED );
+      writeBytes( out, bytes.toByteArray() );
+    } else {
+      // e.g. driver specific LOB handles, which would not outlive the connection anyway
+      out.writeByte( STRING );
+      writeBytes( out, value.toString().getBytes( "UTF-8" ) ); //$NON-NLS-1$
+    }
+  }
+
+  private static Object readValue( final DataInputStream in ) throws IOException {
+    byte type = in.readByte();
+    switch ( type ) {
+      case NULL:
+        return null;
+      case STRING:
+        return new String( readBytes( in ), "UTF-8" ); //$NON-NLS-1$
+      case INTEGER:
+        return Integer.valueOf( in.readInt() );
+      case LONG:
+        return Long.valueOf( in.readLong() );
+      case DOUBLE:
+        return Double.valueOf( in.readDouble() );
+      case BIG_DECIMAL:
+        int scale = in.readInt();
+        return new BigDecimal( new BigInteger( readBytes( in ) ), scale );
+      case TIMESTAMP:
+        java.sql.Timestamp timestamp = new java.sql.Timestamp( in.readLong() );
+        timestamp.setNanos( in.readInt() );
+        return timestamp;
+      case SQL_DATE:
+        return new java.sql.Date( in.readLong() );
+      case SQL_TIME:
+        return new java.sql.Time( in.readLong() );
+      case DATE:
+        return new java.util.Date( in.readLong() );
+      case BOOLEAN:
+        return Boolean.valueOf( in.readBoolean() );
+      case SHORT:
+        return Short.valueOf( in.readShort() );
+      case BYTE:
+        return Byte.valueOf( in.readByte() );
+      case FLOAT:
+        return Float.valueOf( in.readFloat() );
+      case BIG_INTEGER:
+        return new BigInteger( readBytes( in ) );
+      case BYTES:
+        return readBytes( in );
+      case SERIALIZED:
+        ObjectInputStream objectIn = new ObjectInputStream( new ByteArrayInputStream( readBytes( in ) ) );
+        try {
+          return objectIn.readObject();
+        } catch ( ClassNotFoundException e ) {
+          IOException ioe = new IOException( e.getMessage() );
+          ioe.initCause( e );
+          throw ioe;
+        } finally {
+          objectIn.close();
+        }
+      default:
+        throw new IOException( "unknown value type " + type ); //$NON-NLS-1$
+    }
+  }
+
+  private static void writeBytes( final DataOutputStream out, final byte[] bytes ) throws IOException {
+    out.writeInt( bytes.length );
+    out.write( bytes );
+  }
+
+  private static byte[] readBytes( final DataInputStream in ) throws IOException {
+    byte[] bytes = new byte[in.readInt()];
+    in.readFully( bytes );
+    return bytes;
+  }
+
+  /**
+   * Keeps track of the file offset, which {@link DataOutputStream#size()} cannot do past 2GB.
+   */
+  private static class CountingOutputStream extends FilterOutputStream {
+
+    private long count;
+
+    CountingOutputStream( final OutputStream out ) {
+      super( out );
+    }
+
+    @Override
+    public void write( final int b ) throws IOException {
+      out.write( b );
+      count++;
+    }
+
+    @Override
+    public void write( final byte[] b, final int off, final int len ) throws IOException {
+      out.write( b, off, len );
+      count += len;
+    }
+  }
+
+}
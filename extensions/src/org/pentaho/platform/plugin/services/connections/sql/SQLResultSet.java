@@ -23,7 +23,7 @@ import org.pentaho.commons.connection.IPeekable;
 import org.pentaho.commons.connection.IPentahoMetaData;
 import org.pentaho.commons.connection.IPentahoResultSet;
 import org.pentaho.commons.connection.memory.MemoryMetaData;
-import org.pentaho.commons.connection.memory.MemoryResultSet;
+import org.pentaho.platform.plugin.services.connections.spill.SpillingResultSet;
 import org.pentaho.platform.plugin.services.messages.Messages;
 
 import java.sql.ResultSet;
@@ -284,13 +284,8 @@ public class SQLResultSet implements IPentahoResultSet, IPeekable {
       IPentahoMetaData meta = getMetaData();
       Object[][] columnHeaders = meta.getColumnHeaders();
       MemoryMetaData cachedMetaData = new MemoryMetaData( columnHeaders, null );
-      MemoryResultSet cachedResultSet = new MemoryResultSet( cachedMetaData );
-      Object[] rowObjects = next();
-      while ( rowObjects != null ) {
-        cachedResultSet.addRow( rowObjects );
-        rowObjects = next();
-      }
-      return cachedResultSet;
+      // large results go to disk instead of the heap
+      return SpillingResultSet.copyOf( this, cachedMetaData );
     } finally {
       close();
     }
@@ -56,6 +56,15 @@ public class LocaleFilesProcessor {
     localeFiles = new ArrayList<LocaleFileDescriptor>();
   }
 
+  /**
+   * @param fileName
+   * @return whether a file of this name may hold locale properties, which {@link #isLocaleFile} then decides from its
+   *         content
+   */
+  public boolean isLocaleFileName( String fileName ) {
+    return fileName.endsWith( PROPERTIES_EXT ) || fileName.endsWith( LOCALE_EXT );
+  }
+
   /**
    * 
    * @param file
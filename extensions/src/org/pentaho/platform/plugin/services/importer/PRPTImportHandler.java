@@ -17,23 +17,20 @@
 
 package org.pentaho.platform.plugin.services.importer;
 
-import org.apache.commons.io.IOUtils;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.dom4j.Document;
-import org.dom4j.DocumentException;
 import org.pentaho.platform.api.repository2.unified.RepositoryFile;
 import org.pentaho.platform.engine.core.system.PentahoSystem;
-import org.pentaho.platform.plugin.services.importexport.ImportSource.IRepositoryFileBundle;
-import org.pentaho.platform.plugin.services.importexport.InitializationException;
-import org.pentaho.platform.plugin.services.importexport.legacy.ZipSolutionRepositoryImportSource;
 import org.pentaho.platform.repository.RepositoryFilenameUtils;
 import org.pentaho.platform.util.xml.dom4j.XmlDom4JHelper;
 
 import java.io.ByteArrayInputStream;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.List;
+import java.util.zip.ZipEntry;
 import java.util.zip.ZipInputStream;
 
 /**
@@ -67,17 +64,21 @@ public class PRPTImportHandler extends RepositoryFileImportFileHandler implement
 
     // If is locale file store it for later processing.
     // need to extract this from meta.xml
+    SpooledInput content = null;
     try {
-      // copy the inputstream first
-      byte[] bytes = IOUtils.toByteArray( bundle.getInputStream() );
-      InputStream bundleInputStream = new ByteArrayInputStream( bytes );
+      // copy the inputstream first, as it is read twice
+      content = new SpooledInput( bundle.getInputStream() );
       // Process locale file from meta.xml.
-      importBundle.setInputStream( bundleInputStream );
-      convertStreamToProperties( localeFilesProcessor, bytes, filePath, fileName );
+      convertStreamToProperties( localeFilesProcessor, content.getInputStream(), filePath, fileName );
+      importBundle.setInputStream( content.getInputStream() );
       super.importFile( importBundle );
       localeFilesProcessor.processLocaleFiles( importer );
     } catch ( Exception ex ) {
       throw new PlatformImportException( ex.getMessage(), ex );
+    } finally {
+      if ( content != null ) {
+        content.dispose();
+      }
     }
   }
 
@@ -85,25 +86,23 @@ public class PRPTImportHandler extends RepositoryFileImportFileHandler implement
    * extract the contents of the file meta.xml and place in the locales process entry
    * 
    * @param localeFilesProcessor
-   * @param bytes
-   * @throws InitializationException
+   * @param prptStream
+   *          the report, read up to its meta.xml entry
    * @throws IOException
-   * @throws DocumentException
    */
-  private void convertStreamToProperties( LocaleFilesProcessor localeFilesProcessor, byte[] bytes, String filePath,
-      String fileName ) throws InitializationException, IOException, DocumentException {
+  private void convertStreamToProperties( LocaleFilesProcessor localeFilesProcessor, InputStream prptStream,
+      String filePath, String fileName ) throws IOException {
 
-    InputStream zipInput = new ByteArrayInputStream( bytes );
-    ZipInputStream zipInputStream = new ZipInputStream( zipInput );
-    ZipSolutionRepositoryImportSource zip = new ZipSolutionRepositoryImportSource( zipInputStream, "UTF-8" );
-    for ( IRepositoryFileBundle fileBundle : zip.getFiles() ) {
-      RepositoryFile rf = fileBundle.getFile();
-      if ( rf.getName().equals( "meta.xml" ) ) {
+    ZipInputStream zipInputStream = new ZipInputStream( prptStream );
+    for ( ZipEntry entry = zipInputStream.getNextEntry(); entry != null; entry = zipInputStream.getNextEntry() ) {
+      String entryName = RepositoryFilenameUtils.separatorsToRepository( entry.getName() );
+      if ( !entry.isDirectory() && new File( entryName ).getName().equals( "meta.xml" ) ) {
         try {
-          Document doc = XmlDom4JHelper.getDocFromStream( fileBundle.getInputStream() );
+          Document doc = XmlDom4JHelper.getDocFromStream( zipInputStream );
 
           String description = doc.selectSingleNode( rootElement + "/dc:description" ).getStringValue();
           String title = doc.selectSingleNode( rootElement + "/dc:title" ).getStringValue();
+          RepositoryFile rf = new RepositoryFile.Builder( "meta.xml" ).hidden( false ).build();
           localeFilesProcessor.createLocaleEntry( filePath, fileName, title, description, rf, new ByteArrayInputStream(
             "".getBytes() ) );
         } catch ( Exception ex ) {
@@ -17,6 +17,7 @@
 
 package org.pentaho.platform.plugin.services.importer;
 
+import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang.StringUtils;
 import org.apache.commons.logging.Log;
@@ -26,30 +27,33 @@ import org.pentaho.metadata.repository.DomainIdNullException;
 import org.pentaho.metadata.repository.DomainStorageException;
 import org.pentaho.platform.api.repository.datasource.IDatasourceMgmtService;
 import org.pentaho.platform.api.repository2.unified.RepositoryFile;
+import org.pentaho.platform.api.repository2.unified.RepositoryFileAcl;
 import org.pentaho.platform.engine.core.system.PentahoSystem;
 import org.pentaho.platform.plugin.services.importexport.ImportSession;
 import org.pentaho.platform.plugin.services.importexport.ImportSource.IRepositoryFileBundle;
-import org.pentaho.platform.plugin.services.importexport.RepositoryFileBundle;
+import org.pentaho.platform.plugin.services.importexport.IRepositoryImportLogger;
 import org.pentaho.platform.plugin.services.importexport.exportManifest.ExportManifest;
 import org.pentaho.platform.plugin.services.importexport.exportManifest.Parameters;
 import org.pentaho.platform.plugin.services.importexport.exportManifest.bindings.ExportManifestMetadata;
 import org.pentaho.platform.plugin.services.importexport.exportManifest.bindings.ExportManifestMondrian;
+import org.pentaho.platform.plugin.services.messages.Messages;
 import org.pentaho.platform.repository.RepositoryFilenameUtils;
-import org.pentaho.platform.repository.messages.Messages;
 import org.pentaho.platform.web.http.api.resources.JobScheduleRequest;
 import org.pentaho.platform.web.http.api.resources.SchedulerResource;
 
+import java.io.BufferedInputStream;
 import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.ArrayList;
+import java.util.Enumeration;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.zip.ZipEntry;
-import java.util.zip.ZipInputStream;
+import java.util.zip.ZipFile;
 
 public class SolutionImportHandler implements IPlatformImportHandler {
 
@@ -72,13 +76,34 @@ public class SolutionImportHandler implements IPlatformImportHandler {
   public void importFile( IPlatformImportBundle bundle ) throws PlatformImportException, DomainIdNullException,
     DomainAlreadyExistsException, DomainStorageException, IOException {
 
+    // the manifest is the last entry of an export, so the archive is copied to disk once and its entries are then
+    // read from there as they are imported
+    File archive = File.createTempFile( "import", ".zip" );
+    ZipFile zipFile = null;
+    try {
+      FileOutputStream archiveOutputStream = new FileOutputStream( archive );
+      try {
+        IOUtils.copyLarge( bundle.getInputStream(), archiveOutputStream );
+      } finally {
+        archiveOutputStream.close();
+      }
+      zipFile = new ZipFile( archive );
+      importFiles( bundle, new SolutionRepositoryImportSource( zipFile ) );
+    } finally {
+      if ( zipFile != null ) {
+        zipFile.close();
+      }
+      FileUtils.deleteQuietly( archive );
+    }
+  }
+
+  private void importFiles( IPlatformImportBundle bundle, SolutionRepositoryImportSource importSource )
+    throws PlatformImportException, DomainIdNullException, DomainAlreadyExistsException, DomainStorageException,
+    IOException {
+
     RepositoryFileImportBundle importBundle = (RepositoryFileImportBundle) bundle;
-    ZipInputStream zipImportStream = new ZipInputStream( bundle.getInputStream() );
-    SolutionRepositoryImportSource importSource = new SolutionRepositoryImportSource( zipImportStream );
     LocaleFilesProcessor localeFilesProcessor = new LocaleFilesProcessor();
 
-    // importSession.set(ImportSession.getSession());
-
     IPlatformImporter importer = PentahoSystem.get( IPlatformImporter.class );
 
     cachedImports = new HashMap<String, RepositoryFileImportBundle.Builder>();
@@ -126,6 +151,7 @@ public class SolutionImportHandler implements IPlatformImportHandler {
       }
     }
 
+    ImportProgress progress = new ImportProgress( importer.getRepositoryImportLogger() );
     for ( IRepositoryFileBundle file : importSource.getFiles() ) {
       String fileName = file.getFile().getName();
       String repositoryFilePath =
@@ -137,11 +163,16 @@ public class SolutionImportHandler implements IPlatformImportHandler {
         continue;
       } else if ( this.cachedImports.containsKey( repositoryFilePath ) ) {
 
-        byte[] bytes = IOUtils.toByteArray( file.getInputStream() );
-        RepositoryFileImportBundle.Builder builder = cachedImports.get( repositoryFilePath );
-        builder.input( new ByteArrayInputStream( bytes ) );
+        InputStream in = file.getInputStream();
+        try {
+          RepositoryFileImportBundle.Builder builder = cachedImports.get( repositoryFilePath );
+          builder.input( in );
 
-        importer.importFile( builder.build() );
+          importer.importFile( builder.build() );
+        } finally {
+          in.close();
+        }
+        progress.fileImported( file );
         continue;
       }
       RepositoryFileImportBundle.Builder bundleBuilder = new RepositoryFileImportBundle.Builder();
@@ -153,12 +184,18 @@ public class SolutionImportHandler implements IPlatformImportHandler {
         fileName = repositoryFilePath;
         repositoryFilePath = importBundle.getPath();
       } else {
-        byte[] bytes = IOUtils.toByteArray( file.getInputStream() );
-        bundleInputStream = new ByteArrayInputStream( bytes );
-        // If is locale file store it for later processing.
-        if ( localeFilesProcessor.isLocaleFile( file, importBundle.getPath(), bytes ) ) {
-          log.trace( "Skipping [" + repositoryFilePath + "], it is a locale property file" );
-          continue;
+        if ( localeFilesProcessor.isLocaleFileName( fileName ) ) {
+          // only property files are read into memory, to be examined
+          byte[] bytes = IOUtils.toByteArray( file.getInputStream() );
+          bundleInputStream = new ByteArrayInputStream( bytes );
+          // If is locale file store it for later processing.
+          if ( localeFilesProcessor.isLocaleFile( file, importBundle.getPath(), bytes ) ) {
+            log.trace( "Skipping [" + repositoryFilePath + "], it is a locale property file" );
+            continue;
+          }
+        } else {
+          // everything else is streamed from the archive to the repository
+          bundleInputStream = file.getInputStream();
         }
         bundleBuilder.input( bundleInputStream );
         bundleBuilder.mime( mimeResolver.resolveMimeForFileName( fileName ) );
@@ -189,13 +226,17 @@ public class SolutionImportHandler implements IPlatformImportHandler {
       bundleBuilder.overwriteAclSettings( bundle.isOverwriteAclSettings() );
       bundleBuilder.acl( getImportSession().processAclForFile( sourcePath ) );
       IPlatformImportBundle platformImportBundle = bundleBuilder.build();
-      importer.importFile( platformImportBundle );
-
-      if ( bundleInputStream != null ) {
-        bundleInputStream.close();
-        bundleInputStream = null;
+      try {
+        importer.importFile( platformImportBundle );
+      } finally {
+        if ( bundleInputStream != null ) {
+          bundleInputStream.close();
+          bundleInputStream = null;
+        }
       }
+      progress.fileImported( file );
     }
+    progress.finished();
     if ( manifest != null ) {
       List<JobScheduleRequest> scheduleList = manifest.getScheduleList();
       if ( scheduleList != null ) {
@@ -248,63 +289,47 @@ public class SolutionImportHandler implements IPlatformImportHandler {
   }
 
   class SolutionRepositoryImportSource {
-    private ZipInputStream zipInputStream;
+    private ZipFile zipFile;
     private List<IRepositoryFileBundle> files;
 
-    public SolutionRepositoryImportSource( final ZipInputStream zipInputStream ) {
-      this.zipInputStream = zipInputStream;
+    public SolutionRepositoryImportSource( final ZipFile zipFile ) {
+      this.zipFile = zipFile;
       this.files = new ArrayList<IRepositoryFileBundle>();
       initialize();
     }
 
     protected void initialize() {
-      try {
-        ZipEntry entry = zipInputStream.getNextEntry();
-        while ( entry != null ) {
-          final String entryName = RepositoryFilenameUtils.separatorsToRepository( entry.getName() );
-          File tempFile = null;
-          boolean isDir = entry.isDirectory();
-          if ( !isDir ) {
-            if ( !solutionHelper.isInApprovedExtensionList( entryName ) ) {
-              zipInputStream.closeEntry();
-              entry = zipInputStream.getNextEntry();
-              continue;
-            }
-            tempFile = File.createTempFile( "zip", null );
-            tempFile.deleteOnExit();
-            FileOutputStream fos = new FileOutputStream( tempFile );
-            IOUtils.copy( zipInputStream, fos );
-            fos.close();
-          }
-          File file = new File( entryName );
-          RepositoryFile repoFile =
-              new RepositoryFile.Builder( file.getName() ).folder( isDir ).hidden( false ).build();
-          String parentDir =
-              new File( entryName ).getParent() == null ? RepositoryFile.SEPARATOR : new File( entryName ).getParent()
-                  + RepositoryFile.SEPARATOR;
-          IRepositoryFileBundle repoFileBundle =
-              new RepositoryFileBundle( repoFile, null, parentDir, tempFile, "UTF-8", null );
-
-          if ( file.getName().equals( "exportManifest.xml" ) ) {
-            initializeAclManifest( repoFileBundle );
-          } else {
-            files.add( repoFileBundle );
-          }
-          zipInputStream.closeEntry();
-          entry = zipInputStream.getNextEntry();
+      Enumeration<? extends ZipEntry> entries = zipFile.entries();
+      while ( entries.hasMoreElements() ) {
+        ZipEntry entry = entries.nextElement();
+        final String entryName = RepositoryFilenameUtils.separatorsToRepository( entry.getName() );
+        boolean isDir = entry.isDirectory();
+        if ( !isDir && !solutionHelper.isInApprovedExtensionList( entryName ) ) {
+          continue;
+        }
+        File file = new File( entryName );
+        RepositoryFile repoFile = new RepositoryFile.Builder( file.getName() ).folder( isDir ).hidden( false ).build();
+        String parentDir =
+            new File( entryName ).getParent() == null ? RepositoryFile.SEPARATOR : new File( entryName ).getParent()
+                + RepositoryFile.SEPARATOR;
+        IRepositoryFileBundle repoFileBundle = new ZipEntryFileBundle( zipFile, entry, repoFile, parentDir );
+
+        if ( file.getName().equals( "exportManifest.xml" ) ) {
+          initializeAclManifest( repoFileBundle );
+        } else {
+          files.add( repoFileBundle );
         }
-        zipInputStream.close();
-      } catch ( IOException exception ) {
-        final String errorMessage = Messages.getInstance().getErrorString( "", exception.getLocalizedMessage() );
-        log.trace( errorMessage );
       }
     }
 
     private void initializeAclManifest( IRepositoryFileBundle file ) {
       try {
-        byte[] bytes = IOUtils.toByteArray( file.getInputStream() );
-        ByteArrayInputStream in = new ByteArrayInputStream( bytes );
-        getImportSession().setManifest( ExportManifest.fromXml( in ) );
+        InputStream in = file.getInputStream();
+        try {
+          getImportSession().setManifest( ExportManifest.fromXml( in ) );
+        } finally {
+          in.close();
+        }
       } catch ( Exception e ) {
         log.trace( e );
       }
@@ -314,4 +339,99 @@ public class SolutionImportHandler implements IPlatformImportHandler {
       return this.files;
     }
   }
+
+  /**
+   * An entry of the archive being imported, read from the archive each time its stream is asked for.
+   */
+  static class ZipEntryFileBundle implements IRepositoryFileBundle {
+    private final ZipFile zipFile;
+    private final ZipEntry entry;
+    private final RepositoryFile file;
+    private String path;
+
+    ZipEntryFileBundle( final ZipFile zipFile, final ZipEntry entry, final RepositoryFile file, final String path ) {
+      this.zipFile = zipFile;
+      this.entry = entry;
+      this.file = file;
+      this.path = path;
+    }
+
+    public RepositoryFile getFile() {
+      return file;
+    }
+
+    public RepositoryFileAcl getAcl() {
+      return null;
+    }
+
+    public InputStream getInputStream() throws IOException {
+      return new BufferedInputStream( zipFile.getInputStream( entry ) );
+    }
+
+    public String getPath() {
+      return path;
+    }
+
+    public void setPath( String path ) {
+      this.path = path;
+    }
+
+    public String getCharset() {
+      return "UTF-8";
+    }
+
+    public String getMimeType() {
+      return null;
+    }
+
+    /**
+     * @return the uncompressed size of the entry, or -1 if the archive does not record it
+     */
+    public long getSize() {
+      return entry.getSize();
+    }
+  }
+
+  /**
+   * Reports the number of files imported and the rate they are imported at to the import log, every
+   * {@link #REPORT_INTERVAL} files and once the import is done.
+   */
+  private static class ImportProgress {
+    private static final int REPORT_INTERVAL = 500;
+    private final IRepositoryImportLogger logger;
+    private final long startTime = System.currentTimeMillis();
+    private int fileCount;
+    private long byteCount;
+
+    ImportProgress( IRepositoryImportLogger logger ) {
+      this.logger = logger;
+    }
+
+    void fileImported( IRepositoryFileBundle file ) {
+      fileCount++;
+      if ( file instanceof ZipEntryFileBundle && ( (ZipEntryFileBundle) file ).getSize() > 0 ) {
+        byteCount += ( (ZipEntryFileBundle) file ).getSize();
+      }
+      if ( fileCount % REPORT_INTERVAL == 0 ) {
+        report( "SolutionImportHandler.INFO_IMPORT_PROGRESS" ); //$NON-NLS-1$
+      }
+    }
+
+    void finished() {
+      report( "SolutionImportHandler.INFO_IMPORT_FINISHED" ); //$NON-NLS-1$
+    }
+
+    private void report( String key ) {
+      long elapsed = Math.max( 1, System.currentTimeMillis() - startTime );
+      String message =
+          Messages.getInstance().getString( key, String.valueOf( fileCount ),
+              String.valueOf( byteCount / ( 1024 * 1024 ) ), String.valueOf( elapsed / 1000 ),
+              String.format( "%.1f", fileCount * 1000.0 / elapsed ), //$NON-NLS-1$
+              String.format( "%.1f", byteCount * 1000.0 / elapsed / ( 1024 * 1024 ) ) ); //$NON-NLS-1$
+      if ( logger != null && logger.hasLogger() ) {
+        logger.info( message );
+      }
+      log.debug( message );
+    }
+  }
 }
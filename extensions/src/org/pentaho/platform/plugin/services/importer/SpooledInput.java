@@ -0,0 +1,95 @@
+/*!
+ * This program is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License, version 2.1 as published by the Free Software
+ * Foundation.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with this
+ * program; if not, you can obtain a copy at http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+ * or from the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * Copyright (c) 2002-2013 Pentaho Corporation..  All rights reserved.
+ */
+
+package org.pentaho.platform.plugin.services.importer;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.output.DeferredFileOutputStream;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Content to be imported, read once from its source and kept in memory while it is small or in a temporary file once
+ * it grows past a threshold. It can then be read as often as a handler needs without holding large files on the heap.
+ * {@link #dispose()} closes every stream handed out and deletes the temporary file.
+ */
+public class SpooledInput {
+
+  public static final int DEFAULT_THRESHOLD = 1024 * 1024;
+
+  private final DeferredFileOutputStream content;
+
+  private final List<InputStream> openStreams = new ArrayList<InputStream>();
+
+  public SpooledInput( final InputStream in ) throws IOException {
+    this( in, DEFAULT_THRESHOLD );
+  }
+
+  /**
+   * Reads <code>in</code> to the end, without closing it.
+   *
+   * @param threshold
+   *          the number of bytes kept in memory before spilling to a temporary file
+   */
+  public SpooledInput( final InputStream in, final int threshold ) throws IOException {
+    content = new DeferredFileOutputStream( threshold, "import", null, null );
+    try {
+      IOUtils.copyLarge( in, content );
+    } finally {
+      content.close();
+    }
+  }
+
+  public long getSize() {
+    return content.getByteCount();
+  }
+
+  public boolean isInMemory() {
+    return content.isInMemory();
+  }
+
+  /**
+   * @return a new stream over the whole content, closed by {@link #dispose()} if the caller does not close it
+   */
+  public synchronized InputStream getInputStream() throws IOException {
+    InputStream in;
+    if ( content.isInMemory() ) {
+      in = new ByteArrayInputStream( content.getData() );
+    } else {
+      in = new BufferedInputStream( FileUtils.openInputStream( content.getFile() ) );
+    }
+    openStreams.add( in );
+    return in;
+  }
+
+  public synchronized void dispose() {
+    for ( InputStream in : openStreams ) {
+      IOUtils.closeQuietly( in );
+    }
+    openStreams.clear();
+    if ( !content.isInMemory() ) {
+      FileUtils.deleteQuietly( content.getFile() );
+    }
+  }
+}
@@ -51,30 +51,52 @@ import org.pentaho.platform.engine.core.system.PentahoSessionHolder;
 import org.pentaho.platform.plugin.services.importexport.exportManifest.ExportManifest;
 import org.pentaho.platform.plugin.services.importexport.exportManifest.ExportManifestFormatException;
 import org.pentaho.platform.repository2.unified.webservices.LocaleMapDto;
+import org.springframework.security.context.SecurityContext;
+import org.springframework.security.context.SecurityContextHolder;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.io.SequenceInputStream;
 import java.io.Serializable;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Date;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.Locale;
 import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipOutputStream;
 
 /**
- *
+ * Exports a repository file or folder as a zip, either to a temporary file with {@link #performExport(RepositoryFile)}
+ * or straight to a stream with {@link #performExport(RepositoryFile, OutputStream)}.
+ * <p>
+ * Entries are written in order, but the content, ACL and locales of the next few files of a folder are read from the
+ * repository ahead of time by {@link #getPrefetchThreads()} threads. At most {@link #getPrefetchThreads()} files are
+ * read ahead, and only their first {@link #getPrefetchBufferSize()} bytes are held in memory; the rest of a larger file
+ * is read as it is written. Memory use therefore does not grow with the size of the exported tree.
  */
 public class ZipExportProcessor extends BaseExportProcessor {
   private static final Log log = LogFactory.getLog( ZipExportProcessor.class );
 
+  public static final int DEFAULT_PREFETCH_THREADS = 4;
+
+  public static final int DEFAULT_PREFETCH_BUFFER_SIZE = 1024 * 1024;
+
   private String path;
 
   private ExportManifest exportManifest;
@@ -85,6 +107,13 @@ public class ZipExportProcessor extends BaseExportProcessor {
 
   private List<String> localeExportList;
 
+  private int prefetchThreads = DEFAULT_PREFETCH_THREADS;
+
+  private int prefetchBufferSize = DEFAULT_PREFETCH_BUFFER_SIZE;
+
+  /** reads files ahead while an export is running, otherwise null */
+  private ExecutorService prefetchExecutor;
+
   /**
    * Encapsulates the logic of registering import handlers, generating the manifest, and performing the export
    */
@@ -116,6 +145,30 @@ public class ZipExportProcessor extends BaseExportProcessor {
         dateFormat.format( todaysDate ) + " " + timeFormat.format( todaysDate ) );
   }
 
+  public int getPrefetchThreads() {
+    return prefetchThreads;
+  }
+
+  /**
+   * @param prefetchThreads
+   *          the number of files read ahead of the one being written, or 0 to read each file as it is written
+   */
+  public void setPrefetchThreads( int prefetchThreads ) {
+    this.prefetchThreads = prefetchThreads;
+  }
+
+  public int getPrefetchBufferSize() {
+    return prefetchBufferSize;
+  }
+
+  /**
+   * @param prefetchBufferSize
+   *          the number of bytes of each file read ahead that are held in memory
+   */
+  public void setPrefetchBufferSize( int prefetchBufferSize ) {
+    this.prefetchBufferSize = prefetchBufferSize;
+  }
+
   /**
    * Performs the export process, returns a zip File object
    * 
@@ -125,12 +178,35 @@ public class ZipExportProcessor extends BaseExportProcessor {
   public File performExport( RepositoryFile exportRepositoryFile ) throws ExportException, IOException {
     File exportFile = null;
 
+    // send a response right away if not found
+    if ( exportRepositoryFile == null ) {
+      // todo: add to messages.properties
+      throw new FileNotFoundException( "JCR file not found: " + this.path );
+    }
+
     // create temp file
     exportFile = File.createTempFile( EXPORT_TEMP_FILENAME_PREFIX, EXPORT_TEMP_FILENAME_EXT );
     exportFile.deleteOnExit();
 
-    // get the file path
-    String filePath = new File( this.path ).getParent();
+    OutputStream out = new FileOutputStream( exportFile );
+    try {
+      performExport( exportRepositoryFile, out );
+    } finally {
+      out.close();
+    }
+
+    return exportFile;
+  }
+
+  /**
+   * Performs the export process, writing the zip to <code>outputStream</code> as it goes. The stream is flushed but
+   * not closed.
+   * 
+   * @throws ExportException
+   *           indicates an error in import processing
+   */
+  public void performExport( RepositoryFile exportRepositoryFile, OutputStream outputStream ) throws ExportException,
+    IOException {
 
     // send a response right away if not found
     if ( exportRepositoryFile == null ) {
@@ -138,20 +214,39 @@ public class ZipExportProcessor extends BaseExportProcessor {
       throw new FileNotFoundException( "JCR file not found: " + this.path );
     }
 
-    ZipOutputStream zos = new ZipOutputStream( new FileOutputStream( exportFile ) );
+    // get the file path
+    String filePath = new File( this.path ).getParent();
 
-    if ( exportRepositoryFile.isFolder() ) { // Handle recursive export
-      exportManifest.getManifestInformation().setRootFolder( path.substring( 0, path.lastIndexOf( "/" ) + 1 ) );
+    ZipOutputStream zos = new ZipOutputStream( outputStream );
 
-      ZipEntry entry = new ZipEntry( getZipEntryName( exportRepositoryFile, filePath ) );
+    if ( prefetchThreads > 0 ) {
+      prefetchExecutor = Executors.newFixedThreadPool( prefetchThreads, new ThreadFactory() {
+        public Thread newThread( Runnable r ) {
+          Thread thread = new Thread( r, "export-prefetch" );
+          thread.setDaemon( true );
+          return thread;
+        }
+      } );
+    }
+    try {
+      if ( exportRepositoryFile.isFolder() ) { // Handle recursive export
+        exportManifest.getManifestInformation().setRootFolder( path.substring( 0, path.lastIndexOf( "/" ) + 1 ) );
 
-      zos.putNextEntry( entry );
+        ZipEntry entry = new ZipEntry( getZipEntryName( exportRepositoryFile, filePath ) );
 
-      exportDirectory( exportRepositoryFile, zos, filePath );
+        zos.putNextEntry( entry );
 
-    } else {
-      exportManifest.getManifestInformation().setRootFolder( path.substring( 0, path.lastIndexOf( "/" ) + 1 ) );
-      exportFile( exportRepositoryFile, zos, filePath );
+        exportDirectory( exportRepositoryFile, zos, filePath );
+
+      } else {
+        exportManifest.getManifestInformation().setRootFolder( path.substring( 0, path.lastIndexOf( "/" ) + 1 ) );
+        exportFile( exportRepositoryFile, zos, filePath );
+      }
+    } finally {
+      if ( prefetchExecutor != null ) {
+        prefetchExecutor.shutdownNow();
+        prefetchExecutor = null;
+      }
     }
 
     if ( this.withManifest ) {
@@ -170,13 +265,12 @@ public class ZipExportProcessor extends BaseExportProcessor {
       zos.closeEntry();
     }
 
-    zos.close();
+    zos.finish();
+    zos.flush();
 
     // clean up
     exportManifest = null;
     zos = null;
-
-    return exportFile;
   }
 
   /**
@@ -187,26 +281,157 @@ public class ZipExportProcessor extends BaseExportProcessor {
    */
   public void exportFile( RepositoryFile repositoryFile, OutputStream outputStream, String filePath )
     throws ExportException, IOException {
+    writeFile( loadFile( repositoryFile, filePath, false ), outputStream, filePath );
+  }
+
+  /**
+   * Reads what is exported of a file: its content from each export handler, its ACL and its locales.
+   * 
+   * @param prefetch
+   *          whether the file is read ahead, in which case its content is partly buffered so that the repository
+   *          streams are not left waiting
+   */
+  private ExportedFile loadFile( RepositoryFile repositoryFile, String filePath, boolean prefetch )
+    throws ExportException, IOException {
+    ExportedFile exported = new ExportedFile( repositoryFile );
+    boolean exportedAny = false;
+    try {
+      // iterate through handlers to perform export
+      for ( ExportHandler exportHandler : exportHandlerList ) {
+        InputStream is = exportHandler.doExport( repositoryFile, filePath );
+        if ( is != null && prefetch ) {
+          is = buffer( is );
+        }
+        exported.contents.add( is );
+        exportedAny |= is != null;
+      }
+      if ( exportedAny ) {
+        if ( this.withManifest ) {
+          exported.acl = unifiedRepository.getAcl( repositoryFile.getId() );
+        }
+        exported.locales = loadLocales( repositoryFile );
+      }
+    } catch ( IOException e ) {
+      exported.close();
+      throw e;
+    } catch ( RuntimeException e ) {
+      exported.close();
+      throw e;
+    }
+    return exported;
+  }
+
+  private void writeFile( ExportedFile exported, OutputStream outputStream, String filePath )
+    throws ExportException, IOException {
 
     // we need a zip
     ZipOutputStream zos = (ZipOutputStream) outputStream;
+    RepositoryFile repositoryFile = exported.file;
 
-    // iterate through handlers to perform export
-    for ( ExportHandler exportHandler : exportHandlerList ) {
+    try {
+      for ( InputStream is : exported.contents ) {
 
-      InputStream is = exportHandler.doExport( repositoryFile, filePath );
+        // if we don't get a valid input stream back, skip it
+        if ( is != null ) {
+          addToManifest( repositoryFile, exported.acl );
+          ZipEntry entry = new ZipEntry( getZipEntryName( repositoryFile, filePath ) );
+          zos.putNextEntry( entry );
+          IOUtils.copy( is, outputStream );
+          zos.closeEntry();
+          is.close();
+          writeLocales( repositoryFile, filePath, repositoryFile.isFolder(), exported.locales, outputStream );
+        }
+      }
+    } finally {
+      exported.close();
+    }
+  }
 
-      // if we don't get a valid input stream back, skip it
-      if ( is != null ) {
-        addToManifest( repositoryFile );
-        ZipEntry entry = new ZipEntry( getZipEntryName( repositoryFile, filePath ) );
-        zos.putNextEntry( entry );
-        IOUtils.copy( is, outputStream );
-        zos.closeEntry();
-        is.close();
-        createLocales( repositoryFile, filePath, repositoryFile.isFolder(), outputStream );
+  /**
+   * Holds the first {@link #prefetchBufferSize} bytes of <code>is</code> in memory, closing it if that is all of it.
+   */
+  private InputStream buffer( InputStream is ) throws IOException {
+    byte[] buffer = new byte[Math.min( prefetchBufferSize, 64 * 1024 )];
+    ByteArrayOutputStream head = new ByteArrayOutputStream( buffer.length );
+    int read = 0;
+    while ( head.size() < prefetchBufferSize
+        && ( read = is.read( buffer, 0, Math.min( buffer.length, prefetchBufferSize - head.size() ) ) ) != -1 ) {
+      head.write( buffer, 0, read );
+    }
+    if ( read == -1 ) {
+      is.close();
+      return new ByteArrayInputStream( head.toByteArray() );
+    }
+    return new SequenceInputStream( new ByteArrayInputStream( head.toByteArray() ), is );
+  }
+
+  /**
+   * Starts reading <code>repositoryFile</code> on a prefetch thread, or reads it now if there are none. The reading
+   * thread runs with the session and security context of the caller.
+   */
+  private Future<ExportedFile> prefetch( final RepositoryFile repositoryFile, final String filePath ) {
+    final ExecutorService executor = prefetchExecutor;
+    final IPentahoSession session = PentahoSessionHolder.getSession();
+    final SecurityContext securityContext = SecurityContextHolder.getContext();
+    FutureTask<ExportedFile> task = new FutureTask<ExportedFile>( new Callable<ExportedFile>() {
+      public ExportedFile call() throws Exception {
+        if ( executor == null ) {
+          return loadFile( repositoryFile, filePath, false );
+        }
+        PentahoSessionHolder.setSession( session );
+        SecurityContextHolder.setContext( securityContext );
+        try {
+          return loadFile( repositoryFile, filePath, true );
+        } finally {
+          PentahoSessionHolder.removeSession();
+          SecurityContextHolder.clearContext();
+        }
+      }
+    } );
+    if ( executor != null ) {
+      executor.execute( task );
+    } else {
+      task.run();
+    }
+    return task;
+  }
+
+  private ExportedFile getPrefetched( Future<ExportedFile> future ) throws ExportException, IOException {
+    try {
+      return future.get();
+    } catch ( InterruptedException e ) {
+      Thread.currentThread().interrupt();
+      throw new ExportException( e.getMessage() );
+    } catch ( ExecutionException e ) {
+      Throwable cause = e.getCause();
+      if ( cause instanceof ExportException ) {
+        throw (ExportException) cause;
+      } else if ( cause instanceof IOException ) {
+        throw (IOException) cause;
+      } else if ( cause instanceof RuntimeException ) {
+        throw (RuntimeException) cause;
+      } else if ( cause instanceof Error ) {
+        throw (Error) cause;
+      }
+      throw new ExportException( cause.getMessage() );
+    }
+  }
+
+  /**
+   * Closes whatever was read ahead but will not be written, as the export failed.
+   */
+  private void discard( List<Future<ExportedFile>> prefetched ) {
+    for ( Future<ExportedFile> future : prefetched ) {
+      if ( !future.cancel( true ) ) {
+        try {
+          future.get().close();
+        } catch ( Exception e ) {
+          // the export has already failed
+          log.debug( e.getMessage() );
+        }
       }
     }
+    prefetched.clear();
   }
 
   /**
@@ -216,9 +441,14 @@ public class ZipExportProcessor extends BaseExportProcessor {
    * @throws ExportException
    */
   private void addToManifest( RepositoryFile repositoryFile ) throws ExportException {
+    if ( this.withManifest ) {
+      addToManifest( repositoryFile, unifiedRepository.getAcl( repositoryFile.getId() ) );
+    }
+  }
+
+  private void addToManifest( RepositoryFile repositoryFile, RepositoryFileAcl fileAcl ) throws ExportException {
     if ( this.withManifest ) {
       // add this entity to the manifest
-      RepositoryFileAcl fileAcl = unifiedRepository.getAcl( repositoryFile.getId() );
       try {
         exportManifest.add( repositoryFile, fileAcl );
       } catch ( ExportManifestFormatException e ) {
@@ -238,17 +468,31 @@ public class ZipExportProcessor extends BaseExportProcessor {
     addToManifest( repositoryDir );
 
     List<RepositoryFile> children = this.unifiedRepository.getChildren( repositoryDir.getId() );
-    for ( RepositoryFile repositoryFile : children ) {
-      if ( repositoryFile.isFolder() ) {
-        if ( outputStream.getClass().isAssignableFrom( ZipOutputStream.class ) ) {
-          ZipOutputStream zos = (ZipOutputStream) outputStream;
-          ZipEntry entry = new ZipEntry( getZipEntryName( repositoryFile, filePath ) );
-          zos.putNextEntry( entry );
+    // files are read ahead up to the next folder, so nothing is pending while a sub folder is exported
+    LinkedList<Future<ExportedFile>> prefetched = new LinkedList<Future<ExportedFile>>();
+    int next = 0;
+    try {
+      for ( int i = 0; i < children.size(); i++ ) {
+        RepositoryFile repositoryFile = children.get( i );
+        if ( repositoryFile.isFolder() ) {
+          if ( outputStream.getClass().isAssignableFrom( ZipOutputStream.class ) ) {
+            ZipOutputStream zos = (ZipOutputStream) outputStream;
+            ZipEntry entry = new ZipEntry( getZipEntryName( repositoryFile, filePath ) );
+            zos.putNextEntry( entry );
+          }
+          exportDirectory( repositoryFile, outputStream, filePath );
+        } else {
+          next = Math.max( next, i );
+          while ( next < children.size() && next - i < Math.max( 1, prefetchThreads )
+              && !children.get( next ).isFolder() ) {
+            prefetched.add( prefetch( children.get( next ), filePath ) );
+            next++;
+          }
+          writeFile( getPrefetched( prefetched.removeFirst() ), outputStream, filePath );
         }
-        exportDirectory( repositoryFile, outputStream, filePath );
-      } else {
-        exportFile( repositoryFile, outputStream, filePath );
       }
+    } finally {
+      discard( prefetched );
     }
     createLocales( repositoryDir, filePath, repositoryDir.isFolder(), outputStream );
   }
@@ -292,38 +536,54 @@ public class ZipExportProcessor extends BaseExportProcessor {
    */
   private void createLocales( RepositoryFile repositoryFile, String filePath, boolean isFolder,
       OutputStream outputStrean ) throws IOException {
-    ZipEntry entry;
-    String zipName;
-    String name;
-    String localeName;
-    Properties properties;
-    ZipOutputStream zos = (ZipOutputStream) outputStrean;
+    writeLocales( repositoryFile, filePath, isFolder, loadLocales( repositoryFile ), outputStrean );
+  }
+
+  /**
+   * @return the locale properties of the file, or an empty list if it is of a type whose locales are not exported
+   */
+  private List<LocaleProperties> loadLocales( RepositoryFile repositoryFile ) {
+    List<LocaleProperties> localeProperties = new ArrayList<LocaleProperties>();
     // only process files and folders that we know will have locale settings
     if ( supportedLocaleFileExt( repositoryFile ) ) {
       List<LocaleMapDto> locales = getAvailableLocales( repositoryFile.getId() );
-      zipName = getZipEntryName( repositoryFile, filePath );
-      name = repositoryFile.getName();
       for ( LocaleMapDto locale : locales ) {
-        localeName = locale.getLocale().equalsIgnoreCase( "default" ) ? "" : "_" + locale.getLocale();
-        if ( isFolder ) {
-          zipName = getZipEntryName( repositoryFile, filePath ) + "index";
-          name = "index";
-        }
-
-        properties = unifiedRepository.getLocalePropertiesForFileById( repositoryFile.getId(), locale.getLocale() );
+        Properties properties =
+            unifiedRepository.getLocalePropertiesForFileById( repositoryFile.getId(), locale.getLocale() );
         if ( properties != null ) {
           properties.remove( "jcr:primaryType" ); // Pentaho Type
-          InputStream is = createLocaleFile( name + localeName, properties, locale.getLocale() );
-          if ( is != null ) {
-            entry = new ZipEntry( zipName + localeName + LOCALE_EXT );
-            zos.putNextEntry( entry );
-            IOUtils.copy( is, outputStrean );
-            zos.closeEntry();
-            is.close();
-          }
+          localeProperties.add( new LocaleProperties( locale.getLocale(), properties ) );
         }
       }
     }
+    return localeProperties;
+  }
+
+  private void writeLocales( RepositoryFile repositoryFile, String filePath, boolean isFolder,
+      List<LocaleProperties> locales, OutputStream outputStrean ) throws IOException {
+    ZipEntry entry;
+    String zipName;
+    String name;
+    String localeName;
+    ZipOutputStream zos = (ZipOutputStream) outputStrean;
+    zipName = getZipEntryName( repositoryFile, filePath );
+    name = repositoryFile.getName();
+    for ( LocaleProperties locale : locales ) {
+      localeName = locale.locale.equalsIgnoreCase( "default" ) ? "" : "_" + locale.locale;
+      if ( isFolder ) {
+        zipName = getZipEntryName( repositoryFile, filePath ) + "index";
+        name = "index";
+      }
+
+      InputStream is = createLocaleFile( name + localeName, locale.properties, locale.locale );
+      if ( is != null ) {
+        entry = new ZipEntry( zipName + localeName + LOCALE_EXT );
+        zos.putNextEntry( entry );
+        IOUtils.copy( is, outputStrean );
+        zos.closeEntry();
+        is.close();
+      }
+    }
   }
 
   /**
@@ -379,13 +639,9 @@ public class ZipExportProcessor extends BaseExportProcessor {
   private InputStream createLocaleFile( String name, Properties properties, String locale ) throws IOException {
     InputStream is = null;
     if ( properties != null ) {
-      File localeFile = File.createTempFile( name, LOCALE_EXT );
-      localeFile.deleteOnExit();
-      FileOutputStream fileOut = new FileOutputStream( localeFile );
-      properties.store( fileOut, "Locale = " + locale );
-      fileOut.close();
-      is = new FileInputStream( localeFile );
-
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      properties.store( out, "Locale = " + locale );
+      is = new ByteArrayInputStream( out.toByteArray() );
     }
     return is;
   }
@@ -395,7 +651,7 @@ public class ZipExportProcessor extends BaseExportProcessor {
    * 
    * @return
    */
-  public List<String> getLocaleExportList() {
+  public synchronized List<String> getLocaleExportList() {
     if ( this.localeExportList == null || this.localeExportList.isEmpty() ) {
       for ( ExportHandler exportHandler : exportHandlerList ) {
         this.localeExportList = ( (DefaultExportHandler) exportHandler ).getLocaleExportList();
@@ -408,4 +664,41 @@ public class ZipExportProcessor extends BaseExportProcessor {
   public void setLocaleExportList( List<String> localeExportList ) {
     this.localeExportList = localeExportList;
   }
+
+  /**
+   * A file ready to be written: the content returned by each export handler, in order, with null for the handlers
+   * that did not export it, and the ACL and locales of the file.
+   */
+  private static class ExportedFile {
+
+    private final RepositoryFile file;
+
+    private final List<InputStream> contents = new ArrayList<InputStream>();
+
+    private RepositoryFileAcl acl;
+
+    private List<LocaleProperties> locales = new ArrayList<LocaleProperties>();
+
+    ExportedFile( RepositoryFile file ) {
+      this.file = file;
+    }
+
+    void close() {
+      for ( InputStream is : contents ) {
+        IOUtils.closeQuietly( is );
+      }
+    }
+  }
+
+  private static class LocaleProperties {
+
+    private final String locale;
+
+    private final Properties properties;
+
+    LocaleProperties( String locale, Properties properties ) {
+      this.locale = locale;
+      this.properties = properties;
+    }
+  }
 }
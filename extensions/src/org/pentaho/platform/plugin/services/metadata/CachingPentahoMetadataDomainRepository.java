@@ -18,33 +18,78 @@
 
 package org.pentaho.platform.plugin.services.metadata;
 
+import org.apache.commons.lang.StringUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
 import org.pentaho.metadata.model.Domain;
-import org.pentaho.metadata.repository.DomainAlreadyExistsException;
-import org.pentaho.metadata.repository.DomainIdNullException;
-import org.pentaho.metadata.repository.DomainStorageException;
 import org.pentaho.metadata.util.LocalizationUtil;
 import org.pentaho.metadata.util.XmiParser;
 import org.pentaho.platform.api.repository2.unified.IUnifiedRepository;
+import org.pentaho.platform.api.repository2.unified.RepositoryFile;
+import org.pentaho.platform.api.repository2.unified.UnifiedRepositoryException;
+import org.pentaho.platform.engine.security.SecurityHelper;
+import org.pentaho.platform.plugin.services.messages.Messages;
 import org.pentaho.platform.repository2.unified.RepositoryUtils;
 
-import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.Map;
 import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
- * Class Description
+ * A {@link PentahoMetadataDomainRepository} which keeps parsed domains in memory.
+ * <p/>
+ * Each domain is parsed at most once, even when several threads miss on it at the same time: the first thread loads
+ * it while the others wait for its result. A cached domain is dropped when its files are changed through this
+ * repository, and is re-checked against the versions of its repository files at most once every
+ * {@link #setValidationInterval(long) validation interval} to pick up changes made elsewhere. The cache can be bounded
+ * with {@link #setMaxDomains(int)}, in which case the least used domain is evicted first, and commonly used domains can
+ * be loaded ahead of the first request with {@link #setPreloadDomainIds(String)} and {@link #startPreloading()}.
  * 
  * @author <a href="mailto:dkincade@pentaho.com">David M. Kincade</a>
  */
 public class CachingPentahoMetadataDomainRepository extends PentahoMetadataDomainRepository {
-  private Map<String, Domain> cache;
+  private static final Log logger = LogFactory.getLog( CachingPentahoMetadataDomainRepository.class );
+
+  private static final Messages messages = Messages.getInstance();
+
+  /**
+   * The default number of milliseconds between checks of a cached domain against its repository files
+   */
+  public static final long DEFAULT_VALIDATION_INTERVAL = 5000L;
+
+  /**
+   * The preload domain id which stands for every domain in the repository
+   */
+  public static final String ALL_DOMAINS = "*"; //$NON-NLS-1$
+
+  private final ConcurrentMap<String, FutureTask<CachedDomain>> cache =
+      new ConcurrentHashMap<String, FutureTask<CachedDomain>>();
+
+  private final Object domainIdsLock = new Object();
+
+  private Set<String> domainIds;
+
+  private long domainIdsLoaded;
+
+  private volatile long validationInterval = DEFAULT_VALIDATION_INTERVAL;
+
+  private volatile int maxDomains;
+
+  private volatile String preloadDomainIds;
 
   /**
    * @param repository
    */
   public CachingPentahoMetadataDomainRepository( final IUnifiedRepository repository ) {
     super( repository );
-    cache = new HashMap<String, Domain>();
   }
 
   /**
@@ -56,33 +101,11 @@ public class CachingPentahoMetadataDomainRepository extends PentahoMetadataDomai
   public CachingPentahoMetadataDomainRepository( final IUnifiedRepository repository,
       final RepositoryUtils repositoryUtils, final XmiParser xmiParser, final LocalizationUtil localizationUtil ) {
     super( repository, repositoryUtils, xmiParser, localizationUtil );
-    cache = new HashMap<String, Domain>();
-  }
-
-  /**
-   * Store a domain to the repository. The domain should persist between JVM restarts.
-   * 
-   * @param domain
-   *          domain object to store
-   * @param overwrite
-   *          if true, overwrite existing domain
-   * @throws org.pentaho.metadata.repository.DomainIdNullException
-   *           if domain id is null
-   * @throws org.pentaho.metadata.repository.DomainAlreadyExistsException
-   *           if domain exists and overwrite = false
-   * @throws org.pentaho.metadata.repository.DomainStorageException
-   *           if there is a problem storing the domain
-   */
-  @Override
-  public void storeDomain( final Domain domain, final boolean overwrite ) throws DomainIdNullException,
-    DomainAlreadyExistsException, DomainStorageException {
-    super.storeDomain( domain, overwrite );
-    cache.put( domain.getId(), domain );
   }
 
   /**
-   * retrieve a domain from the repo. This does lazy loading of the repo, so it calls reloadDomains() if not already
-   * loaded.
+   * retrieve a domain from the repo. The domain is parsed on the first request only; concurrent requests for a domain
+   * which is being loaded wait for that load instead of parsing it again.
    * 
    * @param domainId
    *          domain to get from the repository
@@ -90,30 +113,57 @@ public class CachingPentahoMetadataDomainRepository extends PentahoMetadataDomai
    */
   @Override
   public Domain getDomain( final String domainId ) {
-    Domain domain = cache.get( domainId );
-    if ( null == domain ) {
-      domain = super.getDomain( domainId );
-      if ( null != domain ) {
-        cache.put( domainId, domain );
+    if ( StringUtils.isEmpty( domainId ) ) {
+      return super.getDomain( domainId );
+    }
+
+    while ( true ) {
+      FutureTask<CachedDomain> task = cache.get( domainId );
+      if ( task == null ) {
+        final FutureTask<CachedDomain> newTask = new FutureTask<CachedDomain>( new Callable<CachedDomain>() {
+          public CachedDomain call() throws Exception {
+            return loadDomain( domainId );
+          }
+        } );
+        task = cache.putIfAbsent( domainId, newTask );
+        if ( task == null ) {
+          task = newTask;
+          newTask.run();
+          evictDomains( domainId );
+        }
       }
+
+      final CachedDomain cached = getCachedDomain( domainId, task );
+      if ( cached == null ) {
+        // Missing domains are not cached, so that a domain stored later on is found
+        cache.remove( domainId, task );
+        return null;
+      }
+      if ( cached.isCurrent() ) {
+        cached.touch();
+        return cached.getDomain();
+      }
+      logger.debug( "domain " + domainId + " changed in the repository, reloading" ); //$NON-NLS-1$ //$NON-NLS-2$
+      cache.remove( domainId, task );
     }
-    return domain;
   }
 
   /**
-   * Returns a list of all the domain ids in the repository.
+   * Returns a list of all the domain ids in the repository. The list is re-read from the repository when a domain is
+   * changed through this repository, or after the validation interval has passed.
    * 
    * @return the domain Ids.
    */
   @Override
   public Set<String> getDomainIds() {
-    if ( cache.isEmpty() ) {
-      Set<String> domainIds = super.getDomainIds();
-      for ( final String domainId : domainIds ) {
-        cache.put( domainId, null );
+    synchronized ( domainIdsLock ) {
+      final long now = System.currentTimeMillis();
+      if ( domainIds == null || ( validationInterval >= 0 && now - domainIdsLoaded >= validationInterval ) ) {
+        domainIds = super.getDomainIds();
+        domainIdsLoaded = now;
       }
+      return new HashSet<String>( domainIds );
     }
-    return cache.keySet();
   }
 
   /**
@@ -132,5 +182,284 @@ public class CachingPentahoMetadataDomainRepository extends PentahoMetadataDomai
   public void flushDomains() {
     super.flushDomains();
     cache.clear();
+    clearDomainIds();
+  }
+
+  /**
+   * Drops only the changed domain from the cache, leaving all other parsed domains in place
+   */
+  @Override
+  protected void domainChanged( final String domainId ) {
+    super.flushDomains();
+    cache.remove( domainId );
+    clearDomainIds();
+  }
+
+  /**
+   * Loads the configured {@link #setPreloadDomainIds(String) preload domains} into the cache, in order, in the calling
+   * thread. Loading stops once the cache is full.
+   * 
+   * @return the number of domains loaded
+   */
+  public int preloadDomains() {
+    final Set<String> ids = new LinkedHashSet<String>();
+    final String preload = preloadDomainIds;
+    if ( preload != null ) {
+      for ( final String id : preload.split( "," ) ) { //$NON-NLS-1$
+        final String domainId = id.trim();
+        if ( ALL_DOMAINS.equals( domainId ) ) {
+          ids.addAll( getDomainIds() );
+        } else if ( domainId.length() > 0 ) {
+          ids.add( domainId );
+        }
+      }
+    }
+
+    int loaded = 0;
+    for ( final String domainId : ids ) {
+      final int max = maxDomains;
+      if ( max > 0 && loaded >= max ) {
+        break;
+      }
+      try {
+        if ( getDomain( domainId ) != null ) {
+          loaded++;
+        }
+      } catch ( RuntimeException e ) {
+        logger.warn( messages.getString( "CachingPentahoMetadataDomainRepository.WARN_0001_PRELOAD_FAILED", //$NON-NLS-1$
+            domainId, e.getLocalizedMessage() ), e );
+      }
+    }
+    logger.debug( "preloaded " + loaded + " domains" ); //$NON-NLS-1$ //$NON-NLS-2$
+    return loaded;
+  }
+
+  /**
+   * Starts a background thread which runs {@link #preloadDomains()} as the system user. Intended to be used as the
+   * init-method of this bean, so that the most used domains are parsed before the first report asks for them.
+   */
+  public void startPreloading() {
+    if ( StringUtils.isBlank( preloadDomainIds ) ) {
+      return;
+    }
+    final Thread preloader = new Thread( new Runnable() {
+      public void run() {
+        try {
+          SecurityHelper.getInstance().runAsSystem( new Callable<Integer>() {
+            public Integer call() throws Exception {
+              return preloadDomains();
+            }
+          } );
+        } catch ( Exception e ) {
+          logger.warn( messages.getString( "CachingPentahoMetadataDomainRepository.WARN_0001_PRELOAD_FAILED", //$NON-NLS-1$
+              preloadDomainIds, e.getLocalizedMessage() ), e );
+        }
+      }
+    }, "metadata-domain-preloader" ); //$NON-NLS-1$
+    preloader.setDaemon( true );
+    preloader.start();
+  }
+
+  /**
+   * Returns the number of domains currently held in the cache (including ones which are still being loaded)
+   */
+  public int getCachedDomainCount() {
+    return cache.size();
+  }
+
+  public long getValidationInterval() {
+    return validationInterval;
+  }
+
+  /**
+   * Sets the number of milliseconds after which a cached domain is checked against its repository files again. Zero
+   * checks on every request; a negative value only relies on changes made through this repository.
+   */
+  public void setValidationInterval( final long validationInterval ) {
+    this.validationInterval = validationInterval;
+  }
+
+  public int getMaxDomains() {
+    return maxDomains;
+  }
+
+  /**
+   * Sets the maximum number of parsed domains to keep in memory. Zero (the default) keeps every domain.
+   */
+  public void setMaxDomains( final int maxDomains ) {
+    this.maxDomains = maxDomains;
+  }
+
+  public String getPreloadDomainIds() {
+    return preloadDomainIds;
+  }
+
+  /**
+   * Sets the comma separated list of domains to load by {@link #preloadDomains()}, most used first. {@code *} stands
+   * for every domain in the repository.
+   */
+  public void setPreloadDomainIds( final String preloadDomainIds ) {
+    this.preloadDomainIds = preloadDomainIds;
+  }
+
+  /**
+   * Parses the domain, remembering the versions of its files as they were before it was read
+   */
+  protected CachedDomain loadDomain( final String domainId ) {
+    if ( getMetadataRepositoryFile( domainId ) == null ) {
+      return null;
+    }
+    final String version = getDomainVersion( domainId );
+    final Domain domain = super.getDomain( domainId );
+    return domain == null ? null : new CachedDomain( domainId, domain, version );
+  }
+
+  /**
+   * Builds a version string out of the ids, version ids and modification dates of the domain's repository files
+   */
+  protected String getDomainVersion( final String domainId ) {
+    final Map<String, String> versions = new TreeMap<String, String>();
+    for ( final RepositoryFile file : getDomainFiles( domainId ) ) {
+      final RepositoryFile current = getRepository().getFileById( file.getId() );
+      final StringBuilder version = new StringBuilder();
+      if ( current != null ) {
+        version.append( current.getVersionId() ).append( '/' );
+        version.append( current.getLastModifiedDate() != null ? current.getLastModifiedDate().getTime() : 0L );
+      }
+      versions.put( String.valueOf( file.getId() ), version.toString() );
+    }
+    return versions.toString();
+  }
+
+  private CachedDomain getCachedDomain( final String domainId, final FutureTask<CachedDomain> task ) {
+    try {
+      return task.get();
+    } catch ( InterruptedException e ) {
+      Thread.currentThread().interrupt();
+      throw new UnifiedRepositoryException( messages.getErrorString(
+          "PentahoMetadataDomainRepository.ERROR_0005_ERROR_RETRIEVING_DOMAIN", domainId, //$NON-NLS-1$
+          e.getLocalizedMessage() ), e );
+    } catch ( ExecutionException e ) {
+      // Do not keep the failure around; the next request tries again
+      cache.remove( domainId, task );
+      final Throwable cause = e.getCause();
+      if ( cause instanceof RuntimeException ) {
+        throw (RuntimeException) cause;
+      }
+      if ( cause instanceof Error ) {
+        throw (Error) cause;
+      }
+      throw new UnifiedRepositoryException( messages.getErrorString(
+          "PentahoMetadataDomainRepository.ERROR_0005_ERROR_RETRIEVING_DOMAIN", domainId, //$NON-NLS-1$
+          cause.getLocalizedMessage() ), cause );
+    }
+  }
+
+  /**
+   * Evicts the least used (and, among those, least recently used) domains until the cache fits in its bound. The
+   * domain which was just loaded is never evicted.
+   */
+  private void evictDomains( final String loadedDomainId ) {
+    final int max = maxDomains;
+    while ( max > 0 && cache.size() > max ) {
+      String victimId = null;
+      FutureTask<CachedDomain> victimTask = null;
+      CachedDomain victim = null;
+      for ( final Map.Entry<String, FutureTask<CachedDomain>> entry : cache.entrySet() ) {
+        final FutureTask<CachedDomain> task = entry.getValue();
+        if ( loadedDomainId.equals( entry.getKey() ) || !task.isDone() ) {
+          continue;
+        }
+        final CachedDomain cached;
+        try {
+          cached = task.get();
+        } catch ( Exception e ) {
+          continue;
+        }
+        if ( cached == null || victim == null || cached.isLessUsedThan( victim ) ) {
+          victimId = entry.getKey();
+          victimTask = task;
+          victim = cached;
+          if ( cached == null ) {
+            break;
+          }
+        }
+      }
+      if ( victimId == null ) {
+        return;
+      }
+      logger.debug( "evicting domain " + victimId ); //$NON-NLS-1$
+      cache.remove( victimId, victimTask );
+    }
+  }
+
+  private void clearDomainIds() {
+    synchronized ( domainIdsLock ) {
+      domainIds = null;
+    }
+  }
+
+  /**
+   * A parsed domain along with the version of its files and its usage
+   */
+  protected class CachedDomain {
+    private final String domainId;
+
+    private final Domain domain;
+
+    private final String version;
+
+    private final AtomicLong uses = new AtomicLong();
+
+    private final AtomicLong lastValidated = new AtomicLong( System.currentTimeMillis() );
+
+    private volatile long lastUsed = System.currentTimeMillis();
+
+    public CachedDomain( final String domainId, final Domain domain, final String version ) {
+      this.domainId = domainId;
+      this.domain = domain;
+      this.version = version;
+    }
+
+    public Domain getDomain() {
+      return domain;
+    }
+
+    public long getUses() {
+      return uses.get();
+    }
+
+    void touch() {
+      uses.incrementAndGet();
+      lastUsed = System.currentTimeMillis();
+    }
+
+    boolean isLessUsedThan( final CachedDomain other ) {
+      final long mine = uses.get();
+      final long theirs = other.uses.get();
+      return mine < theirs || ( mine == theirs && lastUsed < other.lastUsed );
+    }
+
+    /**
+     * Checks the domain's files against the repository once per validation interval; only one thread performs each
+     * check, the others keep using the cached domain meanwhile.
+     */
+    boolean isCurrent() {
+      final long interval = validationInterval;
+      if ( interval < 0 ) {
+        return true;
+      }
+      final long now = System.currentTimeMillis();
+      final long validated = lastValidated.get();
+      if ( now - validated < interval || !lastValidated.compareAndSet( validated, now ) ) {
+        return true;
+      }
+      try {
+        return version.equals( getDomainVersion( domainId ) );
+      } catch ( RuntimeException e ) {
+        logger.debug( "could not check domain " + domainId + " against the repository", e ); //$NON-NLS-1$ //$NON-NLS-2$
+        return false;
+      }
+    }
   }
 }
@@ -255,7 +255,7 @@ public class PentahoMetadataDomainRepository implements IMetadataDomainRepositor
     }
 
     // This invalidates any caching
-    flushDomains();
+    domainChanged( domainId );
 
   }
 
@@ -373,7 +373,7 @@ public class PentahoMetadataDomainRepository implements IMetadataDomainRepositor
 
     // This invalidates any caching
     if ( !domainFiles.isEmpty() ) {
-      flushDomains();
+      domainChanged( domainId );
     }
 
   }
@@ -415,7 +415,7 @@ public class PentahoMetadataDomainRepository implements IMetadataDomainRepositor
       if ( found ) {
         try {
           storeDomain( domain, true );
-          flushDomains();
+          domainChanged( domainId );
         } catch ( DomainAlreadyExistsException ignored ) {
           // This can't happen since we have setup overwrite to true
         }
@@ -476,6 +476,17 @@ public class PentahoMetadataDomainRepository implements IMetadataDomainRepositor
     internalReloadDomains();
   }
 
+  /**
+   * Called after the files of a single domain have been added, updated or removed. The default implementation
+   * flushes everything; caching subclasses can narrow this to the affected domain.
+   * 
+   * @param domainId
+   *          the domain whose files changed
+   */
+  protected void domainChanged( final String domainId ) {
+    flushDomains();
+  }
+
   @Override
   public String generateRowLevelSecurityConstraint( final LogicalModel model ) {
     // We will let subclasses handle this issue
@@ -545,7 +556,7 @@ public class PentahoMetadataDomainRepository implements IMetadataDomainRepositor
       }
 
       // This invalidates any cached information
-      flushDomains();
+      domainChanged( domainId );
     }
   }
 
@@ -555,7 +566,10 @@ public class PentahoMetadataDomainRepository implements IMetadataDomainRepositor
   }
 
   protected void loadLocaleStrings( final String domainId, final Domain domain ) {
-    final Map<String, RepositoryFile> localeFiles = metadataMapping.getLocaleFiles( domainId );
+    final Map<String, RepositoryFile> localeFiles;
+    synchronized ( metadataMapping ) {
+      localeFiles = metadataMapping.getLocaleFiles( domainId );
+    }
     if ( localeFiles != null ) {
       for ( final String locale : localeFiles.keySet() ) {
         final RepositoryFile localeFile = localeFiles.get( locale );
@@ -669,12 +683,23 @@ public class PentahoMetadataDomainRepository implements IMetadataDomainRepositor
    * Accesses the metadata mapping (with 1 retry) to find the metadata file for the specified domainId
    */
   protected RepositoryFile getMetadataRepositoryFile( final String domainId ) {
-    RepositoryFile domainFile = metadataMapping.getDomainFile( domainId );
-    if ( null == domainFile ) {
-      reloadDomains();
-      domainFile = metadataMapping.getDomainFile( domainId );
+    synchronized ( metadataMapping ) {
+      RepositoryFile domainFile = metadataMapping.getDomainFile( domainId );
+      if ( null == domainFile ) {
+        internalReloadDomains();
+        domainFile = metadataMapping.getDomainFile( domainId );
+      }
+      return domainFile;
+    }
+  }
+
+  /**
+   * Returns a copy of the set of repository files (the domain file and its locale bundles) for the specified domainId
+   */
+  protected Set<RepositoryFile> getDomainFiles( final String domainId ) {
+    synchronized ( metadataMapping ) {
+      return metadataMapping.getFiles( domainId );
     }
-    return domainFile;
   }
 
   /**
@@ -28,6 +28,8 @@ import org.pentaho.platform.api.engine.IPentahoSession;
 import org.pentaho.platform.api.engine.IPlatformPlugin;
 import org.pentaho.platform.api.engine.IPluginLifecycleListener;
 import org.pentaho.platform.api.engine.IPluginManager;
+import org.pentaho.platform.api.engine.IPluginManagerListener;
+import org.pentaho.platform.api.engine.IPluginManagerListenerSupport;
 import org.pentaho.platform.api.engine.IPluginProvider;
 import org.pentaho.platform.api.engine.IPluginResourceLoader;
 import org.pentaho.platform.api.engine.IServiceManager;
@@ -44,6 +46,7 @@ import org.pentaho.platform.api.engine.perspective.IPluginPerspectiveManager;
 import org.pentaho.platform.api.engine.perspective.pojo.IPluginPerspective;
 import org.pentaho.platform.engine.core.system.PentahoSessionHolder;
 import org.pentaho.platform.engine.core.system.PentahoSystem;
+import org.pentaho.platform.engine.core.system.objfac.AggregateObjectFactory;
 import org.pentaho.platform.engine.core.system.objfac.StandaloneSpringPentahoObjectFactory;
 import org.pentaho.platform.plugin.services.messages.Messages;
 import org.pentaho.platform.plugin.services.pluginmgr.servicemgr.ServiceConfig;
@@ -71,8 +74,9 @@ import java.util.Hashtable;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
 
-public class DefaultPluginManager implements IPluginManager {
+public class DefaultPluginManager implements IPluginManager, IPluginManagerListenerSupport {
 
   private static final Log logger = LogFactory.getLog( DefaultPluginManager.class );
 
@@ -93,6 +97,8 @@ public class DefaultPluginManager implements IPluginManager {
 
   protected List<XulOverlay> overlaysCache = Collections.synchronizedList( new ArrayList<XulOverlay>() );
 
+  protected List<IPluginManagerListener> listeners = new CopyOnWriteArrayList<IPluginManagerListener>();
+
   @Override
   public Set<String> getContentTypes() {
     // map.keySet returns a set backed by the map, so we cannot allow modification of the set
@@ -228,6 +234,9 @@ public class DefaultPluginManager implements IPluginManager {
       }
     }
 
+    // plugin bean definitions were registered and refreshed above
+    AggregateObjectFactory.definitionsChanged();
+    firePluginsChanged();
     return !anyErrors;
   }
 
@@ -452,6 +461,8 @@ public class DefaultPluginManager implements IPluginManager {
     }
 
     beanFactoryMap.put( plugin.getId(), beanFactory );
+    // lookups cached by the aggregate object factory may have missed beans of this plugin
+    AggregateObjectFactory.definitionsChanged();
 
     //
     // Register any beans defined via the pluginProvider
@@ -761,6 +772,27 @@ public class DefaultPluginManager implements IPluginManager {
     synchronized ( registeredPlugins ) {
       this.unloadPlugins();
     }
+    firePluginsChanged();
+  }
+
+  @Override
+  public void addPluginManagerListener( IPluginManagerListener listener ) {
+    listeners.add( listener );
+  }
+
+  @Override
+  public void removePluginManagerListener( IPluginManagerListener listener ) {
+    listeners.remove( listener );
+  }
+
+  private void firePluginsChanged() {
+    for ( IPluginManagerListener listener : listeners ) {
+      try {
+        listener.onReload();
+      } catch ( Throwable t ) {
+        logger.error( "Plugin manager listener failed", t ); //$NON-NLS-1$
+      }
+    }
   }
 
   public Object getPluginSetting( IPlatformPlugin plugin, String key, String defaultValue ) {
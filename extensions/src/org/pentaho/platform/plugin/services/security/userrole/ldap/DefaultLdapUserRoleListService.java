@@ -17,12 +17,14 @@
 
 package org.pentaho.platform.plugin.services.security.userrole.ldap;
 
+import org.pentaho.platform.api.engine.IUserRoleListPrefixSupport;
 import org.pentaho.platform.api.engine.IUserRoleListService;
 import org.pentaho.platform.api.engine.security.IAuthenticationRoleMapper;
 import org.pentaho.platform.api.mt.ITenant;
 import org.pentaho.platform.api.mt.ITenantedPrincipleNameResolver;
 import org.pentaho.platform.plugin.services.security.userrole.ldap.search.LdapSearch;
 import org.pentaho.platform.repository2.unified.jcr.JcrTenantUtils;
+import org.springframework.beans.factory.DisposableBean;
 import org.springframework.beans.factory.InitializingBean;
 import org.springframework.security.GrantedAuthority;
 import org.springframework.security.userdetails.UserDetails;
@@ -34,12 +36,41 @@ import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.List;
+import java.util.concurrent.Callable;
 
-public class DefaultLdapUserRoleListService implements IUserRoleListService, InitializingBean {
+public class DefaultLdapUserRoleListService implements IUserRoleListService, IUserRoleListPrefixSupport,
+    InitializingBean, DisposableBean {
 
   // ~ Static fields/initializers
   // ======================================================================================
 
+  /**
+   * Lists of users and roles are served from the cache for five minutes by default, and refreshed in the background
+   * once they get close to that age. The roles of a user expire sooner, see
+   * {@link #DEFAULT_ROLES_FOR_USER_CACHE_TIME_TO_LIVE}.
+   */
+  public static final long DEFAULT_CACHE_TIME_TO_LIVE = 300000L;
+
+  /**
+   * The roles of a user decide what the user may do, so they are only cached for thirty seconds by default: a role
+   * revoked in the directory is no longer granted after at most that long.
+   */
+  public static final long DEFAULT_ROLES_FOR_USER_CACHE_TIME_TO_LIVE = 30000L;
+
+  private static final int MAX_CACHED_LISTS = 10000;
+
+  private static final String ALL_USERS_KEY = "allUsers"; //$NON-NLS-1$
+
+  private static final String ALL_ROLES_KEY = "allRoles"; //$NON-NLS-1$
+
+  private static final String USERS_IN_ROLE_KEY = "usersInRole:"; //$NON-NLS-1$
+
+  private static final String ROLES_FOR_USER_KEY = "rolesForUser:"; //$NON-NLS-1$
+
+  private static final String USERS_STARTING_WITH_KEY = "usersStartingWith:"; //$NON-NLS-1$
+
+  private static final String ROLES_STARTING_WITH_KEY = "rolesStartingWith:"; //$NON-NLS-1$
+
   // ~ Instance fields
   // =================================================================================================
 
@@ -49,6 +80,20 @@ public class DefaultLdapUserRoleListService implements IUserRoleListService, Ini
 
   private LdapSearch usernamesInRoleSearch;
 
+  /**
+   * Optional search for the user names starting with the prefix given as its only filter argument, such as
+   * <code>(&amp;(objectClass=person)(uid={0}*))</code>. Without it prefix lookups filter the list of all users.
+   */
+  private LdapSearch usernamesStartingWithSearch;
+
+  /**
+   * Optional search for the roles whose name starts with the prefix given as its only filter argument, such as
+   * <code>(&amp;(objectClass=organizationalRole)(cn={0}*))</code>. The prefix is matched against the directory's
+   * names, so only use it when role names are not changed on their way from the directory, by the role mapper or by a
+   * role prefix. Without it prefix lookups filter the list of all roles.
+   */
+  private LdapSearch authoritiesStartingWithSearch;
+
   /**
    * Case-sensitive by default.
    */
@@ -76,6 +121,21 @@ public class DefaultLdapUserRoleListService implements IUserRoleListService, Ini
 
   private IAuthenticationRoleMapper roleMapper;
 
+  private long cacheTimeToLive = DEFAULT_CACHE_TIME_TO_LIVE;
+
+  private long rolesForUserCacheTimeToLive = DEFAULT_ROLES_FOR_USER_CACHE_TIME_TO_LIVE;
+
+  /**
+   * Results of the searches below, as unmodifiable lists. Callers always get a copy.
+   */
+  private volatile RefreshAheadCache<String, List<String>> cache = createCache( cacheTimeToLive );
+
+  /**
+   * Results of <code>getRolesForUser</code>, kept apart as they expire sooner.
+   */
+  private volatile RefreshAheadCache<String, List<String>> rolesForUserCache =
+      createCache( rolesForUserCacheTimeToLive );
+
   // ~ Constructors
   // ====================================================================================================
 
@@ -103,9 +163,29 @@ public class DefaultLdapUserRoleListService implements IUserRoleListService, Ini
   public void afterPropertiesSet() throws Exception {
   }
 
+  /**
+   * Stops the background refreshes of the caches.
+   */
+  @Override
+  public void destroy() throws Exception {
+    cache.shutdown();
+    rolesForUserCache.shutdown();
+  }
+
   @Override
   public List<String> getAllRoles() {
-    List<GrantedAuthority> results = allAuthoritiesSearch.search( new Object[ 0 ] );
+    return cached( cache, ALL_ROLES_KEY, new Callable<List<String>>() {
+      public List<String> call() {
+        return searchAllRoles();
+      }
+    } );
+  }
+
+  private List<String> searchAllRoles() {
+    return toRoles( allAuthoritiesSearch.search( new Object[ 0 ] ) );
+  }
+
+  private List<String> toRoles( final List<GrantedAuthority> results ) {
     List<String> roles = new ArrayList<String>( results.size() );
     for ( GrantedAuthority role : results ) {
       String roleString =
@@ -123,6 +203,14 @@ public class DefaultLdapUserRoleListService implements IUserRoleListService, Ini
 
   @Override
   public List<String> getAllUsers() {
+    return cached( cache, ALL_USERS_KEY, new Callable<List<String>>() {
+      public List<String> call() {
+        return searchAllUsers();
+      }
+    } );
+  }
+
+  private List<String> searchAllUsers() {
     List<String> results = allUsernamesSearch.search( new Object[0] );
     if ( null != usernameComparator ) {
       Collections.sort( results, usernameComparator );
@@ -135,7 +223,15 @@ public class DefaultLdapUserRoleListService implements IUserRoleListService, Ini
     if ( tenant != null && !tenant.equals( JcrTenantUtils.getDefaultTenant() ) ) {
       throw new UnsupportedOperationException( "only allowed to access to default tenant" );
     }
-    String updateRole = roleNameUtils.getPrincipleName( role );
+    final String updateRole = roleNameUtils.getPrincipleName( role );
+    return cached( cache, USERS_IN_ROLE_KEY + updateRole, new Callable<List<String>>() {
+      public List<String> call() {
+        return searchUsersInRole( updateRole );
+      }
+    } );
+  }
+
+  private List<String> searchUsersInRole( final String updateRole ) {
     // User Role mapper to get the equivalent ldap role
     List<String> results = usernamesInRoleSearch.search( new Object[] { roleMapper.fromPentahoRole( updateRole ) } );
     if ( null != usernameComparator ) {
@@ -149,7 +245,16 @@ public class DefaultLdapUserRoleListService implements IUserRoleListService, Ini
     if ( tenant != null && !tenant.equals( JcrTenantUtils.getDefaultTenant() ) ) {
       throw new UnsupportedOperationException( "only allowed to access to default tenant" );
     }
-    UserDetails user = userDetailsService.loadUserByUsername( userNameUtils.getPrincipleName( username ) );
+    final String principleName = userNameUtils.getPrincipleName( username );
+    return cached( rolesForUserCache, ROLES_FOR_USER_KEY + principleName, new Callable<List<String>>() {
+      public List<String> call() {
+        return loadRolesForUser( principleName );
+      }
+    } );
+  }
+
+  private List<String> loadRolesForUser( final String principleName ) {
+    UserDetails user = userDetailsService.loadUserByUsername( principleName );
     List<GrantedAuthority> results = Arrays.asList( user.getAuthorities() );
     List<String> roles = new ArrayList<String>( results.size() );
     for ( GrantedAuthority role : results ) {
@@ -163,28 +268,44 @@ public class DefaultLdapUserRoleListService implements IUserRoleListService, Ini
 
   public void setAllUsernamesSearch( final LdapSearch allUsernamesSearch ) {
     this.allUsernamesSearch = allUsernamesSearch;
+    clearCache();
   }
 
   public void setAllAuthoritiesSearch( final LdapSearch allAuthoritiesSearch ) {
     this.allAuthoritiesSearch = allAuthoritiesSearch;
+    clearCache();
   }
 
   public void setUsernamesInRoleSearch( final LdapSearch usernamesInRoleSearch ) {
     this.usernamesInRoleSearch = usernamesInRoleSearch;
+    clearCache();
+  }
+
+  public void setUsernamesStartingWithSearch( final LdapSearch usernamesStartingWithSearch ) {
+    this.usernamesStartingWithSearch = usernamesStartingWithSearch;
+    clearCache();
+  }
+
+  public void setAuthoritiesStartingWithSearch( final LdapSearch authoritiesStartingWithSearch ) {
+    this.authoritiesStartingWithSearch = authoritiesStartingWithSearch;
+    clearCache();
   }
 
   public void setUserDetailsService( final UserDetailsService userDetailsService ) {
     this.userDetailsService = userDetailsService;
+    clearCache();
   }
 
   public void setRoleComparator( final Comparator<String> roleComparator ) {
     Assert.notNull( roleComparator );
     this.roleComparator = roleComparator;
+    clearCache();
   }
 
   public void setUsernameComparator( final Comparator<String> usernameComparator ) {
     Assert.notNull( usernameComparator );
     this.usernameComparator = usernameComparator;
+    clearCache();
   }
 
   public ITenantedPrincipleNameResolver getUserNameUtils() {
@@ -230,9 +351,121 @@ public class DefaultLdapUserRoleListService implements IUserRoleListService, Ini
 
   public void setExtraRoles( List<String> extraRoles ) {
     this.extraRoles = extraRoles;
+    clearCache();
   }
 
   public List<String> getExtraRoles() {
     return extraRoles;
   }
+
+  /**
+   * Returns at most <code>limit</code> user names starting with <code>prefix</code>, ignoring case, in the order of
+   * {@link #getAllUsers()}. The prefix is passed on to the directory when a <code>usernamesStartingWithSearch</code>
+   * is set, otherwise the cached list of all users is filtered.
+   */
+  @Override
+  public List<String> getUsersStartingWith( final ITenant tenant, final String prefix, final int limit ) {
+    if ( usernamesStartingWithSearch == null || prefix == null || prefix.length() == 0 ) {
+      return startingWith( getAllUsers( tenant ), prefix, limit );
+    }
+    if ( tenant != null && !tenant.equals( JcrTenantUtils.getDefaultTenant() ) ) {
+      throw new UnsupportedOperationException( "only allowed to access to default tenant" );
+    }
+    List<String> users = cached( cache, USERS_STARTING_WITH_KEY + prefix.toLowerCase(), new Callable<List<String>>() {
+      public List<String> call() {
+        List<String> results = usernamesStartingWithSearch.search( new Object[] { prefix } );
+        if ( null != usernameComparator ) {
+          Collections.sort( results, usernameComparator );
+        }
+        return results;
+      }
+    } );
+    return startingWith( users, prefix, limit );
+  }
+
+  /**
+   * Returns at most <code>limit</code> role names starting with <code>prefix</code>, ignoring case, in the order of
+   * {@link #getAllRoles()}. The prefix is passed on to the directory when an
+   * <code>authoritiesStartingWithSearch</code> is set, otherwise the cached list of all roles is filtered.
+   */
+  @Override
+  public List<String> getRolesStartingWith( final ITenant tenant, final String prefix, final int limit ) {
+    if ( authoritiesStartingWithSearch == null || prefix == null || prefix.length() == 0 ) {
+      return startingWith( getAllRoles( tenant ), prefix, limit );
+    }
+    if ( tenant != null && !tenant.equals( JcrTenantUtils.getDefaultTenant() ) ) {
+      throw new UnsupportedOperationException( "only allowed to access to default tenant" );
+    }
+    List<String> roles = cached( cache, ROLES_STARTING_WITH_KEY + prefix.toLowerCase(), new Callable<List<String>>() {
+      public List<String> call() {
+        return toRoles( authoritiesStartingWithSearch.search( new Object[] { prefix } ) );
+      }
+    } );
+    return startingWith( roles, prefix, limit );
+  }
+
+  private static List<String> startingWith( final List<String> names, final String prefix, final int limit ) {
+    List<String> matches = new ArrayList<String>();
+    for ( String name : names ) {
+      if ( limit >= 0 && matches.size() >= limit ) {
+        break;
+      }
+      if ( prefix == null || name.regionMatches( true, 0, prefix, 0, prefix.length() ) ) {
+        matches.add( name );
+      }
+    }
+    return matches;
+  }
+
+  public long getCacheTimeToLive() {
+    return cacheTimeToLive;
+  }
+
+  /**
+   * Sets how long, in milliseconds, directory search results other than the roles of a user are served from the
+   * cache. Zero or less disables caching and searches the directory on every call.
+   */
+  public void setCacheTimeToLive( final long cacheTimeToLive ) {
+    this.cacheTimeToLive = cacheTimeToLive;
+    RefreshAheadCache<String, List<String>> previous = cache;
+    cache = createCache( cacheTimeToLive );
+    previous.shutdown();
+  }
+
+  public long getRolesForUserCacheTimeToLive() {
+    return rolesForUserCacheTimeToLive;
+  }
+
+  /**
+   * Sets how long, in milliseconds, the roles of a user are served from the cache, and so how long a role revoked in
+   * the directory may still be granted. Zero or less disables caching of user roles.
+   */
+  public void setRolesForUserCacheTimeToLive( final long rolesForUserCacheTimeToLive ) {
+    this.rolesForUserCacheTimeToLive = rolesForUserCacheTimeToLive;
+    RefreshAheadCache<String, List<String>> previous = rolesForUserCache;
+    rolesForUserCache = createCache( rolesForUserCacheTimeToLive );
+    previous.shutdown();
+  }
+
+  /**
+   * Drops every cached search result, so that the next calls see the current content of the directory.
+   */
+  public void clearCache() {
+    cache.clear();
+    rolesForUserCache.clear();
+  }
+
+  private static RefreshAheadCache<String, List<String>> createCache( final long timeToLive ) {
+    return new RefreshAheadCache<String, List<String>>( timeToLive, MAX_CACHED_LISTS );
+  }
+
+  private static List<String> cached( final RefreshAheadCache<String, List<String>> cache, final String key,
+      final Callable<List<String>> search ) {
+    List<String> results = cache.get( key, new Callable<List<String>>() {
+      public List<String> call() throws Exception {
+        return Collections.unmodifiableList( search.call() );
+      }
+    } );
+    return new ArrayList<String>( results );
+  }
 }
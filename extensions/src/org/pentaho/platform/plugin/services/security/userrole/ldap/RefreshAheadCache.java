@@ -0,0 +1,215 @@
+/*!
+ * This program is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License, version 2.1 as published by the Free Software
+ * Foundation.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with this
+ * program; if not, you can obtain a copy at http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+ * or from the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * Copyright (c) 2002-2013 Pentaho Corporation..  All rights reserved.
+ */
+
+package org.pentaho.platform.plugin.services.security.userrole.ldap;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A small time-bounded cache of directory lookups. An entry is loaded on first use and expires
+ * <code>timeToLive</code> milliseconds later. Once an entry has lived through {@link #REFRESH_AHEAD_FACTOR} of its
+ * time, the next read triggers a reload in the background while still answering from the cached value, so that
+ * frequently read entries are never waited on after the first load. Concurrent loads of one key share a single
+ * directory search. The least recently used entries are dropped beyond <code>maxEntries</code>.
+ *
+ * @param <K>
+ *          the key, such as a user or role name
+ * @param <V>
+ *          the cached value, which must not be modified once loaded
+ */
+class RefreshAheadCache<K, V> {
+
+  public static final double REFRESH_AHEAD_FACTOR = 0.75;
+
+  private static final Log logger = LogFactory.getLog( RefreshAheadCache.class );
+
+  /** how long the refresh thread of a cache waits for work before it ends */
+  private static final long REFRESH_THREAD_KEEP_ALIVE = 60000L;
+
+  private final Map<K, Entry<V>> entries;
+
+  private final ConcurrentMap<K, FutureTask<V>> loads = new ConcurrentHashMap<K, FutureTask<V>>();
+
+  private final long timeToLive;
+
+  /**
+   * Runs the background refreshes of this cache on at most one thread, which ends when idle so that an unused cache
+   * holds no thread. Stopped by {@link #shutdown()}.
+   */
+  private final ThreadPoolExecutor refreshExecutor;
+
+  /** bumped by {@link #clear()} so that loads started before it are not cached */
+  private int generation;
+
+  public RefreshAheadCache( final long timeToLive, final int maxEntries ) {
+    this.timeToLive = timeToLive;
+    this.refreshExecutor =
+        new ThreadPoolExecutor( 1, 1, REFRESH_THREAD_KEEP_ALIVE, TimeUnit.MILLISECONDS,
+            new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+              public Thread newThread( final Runnable r ) {
+                Thread thread = new Thread( r, "ldap-cache-refresh" ); //$NON-NLS-1$
+                thread.setDaemon( true );
+                return thread;
+              }
+            } );
+    this.refreshExecutor.allowCoreThreadTimeOut( true );
+    this.entries = new LinkedHashMap<K, Entry<V>>( 16, 0.75f, true ) {
+      private static final long serialVersionUID = 1L;
+
+      @Override
+      protected boolean removeEldestEntry( final Map.Entry<K, Entry<V>> eldest ) {
+        return size() > maxEntries;
+      }
+    };
+  }
+
+  /**
+   * Returns the cached value of <code>key</code>, loading it with <code>loader</code> if it is missing or expired.
+   * Runtime exceptions thrown by the loader are passed on and nothing is cached.
+   */
+  public V get( final K key, final Callable<V> loader ) {
+    if ( timeToLive <= 0 ) {
+      return call( loader );
+    }
+    Entry<V> entry;
+    synchronized ( entries ) {
+      entry = entries.get( key );
+    }
+    long now = System.currentTimeMillis();
+    if ( entry == null || now >= entry.expires ) {
+      return load( key, loader );
+    }
+    if ( now >= entry.refreshAt && !entry.refreshing ) {
+      entry.refreshing = true;
+      try {
+        refreshExecutor.execute( new Runnable() {
+          public void run() {
+            try {
+              load( key, loader );
+            } catch ( RuntimeException e ) {
+              logger.warn( "Refreshing the cached directory entries for " + key + " failed", e ); //$NON-NLS-1$ //$NON-NLS-2$
+            }
+          }
+        } );
+      } catch ( RejectedExecutionException e ) {
+        // shut down, the entry is reloaded by the first read after it expires
+        entry.refreshing = false;
+      }
+    }
+    return entry.value;
+  }
+
+  public void clear() {
+    synchronized ( entries ) {
+      entries.clear();
+      generation++;
+    }
+  }
+
+  /**
+   * Stops refreshing entries in the background and drops pending refreshes. Reads still work, loading expired entries
+   * on the calling thread.
+   */
+  public void shutdown() {
+    refreshExecutor.shutdownNow();
+  }
+
+  private V load( final K key, final Callable<V> loader ) {
+    FutureTask<V> task = new FutureTask<V>( loader );
+    FutureTask<V> running = loads.putIfAbsent( key, task );
+    if ( running == null ) {
+      running = task;
+      int loadGeneration;
+      synchronized ( entries ) {
+        loadGeneration = generation;
+      }
+      try {
+        task.run();
+        V value = task.get();
+        long now = System.currentTimeMillis();
+        synchronized ( entries ) {
+          if ( loadGeneration != generation ) {
+            return value;
+          }
+          entries.put( key, new Entry<V>( value, now + (long) ( timeToLive * REFRESH_AHEAD_FACTOR ), now
+              + timeToLive ) );
+        }
+      } catch ( Exception e ) {
+        // reported to every caller below
+      } finally {
+        loads.remove( key, task );
+      }
+    }
+    try {
+      return running.get();
+    } catch ( InterruptedException e ) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException( e );
+    } catch ( ExecutionException e ) {
+      throw propagate( e.getCause() );
+    }
+  }
+
+  private V call( final Callable<V> loader ) {
+    try {
+      return loader.call();
+    } catch ( Exception e ) {
+      throw propagate( e );
+    }
+  }
+
+  private RuntimeException propagate( final Throwable t ) {
+    if ( t instanceof RuntimeException ) {
+      return (RuntimeException) t;
+    }
+    if ( t instanceof Error ) {
+      throw (Error) t;
+    }
+    return new IllegalStateException( t );
+  }
+
+  private static class Entry<V> {
+
+    private final V value;
+
+    private final long refreshAt;
+
+    private final long expires;
+
+    private volatile boolean refreshing;
+
+    Entry( final V value, final long refreshAt, final long expires ) {
+      this.value = value;
+      this.refreshAt = refreshAt;
+      this.expires = expires;
+    }
+  }
+}
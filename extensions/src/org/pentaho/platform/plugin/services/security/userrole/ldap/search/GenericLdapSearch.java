@@ -26,7 +26,13 @@ import org.springframework.util.Assert;
 
 import javax.naming.NamingEnumeration;
 import javax.naming.NamingException;
+import javax.naming.directory.DirContext;
 import javax.naming.directory.SearchResult;
+import javax.naming.ldap.Control;
+import javax.naming.ldap.LdapContext;
+import javax.naming.ldap.PagedResultsControl;
+import javax.naming.ldap.PagedResultsResponseControl;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashSet;
@@ -38,6 +44,8 @@ public class GenericLdapSearch implements LdapSearch, InitializingBean {
   // ~ Static fields/initializers ============================================
   private static final Log logger = LogFactory.getLog( GenericLdapSearch.class );
 
+  public static final int DEFAULT_PAGE_SIZE = 500;
+
   // ~ Instance fields =======================================================
 
   /**
@@ -67,6 +75,12 @@ public class GenericLdapSearch implements LdapSearch, InitializingBean {
 
   private ContextSource contextSource;
 
+  /**
+   * Number of entries requested per page of results. Kept below the 1000 entry default size limit of Active
+   * Directory.
+   */
+  private int pageSize = DEFAULT_PAGE_SIZE;
+
   // ~ Constructors ==========================================================
 
   public GenericLdapSearch( final ContextSource contextSource, final LdapSearchParamsFactory paramsFactory ) {
@@ -98,18 +112,67 @@ public class GenericLdapSearch implements LdapSearch, InitializingBean {
     LdapSearchParams params = paramsFactory.createParams( transformedArgs );
     // use a set internally to store intermediate results
     Set results = new HashSet();
-    NamingEnumeration matches = null;
+    DirContext ctx = null;
     try {
-      matches =
-          contextSource.getReadOnlyContext().search( params.getBase(), params.getFilter(), params.getFilterArgs(),
-              params.getSearchControls() );
-    } catch ( NamingException e1 ) {
+      ctx = contextSource.getReadOnlyContext();
+      if ( pageSize > 0 && ctx instanceof LdapContext ) {
+        searchPaged( (LdapContext) ctx, params, results );
+      } else {
+        addResults( ctx.search( params.getBase(), params.getFilter(), params.getFilterArgs(), params
+            .getSearchControls() ), results );
+      }
+    } catch ( NamingException e ) {
       if ( GenericLdapSearch.logger.isErrorEnabled() ) {
         // TODO: Throw an exception here
-        GenericLdapSearch.logger.error( "Directory search failed", e1 ); //$NON-NLS-1$
+        GenericLdapSearch.logger.error( "Directory search failed", e ); //$NON-NLS-1$
+      }
+    } finally {
+      closeContext( ctx );
+    }
+    return new ArrayList( results );
+  }
+
+  /**
+   * Runs the search with the RFC 2696 paged results control, one page of <code>pageSize</code> entries at a time,
+   * so that directories enforcing a size limit (such as Active Directory's MaxPageSize) return every entry. The
+   * control is not critical: a server that does not support it answers with a single, possibly truncated, page. The
+   * request controls are cleared afterwards, as pooled contexts would otherwise carry them into unrelated searches.
+   */
+  private void searchPaged( final LdapContext ctx, final LdapSearchParams params, final Set results )
+    throws NamingException {
+    try {
+      byte[] cookie = null;
+      ctx.setRequestControls( new Control[] { new PagedResultsControl( pageSize, Control.NONCRITICAL ) } );
+      do {
+        addResults( ctx.search( params.getBase(), params.getFilter(), params.getFilterArgs(), params
+            .getSearchControls() ), results );
+        cookie = null;
+        Control[] responseControls = ctx.getResponseControls();
+        if ( responseControls != null ) {
+          for ( Control control : responseControls ) {
+            if ( control instanceof PagedResultsResponseControl ) {
+              cookie = ( (PagedResultsResponseControl) control ).getCookie();
+            }
+          }
+        }
+        if ( cookie != null && cookie.length > 0 ) {
+          ctx.setRequestControls( new Control[] { new PagedResultsControl( pageSize, cookie, Control.CRITICAL ) } );
+        }
+      } while ( cookie != null && cookie.length > 0 );
+    } catch ( IOException e ) {
+      NamingException namingException = new NamingException( e.getMessage() );
+      namingException.setRootCause( e );
+      throw namingException;
+    } finally {
+      try {
+        ctx.setRequestControls( null );
+      } catch ( NamingException e ) {
+        GenericLdapSearch.logger.debug( "Clearing the paged results control failed", e ); //$NON-NLS-1$
       }
-      return new ArrayList( results );
     }
+  }
+
+  private void addResults( final NamingEnumeration matches, final Set results ) {
     try {
       while ( matches.hasMore() ) {
         SearchResult result = (SearchResult) matches.next();
@@ -124,8 +187,35 @@ public class GenericLdapSearch implements LdapSearch, InitializingBean {
         // TODO: Throw an exception here
         GenericLdapSearch.logger.error( "Enumerating directory search results failed", e ); //$NON-NLS-1$
       }
+    } finally {
+      try {
+        matches.close();
+      } catch ( NamingException e ) {
+        GenericLdapSearch.logger.debug( "Closing directory search results failed", e ); //$NON-NLS-1$
+      }
     }
-    return new ArrayList( results );
+  }
+
+  private void closeContext( final DirContext ctx ) {
+    if ( ctx != null ) {
+      try {
+        ctx.close();
+      } catch ( NamingException e ) {
+        GenericLdapSearch.logger.debug( "Closing directory context failed", e ); //$NON-NLS-1$
+      }
+    }
+  }
+
+  public int getPageSize() {
+    return pageSize;
+  }
+
+  /**
+   * Sets the number of entries requested per page with the paged results control. Should not exceed the page size
+   * limit of the directory server. Zero or less disables paging.
+   */
+  public void setPageSize( final int pageSize ) {
+    this.pageSize = pageSize;
   }
 
   public void afterPropertiesSet() throws Exception {
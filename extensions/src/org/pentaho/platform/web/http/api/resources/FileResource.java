@@ -40,6 +40,7 @@ import org.pentaho.platform.engine.core.system.PentahoSessionHolder;
 import org.pentaho.platform.engine.core.system.PentahoSystem;
 import org.pentaho.platform.plugin.services.importexport.BaseExportProcessor;
 import org.pentaho.platform.plugin.services.importexport.DefaultExportHandler;
+import org.pentaho.platform.plugin.services.importexport.ExportException;
 import org.pentaho.platform.plugin.services.importexport.SimpleExportProcessor;
 import org.pentaho.platform.plugin.services.importexport.ZipExportProcessor;
 import org.pentaho.platform.repository.RepositoryDownloadWhitelist;
@@ -546,15 +547,34 @@ public class FileResource extends AbstractJaxRSResource {
       // add export handlers for each expected file type
       exportProcessor.addExportHandler( PentahoSystem.get( DefaultExportHandler.class ) );
 
-      File zipFile = exportProcessor.performExport( repositoryFile );
-      is = new FileInputStream( zipFile );
+      if ( exportProcessor instanceof ZipExportProcessor ) {
+        // write the zip straight to the response rather than to a temporary file first
+        final ZipExportProcessor zipExportProcessor = (ZipExportProcessor) exportProcessor;
+        final RepositoryFile exportRepositoryFile = repositoryFile;
+        final String exportFileName = quotedFileName;
+        streamingOutput = new StreamingOutput() {
+          public void write( OutputStream output ) throws IOException {
+            try {
+              zipExportProcessor.performExport( exportRepositoryFile, output );
+            } catch ( ExportException e ) {
+              // the response has already started, so all that can be done is to abort it
+              logger.error( Messages.getInstance().getString(
+                "FileResource.EXPORT_FAILED", exportFileName + " " + e.getMessage() ), e ); //$NON-NLS-1$
+              throw new IOException( e.getMessage() );
+            }
+          }
+        };
+      } else {
+        File zipFile = exportProcessor.performExport( repositoryFile );
+        is = new FileInputStream( zipFile );
 
-      // copy streaming output
-      streamingOutput = new StreamingOutput() {
-        public void write( OutputStream output ) throws IOException {
-          IOUtils.copy( is, output );
-        }
-      };
+        // copy streaming output
+        streamingOutput = new StreamingOutput() {
+          public void write( OutputStream output ) throws IOException {
+            IOUtils.copy( is, output );
+          }
+        };
+      }
 
       // create response
       response =
@@ -854,14 +874,12 @@ public class FileResource extends AbstractJaxRSResource {
 
       RepositoryFile workspaceFolder = getRepository().getFile( sessionResource.doGetCurrentUserDir() );
       if ( workspaceFolder != null ) {
-        List<RepositoryFile> children = getRepository().getChildren( workspaceFolder.getId() );
+        List<RepositoryFile> children =
+            getRepository().getChildrenByMetadata( workspaceFolder.getId(), PentahoJcrConstants.PHO_CONTENTCREATOR,
+                targetFileId );
         for ( RepositoryFile child : children ) {
           if ( !child.isFolder() ) {
-            Map<String, Serializable> fileMetadata = getRepository().getFileMetadata( child.getId() );
-            String creatorId = (String) fileMetadata.get( PentahoJcrConstants.PHO_CONTENTCREATOR );
-            if ( creatorId != null && creatorId.equals( targetFileId ) ) {
-              content.add( RepositoryFileAdapter.toFileDto( child ) );
-            }
+            content.add( RepositoryFileAdapter.toFileDto( child ) );
           }
         }
       }
@@ -882,14 +900,12 @@ public class FileResource extends AbstractJaxRSResource {
 
       RepositoryFile workspaceFolder = getRepository().getFile( sessionResource.doGetUserDir( user ) );
       if ( workspaceFolder != null ) {
-        List<RepositoryFile> children = getRepository().getChildren( workspaceFolder.getId() );
+        List<RepositoryFile> children =
+            getRepository().getChildrenByMetadata( workspaceFolder.getId(), PentahoJcrConstants.PHO_CONTENTCREATOR,
+                targetFileId );
         for ( RepositoryFile child : children ) {
           if ( !child.isFolder() ) {
-            Map<String, Serializable> fileMetadata = getRepository().getFileMetadata( child.getId() );
-            String creatorId = (String) fileMetadata.get( PentahoJcrConstants.PHO_CONTENTCREATOR );
-            if ( creatorId != null && creatorId.equals( targetFileId ) ) {
-              content.add( RepositoryFileAdapter.toFileDto( child ) );
-            }
+            content.add( RepositoryFileAdapter.toFileDto( child ) );
           }
         }
       }
@@ -905,14 +921,12 @@ public class FileResource extends AbstractJaxRSResource {
     SessionResource sessionResource = new SessionResource();
     RepositoryFile workspaceFolder = getRepository().getFile( sessionResource.doGetCurrentUserDir() );
     if ( workspaceFolder != null ) {
-      List<RepositoryFile> children = getRepository().getChildren( workspaceFolder.getId() );
+      List<RepositoryFile> children =
+          getRepository().getChildrenByMetadata( workspaceFolder.getId(), QuartzScheduler.RESERVEDMAPKEY_LINEAGE_ID,
+              lineageId );
       for ( RepositoryFile child : children ) {
         if ( !child.isFolder() ) {
-          Map<String, Serializable> fileMetadata = getRepository().getFileMetadata( child.getId() );
-          String lineageIdMeta = (String) fileMetadata.get( QuartzScheduler.RESERVEDMAPKEY_LINEAGE_ID );
-          if ( lineageIdMeta != null && lineageIdMeta.equals( lineageId ) ) {
-            content.add( RepositoryFileAdapter.toFileDto( child ) );
-          }
+          content.add( RepositoryFileAdapter.toFileDto( child ) );
         }
       }
     }
@@ -963,9 +977,16 @@ public class FileResource extends AbstractJaxRSResource {
     collator.setStrength( Collator.PRIMARY ); // ignore case
     sortByLocaleTitle( collator, tree );
 
+    // read the metadata of all children at once instead of one repository call per child
+    List<Serializable> childIds = new ArrayList<Serializable>( tree.getChildren().size() );
     for ( RepositoryFileTreeDto child : tree.getChildren() ) {
-      RepositoryFileDto file = child.getFile();
-      Map<String, Serializable> fileMeta = getRepository().getFileMetadata( file.getId() );
+      childIds.add( child.getFile().getId() );
+    }
+    List<Map<String, Serializable>> childMetadata = getRepository().getFileMetadataInBatch( childIds );
+
+    for ( int i = 0; i < tree.getChildren().size(); i++ ) {
+      RepositoryFileTreeDto child = tree.getChildren().get( i );
+      Map<String, Serializable> fileMeta = childMetadata.get( i );
       boolean isSystemFolder =
           fileMeta.containsKey( IUnifiedRepository.SYSTEM_FOLDER ) ? (Boolean) fileMeta
               .get( IUnifiedRepository.SYSTEM_FOLDER ) : false;
@@ -32,6 +32,7 @@ import org.pentaho.platform.api.scheduler2.IJobFilter;
 import org.pentaho.platform.api.scheduler2.IJobTrigger;
 import org.pentaho.platform.api.scheduler2.IScheduler;
 import org.pentaho.platform.api.scheduler2.Job;
+import org.pentaho.platform.api.scheduler2.JobQuery;
 import org.pentaho.platform.api.scheduler2.SchedulerException;
 import org.pentaho.platform.engine.core.system.PentahoSessionHolder;
 import org.pentaho.platform.engine.core.system.PentahoSystem;
@@ -214,16 +215,13 @@ public class SchedulerResource extends AbstractJaxRSResource {
                                                       // changed to get name via the current session
       final Boolean canAdminister = canAdminister( session );
 
-      List<Job> jobs = scheduler.getJobs( new IJobFilter() {
-        public boolean accept( Job job ) {
-          String actionClass = (String) job.getJobParams().get( "ActionAdapterQuartzJob-ActionClass" );
-          if ( canAdminister && "org.pentaho.platform.admin.GeneratedContentCleaner".equals( actionClass ) ) {
-            return true;
-          }
-          return principalName.equals( job.getUserName() )
-              && "org.pentaho.platform.admin.GeneratedContentCleaner".equals( actionClass );
-        }
-      } );
+      JobQuery query = new JobQuery();
+      query.setActionClass( "org.pentaho.platform.admin.GeneratedContentCleaner" ); //$NON-NLS-1$
+      if ( !canAdminister ) {
+        query.setUserName( principalName );
+      }
+      query.setLimit( 1 );
+      List<Job> jobs = scheduler.queryJobs( query );
 
       if ( jobs.size() > 0 ) {
         return jobs.get( 0 );
@@ -244,15 +242,17 @@ public class SchedulerResource extends AbstractJaxRSResource {
                                                       // changed to get name via the current session
       final Boolean canAdminister = canAdminister( session );
 
-      List<Job> jobs = scheduler.getJobs( new IJobFilter() {
-        public boolean accept( Job job ) {
-          if ( canAdminister ) {
+      JobQuery query = new JobQuery();
+      if ( canAdminister ) {
+        query.setFilter( new IJobFilter() {
+          public boolean accept( Job job ) {
             return !IBlockoutManager.BLOCK_OUT_JOB_NAME.equals( job.getJobName() );
           }
-          return principalName.equals( job.getUserName() );
-        }
-      } );
-      return jobs;
+        } );
+      } else {
+        query.setUserName( principalName );
+      }
+      return scheduler.queryJobs( query );
     } catch ( SchedulerException e ) {
       throw new RuntimeException( e );
     }
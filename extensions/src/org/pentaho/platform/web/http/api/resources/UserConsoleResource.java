@@ -181,6 +181,10 @@ public class UserConsoleResource extends AbstractJaxRSResource {
     List<MondrianCatalog> catalogs = mondrianCatalogService.listCatalogs( getPentahoSession(), true );
 
     for ( MondrianCatalog cat : catalogs ) {
+      // schemas are parsed on first use, one that fails to parse has no cubes to list
+      if ( cat.getSchema() == null ) {
+        continue;
+      }
       for ( MondrianCube cube : cat.getSchema().getCubes() ) {
         cubes.add( new Cube( cat.getName(), cube.getName(), cube.getId() ) );
       }
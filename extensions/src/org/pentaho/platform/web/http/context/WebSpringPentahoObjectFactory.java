@@ -66,7 +66,7 @@ public class WebSpringPentahoObjectFactory extends AbstractSpringPentahoObjectFa
 
     ServletContext servletContext = (ServletContext) context;
 
-    beanFactory =
-        (XmlWebApplicationContext) WebApplicationContextUtils.getRequiredWebApplicationContext( servletContext );
+    setBeanFactory( (XmlWebApplicationContext) WebApplicationContextUtils
+        .getRequiredWebApplicationContext( servletContext ) );
   }
 }
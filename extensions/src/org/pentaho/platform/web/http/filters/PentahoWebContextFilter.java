@@ -17,11 +17,14 @@
 
 package org.pentaho.platform.web.http.filters;
 
+import org.apache.commons.codec.binary.Hex;
 import org.apache.commons.lang.StringUtils;
 import org.owasp.esapi.ESAPI;
 import org.owasp.esapi.Encoder;
 import org.pentaho.platform.api.engine.IPentahoRequestContext;
 import org.pentaho.platform.api.engine.IPluginManager;
+import org.pentaho.platform.api.engine.IPluginManagerListener;
+import org.pentaho.platform.api.engine.IPluginManagerListenerSupport;
 import org.pentaho.platform.engine.core.system.PentahoRequestContextHolder;
 import org.pentaho.platform.engine.core.system.PentahoSessionHolder;
 import org.pentaho.platform.engine.core.system.PentahoSystem;
@@ -36,15 +39,26 @@ import javax.servlet.ServletRequest;
 import javax.servlet.ServletResponse;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.zip.GZIPOutputStream;
 
 /**
  * If the request is searching for a webcontext.js, it writes out the content of the webcontext.js
+ * <p>
+ * The resources contributed by plugins for each context are rendered once per plugin manager reload and kept as
+ * templates into which the query string of the request is spliced. The response carries a strong ETag over its
+ * content, so that unchanged scripts are answered with a 304, and is gzipped for clients accepting it.
  * 
  * @author Ramaiz Mansoor
  * 
@@ -68,13 +82,35 @@ public class PentahoWebContextFilter implements Filter {
   private static final byte[] REQUIRE_JS_CFG_START =
       "var requireCfg = {waitSeconds: 30, paths: {}, shim: {}};\n".getBytes(); //$NON-NLS-1$
   private static final String REQUIRE_JS = "requirejs"; //$NON-NLS-1$
-  // Changed to not do so much work for every request
-  private static final ThreadLocal<byte[]> THREAD_LOCAL_CONTEXT_PATH = new ThreadLocal<byte[]>();
-  private static final ThreadLocal<byte[]> THREAD_LOCAL_REQUIRE_SCRIPT = new ThreadLocal<byte[]>();
+  private static final String ENCODING = "UTF-8"; //$NON-NLS-1$
+  private static final String GZIP = "gzip"; //$NON-NLS-1$
+  // Responses smaller than this are not worth compressing
+  private static final int MIN_GZIP_SIZE = 1024;
+  // Context names come from the request, so only so many of them get a cached template
+  private static final int MAX_CACHED_TEMPLATES = 256;
+
+  /**
+   * Resources of each context, keyed by context name and css-only flag. Each template holds the text between the
+   * places where the query string of the request goes. Replaced with an empty map when the plugins are reloaded.
+   */
+  private volatile ConcurrentMap<String, String[]> resourceTemplates = new ConcurrentHashMap<String, String[]>();
+
+  private volatile IPluginManager listenedPluginManager;
+
+  private final IPluginManagerListener reloadListener = new IPluginManagerListener() {
+    public void onReload() {
+      resourceTemplates = new ConcurrentHashMap<String, String[]>();
+    }
+  };
 
   public void destroy() {
-    // TODO Auto-generated method stub
-
+    synchronized ( this ) {
+      if ( listenedPluginManager instanceof IPluginManagerListenerSupport ) {
+        ( (IPluginManagerListenerSupport) listenedPluginManager ).removePluginManagerListener( reloadListener );
+      }
+      listenedPluginManager = null;
+      resourceTemplates = new ConcurrentHashMap<String, String[]>();
+    }
   }
 
   protected void close( OutputStream out ) {
@@ -100,34 +136,18 @@ public class PentahoWebContextFilter implements Filter {
       IPentahoRequestContext requestContext = PentahoRequestContextHolder.getRequestContext();
       String contextPath = requestContext.getContextPath();
       try {
-        response.setContentType( "text/javascript" ); //$NON-NLS-1$
-        OutputStream out = response.getOutputStream();
+        ByteArrayOutputStream out = new ByteArrayOutputStream( 8192 );
         out.write( initialCommentBytes );
-        byte[] contextPathBytes = THREAD_LOCAL_CONTEXT_PATH.get();
-        byte[] requireScriptBytes = THREAD_LOCAL_REQUIRE_SCRIPT.get();
-        if ( contextPathBytes == null ) {
-          String webContext = "var CONTEXT_PATH = '" + contextPath + "';\n\n"; //$NON-NLS-1$ //$NON-NLS-2$
-          contextPathBytes = webContext.getBytes();
-          THREAD_LOCAL_CONTEXT_PATH.set( contextPathBytes );
-          if ( requireScriptBytes == null ) {
-            String requireScript =
-                "document.write(\"<script type='text/javascript' src='" + contextPath + "js/require.js'></scr\"+\"ipt>\");\n" + //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
-                    "document.write(\"<script type=\'text/javascript\' src='" + contextPath
-                    + "js/require-cfg.js'></scr\"+\"ipt>\");\n"; //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
-            requireScriptBytes = requireScript.getBytes();
-            THREAD_LOCAL_REQUIRE_SCRIPT.set( requireScriptBytes );
-          }
-        }
 
         String basicAuthFlag = (String) httpRequest.getSession().getAttribute( "BasicAuth" );
         if ( basicAuthFlag != null && basicAuthFlag.equals( "true" ) ) {
           out.write( ( "document.write(\"<script type='text/javascript' src='"
             + contextPath + "js/postAuth.js'></scr\"+\"ipt>\");\n" )
-              .getBytes( "UTF-8" ) );
+              .getBytes( ENCODING ) );
         }
 
-        out.write( contextPathBytes );
-        out.write( fullyQualifiedUrl.getBytes() );
+        out.write( ( "var CONTEXT_PATH = '" + contextPath + "';\n\n" ).getBytes( ENCODING ) ); //$NON-NLS-1$ //$NON-NLS-2$
+        out.write( fullyQualifiedUrl.getBytes( ENCODING ) );
         // Compute the effective locale and set it in the global scope. Also provide it as a module if the RequireJs
         // system is available.
         Locale effectiveLocale = LocaleHelper.getLocale();
@@ -135,32 +155,38 @@ public class PentahoWebContextFilter implements Filter {
           effectiveLocale = new Locale( request.getParameter( "locale" ) );
         }
 
+        String queryString = getEncodedQueryString( httpRequest );
+
         // setup the RequireJS config object for plugins to extend
         out.write( REQUIRE_JS_CFG_START );
 
         // Let all plugins contribute to the RequireJS config
-        printResourcesForContext( REQUIRE_JS, out, httpRequest, false );
+        printResourcesForContext( REQUIRE_JS, out, queryString, false );
 
-        out.write( requireScriptBytes );
+        String requireScript =
+            "document.write(\"<script type='text/javascript' src='" + contextPath + "js/require.js'></scr\"+\"ipt>\");\n" + //$NON-NLS-1$ //$NON-NLS-2$
+                "document.write(\"<script type=\'text/javascript\' src='" + contextPath
+                + "js/require-cfg.js'></scr\"+\"ipt>\");\n"; //$NON-NLS-1$ //$NON-NLS-2$
+        out.write( requireScript.getBytes( ENCODING ) );
 
         printSessionName( out );
         printLocale( effectiveLocale, out );
         printHomeFolder( out );
 
         // print global resources defined in plugins
-        printResourcesForContext( GLOBAL, out, httpRequest, false );
+        printResourcesForContext( GLOBAL, out, queryString, false );
 
         // print out external-resources defined in plugins if a context has been passed in
         String contextName = request.getParameter( CONTEXT );
         boolean cssOnly = "true".equals( request.getParameter( "cssOnly" ) );
         if ( StringUtils.isNotEmpty( contextName ) ) {
-          printResourcesForContext( contextName, out, httpRequest, cssOnly );
+          printResourcesForContext( contextName, out, queryString, cssOnly );
         }
 
         // Any subclass can add more information to webcontext.js
         addCustomInfo( out );
 
-        out.close();
+        writeResponse( httpRequest, httpResponse, out.toByteArray() );
         return;
       } finally {
         httpRequest.removeAttribute( FILTER_APPLIED );
@@ -171,6 +197,97 @@ public class PentahoWebContextFilter implements Filter {
     }
   }
 
+  /**
+   * Writes the script, or a 304 if the client already holds it, gzipped if the client accepts it. The ETag is computed
+   * over the uncompressed script and tagged with the encoding, so each representation has its own strong validator.
+   */
+  private void writeResponse( HttpServletRequest request, HttpServletResponse response, byte[] content )
+    throws IOException {
+    String acceptEncoding = request.getHeader( "Accept-Encoding" ); //$NON-NLS-1$
+    boolean gzip = content.length >= MIN_GZIP_SIZE && acceptsGzip( acceptEncoding );
+    String etag = "\"" + digest( content ) + ( gzip ? "-" + GZIP : "" ) + "\""; //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$
+
+    response.setContentType( "text/javascript" ); //$NON-NLS-1$
+    response.setCharacterEncoding( ENCODING );
+    // the script holds the session's user name and locale, so only the browser may keep it, and must revalidate it
+    response.setHeader( "Cache-Control", "private, no-cache" ); //$NON-NLS-1$ //$NON-NLS-2$
+    response.setHeader( "Vary", "Accept-Encoding" ); //$NON-NLS-1$ //$NON-NLS-2$
+    response.setHeader( "ETag", etag ); //$NON-NLS-1$
+
+    if ( matches( request.getHeader( "If-None-Match" ), etag ) ) { //$NON-NLS-1$
+      response.setStatus( HttpServletResponse.SC_NOT_MODIFIED );
+      return;
+    }
+
+    if ( gzip ) {
+      ByteArrayOutputStream compressed = new ByteArrayOutputStream( content.length / 3 );
+      GZIPOutputStream gzipOut = new GZIPOutputStream( compressed );
+      gzipOut.write( content );
+      gzipOut.close();
+      content = compressed.toByteArray();
+      response.setHeader( "Content-Encoding", GZIP ); //$NON-NLS-1$
+    }
+    response.setContentLength( content.length );
+    OutputStream out = response.getOutputStream();
+    out.write( content );
+    out.close();
+  }
+
+  /**
+   * Whether an Accept-Encoding header allows gzip: listed as gzip or x-gzip, or covered by <code>*</code>, with a
+   * quality value above zero. <code>gzip;q=0</code> explicitly refuses it.
+   */
+  static boolean acceptsGzip( String acceptEncoding ) {
+    if ( acceptEncoding == null ) {
+      return false;
+    }
+    float gzipQuality = -1;
+    float anyQuality = -1;
+    for ( String coding : acceptEncoding.split( "," ) ) { //$NON-NLS-1$
+      String[] params = coding.split( ";" ); //$NON-NLS-1$
+      String name = params[0].trim().toLowerCase();
+      float quality = 1;
+      for ( int i = 1; i < params.length; i++ ) {
+        String param = params[i].trim();
+        if ( param.startsWith( "q=" ) || param.startsWith( "Q=" ) ) { //$NON-NLS-1$ //$NON-NLS-2$
+          try {
+            quality = Float.parseFloat( param.substring( 2 ).trim() );
+          } catch ( NumberFormatException e ) {
+            quality = 0;
+          }
+        }
+      }
+      if ( GZIP.equals( name ) || "x-gzip".equals( name ) ) { //$NON-NLS-1$
+        gzipQuality = Math.max( gzipQuality, quality );
+      } else if ( "*".equals( name ) ) { //$NON-NLS-1$
+        anyQuality = quality;
+      }
+    }
+    return ( gzipQuality >= 0 ? gzipQuality : anyQuality ) > 0;
+  }
+
+  private static boolean matches( String ifNoneMatch, String etag ) {
+    if ( ifNoneMatch == null ) {
+      return false;
+    }
+    for ( String candidate : ifNoneMatch.split( "," ) ) { //$NON-NLS-1$
+      candidate = candidate.trim();
+      if ( candidate.equals( etag ) || candidate.equals( "*" ) ) { //$NON-NLS-1$
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static String digest( byte[] content ) {
+    try {
+      return new String( Hex.encodeHex( MessageDigest.getInstance( "MD5" ).digest( content ) ) ); //$NON-NLS-1$
+    } catch ( NoSuchAlgorithmException e ) {
+      // every JRE ships MD5
+      throw new IllegalStateException( e );
+    }
+  }
+
   private void printHomeFolder( OutputStream out ) throws IOException {
     StringBuilder sb = new StringBuilder( "<!-- Providing home folder location for UI defaults -->\n" );
     if ( PentahoSessionHolder.getSession() != null ) {
@@ -179,7 +296,7 @@ public class PentahoWebContextFilter implements Filter {
     } else {
       sb.append( "var HOME_FOLDER = null;\n" ); // Global variable
     }
-    out.write( sb.toString().getBytes() );
+    out.write( sb.toString().getBytes( ENCODING ) );
   }
 
   private void printSessionName( OutputStream out ) throws IOException {
@@ -189,7 +306,7 @@ public class PentahoWebContextFilter implements Filter {
     } else {
       sb.append( "var SESSION_NAME = '" + PentahoSessionHolder.getSession().getName() + "';\n" ); // Global variable
     }
-    out.write( sb.toString().getBytes() );
+    out.write( sb.toString().getBytes( ENCODING ) );
   }
 
   private void printLocale( Locale effectiveLocale, OutputStream out ) throws IOException {
@@ -200,16 +317,14 @@ public class PentahoWebContextFilter implements Filter {
             .append(
               "if(typeof(pen) != 'undefined' && pen.define){pen.define('Locale', {locale:'"
                 + effectiveLocale.toString() + "'})};" );
-    out.write( sb.toString().getBytes() );
+    out.write( sb.toString().getBytes( ENCODING ) );
   }
 
-  private void printResourcesForContext( String contextName, OutputStream out, HttpServletRequest request,
-      boolean printCssOnly ) throws IOException {
-
-    IPluginManager pluginManager = PentahoSystem.get( IPluginManager.class );
+  /**
+   * Returns the parameters of the request as a query string, appended to the url of every resource.
+   */
+  private String getEncodedQueryString( HttpServletRequest req ) {
     Encoder encoder = ESAPI.encoder();
-
-    HttpServletRequest req = ( (HttpServletRequest) request );
     String reqStr = "";
     Map paramMap = req.getParameterMap();
 
@@ -234,11 +349,44 @@ public class PentahoWebContextFilter implements Filter {
       }
       reqStr = sb.toString(); // get the request string.
     }
+    return reqStr;
+  }
+
+  private void printResourcesForContext( String contextName, OutputStream out, String queryString,
+      boolean printCssOnly ) throws IOException {
+    String[] template = getResourceTemplate( contextName, printCssOnly );
+    StringBuilder sb = new StringBuilder( template[0] );
+    for ( int i = 1; i < template.length; i++ ) {
+      sb.append( queryString ).append( template[i] );
+    }
+    out.write( sb.toString().getBytes( ENCODING ) );
+  }
+
+  private String[] getResourceTemplate( String contextName, boolean printCssOnly ) {
+    IPluginManager pluginManager = PentahoSystem.get( IPluginManager.class );
+    listenTo( pluginManager );
+    ConcurrentMap<String, String[]> templates = resourceTemplates;
+    String key = printCssOnly ? CSS + ":" + contextName : contextName; //$NON-NLS-1$
+    String[] template = templates.get( key );
+    if ( template == null ) {
+      template = createResourceTemplate( pluginManager, contextName, printCssOnly );
+      // without reload notifications a cached template could go stale
+      if ( pluginManager instanceof IPluginManagerListenerSupport && templates.size() < MAX_CACHED_TEMPLATES ) {
+        templates.put( key, template );
+      }
+    }
+    return template;
+  }
+
+  private String[] createResourceTemplate( IPluginManager pluginManager, String contextName,
+      boolean printCssOnly ) {
+    Encoder encoder = ESAPI.encoder();
+    List<String> template = new ArrayList<String>();
 
     List<String> externalResources = pluginManager.getExternalResourcesForContext( contextName );
-    out.write( ( "<!-- Injecting web resources defined in by plugins as external-resources for: "
-      + encoder.encodeForHTML(
-          contextName ) + "-->\n" ).getBytes() ); //$NON-NLS-1$ //$NON-NLS-2$
+    StringBuilder sb =
+        new StringBuilder( "<!-- Injecting web resources defined in by plugins as external-resources for: "
+          + encoder.encodeForHTML( contextName ) + "-->\n" ); //$NON-NLS-1$ //$NON-NLS-2$
     if ( externalResources != null ) {
 
       for ( String res : externalResources ) {
@@ -246,15 +394,40 @@ public class PentahoWebContextFilter implements Filter {
           continue;
         }
         if ( res.endsWith( JS ) && !printCssOnly ) {
-          out.write( ( "document.write(\"<script language='javascript' type='text/javascript' src='\"+CONTEXT_PATH + \"" + res.trim() + reqStr + "'></scr\"+\"ipt>\");\n" //$NON-NLS-1$ //$NON-NLS-2$
-            ).getBytes() );
+          sb.append( "document.write(\"<script language='javascript' type='text/javascript' src='\"+CONTEXT_PATH + \"" + res.trim() ); //$NON-NLS-1$
+          template.add( sb.toString() );
+          sb = new StringBuilder( "'></scr\"+\"ipt>\");\n" ); //$NON-NLS-1$
         } else if ( res.endsWith( CSS ) ) {
-          out.write( ( "document.write(\"<link rel='stylesheet' type='text/css' href='\"+CONTEXT_PATH + \"" + res.trim() + reqStr + "'/>\");\n" //$NON-NLS-1$ //$NON-NLS-2$
-            ).getBytes() );
+          sb.append( "document.write(\"<link rel='stylesheet' type='text/css' href='\"+CONTEXT_PATH + \"" + res.trim() ); //$NON-NLS-1$
+          template.add( sb.toString() );
+          sb = new StringBuilder( "'/>\");\n" ); //$NON-NLS-1$
         }
       }
     }
+    template.add( sb.toString() );
+    return template.toArray( new String[template.size()] );
+  }
 
+  /**
+   * Drops the cached templates whenever the plugins, and so their external resources, are reloaded. The listener is
+   * removed again in {@link #destroy()}.
+   */
+  private void listenTo( IPluginManager pluginManager ) {
+    if ( pluginManager == listenedPluginManager ) {
+      return;
+    }
+    synchronized ( this ) {
+      if ( pluginManager != listenedPluginManager ) {
+        if ( listenedPluginManager instanceof IPluginManagerListenerSupport ) {
+          ( (IPluginManagerListenerSupport) listenedPluginManager ).removePluginManagerListener( reloadListener );
+        }
+        if ( pluginManager instanceof IPluginManagerListenerSupport ) {
+          ( (IPluginManagerListenerSupport) pluginManager ).addPluginManagerListener( reloadListener );
+        }
+        resourceTemplates = new ConcurrentHashMap<String, String[]>();
+        listenedPluginManager = pluginManager;
+      }
+    }
   }
 
   protected void addCustomInfo( OutputStream out ) throws IOException {
@@ -22,29 +22,82 @@ import com.google.gwt.user.client.rpc.SerializationException;
 import com.google.gwt.user.server.rpc.RPC;
 import com.google.gwt.user.server.rpc.RPCRequest;
 import com.google.gwt.user.server.rpc.RemoteServiceServlet;
+import com.google.gwt.user.server.rpc.SerializationPolicy;
+import com.google.gwt.user.server.rpc.SerializationPolicyProvider;
 import com.google.gwt.user.server.rpc.impl.StandardSerializationPolicy;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.pentaho.platform.api.engine.IPluginManager;
+import org.pentaho.platform.api.engine.IPluginManagerListener;
+import org.pentaho.platform.api.engine.IPluginManagerListenerSupport;
+import org.pentaho.platform.engine.core.system.PentahoSystem;
 import org.pentaho.platform.web.servlet.messages.Messages;
 
 import javax.servlet.http.HttpServletRequest;
 import java.lang.reflect.Method;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 @SuppressWarnings( "serial" )
 /**
  * Base class for GWT RPC proxying servlets, which allows developers to write GWT Services as Pojos and have 
  * the GWT client POST requests to subclasses of this class.
+ * <p>
+ * Dispatch targets, the target methods they resolve to and serialization policies are cached by the servlet and
+ * dropped whenever the plugins are reloaded. The time spent in each RPC method is recorded and can be read through
+ * {@link #getMethodStatistics()}.
  */
 public abstract class AbstractGwtRpcProxyServlet extends RemoteServiceServlet {
 
   private static final Log logger = LogFactory.getLog( AbstractGwtRpcProxyServlet.class );
 
+  /**
+   * The policy used to encode a failure to resolve the dispatch target, before any request has been decoded.
+   */
+  private static final SerializationPolicy FAILURE_POLICY = createFailurePolicy();
+
+  private static final ConcurrentMap<String, MethodStatistics> methodStatistics =
+      new ConcurrentHashMap<String, MethodStatistics>();
+
+  private final ConcurrentMap<String, DispatchTarget> dispatchTargets = new ConcurrentHashMap<String, DispatchTarget>();
+
+  private final ConcurrentMap<String, SerializationPolicy> serializationPolicies =
+      new ConcurrentHashMap<String, SerializationPolicy>();
+
+  private final SerializationPolicyProvider serializationPolicyProvider = new SerializationPolicyProvider() {
+    public SerializationPolicy getSerializationPolicy( String moduleBaseURL, String strongName ) {
+      return getCachedSerializationPolicy( moduleBaseURL, strongName );
+    }
+  };
+
+  private volatile IPluginManager listenedPluginManager;
+
+  private final IPluginManagerListener reloadListener = new IPluginManagerListener() {
+    public void onReload() {
+      clearCaches();
+    }
+  };
+
   public AbstractGwtRpcProxyServlet() {
     super();
   }
 
+  @Override
+  public void destroy() {
+    synchronized ( this ) {
+      if ( listenedPluginManager instanceof IPluginManagerListenerSupport ) {
+        ( (IPluginManagerListenerSupport) listenedPluginManager ).removePluginManagerListener( reloadListener );
+      }
+      listenedPluginManager = null;
+      clearCaches();
+    }
+    super.destroy();
+  }
+
   /**
    * Resolve the target impl that ultimately handles the GWT RPC request, provided a key.
    * 
@@ -93,24 +146,131 @@ public abstract class AbstractGwtRpcProxyServlet extends RemoteServiceServlet {
     return path;
   }
 
+  /**
+   * Returns the dispatch target for a service path, resolving it through
+   * {@link #resolveDispatchTarget(String)} the first time the path is requested.
+   * 
+   * @param servletContextPath
+   *          the portion of the http request path beyond the servlet context
+   * @return the dispatch target, with the methods already resolved against it
+   * @throws GwtRpcProxyException
+   *           if no target can be found
+   */
+  protected DispatchTarget getDispatchTarget( String servletContextPath ) {
+    DispatchTarget dispatchTarget = dispatchTargets.get( servletContextPath );
+    if ( dispatchTarget == null ) {
+      Object target = resolveDispatchTarget( servletContextPath );
+      dispatchTarget = new DispatchTarget( target );
+      if ( target != null ) {
+        DispatchTarget existing = dispatchTargets.putIfAbsent( servletContextPath, dispatchTarget );
+        if ( existing != null ) {
+          dispatchTarget = existing;
+        }
+      }
+    }
+    return dispatchTarget;
+  }
+
+  /**
+   * Returns the key under which the serialization policy for a request is cached, or <code>null</code> if the policy
+   * should not be cached. By default policies are cached per module base URL and strong name.
+   * 
+   * @param request
+   *          the request being served, may be <code>null</code>
+   * @param moduleBaseURL
+   *          the base URL of the GWT module sending the request
+   * @param strongName
+   *          the strong name of the serialization policy
+   * @return the cache key
+   */
+  protected String getSerializationPolicyKey( HttpServletRequest request, String moduleBaseURL, String strongName ) {
+    return moduleBaseURL + '\t' + strongName;
+  }
+
+  /**
+   * Returns the serialization policy for a module, loading it through
+   * {@link #doGetSerializationPolicy(HttpServletRequest, String, String)} if it is not cached yet. When no policy
+   * can be found, the default serialization policy applies and is cached in its place, so the lookup is not
+   * repeated until the plugins are reloaded.
+   * 
+   * @param moduleBaseURL
+   *          the base URL of the GWT module sending the request
+   * @param strongName
+   *          the strong name of the serialization policy
+   * @return the serialization policy, never <code>null</code>
+   */
+  protected SerializationPolicy getCachedSerializationPolicy( String moduleBaseURL, String strongName ) {
+    HttpServletRequest request = getThreadLocalRequest();
+    String key = getSerializationPolicyKey( request, moduleBaseURL, strongName );
+    SerializationPolicy policy = key == null ? null : serializationPolicies.get( key );
+    if ( policy == null ) {
+      policy = doGetSerializationPolicy( request, moduleBaseURL, strongName );
+      if ( policy == null ) {
+        policy = RPC.getDefaultSerializationPolicy();
+      }
+      if ( key != null ) {
+        SerializationPolicy existing = serializationPolicies.putIfAbsent( key, policy );
+        if ( existing != null ) {
+          policy = existing;
+        }
+      }
+    }
+    return policy;
+  }
+
+  /**
+   * Drops the cached dispatch targets, target methods and serialization policies. Called whenever the plugins are
+   * reloaded.
+   */
+  public void clearCaches() {
+    dispatchTargets.clear();
+    serializationPolicies.clear();
+  }
+
+  /**
+   * Registers this servlet with the plugin manager, so that its caches are dropped when the plugins are reloaded.
+   * 
+   * @return false if the plugin manager does not report reloads, in which case nothing may stay cached
+   */
+  private boolean listenForPluginReloads() {
+    IPluginManager pluginManager = listenedPluginManager;
+    if ( pluginManager == null ) {
+      pluginManager = PentahoSystem.get( IPluginManager.class );
+      if ( pluginManager == null ) {
+        return false;
+      }
+      synchronized ( this ) {
+        if ( listenedPluginManager == null ) {
+          if ( pluginManager instanceof IPluginManagerListenerSupport ) {
+            ( (IPluginManagerListenerSupport) pluginManager ).addPluginManagerListener( reloadListener );
+          }
+          clearCaches();
+          listenedPluginManager = pluginManager;
+        }
+        pluginManager = listenedPluginManager;
+      }
+    }
+    return pluginManager instanceof IPluginManagerListenerSupport;
+  }
+
   @Override
   public String processCall( String payload ) throws SerializationException {
-    Map<Class<?>, Boolean> whitelist = new HashMap<Class<?>, Boolean>();
-    whitelist.put( GwtRpcProxyException.class, Boolean.TRUE );
-    Map<Class<?>, String> obfuscatedTypeIds = new HashMap<Class<?>, String>();
-    StandardSerializationPolicy policy = new StandardSerializationPolicy( whitelist, whitelist, obfuscatedTypeIds );
+    if ( !listenForPluginReloads() ) {
+      clearCaches();
+    }
 
     String servletContextPath = getServletContextPath();
 
-    Object target = null;
+    DispatchTarget dispatchTarget = null;
     try {
-      target = resolveDispatchTarget( servletContextPath );
+      dispatchTarget = getDispatchTarget( servletContextPath );
     } catch ( GwtRpcProxyException ex ) {
       logger.error( Messages.getInstance().getErrorString(
           "AbstractGwtRpcProxyServlet.ERROR_0001_FAILED_TO_RESOLVE_DISPATCH_TARGET", servletContextPath ), ex ); //$NON-NLS-1$
-      return RPC.encodeResponseForFailure( null, ex, policy );
+      return RPC.encodeResponseForFailure( null, ex, FAILURE_POLICY );
     }
 
+    final Object target = dispatchTarget.getTarget();
     final ClassLoader origLoader = Thread.currentThread().getContextClassLoader();
     final ClassLoader altLoader = target.getClass().getClassLoader();
 
@@ -123,20 +283,21 @@ public abstract class AbstractGwtRpcProxyServlet extends RemoteServiceServlet {
         Thread.currentThread().setContextClassLoader( altLoader );
       }
 
-      RPCRequest rpcRequest = RPC.decodeRequest( payload, null, this );
+      RPCRequest rpcRequest = RPC.decodeRequest( payload, null, serializationPolicyProvider );
       onAfterRequestDeserialized( rpcRequest );
       // don't require the server side to implement the service interface
-      Method method = rpcRequest.getMethod();
+      Method method = dispatchTarget.getMethod( rpcRequest.getMethod() );
+      long start = System.nanoTime();
+      boolean failed = true;
       try {
-        Method m = target.getClass().getMethod( method.getName(), method.getParameterTypes() );
-        if ( m != null ) {
-          method = m;
-        }
-      } catch ( Exception e ) {
-        e.printStackTrace();
+        String response =
+            RPC.invokeAndEncodeResponse( target, method, rpcRequest.getParameters(), rpcRequest
+                .getSerializationPolicy() );
+        failed = false;
+        return response;
+      } finally {
+        recordCall( target, method, System.nanoTime() - start, failed );
       }
-      return RPC.invokeAndEncodeResponse( target, method, rpcRequest.getParameters(), rpcRequest
-          .getSerializationPolicy() );
     } catch ( IncompatibleRemoteServiceException ex ) {
       logger.error( Messages.getInstance().getErrorString(
           "AbstractGwtRpcProxyServlet.ERROR_0003_RPC_INVOCATION_FAILED", target.getClass().getName() ), ex ); //$NON-NLS-1$
@@ -148,4 +309,143 @@ public abstract class AbstractGwtRpcProxyServlet extends RemoteServiceServlet {
       }
     }
   }
+
+  private static void recordCall( Object target, Method method, long nanos, boolean failed ) {
+    String key = target.getClass().getName() + '.' + method.getName();
+    MethodStatistics statistics = methodStatistics.get( key );
+    if ( statistics == null ) {
+      statistics = new MethodStatistics();
+      MethodStatistics existing = methodStatistics.putIfAbsent( key, statistics );
+      if ( existing != null ) {
+        statistics = existing;
+      }
+    }
+    statistics.record( nanos, failed );
+    if ( logger.isDebugEnabled() ) {
+      logger.debug( key + " took " + ( nanos / 1000000L ) + "ms" + ( failed ? " and failed" : "" ) ); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$
+    }
+  }
+
+  /**
+   * Returns the timings recorded for the RPC methods invoked through any GWT RPC proxy servlet, keyed by the
+   * target class name and method name, e.g. <code>org.example.MyService.getItems</code>.
+   * 
+   * @return a live, unmodifiable view of the recorded method timings
+   */
+  public static Map<String, MethodStatistics> getMethodStatistics() {
+    return Collections.<String, MethodStatistics> unmodifiableMap( methodStatistics );
+  }
+
+  /**
+   * Discards all recorded RPC method timings.
+   */
+  public static void resetMethodStatistics() {
+    methodStatistics.clear();
+  }
+
+  private static SerializationPolicy createFailurePolicy() {
+    Map<Class<?>, Boolean> whitelist = new HashMap<Class<?>, Boolean>();
+    whitelist.put( GwtRpcProxyException.class, Boolean.TRUE );
+    Map<Class<?>, String> obfuscatedTypeIds = new HashMap<Class<?>, String>();
+    return new StandardSerializationPolicy( whitelist, whitelist, obfuscatedTypeIds );
+  }
+
+  /**
+   * A resolved dispatch target together with the target methods matching the service interface methods requested
+   * so far.
+   */
+  protected static final class DispatchTarget {
+
+    private final Object target;
+
+    private final ConcurrentMap<Method, Method> methods = new ConcurrentHashMap<Method, Method>();
+
+    public DispatchTarget( Object target ) {
+      this.target = target;
+    }
+
+    public Object getTarget() {
+      return target;
+    }
+
+    /**
+     * Returns the method of the target matching a service interface method, so that the target does not have to
+     * implement the service interface. Falls back to the interface method if the target has no such method.
+     * 
+     * @param serviceMethod
+     *          the method decoded from the request
+     * @return the method to invoke on the target
+     */
+    public Method getMethod( Method serviceMethod ) {
+      Method method = methods.get( serviceMethod );
+      if ( method == null ) {
+        method = serviceMethod;
+        try {
+          method = target.getClass().getMethod( serviceMethod.getName(), serviceMethod.getParameterTypes() );
+        } catch ( Exception e ) {
+          logger.error( Messages.getInstance().getErrorString(
+              "AbstractGwtRpcProxyServlet.ERROR_0004_METHOD_NOT_FOUND", serviceMethod.getName(), //$NON-NLS-1$
+              target.getClass().getName() ), e );
+        }
+        methods.putIfAbsent( serviceMethod, method );
+      }
+      return method;
+    }
+  }
+
+  /**
+   * The number of calls to an RPC method and the time spent in them.
+   */
+  public static final class MethodStatistics {
+
+    private final AtomicLong callCount = new AtomicLong();
+
+    private final AtomicLong failureCount = new AtomicLong();
+
+    private final AtomicLong totalNanos = new AtomicLong();
+
+    private final AtomicLong maxNanos = new AtomicLong();
+
+    void record( long nanos, boolean failed ) {
+      callCount.incrementAndGet();
+      if ( failed ) {
+        failureCount.incrementAndGet();
+      }
+      totalNanos.addAndGet( nanos );
+      long max = maxNanos.get();
+      while ( nanos > max && !maxNanos.compareAndSet( max, nanos ) ) {
+        max = maxNanos.get();
+      }
+    }
+
+    public long getCallCount() {
+      return callCount.get();
+    }
+
+    /**
+     * @return the number of calls that threw instead of encoding a response
+     */
+    public long getFailureCount() {
+      return failureCount.get();
+    }
+
+    public long getTotalTimeMillis() {
+      return totalNanos.get() / 1000000L;
+    }
+
+    public long getMaxTimeMillis() {
+      return maxNanos.get() / 1000000L;
+    }
+
+    public long getAverageTimeMillis() {
+      long calls = callCount.get();
+      return calls == 0 ? 0 : totalNanos.get() / calls / 1000000L;
+    }
+
+    @Override
+    public String toString() {
+      return "calls=" + getCallCount() + ", failures=" + getFailureCount() + ", total=" + getTotalTimeMillis() //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+          + "ms, avg=" + getAverageTimeMillis() + "ms, max=" + getMaxTimeMillis() + "ms"; //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+    }
+  }
 }
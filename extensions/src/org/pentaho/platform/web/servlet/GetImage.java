@@ -20,6 +20,7 @@ package org.pentaho.platform.web.servlet;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.pentaho.platform.engine.core.system.PentahoSystem;
+import org.pentaho.platform.uifoundation.chart.ChartRenderCache;
 import org.pentaho.platform.util.StringUtil;
 import org.pentaho.platform.web.servlet.messages.Messages;
 
@@ -105,6 +106,38 @@ public class GetImage extends ServletBase {
       // return;
       // }
 
+      // charts rendered by the render cache are named after their content, so they carry a strong ETag and may be
+      // served from memory
+      ChartRenderCache.RenderedChart chart = null;
+      if ( tmpFile.getName().startsWith( ChartRenderCache.FILENAME_PREFIX ) ) {
+        chart = ChartRenderCache.getInstance().getByFileName( tmpFile.getName() );
+      }
+      if ( chart != null ) {
+        String etag = chart.getETag();
+        response.setHeader( "ETag", etag ); //$NON-NLS-1$
+        if ( matches( request.getHeader( "If-None-Match" ), etag ) ) { //$NON-NLS-1$
+          response.setStatus( HttpServletResponse.SC_NOT_MODIFIED );
+          return;
+        }
+        byte[] content = null;
+        try {
+          content = ChartRenderCache.getInstance().getContent( chart );
+        } catch ( IOException e ) {
+          // deleted meanwhile, fall through to the file, which will not be found either
+        }
+        if ( content != null ) {
+          setContentType( response, image );
+          response.setContentLength( content.length );
+          OutputStream out = response.getOutputStream();
+          try {
+            out.write( content );
+          } finally {
+            out.close();
+          }
+          return;
+        }
+      }
+
       // Open the file and output streams
       InputStream in = new FileInputStream( tmpFile );
 
@@ -114,14 +147,7 @@ public class GetImage extends ServletBase {
         return;
       }
 
-      String mimeType = getServletContext().getMimeType( image );
-      if ( ( null == mimeType ) || ( mimeType.length() <= 0 ) ) {
-        // Hard coded to PNG because BIRT does not give us a mime type at
-        // all...
-        response.setContentType( "image/png" ); //$NON-NLS-1$
-      } else {
-        response.setContentType( mimeType );
-      }
+      setContentType( response, image );
       OutputStream out = response.getOutputStream();
       try {
         byte[] buffer = new byte[2048];
@@ -141,4 +167,28 @@ public class GetImage extends ServletBase {
 
   }
 
+  private void setContentType( final HttpServletResponse response, final String image ) {
+    String mimeType = getServletContext().getMimeType( image );
+    if ( ( null == mimeType ) || ( mimeType.length() <= 0 ) ) {
+      // Hard coded to PNG because BIRT does not give us a mime type at
+      // all...
+      response.setContentType( "image/png" ); //$NON-NLS-1$
+    } else {
+      response.setContentType( mimeType );
+    }
+  }
+
+  private static boolean matches( final String ifNoneMatch, final String etag ) {
+    if ( ifNoneMatch == null ) {
+      return false;
+    }
+    for ( String candidate : ifNoneMatch.split( "," ) ) { //$NON-NLS-1$
+      candidate = candidate.trim();
+      if ( candidate.equals( etag ) || candidate.equals( "*" ) ) { //$NON-NLS-1$
+        return true;
+      }
+    }
+    return false;
+  }
+
 }
@@ -120,6 +120,42 @@ public class GwtRpcPluginProxyServlet extends AbstractGwtRpcProxyServlet {
     return urls.get( 0 );
   }
 
+  /**
+   * Caches serialization policies per plugin and strong name, rather than per module base URL, so that the same
+   * module reached through different host names shares one policy.
+   */
+  @Override
+  protected String getSerializationPolicyKey( HttpServletRequest request, String moduleBaseURL, String strongName ) {
+    String servletContextPath = getModuleServletContextPath( request, moduleBaseURL );
+    if ( servletContextPath == null ) {
+      return null;
+    }
+    return PluginUtil.getPluginIdFromPath( servletContextPath ) + '\t' + strongName;
+  }
+
+  /**
+   * Returns the part of the module's path beyond the web application context, e.g.
+   * '/content/data-access/resources/gwt/' for a module at
+   * 'http://localhost:8080/pentaho/content/data-access/resources/gwt/'.
+   * 
+   * @return the module path, or <code>null</code> if the module base URL is missing or malformed
+   */
+  private String getModuleServletContextPath( HttpServletRequest request, String moduleBaseURL ) {
+    if ( request == null || moduleBaseURL == null ) {
+      return null;
+    }
+    String modulePath = null;
+    try {
+      modulePath = new URL( moduleBaseURL ).getPath();
+    } catch ( MalformedURLException ex ) {
+      return null;
+    }
+    if ( modulePath.contains( "WEBAPP_ROOT" ) ) { //$NON-NLS-1$
+      modulePath = scrubWebAppRoot( modulePath );
+    }
+    return modulePath.substring( request.getContextPath().length() );
+  }
+
   @Override
   protected SerializationPolicy doGetSerializationPolicy( HttpServletRequest request, String moduleBaseURL,
       String strongName ) {
@@ -133,24 +169,14 @@ public class GwtRpcPluginProxyServlet extends AbstractGwtRpcProxyServlet {
     SerializationPolicy serializationPolicy = null;
     String appContextPath = request.getContextPath();
 
-    String modulePath = null;
-    if ( moduleBaseURL != null ) {
-      try {
-        modulePath = new URL( moduleBaseURL ).getPath();
-      } catch ( MalformedURLException ex ) {
-        logger.error( Messages.getInstance().getErrorString(
-            "GwtRpcPluginProxyServlet.ERROR_0004_MALFORMED_URL", moduleBaseURL ), ex ); //$NON-NLS-1$
-        // cannot proceed, default serialization policy will apply
-        return null;
-      }
-    }
-
-    if ( modulePath.contains( "WEBAPP_ROOT" ) ) {
-      modulePath = scrubWebAppRoot( modulePath );
+    String servletContextPath = getModuleServletContextPath( request, moduleBaseURL );
+    if ( servletContextPath == null ) {
+      logger.error( Messages.getInstance().getErrorString(
+          "GwtRpcPluginProxyServlet.ERROR_0004_MALFORMED_URL", moduleBaseURL ) ); //$NON-NLS-1$
+      // cannot proceed, default serialization policy will apply
+      return null;
     }
 
-    String servletContextPath = modulePath.substring( appContextPath.length() );
-
     // Special logic to use a spring defined SerializationPolicy for a plugin.
     String pluginId = PluginUtil.getPluginIdFromPath( servletContextPath );
     serializationPolicy =
@@ -193,7 +219,7 @@ public class GwtRpcPluginProxyServlet extends AbstractGwtRpcProxyServlet {
     }
 
     // if null, the default serialization policy will apply
-    // Note: caching is handled by the parent class
+    // Note: caching per plugin and strong name is handled by the parent class
     return serializationPolicy;
   }
 
@@ -36,9 +36,11 @@ import java.io.File;
  */
 public class GwtRpcProxyServlet extends AbstractGwtRpcProxyServlet {
 
+  private volatile ApplicationContext appContext;
+
   @Override
   protected Object resolveDispatchTarget( String servletContextPath ) {
-    ApplicationContext beanFactory = getAppContext();
+    ApplicationContext beanFactory = getCachedAppContext();
     if ( servletContextPath.startsWith( "/" ) ) { //$NON-NLS-1$
       servletContextPath = servletContextPath.substring( 1 );
     }
@@ -52,6 +54,23 @@ public class GwtRpcProxyServlet extends AbstractGwtRpcProxyServlet {
     return target;
   }
 
+  /**
+   * Returns the application context built from pentahoServices.spring.xml, building it on first use only.
+   */
+  private ApplicationContext getCachedAppContext() {
+    ApplicationContext context = appContext;
+    if ( context == null ) {
+      synchronized ( this ) {
+        context = appContext;
+        if ( context == null ) {
+          context = getAppContext();
+          appContext = context;
+        }
+      }
+    }
+    return context;
+  }
+
   protected ApplicationContext getAppContext() {
     WebApplicationContext parent = WebApplicationContextUtils.getRequiredWebApplicationContext( getServletContext() );
 
@@ -0,0 +1,68 @@
+/*!
+ * This program is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License, version 2.1 as published by the Free Software
+ * Foundation.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with this
+ * program; if not, you can obtain a copy at http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+ * or from the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * Copyright (c) 2002-2013 Pentaho Corporation..  All rights reserved.
+ */
+
+package org.pentaho.platform.plugin.services.importer;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.Test;
+
+public class SpooledInputTest {
+
+  private byte[] content( int size ) {
+    byte[] bytes = new byte[size];
+    for ( int i = 0; i < size; i++ ) {
+      bytes[i] = (byte) i;
+    }
+    return bytes;
+  }
+
+  @Test
+  public void testSmallContentStaysInMemory() throws IOException {
+    byte[] bytes = content( 100 );
+    SpooledInput input = new SpooledInput( new ByteArrayInputStream( bytes ), 1024 );
+    try {
+      assertTrue( input.isInMemory() );
+      assertEquals( 100, input.getSize() );
+      assertArrayEquals( bytes, IOUtils.toByteArray( input.getInputStream() ) );
+      assertArrayEquals( bytes, IOUtils.toByteArray( input.getInputStream() ) );
+    } finally {
+      input.dispose();
+    }
+  }
+
+  @Test
+  public void testLargeContentIsSpooledAndReadTwice() throws IOException {
+    byte[] bytes = content( 5000 );
+    SpooledInput input = new SpooledInput( new ByteArrayInputStream( bytes ), 1024 );
+    try {
+      assertFalse( input.isInMemory() );
+      assertEquals( 5000, input.getSize() );
+      assertArrayEquals( bytes, IOUtils.toByteArray( input.getInputStream() ) );
+      assertArrayEquals( bytes, IOUtils.toByteArray( input.getInputStream() ) );
+    } finally {
+      input.dispose();
+    }
+  }
+}
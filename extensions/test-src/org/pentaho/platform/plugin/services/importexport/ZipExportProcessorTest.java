@@ -0,0 +1,142 @@
+/*!
+ * This program is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License, version 2.1 as published by the Free Software
+ * Foundation.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with this
+ * program; if not, you can obtain a copy at http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+ * or from the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * Copyright (c) 2002-2013 Pentaho Corporation..  All rights reserved.
+ */
+
+package org.pentaho.platform.plugin.services.importexport;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.pentaho.platform.api.repository2.unified.IUnifiedRepository;
+import org.pentaho.platform.api.repository2.unified.RepositoryFile;
+import org.pentaho.platform.engine.core.system.PentahoSessionHolder;
+import org.pentaho.platform.engine.core.system.StandaloneSession;
+
+public class ZipExportProcessorTest {
+
+  private IUnifiedRepository repository;
+
+  private DefaultExportHandler exportHandler;
+
+  private RepositoryFile folder;
+
+  @Before
+  public void setUp() throws Exception {
+    PentahoSessionHolder.setSession( new StandaloneSession( "admin" ) );
+
+    repository = mock( IUnifiedRepository.class );
+    exportHandler = mock( DefaultExportHandler.class );
+
+    folder = new RepositoryFile.Builder( "folder" ).id( "/public/folder" ).path( "/public/folder" ).folder( true )
+        .build();
+    RepositoryFile subFolder =
+        new RepositoryFile.Builder( "sub" ).id( "/public/folder/sub" ).path( "/public/folder/sub" ).folder( true )
+            .build();
+    List<RepositoryFile> children = new ArrayList<RepositoryFile>();
+    for ( int i = 0; i < 10; i++ ) {
+      children.add( file( "/public/folder/file" + i + ".txt" ) );
+      if ( i == 5 ) {
+        children.add( subFolder );
+      }
+    }
+    List<RepositoryFile> subChildren = new ArrayList<RepositoryFile>();
+    subChildren.add( file( "/public/folder/sub/nested.txt" ) );
+
+    when( repository.getChildren( "/public/folder" ) ).thenReturn( children );
+    when( repository.getChildren( "/public/folder/sub" ) ).thenReturn( subChildren );
+    when( exportHandler.doExport( any( RepositoryFile.class ), anyString() ) ).thenAnswer( new Answer<InputStream>() {
+      public InputStream answer( InvocationOnMock invocation ) throws Throwable {
+        RepositoryFile file = (RepositoryFile) invocation.getArguments()[0];
+        return new ByteArrayInputStream( content( file.getPath() ) );
+      }
+    } );
+  }
+
+  @After
+  public void tearDown() {
+    PentahoSessionHolder.removeSession();
+  }
+
+  private RepositoryFile file( String path ) {
+    return new RepositoryFile.Builder( path.substring( path.lastIndexOf( '/' ) + 1 ) ).id( path ).path( path ).build();
+  }
+
+  private byte[] content( String path ) {
+    StringBuilder content = new StringBuilder();
+    for ( int i = 0; i < 1000; i++ ) {
+      content.append( path ).append( '\n' );
+    }
+    return content.toString().getBytes();
+  }
+
+  private List<String> export( int prefetchThreads, int prefetchBufferSize ) throws Exception {
+    ZipExportProcessor processor = new ZipExportProcessor( "/public/folder", repository, false );
+    processor.addExportHandler( exportHandler );
+    processor.setPrefetchThreads( prefetchThreads );
+    processor.setPrefetchBufferSize( prefetchBufferSize );
+
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    processor.performExport( folder, out );
+
+    List<String> names = new ArrayList<String>();
+    ZipInputStream zis = new ZipInputStream( new ByteArrayInputStream( out.toByteArray() ) );
+    ZipEntry entry;
+    while ( ( entry = zis.getNextEntry() ) != null ) {
+      names.add( entry.getName() );
+      if ( !entry.isDirectory() ) {
+        assertEquals( new String( content( "/public/" + entry.getName() ) ), new String( IOUtils.toByteArray( zis ) ) );
+      }
+    }
+    return names;
+  }
+
+  @Test
+  public void testPrefetchedExportKeepsOrder() throws Exception {
+    List<String> expected = new ArrayList<String>();
+    expected.add( "folder/" );
+    for ( int i = 0; i < 10; i++ ) {
+      expected.add( "folder/file" + i + ".txt" );
+      if ( i == 5 ) {
+        expected.add( "folder/sub/" );
+        expected.add( "folder/sub/nested.txt" );
+      }
+    }
+    assertEquals( expected, export( 0, ZipExportProcessor.DEFAULT_PREFETCH_BUFFER_SIZE ) );
+    assertEquals( expected, export( 4, ZipExportProcessor.DEFAULT_PREFETCH_BUFFER_SIZE ) );
+    // files larger than the buffer are read partly ahead and the rest as they are written
+    assertEquals( expected, export( 4, 100 ) );
+    // the prefetch threads clear only their own session
+    assertNotNull( PentahoSessionHolder.getSession() );
+  }
+}
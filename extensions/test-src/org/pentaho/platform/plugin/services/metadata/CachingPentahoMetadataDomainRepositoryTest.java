@@ -18,17 +18,32 @@
 
 package org.pentaho.platform.plugin.services.metadata;
 
+import org.apache.commons.io.IOUtils;
+import org.pentaho.metadata.model.Domain;
 import org.pentaho.metadata.util.LocalizationUtil;
 import org.pentaho.metadata.util.XmiParser;
 import org.pentaho.platform.api.repository2.unified.IUnifiedRepository;
 import org.pentaho.platform.repository2.unified.RepositoryUtils;
 
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
 /**
  * Class Description
  * 
  * @author <a href="mailto:dkincade@pentaho.com">David M. Kincade</a>
  */
 public class CachingPentahoMetadataDomainRepositoryTest extends PentahoMetadataDomainRepositoryTest {
+  private final List<String> storedDomainIds = new ArrayList<String>();
+
   protected PentahoMetadataDomainRepository createDomainRepository( final IUnifiedRepository repository ) {
     return new CachingPentahoMetadataDomainRepository( repository );
   }
@@ -37,4 +52,138 @@ public class CachingPentahoMetadataDomainRepositoryTest extends PentahoMetadataD
       final RepositoryUtils repositoryUtils, final XmiParser xmiParser, final LocalizationUtil localizationUtil ) {
     return new CachingPentahoMetadataDomainRepository( repository, repositoryUtils, xmiParser, localizationUtil );
   }
+
+  public void tearDown() throws Exception {
+    // The repository lives on disk, so remove what these tests stored before the next test looks at it
+    final PentahoMetadataDomainRepository domainRepository = createDomainRepository( repository );
+    for ( final String domainId : storedDomainIds ) {
+      domainRepository.removeDomain( domainId );
+    }
+    super.tearDown();
+  }
+
+  public void testConcurrentMissesParseOnce() throws Exception {
+    final CountingXmiParser xmiParser = new CountingXmiParser();
+    final CachingPentahoMetadataDomainRepository domainRepository = createCachingRepository( xmiParser );
+    store( domainRepository, "concurrent" );
+    xmiParser.reset();
+
+    final int threads = 8;
+    final CountDownLatch start = new CountDownLatch( 1 );
+    final ExecutorService executor = Executors.newFixedThreadPool( threads );
+    try {
+      final List<Future<Domain>> results = new ArrayList<Future<Domain>>();
+      for ( int i = 0; i < threads; ++i ) {
+        results.add( executor.submit( new Callable<Domain>() {
+          public Domain call() throws Exception {
+            start.await();
+            return domainRepository.getDomain( "concurrent" );
+          }
+        } ) );
+      }
+      start.countDown();
+
+      final Domain domain = results.get( 0 ).get();
+      assertNotNull( domain );
+      for ( final Future<Domain> result : results ) {
+        assertSame( domain, result.get() );
+      }
+    } finally {
+      executor.shutdown();
+    }
+    assertEquals( 1, xmiParser.getParseCount() );
+  }
+
+  public void testStoreInvalidatesOnlyThatDomain() throws Exception {
+    final CountingXmiParser xmiParser = new CountingXmiParser();
+    final CachingPentahoMetadataDomainRepository domainRepository = createCachingRepository( xmiParser );
+    store( domainRepository, "changed" );
+    store( domainRepository, "unchanged" );
+
+    final Domain changed = domainRepository.getDomain( "changed" );
+    final Domain unchanged = domainRepository.getDomain( "unchanged" );
+    assertSame( changed, domainRepository.getDomain( "changed" ) );
+
+    store( domainRepository, "changed" );
+    assertSame( unchanged, domainRepository.getDomain( "unchanged" ) );
+    assertNotSame( changed, domainRepository.getDomain( "changed" ) );
+
+    domainRepository.removeDomain( "changed" );
+    assertNull( domainRepository.getDomain( "changed" ) );
+    assertSame( unchanged, domainRepository.getDomain( "unchanged" ) );
+  }
+
+  public void testMaxDomainsEvictsLeastUsed() throws Exception {
+    final CountingXmiParser xmiParser = new CountingXmiParser();
+    final CachingPentahoMetadataDomainRepository domainRepository = createCachingRepository( xmiParser );
+    domainRepository.setMaxDomains( 2 );
+    store( domainRepository, "often" );
+    store( domainRepository, "rarely" );
+    store( domainRepository, "new" );
+
+    final Domain often = domainRepository.getDomain( "often" );
+    domainRepository.getDomain( "often" );
+    final Domain rarely = domainRepository.getDomain( "rarely" );
+    domainRepository.getDomain( "new" );
+
+    assertEquals( 2, domainRepository.getCachedDomainCount() );
+    assertSame( often, domainRepository.getDomain( "often" ) );
+    assertNotSame( rarely, domainRepository.getDomain( "rarely" ) );
+  }
+
+  public void testPreloadDomains() throws Exception {
+    final CountingXmiParser xmiParser = new CountingXmiParser();
+    final CachingPentahoMetadataDomainRepository domainRepository = createCachingRepository( xmiParser );
+    store( domainRepository, "first" );
+    store( domainRepository, "second" );
+    store( domainRepository, "third" );
+    xmiParser.reset();
+
+    assertEquals( 0, domainRepository.preloadDomains() );
+    domainRepository.setPreloadDomainIds( "first, missing, second" );
+    assertEquals( 2, domainRepository.preloadDomains() );
+    assertEquals( 2, xmiParser.getParseCount() );
+
+    domainRepository.getDomain( "first" );
+    domainRepository.getDomain( "second" );
+    assertEquals( 2, xmiParser.getParseCount() );
+
+    domainRepository.setPreloadDomainIds( "*" );
+    domainRepository.setMaxDomains( 3 );
+    assertEquals( 3, domainRepository.preloadDomains() );
+    assertEquals( 3, domainRepository.getCachedDomainCount() );
+  }
+
+  private CachingPentahoMetadataDomainRepository createCachingRepository( final XmiParser xmiParser ) {
+    return (CachingPentahoMetadataDomainRepository) createDomainRepository( repository, null, xmiParser, null );
+  }
+
+  private void store( final PentahoMetadataDomainRepository domainRepository, final String domainId )
+    throws Exception {
+    storedDomainIds.add( domainId );
+    domainRepository.storeDomain( new ByteArrayInputStream( domainId.getBytes() ), domainId, true );
+  }
+
+  /**
+   * Parses a domain out of its id alone, counting the parses and taking long enough for concurrent requests to overlap
+   */
+  private static class CountingXmiParser extends XmiParser {
+    private final AtomicInteger parseCount = new AtomicInteger();
+
+    public Domain parseXmi( final InputStream xmi ) throws Exception {
+      parseCount.incrementAndGet();
+      final Domain domain = new Domain();
+      domain.setId( IOUtils.toString( xmi ) );
+      Thread.sleep( 50 );
+      return domain;
+    }
+
+    public int getParseCount() {
+      return parseCount.get();
+    }
+
+    public void reset() {
+      parseCount.set( 0 );
+    }
+  }
 }
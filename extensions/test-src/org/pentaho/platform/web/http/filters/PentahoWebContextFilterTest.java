@@ -0,0 +1,255 @@
+/*!
+ * This program is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License, version 2.1 as published by the Free Software
+ * Foundation.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with this
+ * program; if not, you can obtain a copy at http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+ * or from the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * Copyright (c) 2002-2013 Pentaho Corporation..  All rights reserved.
+ */
+
+package org.pentaho.platform.web.http.filters;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.pentaho.platform.api.engine.IPluginManager;
+import org.pentaho.platform.api.engine.IPluginManagerListener;
+import org.pentaho.platform.engine.core.system.BasePentahoRequestContext;
+import org.pentaho.platform.engine.core.system.PentahoRequestContextHolder;
+import org.pentaho.platform.engine.core.system.PentahoSessionHolder;
+import org.pentaho.platform.engine.core.system.PentahoSystem;
+import org.pentaho.platform.engine.core.system.StandaloneSession;
+import org.pentaho.platform.plugin.services.pluginmgr.DefaultPluginManager;
+import org.pentaho.test.platform.engine.core.MicroPlatform;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpSession;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@SuppressWarnings( "nls" )
+public class PentahoWebContextFilterTest {
+
+  private static final String CONTEXT = "analyzer";
+
+  private MicroPlatform microPlatform;
+
+  private PentahoWebContextFilter filter;
+
+  @Before
+  public void setUp() throws Exception {
+    microPlatform = new MicroPlatform();
+    microPlatform.setFullyQualifiedServerUrl( "http://localhost:8080/pentaho/" );
+    PentahoRequestContextHolder.setRequestContext( new BasePentahoRequestContext( "/pentaho/" ) );
+    PentahoSessionHolder.setSession( new StandaloneSession( "joe" ) );
+
+    filter = new PentahoWebContextFilter();
+    filter.init( null );
+  }
+
+  @After
+  public void tearDown() {
+    filter.destroy();
+    PentahoSessionHolder.removeSession();
+    PentahoRequestContextHolder.removeRequestContext();
+    PentahoSystem.clearObjectFactory();
+  }
+
+  private void usePluginManager( IPluginManager pluginManager ) {
+    List<String> resources = new ArrayList<String>();
+    for ( int i = 0; i < 40; i++ ) {
+      resources.add( "content/" + CONTEXT + "/scripts/module" + i + ".js" );
+    }
+    resources.add( "content/" + CONTEXT + "/styles/main.css" );
+    when( pluginManager.getExternalResourcesForContext( CONTEXT ) ).thenReturn( resources );
+    microPlatform.defineInstance( IPluginManager.class, pluginManager );
+  }
+
+  @Test
+  public void testTemplatesAreCachedUntilPluginsReload() throws Exception {
+    DefaultPluginManager pluginManager = mock( DefaultPluginManager.class );
+    usePluginManager( pluginManager );
+
+    String first = new String( get( null, null ).body, "UTF-8" );
+    String second = new String( get( null, null ).body, "UTF-8" );
+    assertEquals( first, second );
+    assertTrue( first.contains( "content/" + CONTEXT + "/scripts/module39.js?context=" + CONTEXT ) );
+    verify( pluginManager, times( 1 ) ).getExternalResourcesForContext( CONTEXT );
+
+    ArgumentCaptor<IPluginManagerListener> listener = ArgumentCaptor.forClass( IPluginManagerListener.class );
+    verify( pluginManager ).addPluginManagerListener( listener.capture() );
+    listener.getValue().onReload();
+    get( null, null );
+    verify( pluginManager, times( 2 ) ).getExternalResourcesForContext( CONTEXT );
+
+    filter.destroy();
+    verify( pluginManager ).removePluginManagerListener( listener.getValue() );
+  }
+
+  @Test
+  public void testTemplatesAreNotCachedWithoutReloadNotifications() throws Exception {
+    IPluginManager pluginManager = mock( IPluginManager.class );
+    usePluginManager( pluginManager );
+
+    get( null, null );
+    get( null, null );
+    verify( pluginManager, times( 2 ) ).getExternalResourcesForContext( CONTEXT );
+  }
+
+  @Test
+  public void testMatchingETagIsNotModified() throws Exception {
+    usePluginManager( mock( DefaultPluginManager.class ) );
+
+    Response response = get( null, null );
+    String etag = response.headers.get( "ETag" );
+    assertNotNull( etag );
+    assertEquals( "private, no-cache", response.headers.get( "Cache-Control" ) );
+    assertTrue( response.body.length > 0 );
+
+    Response notModified = get( null, "\"other\", " + etag );
+    assertEquals( HttpServletResponse.SC_NOT_MODIFIED, notModified.status );
+    assertEquals( 0, notModified.body.length );
+
+    Response modified = get( null, "\"other\"" );
+    assertEquals( HttpServletResponse.SC_OK, modified.status );
+    assertArrayEquals( response.body, modified.body );
+  }
+
+  @Test
+  public void testGzipWhenAccepted() throws Exception {
+    usePluginManager( mock( DefaultPluginManager.class ) );
+
+    Response identity = get( null, null );
+    assertNull( identity.headers.get( "Content-Encoding" ) );
+    assertTrue( identity.body.length >= 1024 );
+
+    Response gzipped = get( "deflate, gzip", null );
+    assertEquals( "gzip", gzipped.headers.get( "Content-Encoding" ) );
+    assertEquals( "Accept-Encoding", gzipped.headers.get( "Vary" ) );
+    assertArrayEquals( identity.body, gunzip( gzipped.body ) );
+    assertFalse( identity.headers.get( "ETag" ).equals( gzipped.headers.get( "ETag" ) ) );
+
+    // the identity ETag does not validate the gzipped representation
+    assertEquals( HttpServletResponse.SC_OK, get( "gzip", identity.headers.get( "ETag" ) ).status );
+
+    Response refused = get( "gzip;q=0, deflate", null );
+    assertNull( refused.headers.get( "Content-Encoding" ) );
+    assertArrayEquals( identity.body, refused.body );
+  }
+
+  @Test
+  public void testAcceptsGzip() {
+    assertTrue( PentahoWebContextFilter.acceptsGzip( "gzip" ) );
+    assertTrue( PentahoWebContextFilter.acceptsGzip( "deflate, GZIP;q=0.5" ) );
+    assertTrue( PentahoWebContextFilter.acceptsGzip( "x-gzip" ) );
+    assertTrue( PentahoWebContextFilter.acceptsGzip( "*" ) );
+    assertTrue( PentahoWebContextFilter.acceptsGzip( "identity, *;q=0.1" ) );
+    assertFalse( PentahoWebContextFilter.acceptsGzip( null ) );
+    assertFalse( PentahoWebContextFilter.acceptsGzip( "" ) );
+    assertFalse( PentahoWebContextFilter.acceptsGzip( "deflate" ) );
+    assertFalse( PentahoWebContextFilter.acceptsGzip( "gzip;q=0" ) );
+    assertFalse( PentahoWebContextFilter.acceptsGzip( "gzip; q=0.0, deflate" ) );
+    assertFalse( PentahoWebContextFilter.acceptsGzip( "gzip;q=0, *" ) );
+    assertFalse( PentahoWebContextFilter.acceptsGzip( "*;q=0" ) );
+  }
+
+  private Response get( String acceptEncoding, String ifNoneMatch ) throws Exception {
+    HttpServletRequest request = mock( HttpServletRequest.class );
+    when( request.getRequestURI() ).thenReturn( "/pentaho/webcontext.js" );
+    when( request.getSession() ).thenReturn( mock( HttpSession.class ) );
+    when( request.getParameter( "context" ) ).thenReturn( CONTEXT );
+    when( request.getParameterMap() ).thenReturn( Collections.singletonMap( "context", new String[] { CONTEXT } ) );
+    when( request.getHeader( "Accept-Encoding" ) ).thenReturn( acceptEncoding );
+    when( request.getHeader( "If-None-Match" ) ).thenReturn( ifNoneMatch );
+
+    final Response result = new Response();
+    HttpServletResponse response = mock( HttpServletResponse.class );
+    doAnswer( new Answer<Object>() {
+      public Object answer( InvocationOnMock invocation ) {
+        result.headers.put( (String) invocation.getArguments()[0], (String) invocation.getArguments()[1] );
+        return null;
+      }
+    } ).when( response ).setHeader( anyString(), anyString() );
+    doAnswer( new Answer<Object>() {
+      public Object answer( InvocationOnMock invocation ) {
+        result.status = (Integer) invocation.getArguments()[0];
+        return null;
+      }
+    } ).when( response ).setStatus( HttpServletResponse.SC_NOT_MODIFIED );
+    final ByteArrayOutputStream body = new ByteArrayOutputStream();
+    when( response.getOutputStream() ).thenReturn( new ServletOutputStream() {
+      @Override
+      public void write( int b ) {
+        body.write( b );
+      }
+    } );
+
+    FilterChain chain = mock( FilterChain.class );
+    filter.doFilter( request, response, chain );
+    verify( chain, never() ).doFilter( any( HttpServletRequest.class ), any( HttpServletResponse.class ) );
+
+    result.body = body.toByteArray();
+    return result;
+  }
+
+  private static byte[] gunzip( byte[] compressed ) throws IOException {
+    InputStream in = new GZIPInputStream( new ByteArrayInputStream( compressed ) );
+    try {
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      byte[] buffer = new byte[4096];
+      for ( int read = in.read( buffer ); read >= 0; read = in.read( buffer ) ) {
+        out.write( buffer, 0, read );
+      }
+      return out.toByteArray();
+    } finally {
+      in.close();
+    }
+  }
+
+  private static class Response {
+
+    private int status = HttpServletResponse.SC_OK;
+
+    private final Map<String, String> headers = new HashMap<String, String>();
+
+    private byte[] body;
+  }
+
+}
@@ -0,0 +1,225 @@
+/*!
+ * This program is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License, version 2.1 as published by the Free Software
+ * Foundation.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with this
+ * program; if not, you can obtain a copy at http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+ * or from the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * Copyright (c) 2002-2013 Pentaho Corporation..  All rights reserved.
+ */
+
+package org.pentaho.test.platform.plugin;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.Rectangle;
+import java.io.File;
+import java.io.IOException;
+
+import org.apache.commons.io.FileUtils;
+import org.jfree.chart.ChartRenderingInfo;
+import org.jfree.chart.entity.ChartEntity;
+import org.jfree.chart.entity.StandardEntityCollection;
+import org.jfree.data.category.DefaultCategoryDataset;
+import org.jfree.data.general.AbstractDataset;
+import org.jfree.data.general.DefaultPieDataset;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.pentaho.platform.uifoundation.chart.ChartRenderCache;
+import org.pentaho.platform.uifoundation.chart.ChartRenderCache.RenderedChart;
+import org.pentaho.platform.uifoundation.chart.JFreeChartEngine;
+
+@SuppressWarnings( "nls" )
+public class ChartRenderCacheTest {
+
+  private File directory;
+
+  @Before
+  public void setUp() throws IOException {
+    directory = File.createTempFile( "chartRenderCache", "" );
+    directory.delete();
+    directory.mkdirs();
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    FileUtils.deleteDirectory( directory );
+  }
+
+  @Test
+  public void testKeyDependsOnValuesDefinitionAndSize() {
+    String key = getKey( createDataset( 1 ), "<chart/>", 400, 300 );
+    assertNotNull( key );
+    assertEquals( key, getKey( createDataset( 1 ), "<chart/>", 400, 300 ) );
+    assertFalse( key.equals( getKey( createDataset( 2 ), "<chart/>", 400, 300 ) ) );
+    assertFalse( key.equals( getKey( createDataset( 1 ), "<chart><is-3D>true</is-3D></chart>", 400, 300 ) ) );
+    assertFalse( key.equals( getKey( createDataset( 1 ), "<chart/>", 300, 400 ) ) );
+
+    DefaultPieDataset pieDataset = new DefaultPieDataset();
+    pieDataset.setValue( "a", 1 );
+    assertNotNull( ChartRenderCache.getKey( pieDataset, "<chart/>", "title", "", 400, 300,
+        JFreeChartEngine.OUTPUT_PNG ) );
+
+    assertNull( ChartRenderCache.getKey( new AbstractDataset() {
+      private static final long serialVersionUID = 1L;
+    }, "<chart/>", "title", "", 400, 300, JFreeChartEngine.OUTPUT_PNG ) );
+  }
+
+  @Test
+  public void testPutWritesContentAddressedFile() throws IOException {
+    ChartRenderCache cache = new ChartRenderCache( directory, 10, 1024 * 1024, 1024 * 1024 );
+    byte[] content = new byte[] { 1, 2, 3 };
+
+    RenderedChart chart = cache.put( "abc", ".png", content, new ChartRenderingInfo() );
+    assertEquals( new File( directory, ChartRenderCache.FILENAME_PREFIX + "abc.png" ), chart.getFile() );
+    assertArrayEquals( content, FileUtils.readFileToByteArray( chart.getFile() ) );
+    assertEquals( "\"abc\"", chart.getETag() );
+
+    assertSame( chart, cache.get( "abc" ) );
+    assertSame( chart, cache.getByFileName( ChartRenderCache.FILENAME_PREFIX + "abc.png" ) );
+    assertNull( cache.getByFileName( ChartRenderCache.FILENAME_PREFIX + "abc.svg" ) );
+    assertNull( cache.getByFileName( "tmp_chart_abc.png" ) );
+    assertArrayEquals( content, cache.getContent( chart ) );
+  }
+
+  @Test
+  public void testEvictionDeletesFiles() throws IOException {
+    ChartRenderCache cache = new ChartRenderCache( directory, 2, 1024 * 1024, 1024 * 1024, 0 );
+    RenderedChart first = cache.put( "1", ".png", new byte[10], null );
+    cache.put( "2", ".png", new byte[10], null );
+    cache.get( "1" );
+    RenderedChart third = cache.put( "3", ".png", new byte[10], null );
+
+    assertEquals( 2, cache.size() );
+    assertNull( cache.get( "2" ) );
+    assertFalse( new File( directory, ChartRenderCache.FILENAME_PREFIX + "2.png" ).exists() );
+    assertTrue( first.getFile().exists() );
+    assertTrue( third.getFile().exists() );
+  }
+
+  @Test
+  public void testEvictedChartIsServedDuringGracePeriod() throws IOException {
+    ChartRenderCache cache = new ChartRenderCache( directory, 1, 1024 * 1024, 1024 * 1024, 60 * 1000L );
+    byte[] content = new byte[] { 1, 2, 3 };
+    cache.put( "1", ".png", content, null );
+
+    // the image is being served: the servlet has looked the chart up, but not read it yet
+    RenderedChart served = cache.getByFileName( ChartRenderCache.FILENAME_PREFIX + "1.png" );
+    assertNotNull( served );
+    cache.put( "2", ".png", new byte[10], null );
+
+    assertNull( cache.get( "1" ) );
+    assertEquals( 10, cache.getDiskSize() );
+    assertArrayEquals( content, cache.getContent( served ) );
+    // a page rendered before the eviction still finds the file
+    assertArrayEquals( content, FileUtils.readFileToByteArray( served.getFile() ) );
+
+    cache.deleteExpiredFiles();
+    assertTrue( served.getFile().exists() );
+    cache.clear();
+    assertFalse( served.getFile().exists() );
+  }
+
+  @Test
+  public void testEvictedFileIsDeletedAfterGracePeriod() throws Exception {
+    ChartRenderCache cache = new ChartRenderCache( directory, 1, 1024 * 1024, 1024 * 1024, 1 );
+    RenderedChart first = cache.put( "1", ".png", new byte[10], null );
+    cache.put( "2", ".png", new byte[10], null );
+    Thread.sleep( 20 );
+
+    RenderedChart third = cache.put( "3", ".png", new byte[10], null );
+    assertFalse( first.getFile().exists() );
+    assertTrue( third.getFile().exists() );
+  }
+
+  @Test
+  public void testRenderingAgainKeepsEvictedFile() throws Exception {
+    ChartRenderCache cache = new ChartRenderCache( directory, 1, 1024 * 1024, 1024 * 1024, 1 );
+    cache.put( "1", ".png", new byte[10], null );
+    cache.put( "2", ".png", new byte[10], null );
+    RenderedChart again = cache.put( "1", ".png", new byte[10], null );
+    Thread.sleep( 20 );
+
+    cache.put( "1", ".png", new byte[10], null );
+    assertTrue( again.getFile().exists() );
+    assertFalse( new File( directory, ChartRenderCache.FILENAME_PREFIX + "2.png" ).exists() );
+  }
+
+  @Test
+  public void testDiskAndMemoryTiersAreBoundedBySize() throws IOException {
+    ChartRenderCache cache = new ChartRenderCache( directory, 100, 25, 15, 0 );
+    RenderedChart first = cache.put( "1", ".png", new byte[10], null );
+    RenderedChart second = cache.put( "2", ".png", new byte[10], null );
+    assertEquals( 20, cache.getDiskSize() );
+    assertEquals( 10, cache.getMemorySize() );
+
+    // the first chart is no longer held in memory, but is still served from its file
+    assertArrayEquals( new byte[10], cache.getContent( first ) );
+
+    cache.put( "3", ".png", new byte[10], null );
+    assertEquals( 2, cache.size() );
+    assertEquals( 20, cache.getDiskSize() );
+    assertFalse( first.getFile().exists() );
+    assertTrue( second.getFile().exists() );
+  }
+
+  @Test
+  public void testMissingFileIsAMiss() throws IOException {
+    ChartRenderCache cache = new ChartRenderCache( directory, 10, 1024 * 1024, 1024 * 1024 );
+    RenderedChart chart = cache.put( "abc", ".png", new byte[] { 1 }, null );
+    chart.getFile().delete();
+    assertNull( cache.get( "abc" ) );
+    assertEquals( 0, cache.size() );
+  }
+
+  @Test
+  public void testStaleFilesAreDeleted() throws IOException {
+    File stale = new File( directory, ChartRenderCache.FILENAME_PREFIX + "stale.png" );
+    File other = new File( directory, "tmp_chart_other.png" );
+    FileUtils.writeByteArrayToFile( stale, new byte[] { 1 } );
+    FileUtils.writeByteArrayToFile( other, new byte[] { 1 } );
+
+    new ChartRenderCache( directory, 10, 1024 * 1024, 1024 * 1024 );
+    assertFalse( stale.exists() );
+    assertTrue( other.exists() );
+  }
+
+  @Test
+  public void testCopyInfoCopiesEntities() throws IOException {
+    ChartRenderCache cache = new ChartRenderCache( directory, 10, 1024 * 1024, 1024 * 1024 );
+    ChartRenderingInfo info = new ChartRenderingInfo( new StandardEntityCollection() );
+    info.getEntityCollection().add( new ChartEntity( new Rectangle( 0, 0, 10, 10 ), "tip", "url" ) );
+    RenderedChart chart = cache.put( "abc", ".png", new byte[] { 1 }, info );
+
+    ChartRenderingInfo target = new ChartRenderingInfo( new StandardEntityCollection() );
+    chart.copyInfo( target );
+    assertEquals( 1, target.getEntityCollection().getEntityCount() );
+    target.getEntityCollection().getEntity( 0 ).setURLText( "changed" );
+    assertEquals( "url", info.getEntityCollection().getEntity( 0 ).getURLText() );
+  }
+
+  private static String getKey( DefaultCategoryDataset dataset, String definition, int width, int height ) {
+    return ChartRenderCache.getKey( dataset, definition, "title", "", width, height, JFreeChartEngine.OUTPUT_PNG );
+  }
+
+  private static DefaultCategoryDataset createDataset( int value ) {
+    DefaultCategoryDataset dataset = new DefaultCategoryDataset();
+    dataset.addValue( value, "row", "column" );
+    dataset.addValue( 10, "row", "other column" );
+    return dataset;
+  }
+}
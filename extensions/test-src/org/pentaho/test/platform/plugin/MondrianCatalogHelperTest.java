@@ -205,6 +205,38 @@ public class MondrianCatalogHelperTest {
     Assert.assertEquals( 2, cats.size() );
   }
 
+  @Test
+  public void testSchemaLoadedOnFirstUse() throws Exception {
+    File file1 = new File( "test-src/solution/test/charts/steelwheels.mondrian.xml" );
+    String mondrianSchema1 = IOUtils.toString( new FileInputStream( file1 ) );
+
+    final String mondrianFolderPath = ClientRepositoryPaths.getEtcFolderPath() + RepositoryFile.SEPARATOR + "mondrian";
+    stubGetFolder( repo, mondrianFolderPath );
+    stubGetChildren( repo, mondrianFolderPath, "SteelWheels/" );
+
+    final String steelWheelsFolderPath = mondrianFolderPath + RepositoryFile.SEPARATOR + "SteelWheels";
+    final String steelWheelsMetadataPath = steelWheelsFolderPath + RepositoryFile.SEPARATOR + "metadata";
+    final String steelWheelsSchemaPath = steelWheelsFolderPath + RepositoryFile.SEPARATOR + "schema.xml";
+    stubGetFile( repo, steelWheelsMetadataPath );
+    stubGetData( repo, steelWheelsMetadataPath, "catalog", pathPropertyPair( "/catalog/definition",
+        "mondrian:/SteelWheels" ), pathPropertyPair( "/catalog/datasourceInfo",
+        "Provider=mondrian;DataSource=SteelWheels;" ) );
+    stubGetFile( repo, steelWheelsSchemaPath );
+    stubGetData( repo, steelWheelsSchemaPath, mondrianSchema1 );
+
+    IPentahoSession session = new StandaloneSession( "admin" );
+    MondrianCatalogHelper helper = (MondrianCatalogHelper) PentahoSystem.get( IMondrianCatalogService.class );
+
+    MondrianCatalog cat = helper.getCatalog( "SteelWheels", session );
+    Assert.assertNotNull( cat );
+    Assert.assertSame( cat, helper.getCatalog( "mondrian:/SteelWheels", session ) );
+
+    MondrianSchema schema = cat.getSchema();
+    Assert.assertNotNull( schema );
+    Assert.assertEquals( "SteelWheels", schema.getName() );
+    Assert.assertSame( schema, cat.getSchema() );
+  }
+
   @Test
   public void testRemoveCatalog() throws Exception {
     File file1 = new File( "test-src/solution/test/charts/steelwheels.mondrian.xml" );
@@ -0,0 +1,122 @@
+/*!
+ * This program is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License, version 2.1 as published by the Free Software
+ * Foundation.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with this
+ * program; if not, you can obtain a copy at http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+ * or from the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * Copyright (c) 2002-2013 Pentaho Corporation..  All rights reserved.
+ */
+
+package org.pentaho.test.platform.plugin.action.kettle;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.pentaho.di.core.KettleEnvironment;
+import org.pentaho.di.job.JobMeta;
+import org.pentaho.di.trans.TransMeta;
+import org.pentaho.platform.plugin.action.kettle.KettleMetaCache;
+
+public class KettleMetaCacheTest {
+
+  private static final String PATH = "etl/sales.ktr"; //$NON-NLS-1$
+
+  @BeforeClass
+  public static void initKettle() throws Exception {
+    KettleEnvironment.init( false );
+  }
+
+  private static TransMeta createTransMeta( final String name ) {
+    TransMeta transMeta = new TransMeta();
+    transMeta.setName( name );
+    return transMeta;
+  }
+
+  @Test
+  public void testNewVersionReplacesCachedMeta() {
+    KettleMetaCache cache = new KettleMetaCache( 10 );
+    cache.putTransMeta( PATH, "1", createTransMeta( "first" ) ); //$NON-NLS-1$ //$NON-NLS-2$
+
+    assertEquals( "first", cache.getTransMeta( PATH, "1" ).getName() ); //$NON-NLS-1$ //$NON-NLS-2$
+    assertNull( cache.getTransMeta( PATH, "2" ) ); //$NON-NLS-1$
+
+    cache.putTransMeta( PATH, "2", createTransMeta( "second" ) ); //$NON-NLS-1$ //$NON-NLS-2$
+    assertEquals( "second", cache.getTransMeta( PATH, "2" ).getName() ); //$NON-NLS-1$ //$NON-NLS-2$
+    assertNull( cache.getTransMeta( PATH, "1" ) ); //$NON-NLS-1$
+    assertEquals( 1, cache.size() );
+  }
+
+  @Test
+  public void testTransAndJobOfSamePathAreKeptApart() {
+    KettleMetaCache cache = new KettleMetaCache( 10 );
+    JobMeta jobMeta = new JobMeta();
+    jobMeta.setName( "job" ); //$NON-NLS-1$
+    cache.putTransMeta( PATH, "1", createTransMeta( "trans" ) ); //$NON-NLS-1$ //$NON-NLS-2$
+    cache.putJobMeta( PATH, "1", jobMeta ); //$NON-NLS-1$
+
+    assertEquals( "trans", cache.getTransMeta( PATH, "1" ).getName() ); //$NON-NLS-1$ //$NON-NLS-2$
+    assertEquals( "job", cache.getJobMeta( PATH, "1" ).getName() ); //$NON-NLS-1$ //$NON-NLS-2$
+    assertEquals( 2, cache.size() );
+  }
+
+  @Test
+  public void testCallersGetIsolatedClones() throws Exception {
+    KettleMetaCache cache = new KettleMetaCache( 10 );
+    TransMeta original = createTransMeta( "cached" ); //$NON-NLS-1$
+    cache.putTransMeta( PATH, "1", original ); //$NON-NLS-1$
+
+    // the caller keeps changing the metadata it put
+    original.setName( "changed by caller" ); //$NON-NLS-1$
+    original.addParameterDefinition( "caller", "", "" ); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+
+    TransMeta first = cache.getTransMeta( PATH, "1" ); //$NON-NLS-1$
+    assertEquals( "cached", first.getName() ); //$NON-NLS-1$
+    assertEquals( 0, first.listParameters().length );
+
+    // an execution changes the metadata it was handed
+    first.setName( "changed by execution" ); //$NON-NLS-1$
+    first.addParameterDefinition( "execution", "", "" ); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+
+    TransMeta second = cache.getTransMeta( PATH, "1" ); //$NON-NLS-1$
+    assertNotSame( first, second );
+    assertEquals( "cached", second.getName() ); //$NON-NLS-1$
+    assertEquals( 0, second.listParameters().length );
+  }
+
+  @Test
+  public void testZeroMaxEntriesDisablesCache() {
+    KettleMetaCache cache = new KettleMetaCache( 0 );
+    cache.putTransMeta( PATH, "1", createTransMeta( "trans" ) ); //$NON-NLS-1$ //$NON-NLS-2$
+    cache.putJobMeta( PATH, "1", new JobMeta() ); //$NON-NLS-1$
+
+    assertNull( cache.getTransMeta( PATH, "1" ) ); //$NON-NLS-1$
+    assertNull( cache.getJobMeta( PATH, "1" ) ); //$NON-NLS-1$
+    assertEquals( 0, cache.size() );
+  }
+
+  @Test
+  public void testLeastRecentlyUsedIsEvicted() {
+    KettleMetaCache cache = new KettleMetaCache( 2 );
+    cache.putTransMeta( "a", "1", createTransMeta( "a" ) ); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+    cache.putTransMeta( "b", "1", createTransMeta( "b" ) ); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+    assertNotNull( cache.getTransMeta( "a", "1" ) ); //$NON-NLS-1$ //$NON-NLS-2$
+    cache.putTransMeta( "c", "1", createTransMeta( "c" ) ); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+
+    assertNotNull( cache.getTransMeta( "a", "1" ) ); //$NON-NLS-1$ //$NON-NLS-2$
+    assertNull( cache.getTransMeta( "b", "1" ) ); //$NON-NLS-1$ //$NON-NLS-2$
+    assertNotNull( cache.getTransMeta( "c", "1" ) ); //$NON-NLS-1$ //$NON-NLS-2$
+  }
+
+}
@@ -0,0 +1,129 @@
+/*!
+ * This program is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License, version 2.1 as published by the Free Software
+ * Foundation.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with this
+ * program; if not, you can obtain a copy at http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+ * or from the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * Copyright (c) 2002-2013 Pentaho Corporation..  All rights reserved.
+ */
+
+package org.pentaho.test.platform.plugin.action.kettle;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+import org.pentaho.commons.connection.memory.MemoryMetaData;
+import org.pentaho.platform.plugin.action.kettle.StreamingResultSet;
+
+public class StreamingResultSetTest {
+
+  private static final int ROWS = 1000;
+
+  private static final int CAPACITY = 10;
+
+  private StreamingResultSet createResultSet() {
+    MemoryMetaData metaData = new MemoryMetaData( new String[][] { { "ID" } }, null ); //$NON-NLS-1$
+    return new StreamingResultSet( metaData, CAPACITY, 60000L );
+  }
+
+  private Thread produce( final StreamingResultSet resultSet, final AtomicInteger produced, final boolean failAtEnd ) {
+    Thread producer = new Thread( new Runnable() {
+      public void run() {
+        try {
+          for ( int i = 0; i < ROWS; i++ ) {
+            if ( !resultSet.addRow( new Object[] { Integer.valueOf( i ) } ) ) {
+              return;
+            }
+            produced.incrementAndGet();
+          }
+          if ( failAtEnd ) {
+            resultSet.fail( "failed" ); //$NON-NLS-1$
+          } else {
+            resultSet.finish();
+          }
+        } catch ( InterruptedException e ) {
+          // test is over
+        }
+      }
+    } );
+    producer.setDaemon( true );
+    producer.start();
+    return producer;
+  }
+
+  @Test
+  public void testRowsArriveInOrderWithBoundedBuffer() throws Exception {
+    StreamingResultSet resultSet = createResultSet();
+    AtomicInteger produced = new AtomicInteger();
+    Thread producer = produce( resultSet, produced, false );
+
+    assertFalse( resultSet.isScrollable() );
+    assertEquals( 1, resultSet.getColumnCount() );
+    for ( int i = 0; i < ROWS; i++ ) {
+      if ( i % 100 == 0 ) {
+        // let the producer run ahead as far as it can
+        Thread.sleep( 20 );
+        assertTrue( produced.get() <= i + CAPACITY + 1 );
+      }
+      assertEquals( Integer.valueOf( i ), resultSet.peek()[0] );
+      assertEquals( Integer.valueOf( i ), resultSet.next()[0] );
+    }
+    assertNull( resultSet.next() );
+    assertNull( resultSet.next() );
+    producer.join( 5000 );
+    assertFalse( producer.isAlive() );
+  }
+
+  @Test
+  public void testCloseStopsProducer() throws Exception {
+    StreamingResultSet resultSet = createResultSet();
+    final AtomicBoolean stopped = new AtomicBoolean();
+    resultSet.setCloseCallback( new Runnable() {
+      public void run() {
+        stopped.set( true );
+      }
+    } );
+    AtomicInteger produced = new AtomicInteger();
+    Thread producer = produce( resultSet, produced, false );
+
+    assertEquals( Integer.valueOf( 0 ), resultSet.next()[0] );
+    resultSet.close();
+    assertTrue( stopped.get() );
+    assertTrue( resultSet.isClosed() );
+    assertNull( resultSet.next() );
+    producer.join( 5000 );
+    assertFalse( producer.isAlive() );
+    assertTrue( produced.get() < ROWS );
+  }
+
+  @Test
+  public void testFailureIsReportedAfterRows() throws Exception {
+    StreamingResultSet resultSet = createResultSet();
+    produce( resultSet, new AtomicInteger(), true );
+
+    for ( int i = 0; i < ROWS; i++ ) {
+      assertEquals( Integer.valueOf( i ), resultSet.next()[0] );
+    }
+    try {
+      resultSet.next();
+      fail();
+    } catch ( IllegalStateException e ) {
+      assertEquals( "failed", e.getMessage() ); //$NON-NLS-1$
+    }
+  }
+}
@@ -24,6 +24,7 @@ import org.pentaho.platform.api.engine.IContentGenerator;
 import org.pentaho.platform.api.engine.IContentInfo;
 import org.pentaho.platform.api.engine.IFileInfo;
 import org.pentaho.platform.api.engine.IPentahoDefinableObjectFactory.Scope;
+import org.pentaho.platform.api.engine.IPentahoObjectFactory;
 import org.pentaho.platform.api.engine.IPentahoSession;
 import org.pentaho.platform.api.engine.IPlatformPlugin;
 import org.pentaho.platform.api.engine.IPluginLifecycleListener;
@@ -48,6 +49,7 @@ import org.pentaho.platform.engine.core.solution.PluginOperation;
 import org.pentaho.platform.engine.core.system.PentahoSystem;
 import org.pentaho.platform.engine.core.system.StandaloneSession;
 import org.pentaho.platform.engine.core.system.boot.PlatformInitializationException;
+import org.pentaho.platform.engine.core.system.objfac.AggregateObjectFactory;
 import org.pentaho.platform.engine.services.solution.SolutionEngine;
 import org.pentaho.platform.plugin.services.pluginmgr.DefaultPluginManager;
 import org.pentaho.platform.plugin.services.pluginmgr.PlatformPlugin;
@@ -72,6 +74,8 @@ import java.util.List;
 import java.util.Set;
 
 import static org.junit.Assert.*;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
 
 @SuppressWarnings( "nls" )
 public class DefaultPluginManagerTest {
@@ -128,6 +132,24 @@ public class DefaultPluginManagerTest {
     assertTrue( "loaded was not called", CheckingLifecycleListener.loadedCalled );
   }
 
+  @Test
+  public void testReloadInvalidatesCachedObjectLookups() throws PlatformInitializationException {
+    microPlatform.define( IPluginProvider.class, Tst2PluginProvider.class ).start();
+
+    IPentahoObjectFactory pluginFactory = mock( IPentahoObjectFactory.class );
+    doReturn( false ).when( pluginFactory ).objectDefined( "lateBean" );
+    AggregateObjectFactory aggregate = new AggregateObjectFactory();
+    aggregate.registerObjectFactory( pluginFactory );
+    assertFalse( aggregate.objectDefined( "lateBean" ) );
+
+    // the bean shows up in a plugin factory without the aggregate being told; the miss is still cached
+    doReturn( true ).when( pluginFactory ).objectDefined( "lateBean" );
+    assertFalse( aggregate.objectDefined( "lateBean" ) );
+
+    pluginManager.reload();
+    assertTrue( aggregate.objectDefined( "lateBean" ) );
+  }
+
   @Test
   public void test3_Plugin3FailsToLoad() throws PlatformInitializationException {
     microPlatform.define( IPluginProvider.class, Tst3PluginProvider.class ).start();
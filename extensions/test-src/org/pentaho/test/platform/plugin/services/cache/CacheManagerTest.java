@@ -21,6 +21,7 @@ import junit.framework.Assert;
 import org.dom4j.Document;
 import org.dom4j.DocumentHelper;
 import org.dom4j.Element;
+import org.pentaho.platform.api.cache.ICacheStatistics;
 import org.pentaho.platform.api.engine.ICacheManager;
 import org.pentaho.platform.engine.core.system.PentahoSystem;
 import org.pentaho.platform.engine.core.system.StandaloneSession;
@@ -205,6 +206,38 @@ public class CacheManagerTest extends BaseTest {
 
   }
 
+  public void testKillSessionCacheOnlyTouchesThatSession() {
+    ICacheManager cacheManager = PentahoSystem.getCacheManager( null );
+    Assert.assertTrue( cacheManager.cacheEnabled() );
+
+    StandaloneSession[] sessions = new StandaloneSession[50];
+    for ( int i = 0; i < sessions.length; i++ ) {
+      sessions[i] = new StandaloneSession( "Standalone Session", "partition-" + i );
+      for ( int key = 0; key < 10; key++ ) {
+        cacheManager.putInSessionCache( sessions[i], "key" + key, "value" + i + "-" + key );
+      }
+    }
+    // a key in the session region that was not made by putInSessionCache
+    cacheManager.putInRegionCache( ICacheManager.SESSION, "raw-partition-7", "raw" );
+
+    ICacheStatistics before = cacheManager.getRegionCacheStatistics( ICacheManager.SESSION );
+    cacheManager.killSessionCache( sessions[7] );
+    ICacheStatistics after = cacheManager.getRegionCacheStatistics( ICacheManager.SESSION );
+
+    Assert.assertEquals( 11, after.getRemoveCount() - before.getRemoveCount() );
+    Assert.assertNull( cacheManager.getFromSessionCache( sessions[7], "key3" ) );
+    Assert.assertNull( cacheManager.getFromRegionCache( ICacheManager.SESSION, "raw-partition-7" ) );
+    Assert.assertEquals( "value8-3", cacheManager.getFromSessionCache( sessions[8], "key3" ) );
+
+    ICacheStatistics last = cacheManager.getRegionCacheStatistics( ICacheManager.SESSION );
+    Assert.assertEquals( ICacheManager.SESSION, last.getRegion() );
+    Assert.assertEquals( after.getHitCount() + 1, last.getHitCount() );
+    Assert.assertEquals( after.getMissCount() + 2, last.getMissCount() );
+    Assert.assertNull( cacheManager.getRegionCacheStatistics( "no-such-region" ) );
+
+    cacheManager.killSessionCaches();
+  }
+
   private void sleep( final int time ) {
     try {
       System.out.println( "***** Sleeping for " + time + " seconds *****" ); //$NON-NLS-1$ //$NON-NLS-2$
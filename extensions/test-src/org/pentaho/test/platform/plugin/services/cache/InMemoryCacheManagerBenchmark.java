@@ -0,0 +1,152 @@
+/*!
+ * This program is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License, version 2.1 as published by the Free Software
+ * Foundation.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with this
+ * program; if not, you can obtain a copy at http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+ * or from the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * Copyright (c) 2002-2013 Pentaho Corporation..  All rights reserved.
+ */
+
+package org.pentaho.test.platform.plugin.services.cache;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import junit.framework.Assert;
+
+import org.pentaho.platform.api.engine.ICacheManager;
+import org.pentaho.platform.engine.core.system.PentahoSystem;
+import org.pentaho.platform.engine.core.system.StandaloneSession;
+import org.pentaho.platform.plugin.services.cache.InMemoryCacheManager;
+import org.pentaho.test.platform.engine.core.BaseTest;
+
+/**
+ * Times the same work against the Hibernate/EhCache backed
+ * {@link org.pentaho.platform.plugin.services.cache.CacheManager} configured in the test solution and against
+ * {@link InMemoryCacheManager}, and prints the results.
+ * <p>
+ * This is not a unit test, as it asserts nothing about the timings; run it with {@link #main(String[])} from the
+ * extensions directory.
+ */
+@SuppressWarnings( "nls" )
+public class InMemoryCacheManagerBenchmark extends BaseTest {
+
+  private static final String SOLUTION_PATH = "test-src/cache-solution";
+
+  private static final int KEYS = 1000;
+
+  private static final int OPERATIONS = 200000;
+
+  private static final int THREADS = 4;
+
+  private static final int SESSIONS = 500;
+
+  public static void main( final String[] args ) throws Exception {
+    InMemoryCacheManagerBenchmark benchmark = new InMemoryCacheManagerBenchmark();
+    benchmark.setUp();
+    try {
+      benchmark.benchmarkGlobalCache();
+      benchmark.benchmarkSessionCache();
+    } finally {
+      benchmark.tearDown();
+      BaseTest.shutdown();
+    }
+  }
+
+  @Override
+  public String getSolutionPath() {
+    return new File( SOLUTION_PATH ).exists() ? SOLUTION_PATH : super.getSolutionPath();
+  }
+
+  public void benchmarkGlobalCache() throws Exception {
+    ICacheManager ehCacheManager = PentahoSystem.getCacheManager( null );
+    Assert.assertTrue( ehCacheManager.cacheEnabled() );
+    ICacheManager inMemoryCacheManager = new InMemoryCacheManager( null );
+
+    for ( int round = 0; round < 2; round++ ) {
+      // the first round warms up
+      long ehCache = timeGlobalCache( ehCacheManager );
+      long inMemory = timeGlobalCache( inMemoryCacheManager );
+      System.out.println( "Global cache, " + OPERATIONS + " operations on " + THREADS + " threads: EhCache "
+          + ehCache + "ms, in memory " + inMemory + "ms" );
+    }
+    ehCacheManager.clearCache();
+  }
+
+  public void benchmarkSessionCache() throws Exception {
+    ICacheManager ehCacheManager = PentahoSystem.getCacheManager( null );
+    ICacheManager inMemoryCacheManager = new InMemoryCacheManager( null );
+
+    for ( int round = 0; round < 2; round++ ) {
+      long ehCache = timeSessionCache( ehCacheManager );
+      long inMemory = timeSessionCache( inMemoryCacheManager );
+      System.out.println( "Session cache, " + SESSIONS + " sessions filled and logged out: EhCache " + ehCache
+          + "ms, in memory " + inMemory + "ms" );
+    }
+  }
+
+  private long timeGlobalCache( final ICacheManager cacheManager ) throws Exception {
+    for ( int key = 0; key < KEYS; key++ ) {
+      cacheManager.putInGlobalCache( "benchmark" + key, "value" + key );
+    }
+    ExecutorService executor = Executors.newFixedThreadPool( THREADS );
+    try {
+      long start = System.currentTimeMillis();
+      List<Future<Integer>> results = new ArrayList<Future<Integer>>();
+      for ( int thread = 0; thread < THREADS; thread++ ) {
+        final int seed = thread;
+        results.add( executor.submit( new Callable<Integer>() {
+          public Integer call() {
+            int hits = 0;
+            for ( int i = 0; i < OPERATIONS / THREADS; i++ ) {
+              int key = ( i * 31 + seed * 17 ) % KEYS;
+              if ( i % 10 == 0 ) {
+                // one write in ten
+                cacheManager.putInGlobalCache( "benchmark" + key, "value" + key );
+              } else if ( ( "value" + key ).equals( cacheManager.getFromGlobalCache( "benchmark" + key ) ) ) {
+                hits++;
+              }
+            }
+            return hits;
+          }
+        } ) );
+      }
+      for ( Future<Integer> result : results ) {
+        Assert.assertTrue( result.get().intValue() > 0 );
+      }
+      return System.currentTimeMillis() - start;
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  private long timeSessionCache( ICacheManager cacheManager ) {
+    StandaloneSession[] sessions = new StandaloneSession[SESSIONS];
+    long start = System.currentTimeMillis();
+    for ( int i = 0; i < SESSIONS; i++ ) {
+      sessions[i] = new StandaloneSession( "benchmark", "benchmark-session-" + i );
+      for ( int key = 0; key < 10; key++ ) {
+        cacheManager.putInSessionCache( sessions[i], "key" + key, "value" + key );
+      }
+    }
+    for ( int i = 0; i < SESSIONS; i++ ) {
+      Assert.assertEquals( "value3", cacheManager.getFromSessionCache( sessions[i], "key3" ) );
+      cacheManager.killSessionCache( sessions[i] );
+    }
+    Assert.assertNull( cacheManager.getFromSessionCache( sessions[0], "key3" ) );
+    return System.currentTimeMillis() - start;
+  }
+}
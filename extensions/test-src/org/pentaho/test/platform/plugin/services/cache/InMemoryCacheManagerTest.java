@@ -0,0 +1,257 @@
+/*!
+ * This program is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License, version 2.1 as published by the Free Software
+ * Foundation.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with this
+ * program; if not, you can obtain a copy at http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+ * or from the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * Copyright (c) 2002-2013 Pentaho Corporation..  All rights reserved.
+ */
+
+package org.pentaho.test.platform.plugin.services.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.pentaho.platform.api.cache.ICacheLoader;
+import org.pentaho.platform.api.cache.ICacheStatistics;
+import org.pentaho.platform.api.cache.ILastModifiedCacheItem;
+import org.pentaho.platform.api.engine.ICacheManager;
+import org.pentaho.platform.engine.core.system.StandaloneSession;
+import org.pentaho.platform.plugin.services.cache.CacheExpirationRegistry;
+import org.pentaho.platform.plugin.services.cache.InMemoryCacheManager;
+import org.pentaho.platform.plugin.services.cache.InMemoryCacheRegion;
+
+@SuppressWarnings( "nls" )
+public class InMemoryCacheManagerTest {
+
+  private CacheExpirationRegistry registry;
+
+  private InMemoryCacheManager cacheManager;
+
+  @Before
+  public void setUp() {
+    registry = new CacheExpirationRegistry();
+    cacheManager = new InMemoryCacheManager( registry );
+  }
+
+  public static class LengthWeigher implements InMemoryCacheRegion.Weigher {
+    public long weigh( Object key, Object value ) {
+      return value.toString().length();
+    }
+  }
+
+  @Test
+  public void testSessionCacheIsPerSession() {
+    StandaloneSession session1 = new StandaloneSession( "Standalone Session", "1234-5678-90" );
+    StandaloneSession session2 = new StandaloneSession( "Standalone Session", "abc-def-ghi-jkl" );
+
+    cacheManager.putInSessionCache( session1, "StringObject", "one" );
+    cacheManager.putInSessionCache( session1, "other", "one-other" );
+    cacheManager.putInSessionCache( session2, "StringObject", "two" );
+    assertEquals( "one", cacheManager.getFromSessionCache( session1, "StringObject" ) );
+    assertEquals( "two", cacheManager.getFromSessionCache( session2, "StringObject" ) );
+    assertEquals( 3, cacheManager.getElementCountInSessionCache() );
+
+    cacheManager.killSessionCache( session1 );
+    assertNull( cacheManager.getFromSessionCache( session1, "StringObject" ) );
+    assertNull( cacheManager.getFromSessionCache( session1, "other" ) );
+    assertEquals( "two", cacheManager.getFromSessionCache( session2, "StringObject" ) );
+
+    cacheManager.putInGlobalCache( "global", "value" );
+    cacheManager.killSessionCaches();
+    assertEquals( 0, cacheManager.getElementCountInSessionCache() );
+    assertEquals( "value", cacheManager.getFromGlobalCache( "global" ) );
+  }
+
+  @Test
+  public void testConcurrentReadsAndWritesSeeConsistentValues() throws Exception {
+    final int keys = 100;
+    for ( int key = 0; key < keys; key++ ) {
+      cacheManager.putInGlobalCache( "key" + key, "value" + key );
+    }
+    final CountDownLatch start = new CountDownLatch( 1 );
+    ExecutorService executor = Executors.newFixedThreadPool( 4 );
+    try {
+      List<Future<Integer>> results = new ArrayList<Future<Integer>>();
+      for ( int thread = 0; thread < 4; thread++ ) {
+        final int seed = thread;
+        results.add( executor.submit( new Callable<Integer>() {
+          public Integer call() throws Exception {
+            start.await();
+            int hits = 0;
+            for ( int i = 0; i < 5000; i++ ) {
+              int key = ( i * 31 + seed * 17 ) % keys;
+              if ( i % 10 == 0 ) {
+                cacheManager.putInGlobalCache( "key" + key, "value" + key );
+              } else {
+                // every key is always present, and only ever holds its own value
+                assertEquals( "value" + key, cacheManager.getFromGlobalCache( "key" + key ) );
+                hits++;
+              }
+            }
+            return hits;
+          }
+        } ) );
+      }
+      start.countDown();
+      for ( Future<Integer> result : results ) {
+        assertEquals( 4500, result.get().intValue() );
+      }
+    } finally {
+      executor.shutdown();
+    }
+    assertEquals( keys, cacheManager.getElementCountInGlobalCache() );
+  }
+
+  @Test
+  public void testRegionsAreBoundedByEntriesAndWeight() {
+    Properties properties = new Properties();
+    properties.setProperty( InMemoryCacheManager.MAX_ENTRIES, "3" );
+    assertTrue( cacheManager.addCacheRegion( "entries", properties ) );
+    for ( int i = 0; i < 5; i++ ) {
+      cacheManager.putInRegionCache( "entries", "key" + i, "value" + i );
+      // keep key0 recently used
+      cacheManager.getFromRegionCache( "entries", "key0" );
+    }
+    assertEquals( 3, cacheManager.getElementCountInRegionCache( "entries" ) );
+    assertEquals( "value0", cacheManager.getFromRegionCache( "entries", "key0" ) );
+    assertNull( cacheManager.getFromRegionCache( "entries", "key1" ) );
+    assertNull( cacheManager.getFromRegionCache( "entries", "key2" ) );
+    assertEquals( "value4", cacheManager.getFromRegionCache( "entries", "key4" ) );
+
+    properties = new Properties();
+    properties.setProperty( InMemoryCacheManager.MAX_ENTRIES, "0" );
+    properties.setProperty( InMemoryCacheManager.MAX_WEIGHT, "10" );
+    properties.setProperty( InMemoryCacheManager.WEIGHER, LengthWeigher.class.getName() );
+    cacheManager.addCacheRegion( "weight", properties );
+    cacheManager.putInRegionCache( "weight", "a", "12345" );
+    cacheManager.putInRegionCache( "weight", "b", "1234" );
+    cacheManager.putInRegionCache( "weight", "c", "123" );
+    assertNull( cacheManager.getFromRegionCache( "weight", "a" ) );
+    assertEquals( "1234", cacheManager.getFromRegionCache( "weight", "b" ) );
+    assertEquals( "123", cacheManager.getFromRegionCache( "weight", "c" ) );
+  }
+
+  @Test
+  public void testEntriesExpire() throws Exception {
+    InMemoryCacheRegion region = new InMemoryCacheRegion( "ttl", 0, 0, 200, 0, null );
+    region.put( "key", "value" );
+    assertEquals( "value", region.get( "key" ) );
+    Thread.sleep( 300 );
+    assertNull( region.get( "key" ) );
+
+    region = new InMemoryCacheRegion( "idle", 0, 0, 0, 200, null );
+    region.put( "key", "value" );
+    for ( int i = 0; i < 4; i++ ) {
+      Thread.sleep( 100 );
+      assertEquals( "value", region.get( "key" ) );
+    }
+    Thread.sleep( 300 );
+    assertNull( region.get( "key" ) );
+    assertEquals( 0, region.size() );
+  }
+
+  @Test
+  public void testLoaderComputesValueOnce() throws Exception {
+    final AtomicInteger loads = new AtomicInteger();
+    final CountDownLatch start = new CountDownLatch( 1 );
+    final ICacheLoader<String> loader = new ICacheLoader<String>() {
+      public String load( Object key ) throws Exception {
+        loads.incrementAndGet();
+        Thread.sleep( 100 );
+        return "loaded " + key;
+      }
+    };
+    ExecutorService executor = Executors.newFixedThreadPool( 8 );
+    try {
+      List<Future<String>> results = new ArrayList<Future<String>>();
+      for ( int i = 0; i < 8; i++ ) {
+        results.add( executor.submit( new Callable<String>() {
+          public String call() throws Exception {
+            start.await();
+            return cacheManager.getFromRegionCache( ICacheManager.GLOBAL, "key", loader );
+          }
+        } ) );
+      }
+      start.countDown();
+      for ( Future<String> result : results ) {
+        assertEquals( "loaded key", result.get() );
+      }
+    } finally {
+      executor.shutdown();
+    }
+    assertEquals( 1, loads.get() );
+    assertEquals( "loaded key", cacheManager.getFromGlobalCache( "key" ) );
+  }
+
+  @Test
+  public void testFailedLoadIsNotCached() {
+    ICacheLoader<String> failing = new ICacheLoader<String>() {
+      public String load( Object key ) throws Exception {
+        throw new Exception( "no value" );
+      }
+    };
+    try {
+      cacheManager.getFromRegionCache( ICacheManager.GLOBAL, "key", failing );
+      fail();
+    } catch ( IllegalStateException e ) {
+      assertEquals( "no value", e.getCause().getMessage() );
+    }
+    assertNull( cacheManager.getFromGlobalCache( "key" ) );
+  }
+
+  @Test
+  public void testRegionsAreRegisteredAndCounted() {
+    List<String> registered = new ArrayList<String>();
+    for ( ILastModifiedCacheItem item : registry.getCachedItems() ) {
+      registered.add( item.getCacheKey() );
+    }
+    assertTrue( registered.contains( ICacheManager.SESSION ) );
+    assertTrue( registered.contains( ICacheManager.GLOBAL ) );
+
+    ILastModifiedCacheItem global = null;
+    for ( ILastModifiedCacheItem item : registry.getCachedItems() ) {
+      if ( ICacheManager.GLOBAL.equals( item.getCacheKey() ) ) {
+        global = item;
+      }
+    }
+    long lastModified = global.getLastModified();
+    cacheManager.putInGlobalCache( "key", "value" );
+    assertTrue( global.getLastModified() >= lastModified );
+
+    cacheManager.getFromGlobalCache( "key" );
+    cacheManager.getFromGlobalCache( "missing" );
+    cacheManager.removeFromGlobalCache( "key" );
+    ICacheStatistics statistics = cacheManager.getRegionCacheStatistics( ICacheManager.GLOBAL );
+    assertEquals( 1, statistics.getHitCount() );
+    assertEquals( 1, statistics.getMissCount() );
+    assertEquals( 1, statistics.getPutCount() );
+    assertEquals( 1, statistics.getRemoveCount() );
+    assertEquals( 0, statistics.getElementCount() );
+    assertNull( cacheManager.getRegionCacheStatistics( "missing" ) );
+    assertSame( null, cacheManager.getFromRegionCache( "missing", "key" ) );
+  }
+}
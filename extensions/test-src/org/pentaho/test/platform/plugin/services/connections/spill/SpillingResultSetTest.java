@@ -0,0 +1,198 @@
+/*!
+ * This program is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License, version 2.1 as published by the Free Software
+ * Foundation.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with this
+ * program; if not, you can obtain a copy at http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+ * or from the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * Copyright (c) 2002-2013 Pentaho Corporation..  All rights reserved.
+ */
+
+package org.pentaho.test.platform.plugin.services.connections.spill;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.math.BigDecimal;
+import java.sql.Timestamp;
+import java.util.Date;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Test;
+import org.pentaho.commons.connection.IPentahoResultSet;
+import org.pentaho.commons.connection.memory.MemoryMetaData;
+import org.pentaho.platform.api.util.ITempFileDeleter;
+import org.pentaho.platform.engine.core.system.PentahoSessionHolder;
+import org.pentaho.platform.engine.core.system.PentahoSystem;
+import org.pentaho.platform.engine.core.system.StandaloneApplicationContext;
+import org.pentaho.platform.engine.core.system.StandaloneSession;
+import org.pentaho.platform.engine.core.system.StandaloneTempFileDeleter;
+import org.pentaho.platform.plugin.services.connections.spill.SpillingResultSet;
+
+public class SpillingResultSetTest {
+
+  private static final int ROWS = 1000;
+
+  private SpillingResultSet createResultSet( final int maxRowsInMemory ) {
+    MemoryMetaData metaData = new MemoryMetaData( new String[][] { { "ID", "NAME", "AMOUNT", "WHEN", "FLAG" } }, null ); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$ //$NON-NLS-5$
+    SpillingResultSet resultSet = new SpillingResultSet( metaData, maxRowsInMemory );
+    for ( int i = 0; i < ROWS; i++ ) {
+      resultSet.addRow( row( i ) );
+    }
+    return resultSet;
+  }
+
+  private static Object[] row( final int i ) {
+    Timestamp timestamp = new Timestamp( 1000000L * i );
+    timestamp.setNanos( i );
+    return new Object[] { Integer.valueOf( i ), ( i % 7 == 0 ) ? null : "name" + i, //$NON-NLS-1$
+      new BigDecimal( i ).movePointLeft( 2 ), ( i % 2 == 0 ) ? timestamp : new Date( i ),
+      Boolean.valueOf( i % 3 == 0 ) };
+  }
+
+  @Test
+  public void testKeepsSmallResultsInMemory() {
+    SpillingResultSet resultSet = createResultSet( ROWS );
+    assertFalse( resultSet.isSpilled() );
+    assertEquals( ROWS, resultSet.getRowCount() );
+    assertEquals( 5, resultSet.getColumnCount() );
+    resultSet.dispose();
+  }
+
+  @Test
+  public void testSequentialReadAfterSpill() {
+    SpillingResultSet resultSet = createResultSet( 10 );
+    assertTrue( resultSet.isSpilled() );
+    assertEquals( ROWS, resultSet.getRowCount() );
+
+    for ( int pass = 0; pass < 2; pass++ ) {
+      resultSet.beforeFirst();
+      for ( int i = 0; i < ROWS; i++ ) {
+        assertArrayEquals( row( i ), resultSet.peek() );
+        assertArrayEquals( row( i ), resultSet.next() );
+      }
+      assertNull( resultSet.peek() );
+      assertNull( resultSet.next() );
+    }
+    resultSet.dispose();
+  }
+
+  @Test
+  public void testRandomAccessAfterSpill() {
+    SpillingResultSet resultSet = createResultSet( 10 );
+    int[] rows = { 999, 3, 500, 501, 257, 256, 10, 9, 998 };
+    for ( int row : rows ) {
+      assertArrayEquals( row( row ), resultSet.getDataRow( row ) );
+      assertEquals( Integer.valueOf( row ), resultSet.getValueAt( row, 0 ) );
+    }
+    Object[] ids = resultSet.getDataColumn( 0 );
+    assertEquals( ROWS, ids.length );
+    for ( int i = 0; i < ROWS; i++ ) {
+      assertEquals( Integer.valueOf( i ), ids[i] );
+    }
+    assertNull( resultSet.getValueAt( ROWS, 0 ) );
+    resultSet.dispose();
+  }
+
+  @Test
+  public void testAddAfterRead() {
+    SpillingResultSet resultSet = createResultSet( 10 );
+    assertArrayEquals( row( ROWS - 1 ), resultSet.getDataRow( ROWS - 1 ) );
+    resultSet.addRow( row( ROWS ) );
+    assertEquals( ROWS + 1, resultSet.getRowCount() );
+    assertArrayEquals( row( ROWS ), resultSet.getDataRow( ROWS ) );
+    resultSet.dispose();
+  }
+
+  @Test
+  public void testMemoryCopyAndDispose() {
+    SpillingResultSet resultSet = createResultSet( 10 );
+    IPentahoResultSet copy = resultSet.memoryCopy();
+    resultSet.dispose();
+    assertEquals( 0, resultSet.getRowCount() );
+    assertFalse( resultSet.isSpilled() );
+
+    assertEquals( ROWS, copy.getRowCount() );
+    assertArrayEquals( row( 700 ), copy.getDataRow( 700 ) );
+    copy.dispose();
+  }
+
+  @Test
+  public void testSpillFileIsRemovedWithTheSession() throws Exception {
+    File solution = File.createTempFile( "spillSolution", "" ); //$NON-NLS-1$ //$NON-NLS-2$
+    solution.delete();
+    StandaloneSession session = new StandaloneSession( "spill" ); //$NON-NLS-1$
+    StandaloneTempFileDeleter deleter = new StandaloneTempFileDeleter();
+    session.setAttribute( ITempFileDeleter.DELETER_SESSION_VARIABLE, deleter );
+    PentahoSystem.setApplicationContext( new StandaloneApplicationContext( solution.getAbsolutePath(), "" ) ); //$NON-NLS-1$
+    PentahoSessionHolder.setSession( session );
+    try {
+      // the copy is never disposed, like the copies handed on as action outputs
+      IPentahoResultSet copy = createResultSet( 10 ).memoryCopy();
+      assertEquals( ROWS, copy.getRowCount() );
+      File[] spillFiles = getSpillFiles( new File( solution, "system/tmp" ) ); //$NON-NLS-1$
+      assertEquals( 2, spillFiles.length );
+      for ( File spillFile : spillFiles ) {
+        assertTrue( deleter.hasTempFile( spillFile.getName() ) );
+      }
+
+      deleter.doTempFileCleanup();
+      assertEquals( 0, getSpillFiles( new File( solution, "system/tmp" ) ).length ); //$NON-NLS-1$
+    } finally {
+      PentahoSessionHolder.removeSession();
+      PentahoSystem.setApplicationContext( null );
+      FileUtils.deleteDirectory( solution );
+    }
+  }
+
+  @Test
+  public void testSpillFileWrittenFromAnotherThreadIsTrackedBySession() throws Exception {
+    File solution = File.createTempFile( "spillSolution", "" ); //$NON-NLS-1$ //$NON-NLS-2$
+    solution.delete();
+    StandaloneSession session = new StandaloneSession( "spill" ); //$NON-NLS-1$
+    StandaloneTempFileDeleter deleter = new StandaloneTempFileDeleter();
+    session.setAttribute( ITempFileDeleter.DELETER_SESSION_VARIABLE, deleter );
+    PentahoSystem.setApplicationContext( new StandaloneApplicationContext( solution.getAbsolutePath(), "" ) ); //$NON-NLS-1$
+    PentahoSessionHolder.setSession( session );
+    try {
+      MemoryMetaData metaData = new MemoryMetaData( new String[][] { { "ID", "NAME", "AMOUNT", "WHEN", "FLAG" } }, null ); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$ //$NON-NLS-5$
+      SpillingResultSet resultSet = new SpillingResultSet( metaData, 10 );
+      // rows are written by a thread without a session, like a Kettle step thread
+      PentahoSessionHolder.removeSession();
+      for ( int i = 0; i < ROWS; i++ ) {
+        resultSet.addRow( row( i ) );
+      }
+      File[] spillFiles = getSpillFiles( new File( solution, "system/tmp" ) ); //$NON-NLS-1$
+      assertEquals( 1, spillFiles.length );
+      assertTrue( deleter.hasTempFile( spillFiles[0].getName() ) );
+
+      deleter.doTempFileCleanup();
+      assertEquals( 0, getSpillFiles( new File( solution, "system/tmp" ) ).length ); //$NON-NLS-1$
+    } finally {
+      PentahoSessionHolder.removeSession();
+      PentahoSystem.setApplicationContext( null );
+      FileUtils.deleteDirectory( solution );
+    }
+  }
+
+  private static File[] getSpillFiles( final File directory ) {
+    return directory.listFiles( new FileFilter() {
+      public boolean accept( final File file ) {
+        return file.getName().startsWith( "resultSet" ); //$NON-NLS-1$
+      }
+    } );
+  }
+
+}
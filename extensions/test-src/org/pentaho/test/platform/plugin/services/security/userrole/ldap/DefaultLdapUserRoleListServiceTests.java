@@ -23,6 +23,7 @@ import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.junit.Test;
 import org.pentaho.platform.api.engine.IPentahoSession;
+import org.pentaho.platform.api.engine.IUserRoleListPrefixSupport;
 import org.pentaho.platform.api.mt.ITenant;
 import org.pentaho.platform.core.mt.Tenant;
 import org.pentaho.platform.engine.core.system.PentahoSessionHolder;
@@ -40,6 +41,7 @@ import org.pentaho.platform.plugin.services.security.userrole.ldap.search.Unioni
 import org.pentaho.platform.plugin.services.security.userrole.ldap.transform.GrantedAuthorityToString;
 import org.pentaho.platform.plugin.services.security.userrole.ldap.transform.SearchResultToAttrValueList;
 import org.pentaho.platform.plugin.services.security.userrole.ldap.transform.StringToGrantedAuthority;
+import org.pentaho.platform.security.userroledao.DefaultTenantedPrincipleNameResolver;
 import org.springframework.security.Authentication;
 import org.springframework.security.GrantedAuthority;
 import org.springframework.security.GrantedAuthorityImpl;
@@ -50,6 +52,7 @@ import org.springframework.security.ldap.search.FilterBasedLdapUserSearch;
 import org.springframework.security.providers.UsernamePasswordAuthenticationToken;
 import org.springframework.security.userdetails.User;
 import org.springframework.security.userdetails.UserDetails;
+import org.springframework.security.userdetails.UserDetailsService;
 import org.springframework.security.userdetails.ldap.LdapUserDetailsService;
 
 import javax.naming.directory.SearchControls;
@@ -58,6 +61,8 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
 
@@ -368,6 +373,132 @@ public class DefaultLdapUserRoleListServiceTests extends AbstractPentahoLdapInte
     }
   }
 
+  /**
+   * Same search as <code>testGetAllUserNames2</code>, paged two entries at a time, through the cache of the service.
+   */
+  @Test
+  public void testGetAllUserNamesPagedAndCached() {
+    SearchControls con2 = new SearchControls();
+    con2.setReturningAttributes( new String[] { "uid" } ); //$NON-NLS-1$
+
+    LdapSearchParamsFactory paramsFactory = new LdapSearchParamsFactoryImpl( "ou=users", "(objectClass=person)", con2 ); //$NON-NLS-1$ //$NON-NLS-2$
+
+    final GenericLdapSearch pagedSearch =
+        new GenericLdapSearch( getContextSource(), paramsFactory, new SearchResultToAttrValueList( "uid" ) ); //$NON-NLS-1$
+    pagedSearch.setPageSize( 2 );
+    final int[] searches = new int[1];
+    LdapSearch allUsernamesSearch = new LdapSearch() {
+      public List search( final Object[] filterArgs ) {
+        searches[0]++;
+        return pagedSearch.search( filterArgs );
+      }
+    };
+
+    DefaultLdapUserRoleListService userRoleListService = new DefaultLdapUserRoleListService();
+    userRoleListService.setAllUsernamesSearch( allUsernamesSearch );
+    userRoleListService.setUsernameComparator( new DefaultUsernameComparator() );
+
+    List<String> res = userRoleListService.getAllUsers();
+    assertTrue( res.contains( "pat" ) ); //$NON-NLS-1$
+    assertTrue( res.contains( "admin" ) ); //$NON-NLS-1$
+
+    // callers get their own copy of the cached list
+    res.clear();
+    assertEquals( userRoleListService.getAllUsers().size(), userRoleListService.getUsersStartingWith( null, "", -1 ).size() ); //$NON-NLS-1$
+    assertEquals( 1, searches[0] );
+
+    List<String> matches = userRoleListService.getUsersStartingWith( null, "PA", -1 ); //$NON-NLS-1$
+    assertTrue( matches.contains( "pat" ) ); //$NON-NLS-1$
+    assertFalse( matches.contains( "tiffany" ) ); //$NON-NLS-1$
+    assertEquals( 1, userRoleListService.getUsersStartingWith( null, "", 1 ).size() ); //$NON-NLS-1$
+
+    userRoleListService.clearCache();
+    userRoleListService.getAllUsers();
+    assertEquals( 2, searches[0] );
+
+    userRoleListService.setCacheTimeToLive( 0 );
+    userRoleListService.getAllUsers();
+    userRoleListService.getAllUsers();
+    assertEquals( 4, searches[0] );
+  }
+
+  /**
+   * Looks users up by prefix with a search that takes the prefix as a filter argument, so that only the matching
+   * entries are read from the directory.
+   */
+  @Test
+  public void testGetUsersStartingWithSearchesByPrefix() {
+    SearchControls con = new SearchControls();
+    con.setReturningAttributes( new String[] { "uid" } ); //$NON-NLS-1$
+
+    final GenericLdapSearch prefixSearch =
+        new GenericLdapSearch( getContextSource(), new LdapSearchParamsFactoryImpl( "ou=users", //$NON-NLS-1$
+            "(&(objectClass=person)(uid={0}*))", con ), new SearchResultToAttrValueList( "uid" ) ); //$NON-NLS-1$ //$NON-NLS-2$
+    final List<Object> prefixes = new ArrayList<Object>();
+    LdapSearch usernamesStartingWithSearch = new LdapSearch() {
+      public List search( final Object[] filterArgs ) {
+        prefixes.add( filterArgs[0] );
+        return prefixSearch.search( filterArgs );
+      }
+    };
+    LdapSearch allUsernamesSearch = new LdapSearch() {
+      public List search( final Object[] filterArgs ) {
+        throw new AssertionError( "the full list of users should not be read" ); //$NON-NLS-1$
+      }
+    };
+
+    DefaultLdapUserRoleListService userRoleListService = new DefaultLdapUserRoleListService();
+    userRoleListService.setAllUsernamesSearch( allUsernamesSearch );
+    userRoleListService.setUsernamesStartingWithSearch( usernamesStartingWithSearch );
+    userRoleListService.setUsernameComparator( new DefaultUsernameComparator() );
+
+    IUserRoleListPrefixSupport prefixSupport = userRoleListService;
+    List<String> matches = prefixSupport.getUsersStartingWith( null, "pa", -1 ); //$NON-NLS-1$
+    assertTrue( matches.contains( "pat" ) ); //$NON-NLS-1$
+    assertFalse( matches.contains( "tiffany" ) ); //$NON-NLS-1$
+    assertFalse( matches.contains( "admin" ) ); //$NON-NLS-1$
+    assertEquals( 1, prefixes.size() );
+    assertEquals( "pa", prefixes.get( 0 ) ); //$NON-NLS-1$
+
+    // served from the cache, whatever the case of the prefix and the limit
+    assertEquals( 1, prefixSupport.getUsersStartingWith( null, "PA", 1 ).size() ); //$NON-NLS-1$
+    assertEquals( 1, prefixes.size() );
+
+    // filter special characters in the prefix are escaped, not interpreted
+    assertTrue( prefixSupport.getUsersStartingWith( null, "*", -1 ).isEmpty() ); //$NON-NLS-1$
+  }
+
+  /**
+   * The roles of a user are cached apart from, and by default for less time than, the lists of users and roles.
+   */
+  @Test
+  public void testRolesForUserCacheTimeToLive() {
+    final int[] loads = new int[1];
+    UserDetailsService userDetailsService = new UserDetailsService() {
+      public UserDetails loadUserByUsername( final String username ) {
+        loads[0]++;
+        return new User( username, "password", true, true, true, true, //$NON-NLS-1$
+            new GrantedAuthority[] { new GrantedAuthorityImpl( "ROLE_CTO" ) } ); //$NON-NLS-1$
+      }
+    };
+
+    DefaultLdapUserRoleListService userRoleListService = new DefaultLdapUserRoleListService();
+    userRoleListService.setUserDetailsService( userDetailsService );
+    userRoleListService.setUserNameUtils( new DefaultTenantedPrincipleNameResolver() );
+    assertEquals( DefaultLdapUserRoleListService.DEFAULT_ROLES_FOR_USER_CACHE_TIME_TO_LIVE, userRoleListService
+        .getRolesForUserCacheTimeToLive() );
+    assertTrue( userRoleListService.getRolesForUserCacheTimeToLive() < userRoleListService.getCacheTimeToLive() );
+
+    userRoleListService.getRolesForUser( null, "suzy" ); //$NON-NLS-1$
+    assertEquals( "ROLE_CTO", userRoleListService.getRolesForUser( null, "suzy" ).get( 0 ) ); //$NON-NLS-1$ //$NON-NLS-2$
+    assertEquals( 1, loads[0] );
+
+    userRoleListService.setRolesForUserCacheTimeToLive( 0 );
+    userRoleListService.getRolesForUser( null, "suzy" ); //$NON-NLS-1$
+    userRoleListService.getRolesForUser( null, "suzy" ); //$NON-NLS-1$
+    assertEquals( 3, loads[0] );
+  }
+
   /**
    * Search for all users starting at <code>ou=users</code>, looking for objects with
    * <code>businessCategory=cn={0}*</code>, and returning the <code>uid</code> attribute. This search implies that the
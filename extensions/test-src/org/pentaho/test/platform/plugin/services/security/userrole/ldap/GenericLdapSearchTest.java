@@ -0,0 +1,203 @@
+/*!
+ * This program is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License, version 2.1 as published by the Free Software
+ * Foundation.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with this
+ * program; if not, you can obtain a copy at http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+ * or from the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * Copyright (c) 2002-2013 Pentaho Corporation..  All rights reserved.
+ */
+
+package org.pentaho.test.platform.plugin.services.security.userrole.ldap;
+
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.pentaho.platform.plugin.services.security.userrole.ldap.search.GenericLdapSearch;
+import org.pentaho.platform.plugin.services.security.userrole.ldap.search.LdapSearchParamsFactoryImpl;
+import org.pentaho.platform.plugin.services.security.userrole.ldap.transform.SearchResultToAttrValueList;
+import org.springframework.ldap.core.ContextSource;
+
+import javax.naming.NamingEnumeration;
+import javax.naming.NamingException;
+import javax.naming.directory.BasicAttributes;
+import javax.naming.directory.SearchControls;
+import javax.naming.directory.SearchResult;
+import javax.naming.ldap.Control;
+import javax.naming.ldap.LdapContext;
+import javax.naming.ldap.PagedResultsControl;
+import javax.naming.ldap.PagedResultsResponseControl;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests the paged searches of <code>GenericLdapSearch</code> against a directory that answers two entries per page.
+ */
+@SuppressWarnings( "nls" )
+public class GenericLdapSearchTest {
+
+  private static final List<String> USERS = Arrays.asList( "admin", "joe", "pat", "suzy", "tiffany" );
+
+  private static final int PAGE_SIZE = 2;
+
+  @Test
+  public void testSearchRequestsEveryPage() throws Exception {
+    final List<Control[]> requests = new ArrayList<Control[]>();
+    final int[] page = new int[1];
+
+    LdapContext ctx = mock( LdapContext.class );
+    when( ctx.search( anyString(), anyString(), any( Object[].class ), any( SearchControls.class ) ) ).thenAnswer(
+        new Answer<NamingEnumeration<SearchResult>>() {
+          public NamingEnumeration<SearchResult> answer( final InvocationOnMock invocation ) throws Throwable {
+            int from = page[0]++ * PAGE_SIZE;
+            return results( USERS.subList( from, Math.min( from + PAGE_SIZE, USERS.size() ) ) );
+          }
+        } );
+    when( ctx.getResponseControls() ).thenAnswer( new Answer<Control[]>() {
+      public Control[] answer( final InvocationOnMock invocation ) throws Throwable {
+        boolean more = page[0] * PAGE_SIZE < USERS.size();
+        return new Control[] { responseControl( more ? new byte[] { (byte) page[0] } : new byte[0] ) };
+      }
+    } );
+    doRecordRequestControls( ctx, requests );
+
+    ContextSource contextSource = mock( ContextSource.class );
+    when( contextSource.getReadOnlyContext() ).thenReturn( ctx );
+
+    GenericLdapSearch search =
+        new GenericLdapSearch( contextSource, new LdapSearchParamsFactoryImpl( "ou=users", "(objectClass=person)" ),
+            new SearchResultToAttrValueList( "uid" ) );
+    search.setPageSize( PAGE_SIZE );
+    List<?> results = search.search( new Object[0] );
+
+    assertEquals( USERS.size(), results.size() );
+    assertTrue( results.containsAll( USERS ) );
+    // three pages of at most two entries, each one a request to the directory
+    assertEquals( 3, page[0] );
+    assertEquals( 4, requests.size() );
+    for ( Control[] controls : requests.subList( 0, 3 ) ) {
+      assertTrue( controls[0] instanceof PagedResultsControl );
+    }
+    assertNull( "the paged results control should not be left on the context", requests.get( 3 ) );
+    verify( ctx ).close();
+  }
+
+  @Test
+  public void testFailedSearchClearsPagingControl() throws Exception {
+    LdapContext ctx = mock( LdapContext.class );
+    when( ctx.search( anyString(), anyString(), any( Object[].class ), any( SearchControls.class ) ) ).thenThrow(
+        new NamingException( "search failed" ) );
+    final List<Control[]> requests = new ArrayList<Control[]>();
+    doRecordRequestControls( ctx, requests );
+
+    ContextSource contextSource = mock( ContextSource.class );
+    when( contextSource.getReadOnlyContext() ).thenReturn( ctx );
+
+    GenericLdapSearch search =
+        new GenericLdapSearch( contextSource, new LdapSearchParamsFactoryImpl( "ou=users", "(objectClass=person)" ),
+            new SearchResultToAttrValueList( "uid" ) );
+    search.setPageSize( PAGE_SIZE );
+
+    assertTrue( search.search( new Object[0] ).isEmpty() );
+    assertEquals( 2, requests.size() );
+    assertNull( requests.get( 1 ) );
+    verify( ctx ).close();
+  }
+
+  @Test
+  public void testSearchWithoutPaging() throws Exception {
+    LdapContext ctx = mock( LdapContext.class );
+    when( ctx.search( anyString(), anyString(), any( Object[].class ), any( SearchControls.class ) ) ).thenAnswer(
+        new Answer<NamingEnumeration<SearchResult>>() {
+          public NamingEnumeration<SearchResult> answer( final InvocationOnMock invocation ) throws Throwable {
+            return results( USERS );
+          }
+        } );
+    final List<Control[]> requests = new ArrayList<Control[]>();
+    doRecordRequestControls( ctx, requests );
+
+    ContextSource contextSource = mock( ContextSource.class );
+    when( contextSource.getReadOnlyContext() ).thenReturn( ctx );
+
+    GenericLdapSearch search =
+        new GenericLdapSearch( contextSource, new LdapSearchParamsFactoryImpl( "ou=users", "(objectClass=person)" ),
+            new SearchResultToAttrValueList( "uid" ) );
+    search.setPageSize( 0 );
+
+    assertEquals( USERS.size(), search.search( new Object[0] ).size() );
+    assertTrue( requests.isEmpty() );
+    verify( ctx ).close();
+  }
+
+  private static void doRecordRequestControls( final LdapContext ctx, final List<Control[]> requests )
+    throws Exception {
+    doAnswer( new Answer<Object>() {
+      public Object answer( final InvocationOnMock invocation ) throws Throwable {
+        requests.add( (Control[]) invocation.getArguments()[0] );
+        return null;
+      }
+    } ).when( ctx ).setRequestControls( any( Control[].class ) );
+  }
+
+  private static NamingEnumeration<SearchResult> results( final List<String> uids ) {
+    final Iterator<String> iterator = uids.iterator();
+    return new NamingEnumeration<SearchResult>() {
+      public boolean hasMore() {
+        return iterator.hasNext();
+      }
+
+      public SearchResult next() {
+        String uid = iterator.next();
+        return new SearchResult( "uid=" + uid, null, new BasicAttributes( "uid", uid ) );
+      }
+
+      public boolean hasMoreElements() {
+        return hasMore();
+      }
+
+      public SearchResult nextElement() {
+        return next();
+      }
+
+      public void close() {
+      }
+    };
+  }
+
+  /**
+   * The BER encoding of a paged results response: a sequence of the estimated result size, left at zero, and the
+   * cookie.
+   */
+  private static PagedResultsResponseControl responseControl( final byte[] cookie ) throws Exception {
+    byte[] value = new byte[7 + cookie.length];
+    value[0] = 0x30;
+    value[1] = (byte) ( 5 + cookie.length );
+    value[2] = 0x02;
+    value[3] = 0x01;
+    value[4] = 0x00;
+    value[5] = 0x04;
+    value[6] = (byte) cookie.length;
+    System.arraycopy( cookie, 0, value, 7, cookie.length );
+    return new PagedResultsResponseControl( PagedResultsResponseControl.OID, false, value );
+  }
+
+}
@@ -0,0 +1,123 @@
+/*!
+ * This program is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License, version 2.1 as published by the Free Software
+ * Foundation.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with this
+ * program; if not, you can obtain a copy at http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+ * or from the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * Copyright (c) 2002-2013 Pentaho Corporation..  All rights reserved.
+ */
+
+package org.pentaho.test.platform.web;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import com.google.gwt.user.server.rpc.RPC;
+import com.google.gwt.user.server.rpc.SerializationPolicy;
+import org.junit.Test;
+import org.pentaho.platform.web.servlet.AbstractGwtRpcProxyServlet;
+
+import javax.servlet.http.HttpServletRequest;
+import java.lang.reflect.Method;
+
+@SuppressWarnings( "nls" )
+public class AbstractGwtRpcProxyServletTest {
+
+  @Test
+  public void testDispatchTargetsAreResolvedOncePerPath() {
+    TestServlet servlet = new TestServlet();
+
+    Object target = servlet.getTarget( "/ws/gwt/one" );
+    assertSame( target, servlet.getTarget( "/ws/gwt/one" ) );
+    assertEquals( 1, servlet.resolveCount );
+
+    assertNotSame( target, servlet.getTarget( "/ws/gwt/two" ) );
+    assertEquals( 2, servlet.resolveCount );
+
+    servlet.clearCaches();
+    assertNotSame( target, servlet.getTarget( "/ws/gwt/one" ) );
+    assertEquals( 3, servlet.resolveCount );
+  }
+
+  @Test
+  public void testTargetMethodIsResolvedAgainstTheTarget() throws Exception {
+    TestServlet servlet = new TestServlet();
+    Method serviceMethod = TestServiceInterface.class.getMethod( "echo", String.class );
+
+    Method method = servlet.getTargetMethod( "/ws/gwt/one", serviceMethod );
+    assertEquals( TestService.class, method.getDeclaringClass() );
+    assertSame( method, servlet.getTargetMethod( "/ws/gwt/one", serviceMethod ) );
+  }
+
+  @Test
+  public void testMissingSerializationPolicyIsLookedUpOnce() {
+    TestServlet servlet = new TestServlet();
+
+    SerializationPolicy policy = servlet.getPolicy( "http://localhost:8080/pentaho/module/", "ABCDEF" );
+    assertSame( RPC.getDefaultSerializationPolicy(), policy );
+    servlet.getPolicy( "http://localhost:8080/pentaho/module/", "ABCDEF" );
+    assertEquals( 1, servlet.policyLoadCount );
+
+    servlet.getPolicy( "http://localhost:8080/pentaho/module/", "012345" );
+    assertEquals( 2, servlet.policyLoadCount );
+
+    servlet.clearCaches();
+    servlet.getPolicy( "http://localhost:8080/pentaho/module/", "ABCDEF" );
+    assertEquals( 3, servlet.policyLoadCount );
+  }
+
+  public interface TestServiceInterface {
+    String echo( String value );
+  }
+
+  /**
+   * Matches the service interface without implementing it, as pluggable GWT services may.
+   */
+  public static class TestService {
+    public String echo( String value ) {
+      return value;
+    }
+  }
+
+  @SuppressWarnings( "serial" )
+  private static class TestServlet extends AbstractGwtRpcProxyServlet {
+
+    int resolveCount;
+
+    int policyLoadCount;
+
+    @Override
+    protected Object resolveDispatchTarget( String servletContextPath ) {
+      resolveCount++;
+      return new TestService();
+    }
+
+    @Override
+    protected SerializationPolicy doGetSerializationPolicy( HttpServletRequest request, String moduleBaseURL,
+        String strongName ) {
+      policyLoadCount++;
+      return null;
+    }
+
+    Object getTarget( String servletContextPath ) {
+      return getDispatchTarget( servletContextPath ).getTarget();
+    }
+
+    Method getTargetMethod( String servletContextPath, Method serviceMethod ) {
+      return getDispatchTarget( servletContextPath ).getMethod( serviceMethod );
+    }
+
+    SerializationPolicy getPolicy( String moduleBaseURL, String strongName ) {
+      return getCachedSerializationPolicy( moduleBaseURL, strongName );
+    }
+  }
+}
@@ -17,21 +17,24 @@
 
 package org.apache.jackrabbit.core.security.authorization.acl;
 
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.jcr.RepositoryException;
 
 import org.apache.jackrabbit.core.NodeImpl;
 import org.apache.jackrabbit.core.SessionImpl;
-import org.apache.jackrabbit.core.cache.GrowingLRUMap;
 import org.apache.jackrabbit.core.id.NodeId;
 import org.apache.jackrabbit.core.security.authorization.AccessControlModifications;
-import org.codehaus.jackson.map.util.LRUMap;
 import org.pentaho.platform.api.engine.IPentahoSession;
 import org.pentaho.platform.engine.core.system.PentahoSessionHolder;
+import org.pentaho.platform.repository2.unified.jcr.JcrTenantUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -41,6 +44,11 @@ import org.slf4j.LoggerFactory;
  * 
  * This class is a copy of the one in trunk of Jackrabbit. Backported here for performance reasons.
  * 
+ * <p>
+ * Entries contain magic ACEs granted to the session user and depend on the user's runtime roles, so they are cached
+ * per effective principal (tenanted user name plus role set) rather than per {@link IPentahoSession}. All sessions of
+ * the same user with the same roles share one cache.
+ * </p>
  */
 public class CachingPentahoEntryCollector extends PentahoEntryCollector {
 
@@ -49,15 +57,33 @@ public class CachingPentahoEntryCollector extends PentahoEntryCollector {
    */
   private static final Logger log = LoggerFactory.getLogger( CachingEntryCollector.class );
 
+  private static final String MAX_PRINCIPALS_PROPERTY =
+      "org.apache.jackrabbit.core.security.authorization.acl.CachingEntryCollector.maxprincipals";
+
   /**
-   * Cache to look up the list of access control entries defined at a given nodeID (key). The map only contains an entry
-   * if the corresponding Node is access controlled.
+   * Number of lock stripes in each {@link EntryCache}.
    */
-  private final Map<IPentahoSession, EntryCache> cacheBySession = Collections
-      .synchronizedMap( new LRUMap<IPentahoSession, EntryCache>( 128, 512 ) );
+  private static final int SEGMENTS = 16;
 
-  private final Map<IPentahoSession, ConcurrentMap<NodeId, FutureEntries>> futuresBySession = Collections
-      .synchronizedMap( new LRUMap<IPentahoSession, ConcurrentMap<NodeId, FutureEntries>>( 128, 512 ) );
+  /**
+   * Key used when there is no Pentaho session; no magic ACEs are added in that case.
+   */
+  private static final PrincipalKey NO_SESSION_KEY = new PrincipalKey( null, Collections.<String> emptyList() );
+
+  /**
+   * Cache to look up the list of access control entries defined at a given nodeID (key), per effective principal. The
+   * map only contains an entry if the corresponding Node is access controlled.
+   */
+  private final ConcurrentMap<PrincipalKey, EntryCache> cacheByPrincipal =
+      new ConcurrentHashMap<PrincipalKey, EntryCache>();
+
+  private final int maxPrincipals;
+
+  private final AtomicLong hits = new AtomicLong();
+
+  private final AtomicLong misses = new AtomicLong();
+
+  private final AtomicLong evictions = new AtomicLong();
 
   /**
    * Create a new instance.
@@ -73,39 +99,91 @@ public class CachingPentahoEntryCollector extends PentahoEntryCollector {
     throws RepositoryException {
     super( systemSession, rootID, configuration );
 
+    int max = 512;
+    try {
+      max = Integer.parseInt( System.getProperty( MAX_PRINCIPALS_PROPERTY, Integer.toString( max ) ) );
+    } catch ( NumberFormatException ex ) {
+      log.debug( "Parsing system property " + MAX_PRINCIPALS_PROPERTY + " with value: "
+          + System.getProperty( MAX_PRINCIPALS_PROPERTY ), ex );
+    }
+    maxPrincipals = max;
   }
 
-  private EntryCache getCache() {
+  /**
+   * @return number of lookups answered from the cache
+   */
+  public long getCacheHits() {
+    return hits.get();
+  }
+
+  /**
+   * @return number of lookups that had to read the entries from the repository
+   */
+  public long getCacheMisses() {
+    return misses.get();
+  }
+
+  /**
+   * @return number of entries (per node or per principal) dropped because a cache reached its maximum size
+   */
+  public long getCacheEvictions() {
+    return evictions.get();
+  }
+
+  private PrincipalKey getPrincipalKey() {
     IPentahoSession session = PentahoSessionHolder.getSession();
-    synchronized ( cacheBySession ) {
-      if ( cacheBySession.containsKey( session ) ) {
-        return cacheBySession.get( session );
-      }
+    if ( session == null || session.getId() == null || session.getId().trim().equals( "" ) ) { //$NON-NLS-1$
+      return NO_SESSION_KEY;
+    }
+    return new PrincipalKey( JcrTenantUtils.getTenantedUser( session.getName() ), getRuntimeRoleNames() );
+  }
+
+  /**
+   * Resolves the cache of the current effective principal. Building the key reads the session's runtime roles, so this
+   * is done once per lookup and the cache is passed down from there.
+   */
+  private EntryCache getCache() {
+    PrincipalKey key = getPrincipalKey();
+    EntryCache cache = cacheByPrincipal.get( key );
+    if ( cache == null ) {
       EntryCache newCache = new EntryCache();
-      cacheBySession.put( session, newCache );
-      return newCache;
+      cache = cacheByPrincipal.putIfAbsent( key, newCache );
+      if ( cache == null ) {
+        cache = newCache;
+        if ( cacheByPrincipal.size() > maxPrincipals ) {
+          evictLeastRecentlyUsed( key );
+        }
+      }
     }
+    cache.touch();
+    return cache;
   }
 
-  private ConcurrentMap<NodeId, FutureEntries> getFutures() {
-    IPentahoSession session = PentahoSessionHolder.getSession();
-    if ( futuresBySession.containsKey( session ) ) {
-      return futuresBySession.get( session );
+  /**
+   * Drops the principal cache that was used least recently; only runs when a new principal pushes the number of caches
+   * over the limit.
+   */
+  private void evictLeastRecentlyUsed( PrincipalKey keep ) {
+    Map.Entry<PrincipalKey, EntryCache> eldest = null;
+    for ( Map.Entry<PrincipalKey, EntryCache> entry : cacheByPrincipal.entrySet() ) {
+      if ( !entry.getKey().equals( keep )
+          && ( eldest == null || entry.getValue().lastAccess < eldest.getValue().lastAccess ) ) {
+        eldest = entry;
+      }
+    }
+    if ( eldest != null && cacheByPrincipal.remove( eldest.getKey(), eldest.getValue() ) ) {
+      evictions.incrementAndGet();
     }
-    ConcurrentMap<NodeId, FutureEntries> futures = new ConcurrentHashMap<NodeId, FutureEntries>();
-    futuresBySession.put( session, futures );
-    return futures;
   }
 
   @Override
   protected void close() {
     super.close();
 
-    synchronized ( cacheBySession ) {
-      for ( Map.Entry<IPentahoSession, EntryCache> entry : this.cacheBySession.entrySet() ) {
-        entry.getValue().clear();
-      }
+    for ( EntryCache cache : cacheByPrincipal.values() ) {
+      cache.clear();
     }
+    cacheByPrincipal.clear();
   }
 
   // -----------------------------------------------------< EntryCollector >---
@@ -115,10 +193,14 @@ public class CachingPentahoEntryCollector extends PentahoEntryCollector {
   @Override
   protected Entries getEntries( NodeImpl node ) throws RepositoryException {
     NodeId nodeId = node.getNodeId();
-    Entries entries = getCache().get( nodeId );
+    EntryCache cache = getCache();
+    Entries entries = cache.get( nodeId );
     if ( entries == null ) {
+      misses.incrementAndGet();
       // fetch entries and update the cache
-      entries = updateCache( node );
+      entries = updateCache( node, cache );
+    } else {
+      hits.incrementAndGet();
     }
     return entries;
   }
@@ -128,11 +210,15 @@ public class CachingPentahoEntryCollector extends PentahoEntryCollector {
    */
   @Override
   protected Entries getEntries( NodeId nodeId ) throws RepositoryException {
-    Entries entries = getCache().get( nodeId );
+    EntryCache cache = getCache();
+    Entries entries = cache.get( nodeId );
     if ( entries == null ) {
+      misses.incrementAndGet();
       // fetch entries and update the cache
       NodeImpl n = getNodeById( nodeId );
-      entries = updateCache( n );
+      entries = updateCache( n, cache );
+    } else {
+      hits.incrementAndGet();
     }
     return entries;
   }
@@ -142,44 +228,56 @@ public class CachingPentahoEntryCollector extends PentahoEntryCollector {
    * 
    * @param node
    *          The target node
+   * @param cache
+   *          The cache of the current principal
    * @return The list of entries present on the specified node or an empty list.
    * @throws RepositoryException
    *           If an error occurs.
    */
-  private Entries internalUpdateCache( NodeImpl node ) throws RepositoryException {
-    Entries entries = super.getEntries( node );
-    if ( ( isRootId( node.getNodeId() ) && getCache().specialCasesRoot() ) || !entries.isEmpty() ) {
+  private Entries internalUpdateCache( NodeImpl node, EntryCache cache ) throws RepositoryException {
+    Entries entries = collectEntries( node );
+    if ( ( isRootId( node.getNodeId() ) && cache.specialCasesRoot() ) || !entries.isEmpty() ) {
       // adjust the 'nextId' to point to the next access controlled
       // ancestor node instead of the parent and remember the entries.
-      // entries.setNextId(getNextID(node));
-      getCache().put( node.getNodeId(), entries );
+      // entries.setNextId(getNextID(node, cache));
+      cache.put( node.getNodeId(), entries );
     } // else: not access controlled -> ignore.
     return entries;
   }
 
+  /**
+   * Reads the entries of the given node from the repository, bypassing the cache.
+   */
+  protected Entries collectEntries( NodeImpl node ) throws RepositoryException {
+    return super.getEntries( node );
+  }
+
   /**
    * Update cache for the given node id
    * 
    * @param node
    *          The target node
+   * @param cache
+   *          The cache of the current principal
    * @return The list of entries present on the specified node or an empty list.
    * @throws RepositoryException
    */
-  private Entries updateCache( NodeImpl node ) throws RepositoryException {
-    return throttledUpdateCache( node );
+  private Entries updateCache( NodeImpl node, EntryCache cache ) throws RepositoryException {
+    return throttledUpdateCache( node, cache );
   }
 
   /**
    * See {@link CachingEntryCollector#updateCache(NodeImpl)} ; this variant blocks the current thread if a concurrent
    * update for the same node id takes place
    */
-  private Entries throttledUpdateCache( NodeImpl node ) throws RepositoryException {
+  private Entries throttledUpdateCache( NodeImpl node, EntryCache cache ) throws RepositoryException {
     NodeId id = node.getNodeId();
     FutureEntries fe = null;
     FutureEntries nfe = new FutureEntries();
     boolean found = true;
 
-    fe = getFutures().putIfAbsent( id, nfe );
+    ConcurrentMap<NodeId, FutureEntries> futures = cache.futures;
+    fe = futures.putIfAbsent( id, nfe );
     if ( fe == null ) {
       found = false;
       fe = nfe;
@@ -191,12 +289,12 @@ public class CachingPentahoEntryCollector extends PentahoEntryCollector {
     } else {
       // otherwise obtain result and when done notify waiting FutureEntries
       try {
-        Entries e = internalUpdateCache( node );
-        getFutures().remove( id );
+        Entries e = internalUpdateCache( node, cache );
+        futures.remove( id );
         fe.setResult( e );
         return e;
       } catch ( Throwable problem ) {
-        getFutures().remove( id );
+        futures.remove( id );
         fe.setProblem( problem );
         if ( problem instanceof RepositoryException ) {
           throw (RepositoryException) problem;
@@ -212,14 +310,16 @@ public class CachingPentahoEntryCollector extends PentahoEntryCollector {
    * 
    * @param node
    *          The target node for which the cache needs to be updated.
+   * @param cache
+   *          The cache of the current principal
    * @return The NodeId of the next access controlled ancestor in the hierarchy or null
    */
-  private NodeId getNextID( NodeImpl node ) throws RepositoryException {
+  private NodeId getNextID( NodeImpl node, EntryCache cache ) throws RepositoryException {
     NodeImpl n = node;
     NodeId nextId = null;
     while ( nextId == null && !isRootId( n.getNodeId() ) ) {
       NodeId parentId = n.getParentId();
-      if ( getCache().containsKey( parentId ) ) {
+      if ( cache.containsKey( parentId ) ) {
         nextId = parentId;
       } else {
         NodeImpl parent = (NodeImpl) n.getParent();
@@ -282,41 +382,35 @@ public class CachingPentahoEntryCollector extends PentahoEntryCollector {
         // clear the complete cache since the nextAcNodeId may
         // have changed due to the added ACL.
         log.debug( "Policy added, clearing the cache" );
-        synchronized ( cacheBySession ) {
-          for ( Map.Entry<IPentahoSession, EntryCache> entry : this.cacheBySession.entrySet() ) {
-            entry.getValue().clear();
-          }
-        }
+        clearAll();
         break; // no need for further processing.
       } else if ( ( type & POLICY_REMOVED ) == POLICY_REMOVED ) {
         // clear the entry and change the entries having a nextID
         // pointing to this node.
-        synchronized ( cacheBySession ) {
-          for ( Map.Entry<IPentahoSession, EntryCache> entry : this.cacheBySession.entrySet() ) {
-            entry.getValue().remove( nodeId, true );
-          }
+        for ( EntryCache cache : cacheByPrincipal.values() ) {
+          cache.remove( nodeId, true );
         }
       } else if ( ( type & POLICY_MODIFIED ) == POLICY_MODIFIED ) {
         // simply clear the cache entry -> reload upon next access.
-        synchronized ( cacheBySession ) {
-          for ( Map.Entry<IPentahoSession, EntryCache> entry : this.cacheBySession.entrySet() ) {
-            entry.getValue().remove( nodeId, false );
-          }
+        for ( EntryCache cache : cacheByPrincipal.values() ) {
+          cache.remove( nodeId, false );
         }
       } else if ( ( type & MOVE ) == MOVE ) {
         // some sort of move operation that may affect the cache
         log.debug( "Move operation, clearing the cache" );
-        synchronized ( cacheBySession ) {
-          for ( Map.Entry<IPentahoSession, EntryCache> entry : this.cacheBySession.entrySet() ) {
-            entry.getValue().clear();
-          }
-        }
+        clearAll();
         break; // no need for further processing.
       }
     }
     super.notifyListeners( modifications );
   }
 
+  private void clearAll() {
+    for ( EntryCache cache : cacheByPrincipal.values() ) {
+      cache.clear();
+    }
+  }
+
   /**
    * A place holder for a yet to be computed {@link Entries} result
    */
@@ -357,16 +451,57 @@ public class CachingPentahoEntryCollector extends PentahoEntryCollector {
     }
   }
 
+  /**
+   * Identifies the effective principal entries are computed for: the tenanted user name and its runtime roles.
+   */
+  private static final class PrincipalKey {
+
+    private final String userName;
+
+    private final List<String> roles;
+
+    private final int hash;
+
+    PrincipalKey( final String userName, final List<String> roles ) {
+      this.userName = userName;
+      List<String> sortedRoles = new ArrayList<String>( roles );
+      Collections.sort( sortedRoles );
+      this.roles = sortedRoles;
+      this.hash = 31 * ( userName == null ? 0 : userName.hashCode() ) + sortedRoles.hashCode();
+    }
+
+    @Override
+    public int hashCode() {
+      return hash;
+    }
+
+    @Override
+    public boolean equals( Object obj ) {
+      if ( this == obj ) {
+        return true;
+      }
+      if ( !( obj instanceof PrincipalKey ) ) {
+        return false;
+      }
+      PrincipalKey other = (PrincipalKey) obj;
+      return hash == other.hash && ( userName == null ? other.userName == null : userName.equals( other.userName ) )
+          && roles.equals( other.roles );
+    }
+  }
+
   /**
    * A cache to lookup the ACEs defined on a given (access controlled) node. The internal map uses the ID of the node as
    * key while the value consists of {@Entries} objects that not only provide the ACEs defined for that node
-   * but also the ID of the next access controlled parent node.
+   * but also the ID of the next access controlled parent node. The map is split in {@link #SEGMENTS} LRU maps, each
+   * guarded by its own lock, so that concurrent lookups of different nodes don't contend.
    */
   private class EntryCache {
 
-    private final Map<NodeId, Entries> cache;
-    private Entries rootEntries;
+    private final Map<NodeId, Entries>[] segments;
+    private final ConcurrentMap<NodeId, FutureEntries> futures = new ConcurrentHashMap<NodeId, FutureEntries>();
+    private volatile Entries rootEntries;
     private boolean specialCaseRoot = true;
+    private volatile long lastAccess;
 
     @SuppressWarnings( "unchecked" )
     public EntryCache() {
@@ -380,7 +515,22 @@ public class CachingPentahoEntryCollector extends PentahoEntryCollector {
 
       log.info( "Creating cache with max size of: " + maxsize );
 
-      cache = new GrowingLRUMap( 1024, maxsize );
+      segments = new Map[SEGMENTS];
+      final int segmentMaxSize = Math.max( 1, maxsize / SEGMENTS );
+      for ( int i = 0; i < SEGMENTS; i++ ) {
+        segments[i] = new LinkedHashMap<NodeId, Entries>( 64, 0.75f, true ) {
+          private static final long serialVersionUID = 1L;
+
+          @Override
+          protected boolean removeEldestEntry( Map.Entry<NodeId, Entries> eldest ) {
+            if ( size() > segmentMaxSize ) {
+              evictions.incrementAndGet();
+              return true;
+            }
+            return false;
+          }
+        };
+      }
 
       String propsrname = "org.apache.jackrabbit.core.security.authorization.acl.CachingEntryCollector.scroot";
       specialCaseRoot = Boolean.parseBoolean( System.getProperty( propsrname, "true" ) );
@@ -388,6 +538,14 @@ public class CachingPentahoEntryCollector extends PentahoEntryCollector {
       log.info( "Root is special-cased: " + specialCaseRoot );
     }
 
+    private Map<NodeId, Entries> segmentFor( NodeId id ) {
+      return segments[( id.hashCode() & 0x7fffffff ) % SEGMENTS];
+    }
+
+    public void touch() {
+      lastAccess = System.currentTimeMillis();
+    }
+
     public boolean specialCasesRoot() {
       return specialCaseRoot;
     }
@@ -396,16 +554,19 @@ public class CachingPentahoEntryCollector extends PentahoEntryCollector {
       if ( specialCaseRoot && isRootId( id ) ) {
         return rootEntries != null;
       } else {
-        synchronized ( cache ) {
-          return cache.containsKey( id );
+        Map<NodeId, Entries> segment = segmentFor( id );
+        synchronized ( segment ) {
+          return segment.containsKey( id );
         }
       }
     }
 
     public void clear() {
       rootEntries = null;
-      synchronized ( cache ) {
-        cache.clear();
+      for ( Map<NodeId, Entries> segment : segments ) {
+        synchronized ( segment ) {
+          segment.clear();
+        }
       }
     }
 
@@ -415,8 +576,9 @@ public class CachingPentahoEntryCollector extends PentahoEntryCollector {
       if ( specialCaseRoot && isRootId( id ) ) {
         result = rootEntries;
       } else {
-        synchronized ( cache ) {
-          result = cache.get( id );
+        Map<NodeId, Entries> segment = segmentFor( id );
+        synchronized ( segment ) {
+          result = segment.get( id );
         }
       }
 
@@ -440,8 +602,9 @@ public class CachingPentahoEntryCollector extends PentahoEntryCollector {
       if ( specialCaseRoot && isRootId( id ) ) {
         rootEntries = entries;
       } else {
-        synchronized ( cache ) {
-          cache.put( id, entries );
+        Map<NodeId, Entries> segment = segmentFor( id );
+        synchronized ( segment ) {
+          segment.put( id, entries );
         }
       }
     }
@@ -449,24 +612,29 @@ public class CachingPentahoEntryCollector extends PentahoEntryCollector {
     public void remove( NodeId id, boolean adjustNextIds ) {
       log.debug( "Removing nodeId {} from cache", id );
       Entries result;
-      synchronized ( cache ) {
-        if ( specialCaseRoot && isRootId( id ) ) {
-          result = rootEntries;
-          rootEntries = null;
-        } else {
-          result = cache.remove( id );
+      if ( specialCaseRoot && isRootId( id ) ) {
+        result = rootEntries;
+        rootEntries = null;
+      } else {
+        Map<NodeId, Entries> segment = segmentFor( id );
+        synchronized ( segment ) {
+          result = segment.remove( id );
         }
+      }
 
-        if ( adjustNextIds && result != null ) {
-          NodeId nextId = result.getNextId();
-          for ( Entries entry : cache.values() ) {
-            if ( id.equals( entry.getNextId() ) ) {
-              // fail early on potential cache corruption
-              if ( id.equals( nextId ) ) {
-                throw new IllegalArgumentException( "Trying to update cache entry for " + id
-                    + " with a circular reference" );
+      if ( adjustNextIds && result != null ) {
+        NodeId nextId = result.getNextId();
+        for ( Map<NodeId, Entries> segment : segments ) {
+          synchronized ( segment ) {
+            for ( Entries entry : segment.values() ) {
+              if ( id.equals( entry.getNextId() ) ) {
+                // fail early on potential cache corruption
+                if ( id.equals( nextId ) ) {
+                  throw new IllegalArgumentException( "Trying to update cache entry for " + id
+                      + " with a circular reference" );
+                }
+                entry.setNextId( nextId );
               }
-              entry.setNextId( nextId );
             }
           }
         }
@@ -505,6 +505,24 @@ public class DefaultUnifiedRepository implements IUnifiedRepository {
     return repositoryFileDao.getFileMetadata( fileId );
   }
 
+  /**
+   * {@inheritDoc}
+   */
+  public List<Map<String, Serializable>> getFileMetadataInBatch( final List<Serializable> fileIds ) {
+    Assert.notNull( fileIds );
+    return repositoryFileDao.getFileMetadataInBatch( fileIds );
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  public List<RepositoryFile> getChildrenByMetadata( final Serializable folderId, final String metadataKey,
+      final Serializable metadataValue ) {
+    Assert.notNull( folderId );
+    Assert.hasText( metadataKey );
+    return repositoryFileDao.getChildrenByMetadata( folderId, metadataKey, metadataValue );
+  }
+
   public List<Character> getReservedChars() {
     return repositoryFileDao.getReservedChars();
   }
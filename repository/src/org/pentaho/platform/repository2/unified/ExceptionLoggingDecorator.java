@@ -519,6 +519,23 @@ public class ExceptionLoggingDecorator implements IUnifiedRepository {
     }, Messages.getInstance().getString( "ExceptionLoggingDecorator.getFileMetadata", fileId ) ); //$NON-NLS-1$
   }
 
+  public List<Map<String, Serializable>> getFileMetadataInBatch( final List<Serializable> fileIds ) {
+    return callLogThrow( new Callable<List<Map<String, Serializable>>>() {
+      public List<Map<String, Serializable>> call() throws Exception {
+        return delegatee.getFileMetadataInBatch( fileIds );
+      }
+    }, Messages.getInstance().getString( "ExceptionLoggingDecorator.getFileMetadataInBatch" ) ); //$NON-NLS-1$
+  }
+
+  public List<RepositoryFile> getChildrenByMetadata( final Serializable folderId, final String metadataKey,
+      final Serializable metadataValue ) {
+    return callLogThrow( new Callable<List<RepositoryFile>>() {
+      public List<RepositoryFile> call() throws Exception {
+        return delegatee.getChildrenByMetadata( folderId, metadataKey, metadataValue );
+      }
+    }, Messages.getInstance().getString( "ExceptionLoggingDecorator.getChildrenByMetadata", folderId, metadataKey ) ); //$NON-NLS-1$
+  }
+
   public List<Character> getReservedChars() {
     return callLogThrow( new Callable<List<Character>>() {
       public List<Character> call() throws Exception {
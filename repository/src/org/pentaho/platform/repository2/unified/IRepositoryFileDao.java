@@ -111,6 +111,11 @@ public interface IRepositoryFileDao {
 
   Map<String, Serializable> getFileMetadata( final Serializable fileId );
 
+  List<Map<String, Serializable>> getFileMetadataInBatch( final List<Serializable> fileIds );
+
+  List<RepositoryFile> getChildrenByMetadata( final Serializable folderId, final String metadataKey,
+      final Serializable metadataValue );
+
   List<Character> getReservedChars();
 
   List<Locale> getAvailableLocalesForFileById( final Serializable fileId );
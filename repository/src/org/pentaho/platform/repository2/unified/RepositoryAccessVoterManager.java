@@ -59,12 +59,40 @@ public class RepositoryAccessVoterManager implements IRepositoryAccessVoterManag
   @Override
   public boolean hasAccess( RepositoryFile file, RepositoryFilePermission operation,
       RepositoryFileAcl repositoryFileAcl, IPentahoSession session ) {
-    if ( voters != null && !authorizationPolicy.isAllowed( AdministerSecurityAction.NAME )
-        && ( session.getName() != null && !session.getName().equals( repositoryAdminUsername ) ) ) {
-      for ( IRepositoryAccessVoter voter : voters ) {
-        if ( !voter.hasAccess( file, operation, repositoryFileAcl, session ) ) {
-          return false;
-        }
+    if ( isVotingRequired( session ) ) {
+      return votersAllow( file, operation, repositoryFileAcl, session );
+    }
+    return true;
+  }
+
+  @Override
+  public boolean isVotingRequired( IPentahoSession session ) {
+    return voters != null && !voters.isEmpty() && !authorizationPolicy.isAllowed( AdministerSecurityAction.NAME )
+        && ( session.getName() != null && !session.getName().equals( repositoryAdminUsername ) );
+  }
+
+  @Override
+  public List<RepositoryFile> filterAccessible( List<RepositoryFile> files, RepositoryFilePermission operation,
+      List<RepositoryFileAcl> repositoryFileAcls, IPentahoSession session ) {
+    Assert.isTrue( files.size() == repositoryFileAcls.size() );
+    if ( !isVotingRequired( session ) ) {
+      return new ArrayList<RepositoryFile>( files );
+    }
+    List<RepositoryFile> accessible = new ArrayList<RepositoryFile>( files.size() );
+    for ( int i = 0; i < files.size(); i++ ) {
+      RepositoryFile file = files.get( i );
+      if ( votersAllow( file, operation, repositoryFileAcls.get( i ), session ) ) {
+        accessible.add( file );
+      }
+    }
+    return accessible;
+  }
+
+  private boolean votersAllow( RepositoryFile file, RepositoryFilePermission operation,
+      RepositoryFileAcl repositoryFileAcl, IPentahoSession session ) {
+    for ( IRepositoryAccessVoter voter : voters ) {
+      if ( !voter.hasAccess( file, operation, repositoryFileAcl, session ) ) {
+        return false;
       }
     }
     return true;
@@ -18,16 +18,26 @@
 
 package org.pentaho.platform.repository2.unified.fileio;
 
+import java.io.BufferedOutputStream;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.Serializable;
+import java.io.UnsupportedEncodingException;
 import java.text.MessageFormat;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.input.BoundedInputStream;
 import org.apache.commons.lang.StringUtils;
 import org.pentaho.platform.api.repository2.unified.ISourcesStreamEvents;
 import org.pentaho.platform.api.repository2.unified.IStreamListener;
@@ -38,8 +48,27 @@ import org.pentaho.platform.engine.core.system.PentahoSystem;
 import org.pentaho.platform.repository.RepositoryFilenameUtils;
 import org.pentaho.platform.util.web.MimeHelper;
 
+/**
+ * Buffers everything written to it and stores it as the content of a repository file on {@link #flush()}.
+ * 
+ * <p>
+ * Content is kept in memory up to {@link #getSpillThreshold()} bytes; anything larger is spilled to a temporary file so
+ * that large outputs (e.g. scheduled PDF or Excel reports) don't have to live on the heap. Spilled content is handed to
+ * the repository as a stream over the temporary file; in-memory content is bounded by the threshold and is copied, so
+ * that later writes can't change what the repository reads.
+ * </p>
+ */
 public class RepositoryFileOutputStream extends ByteArrayOutputStream implements ISourcesStreamEvents {
 
+  /**
+   * Default number of bytes buffered in memory before the content is spilled to a temporary file.
+   */
+  public static final int DEFAULT_SPILL_THRESHOLD = 1024 * 1024;
+
+  private static final String SPILL_FILE_PREFIX = "repoFileOutput"; //$NON-NLS-1$
+
+  private static final String SPILL_FILE_SUFFIX = ".tmp"; //$NON-NLS-1$
+
   protected boolean hidden = false;
   protected String path = null;
   protected IUnifiedRepository repository;
@@ -49,6 +78,10 @@ public class RepositoryFileOutputStream extends ByteArrayOutputStream implements
   protected boolean closed = false;
   protected boolean flushed = false;
   protected ArrayList<IStreamListener> listeners = new ArrayList<IStreamListener>();
+  protected int spillThreshold = DEFAULT_SPILL_THRESHOLD;
+  private File spillFile;
+  private OutputStream spillStream;
+  private long spilledCount;
 
   public RepositoryFileOutputStream( final String path, final boolean autoCreateUniqueFileName,
       final boolean autoCreateDirStructure, final IUnifiedRepository repository, final boolean hidden ) {
@@ -143,12 +176,156 @@ public class RepositoryFileOutputStream extends ByteArrayOutputStream implements
     return repository.getFile( parentPath );
   }
 
+  @Override
+  public synchronized void write( int b ) {
+    if ( spillStream == null && count + 1 > spillThreshold && spillThreshold >= 0 ) {
+      spill();
+    }
+    if ( spillStream != null ) {
+      try {
+        spillStream.write( b );
+        spilledCount++;
+      } catch ( IOException e ) {
+        throw new IllegalStateException( e );
+      }
+    } else {
+      super.write( b );
+    }
+  }
+
+  @Override
+  public synchronized void write( byte[] b, int off, int len ) {
+    if ( spillStream == null && count + len > spillThreshold && spillThreshold >= 0 ) {
+      spill();
+    }
+    if ( spillStream != null ) {
+      try {
+        spillStream.write( b, off, len );
+        spilledCount += len;
+      } catch ( IOException e ) {
+        throw new IllegalStateException( e );
+      }
+    } else {
+      super.write( b, off, len );
+    }
+  }
+
+  @Override
+  public synchronized void writeTo( OutputStream out ) throws IOException {
+    if ( spillStream != null ) {
+      InputStream in = openContentStream();
+      try {
+        IOUtils.copy( in, out );
+      } finally {
+        IOUtils.closeQuietly( in );
+      }
+    } else {
+      super.writeTo( out );
+    }
+  }
+
+  @Override
+  public synchronized byte[] toByteArray() {
+    if ( spillStream != null ) {
+      try {
+        spillStream.flush();
+        return FileUtils.readFileToByteArray( spillFile );
+      } catch ( IOException e ) {
+        throw new IllegalStateException( e );
+      }
+    }
+    return super.toByteArray();
+  }
+
+  @Override
+  public synchronized String toString() {
+    if ( spillStream != null ) {
+      return new String( toByteArray() );
+    }
+    return super.toString();
+  }
+
+  @Override
+  public synchronized String toString( final String charsetName ) throws UnsupportedEncodingException {
+    if ( spillStream != null ) {
+      return new String( toByteArray(), charsetName );
+    }
+    return super.toString( charsetName );
+  }
+
+  /**
+   * @return the number of bytes written so far, capped at {@link Integer#MAX_VALUE}; see {@link #getContentLength()}
+   */
+  @Override
+  public synchronized int size() {
+    return (int) Math.min( Integer.MAX_VALUE, getContentLength() );
+  }
+
+  /**
+   * @return the number of bytes written so far, including content spilled to the temporary file
+   */
+  public synchronized long getContentLength() {
+    return spillStream != null ? spilledCount : count;
+  }
+
+  @Override
+  public synchronized void reset() {
+    super.reset();
+    discardSpillFile();
+  }
+
+  /**
+   * Moves the in-memory buffer to a temporary file; everything written afterwards goes straight to that file.
+   */
+  private void spill() {
+    try {
+      spillFile = File.createTempFile( SPILL_FILE_PREFIX, SPILL_FILE_SUFFIX );
+      spillStream = new BufferedOutputStream( new FileOutputStream( spillFile ) );
+      spillStream.write( buf, 0, count );
+      spilledCount = count;
+    } catch ( IOException e ) {
+      discardSpillFile();
+      throw new IllegalStateException( e );
+    }
+    // release the memory buffer; it is not used again until reset
+    count = 0;
+    buf = new byte[32];
+  }
+
+  private void discardSpillFile() {
+    if ( spillStream != null ) {
+      IOUtils.closeQuietly( spillStream );
+      spillStream = null;
+    }
+    if ( spillFile != null ) {
+      FileUtils.deleteQuietly( spillFile );
+      spillFile = null;
+    }
+    spilledCount = 0;
+  }
+
+  /**
+   * Opens a stream over the content written so far. In-memory content is copied (it is at most
+   * {@link #getSpillThreshold()} bytes) and spilled content is read up to its current length, so writes made while
+   * the stream is read don't show through.
+   */
+  private synchronized InputStream openContentStream() throws IOException {
+    if ( spillStream != null ) {
+      spillStream.flush();
+      return new BoundedInputStream( new FileInputStream( spillFile ), spilledCount );
+    }
+    return new ByteArrayInputStream( super.toByteArray() );
+  }
+
   @Override
   public void close() throws IOException {
     if ( !closed ) {
-      flush();
-      closed = true;
-      reset();
+      try {
+        flush();
+      } finally {
+        closed = true;
+        reset();
+      }
     }
   }
 
@@ -159,8 +336,15 @@ public class RepositoryFileOutputStream extends ByteArrayOutputStream implements
     }
     super.flush();
 
-    ByteArrayInputStream bis = new ByteArrayInputStream( toByteArray() );
+    InputStream bis = openContentStream();
+    try {
+      store( bis );
+    } finally {
+      IOUtils.closeQuietly( bis );
+    }
+  }
 
+  private void store( final InputStream bis ) throws IOException {
     // make an effort to determine the correct mime type, default to application/octet-stream
     String ext = RepositoryFilenameUtils.getExtension( path );
     String mimeType = "application/octet-stream"; //$NON-NLS-1$
@@ -310,4 +494,16 @@ public class RepositoryFileOutputStream extends ByteArrayOutputStream implements
   public boolean isFlushed() {
     return flushed;
   }
+
+  /**
+   * @return number of bytes kept in memory before the content is spilled to a temporary file; a negative value means
+   *         the content is never spilled
+   */
+  public int getSpillThreshold() {
+    return spillThreshold;
+  }
+
+  public void setSpillThreshold( final int spillThreshold ) {
+    this.spillThreshold = spillThreshold;
+  }
 }
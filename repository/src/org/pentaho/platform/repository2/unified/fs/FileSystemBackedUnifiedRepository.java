@@ -260,6 +260,15 @@ public class FileSystemBackedUnifiedRepository implements IUnifiedRepository {
     return repositoryFileDao.getFileMetadata( fileId );
   }
 
+  public List<Map<String, Serializable>> getFileMetadataInBatch( final List<Serializable> fileIds ) {
+    return repositoryFileDao.getFileMetadataInBatch( fileIds );
+  }
+
+  public List<RepositoryFile> getChildrenByMetadata( final Serializable folderId, final String metadataKey,
+      final Serializable metadataValue ) {
+    return repositoryFileDao.getChildrenByMetadata( folderId, metadataKey, metadataValue );
+  }
+
   public void copyFile( Serializable fileId, String destAbsPath, String versionMessage ) {
     throw new UnsupportedOperationException();
   }
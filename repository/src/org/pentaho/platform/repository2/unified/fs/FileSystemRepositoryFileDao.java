@@ -393,6 +393,28 @@ public class FileSystemRepositoryFileDao implements IRepositoryFileDao {
     return metadata;
   }
 
+  public List<Map<String, Serializable>> getFileMetadataInBatch( final List<Serializable> fileIds ) {
+    List<Map<String, Serializable>> metadata = new ArrayList<Map<String, Serializable>>( fileIds.size() );
+    for ( Serializable fileId : fileIds ) {
+      metadata.add( getFileMetadata( fileId ) );
+    }
+    return metadata;
+  }
+
+  public List<RepositoryFile> getChildrenByMetadata( final Serializable folderId, final String metadataKey,
+      final Serializable metadataValue ) {
+    // there is no index to consult here; metadata is stored as text, so compare the string forms
+    final String value = ( metadataValue != null ? metadataValue.toString() : null );
+    List<RepositoryFile> children = new ArrayList<RepositoryFile>();
+    for ( RepositoryFile child : getChildren( folderId ) ) {
+      Serializable childValue = getFileMetadata( child.getId() ).get( metadataKey );
+      if ( childValue != null && childValue.equals( value ) ) {
+        children.add( child );
+      }
+    }
+    return children;
+  }
+
   public void copyFile( Serializable fileId, String destAbsPath, String versionMessage ) {
     throw new UnsupportedOperationException( "This operation is not support by this repository" );
   }
@@ -258,6 +258,20 @@ public class JcrRepositoryFileAclUtils {
       throw new RepositoryException( Messages.getInstance().getString(
           "JackrabbitRepositoryFileAclDao.ERROR_0001_NODE_NOT_FOUND", id.toString() ) ); //$NON-NLS-1$
     }
+    return getAcl( session, pentahoJcrConstants, id, node );
+  }
+
+  /**
+   * Same as {@link #getAcl(Session, PentahoJcrConstants, Serializable)} for callers that already hold the node, saving
+   * the lookup by identifier.
+   */
+  public static RepositoryFileAcl getAcl( final Session session, final PentahoJcrConstants pentahoJcrConstants,
+      final Node node ) throws RepositoryException {
+    return getAcl( session, pentahoJcrConstants, node.getIdentifier(), node );
+  }
+
+  private static RepositoryFileAcl getAcl( final Session session, final PentahoJcrConstants pentahoJcrConstants,
+      final Serializable id, final Node node ) throws RepositoryException {
     String absPath = node.getPath();
     AccessControlManager acMgr = session.getAccessControlManager();
     AccessControlList acList = getAccessControlList( acMgr, absPath );
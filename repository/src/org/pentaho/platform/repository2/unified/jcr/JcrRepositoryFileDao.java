@@ -1100,6 +1100,39 @@ public class JcrRepositoryFileDao implements IRepositoryFileDao {
     } );
   }
 
+  @Override
+  @SuppressWarnings( "unchecked" )
+  public List<Map<String, Serializable>> getFileMetadataInBatch( final List<Serializable> fileIds ) {
+    Assert.notNull( fileIds );
+    return (List<Map<String, Serializable>>) jcrTemplate.execute( new JcrCallback() {
+      @Override
+      public Object doInJcr( final Session session ) throws IOException, RepositoryException {
+        List<Map<String, Serializable>> metadata = new ArrayList<Map<String, Serializable>>( fileIds.size() );
+        for ( Serializable fileId : fileIds ) {
+          Assert.notNull( fileId );
+          metadata.add( JcrRepositoryFileUtils.getFileMetadata( session, fileId ) );
+        }
+        return metadata;
+      }
+    } );
+  }
+
+  @Override
+  @SuppressWarnings( "unchecked" )
+  public List<RepositoryFile> getChildrenByMetadata( final Serializable folderId, final String metadataKey,
+      final Serializable metadataValue ) {
+    Assert.notNull( folderId );
+    Assert.hasText( metadataKey );
+    return (List<RepositoryFile>) jcrTemplate.execute( new JcrCallback() {
+      @Override
+      public Object doInJcr( final Session session ) throws RepositoryException, IOException {
+        PentahoJcrConstants pentahoJcrConstants = new PentahoJcrConstants( session );
+        return JcrRepositoryFileUtils.getChildrenByMetadata( session, pentahoJcrConstants, pathConversionHelper,
+            lockHelper, folderId, metadataKey, metadataValue );
+      }
+    } );
+  }
+
   @Override
   public List<Character> getReservedChars() {
     return JcrRepositoryFileUtils.getReservedChars();
@@ -42,7 +42,18 @@ import javax.jcr.PropertyIterator;
 import javax.jcr.PropertyType;
 import javax.jcr.RepositoryException;
 import javax.jcr.Session;
+import javax.jcr.Value;
+import javax.jcr.ValueFactory;
 import javax.jcr.lock.Lock;
+import javax.jcr.query.Query;
+import javax.jcr.query.QueryResult;
+import javax.jcr.query.Row;
+import javax.jcr.query.RowIterator;
+import javax.jcr.query.qom.Constraint;
+import javax.jcr.query.qom.Join;
+import javax.jcr.query.qom.QueryObjectModelConstants;
+import javax.jcr.query.qom.QueryObjectModelFactory;
+import javax.jcr.query.qom.Selector;
 import javax.jcr.version.Version;
 import javax.jcr.version.VersionHistory;
 import javax.jcr.version.VersionManager;
@@ -639,6 +650,80 @@ public class JcrRepositoryFileUtils {
     return children;
   }
 
+  /**
+   * Finds the immediate children of a folder, files and folders alike, by a metadata item. Rather than reading the
+   * metadata node of every child, the children are joined with their metadata nodes through the query index, so the
+   * cost depends on the number of matches rather than on the size of the folder or of the tree below it.
+   */
+  public static List<RepositoryFile> getChildrenByMetadata( final Session session,
+      final PentahoJcrConstants pentahoJcrConstants, final IPathConversionHelper pathConversionHelper,
+      final ILockHelper lockHelper, final Serializable folderId, final String metadataKey,
+      final Serializable metadataValue ) throws RepositoryException {
+    Node folderNode = session.getNodeByIdentifier( folderId.toString() );
+    Assert.isTrue( isPentahoFolder( pentahoJcrConstants, folderNode ) );
+    checkName( metadataKey );
+
+    List<RepositoryFile> children = new ArrayList<RepositoryFile>();
+    Value value = toMetadataValue( session.getValueFactory(), metadataValue );
+    if ( value == null ) {
+      // setFileMetadata does not store values of any other type, so nothing can match
+      return children;
+    }
+    String prefix = session.getNamespacePrefix( PentahoJcrConstants.PHO_NS );
+    Assert.hasText( prefix );
+
+    QueryObjectModelFactory fac = session.getWorkspace().getQueryManager().getQOMFactory();
+    final String fileSelectorName = "file"; //$NON-NLS-1$
+    final String metadataSelectorName = "metadata"; //$NON-NLS-1$
+    // selectors, joined on the metadata node being a child of the file node
+    Selector fileSelector = fac.selector( "nt:base", fileSelectorName ); //$NON-NLS-1$
+    Selector metadataSelector = fac.selector( "nt:base", metadataSelectorName ); //$NON-NLS-1$
+    Join join =
+        fac.join( fileSelector, metadataSelector, QueryObjectModelConstants.JCR_JOIN_TYPE_INNER, fac
+            .childNodeJoinCondition( metadataSelectorName, fileSelectorName ) );
+    // constraint1
+    Constraint metadataConstraint =
+        fac.comparison( fac.propertyValue( metadataSelectorName, prefix + ":" + metadataKey ), //$NON-NLS-1$
+            QueryObjectModelConstants.JCR_OPERATOR_EQUAL_TO, fac.literal( value ) );
+    // constraint2
+    Constraint childNodeConstraint = fac.childNode( fileSelectorName, folderNode.getPath() );
+    // AND together constraints
+    Constraint allConstraints = fac.and( childNodeConstraint, metadataConstraint );
+    Query query = fac.createQuery( join, allConstraints, null, null );
+    QueryResult result =
+        session.getWorkspace().getQueryManager().createQuery( query.getStatement(), Query.JCR_JQOM ).execute();
+
+    String metadataNodeName = pentahoJcrConstants.getPHO_METADATA();
+    RowIterator rowIterator = result.getRows();
+    while ( rowIterator.hasNext() ) {
+      Row row = rowIterator.nextRow();
+      if ( !metadataNodeName.equals( row.getNode( metadataSelectorName ).getName() ) ) {
+        continue;
+      }
+      Node fileNode = row.getNode( fileSelectorName );
+      if ( isSupportedNodeType( pentahoJcrConstants, fileNode ) ) {
+        children.add( nodeToFile( session, pentahoJcrConstants, pathConversionHelper, lockHelper, fileNode ) );
+      }
+    }
+    Collections.sort( children );
+    return children;
+  }
+
+  private static Value toMetadataValue( final ValueFactory valueFactory, final Serializable metadataObj ) {
+    if ( metadataObj instanceof String ) {
+      return valueFactory.createValue( (String) metadataObj );
+    } else if ( metadataObj instanceof Calendar ) {
+      return valueFactory.createValue( (Calendar) metadataObj );
+    } else if ( metadataObj instanceof Double ) {
+      return valueFactory.createValue( ( (Double) metadataObj ).doubleValue() );
+    } else if ( metadataObj instanceof Long ) {
+      return valueFactory.createValue( ( (Long) metadataObj ).longValue() );
+    } else if ( metadataObj instanceof Boolean ) {
+      return valueFactory.createValue( ( (Boolean) metadataObj ).booleanValue() );
+    }
+    return null;
+  }
+
   public static boolean isPentahoFolder( final PentahoJcrConstants pentahoJcrConstants, final Node node )
     throws RepositoryException {
     Assert.notNull( node );
@@ -1027,19 +1112,42 @@ public class JcrRepositoryFileUtils {
       final boolean showHidden, IRepositoryAccessVoterManager accessVoterManager, FILES_TYPE_FILTER types )
     throws RepositoryException {
 
+    // session level voter checks are resolved once for the whole walk; acls are only read when a voter will look at
+    // them
+    IPentahoSession pentahoSession = PentahoSessionHolder.getSession();
+    boolean votingRequired = accessVoterManager.isVotingRequired( pentahoSession );
+
     RepositoryFile rootFile =
         JcrRepositoryFileUtils.nodeToFile( session, pentahoJcrConstants, pathConversionHelper, lockHelper, fileNode,
             false, null );
     if ( ( !showHidden && rootFile.isHidden() )
-        || ( !accessVoterManager.hasAccess( rootFile, RepositoryFilePermission.READ, JcrRepositoryFileAclUtils.getAcl(
-            session, pentahoJcrConstants, rootFile.getId() ), PentahoSessionHolder.getSession() ) ) ) {
+        || ( votingRequired && !accessVoterManager.hasAccess( rootFile, RepositoryFilePermission.READ,
+            JcrRepositoryFileAclUtils.getAcl( session, pentahoJcrConstants, fileNode ), pentahoSession ) ) ) {
       return null;
     }
+    return getTreeByNode( session, pentahoJcrConstants, pathConversionHelper, lockHelper, fileNode, rootFile, depth,
+        filter, showHidden, accessVoterManager, pentahoSession, votingRequired, types );
+  }
+
+  /**
+   * Builds the tree below a node that has already passed the hidden and read access checks. Access for the children of
+   * a folder is evaluated in a single batch and each child node is converted and its acl read at most once.
+   */
+  private static RepositoryFileTree getTreeByNode( final Session session,
+      final PentahoJcrConstants pentahoJcrConstants, final IPathConversionHelper pathConversionHelper,
+      final ILockHelper lockHelper, final Node fileNode, final RepositoryFile rootFile, final int depth,
+      final String filter, final boolean showHidden, IRepositoryAccessVoterManager accessVoterManager,
+      final IPentahoSession pentahoSession, final boolean votingRequired, FILES_TYPE_FILTER types )
+    throws RepositoryException {
+
     List<RepositoryFileTree> children;
     // if depth is neither negative (indicating unlimited depth) nor positive (indicating at least one more level to go)
     if ( depth != 0 ) {
       children = new ArrayList<RepositoryFileTree>();
       if ( isPentahoFolder( pentahoJcrConstants, fileNode ) ) {
+        List<RepositoryFile> childFiles = new ArrayList<RepositoryFile>();
+        Map<Serializable, Node> childNodesById = new HashMap<Serializable, Node>();
+        List<RepositoryFileAcl> childAcls = new ArrayList<RepositoryFileAcl>();
         NodeIterator childNodes = filter != null ? fileNode.getNodes( filter ) : fileNode.getNodes();
         while ( childNodes.hasNext() ) {
           Node childNode = childNodes.nextNode();
@@ -1049,17 +1157,32 @@ public class JcrRepositoryFileUtils {
               && types == FILES_TYPE_FILTER.FILES ) {
             continue;
           }
+          if ( !isSupportedNodeType( pentahoJcrConstants, childNode ) ) {
+            continue;
+          }
 
           RepositoryFile file = nodeToFile( session, pentahoJcrConstants, pathConversionHelper, lockHelper, childNode );
-          if ( isSupportedNodeType( pentahoJcrConstants, childNode )
-              && ( accessVoterManager.hasAccess( file, RepositoryFilePermission.READ, JcrRepositoryFileAclUtils.getAcl(
-                  session, pentahoJcrConstants, file.getId() ), PentahoSessionHolder.getSession() ) ) ) {
-            RepositoryFileTree repositoryFileTree =
-                getTreeByNode( session, pentahoJcrConstants, pathConversionHelper, lockHelper, childNode, depth - 1,
-                    filter, showHidden, accessVoterManager, types );
-            if ( repositoryFileTree != null ) {
-              children.add( repositoryFileTree );
-            }
+          if ( !showHidden && file.isHidden() ) {
+            continue;
+          }
+          childFiles.add( file );
+          childNodesById.put( file.getId(), childNode );
+          if ( votingRequired ) {
+            childAcls.add( JcrRepositoryFileAclUtils.getAcl( session, pentahoJcrConstants, childNode ) );
+          }
+        }
+        if ( votingRequired ) {
+          childFiles =
+              accessVoterManager.filterAccessible( childFiles, RepositoryFilePermission.READ, childAcls,
+                  pentahoSession );
+        }
+        for ( RepositoryFile file : childFiles ) {
+          RepositoryFileTree repositoryFileTree =
+              getTreeByNode( session, pentahoJcrConstants, pathConversionHelper, lockHelper, childNodesById.get( file
+                  .getId() ), file, depth - 1, filter, showHidden, accessVoterManager, pentahoSession,
+                  votingRequired, types );
+          if ( repositoryFileTree != null ) {
+            children.add( repositoryFileTree );
           }
         }
       }
@@ -457,6 +457,31 @@ public class UnifiedRepositoryToWebServiceAdapter implements IUnifiedRepository
     return repoFileMetadata;
   }
 
+  @Override
+  public List<Map<String, Serializable>> getFileMetadataInBatch( final List<Serializable> fileIds ) {
+    Assert.notNull( fileIds );
+    List<Map<String, Serializable>> metadata = new ArrayList<Map<String, Serializable>>( fileIds.size() );
+    for ( Serializable fileId : fileIds ) {
+      metadata.add( getFileMetadata( fileId ) );
+    }
+    return metadata;
+  }
+
+  @Override
+  public List<RepositoryFile> getChildrenByMetadata( final Serializable folderId, final String metadataKey,
+      final Serializable metadataValue ) {
+    // the web service has no counterpart, so filter the children here; metadata comes back as strings
+    final String value = ( metadataValue != null ? metadataValue.toString() : null );
+    List<RepositoryFile> children = new ArrayList<RepositoryFile>();
+    for ( RepositoryFile child : getChildren( folderId ) ) {
+      Serializable childValue = getFileMetadata( child.getId() ).get( metadataKey );
+      if ( childValue != null && childValue.equals( value ) ) {
+        children.add( child );
+      }
+    }
+    return children;
+  }
+
   @Override
   public List<Character> getReservedChars() {
     // no need for synchronization here as value to be written will always be the same
@@ -0,0 +1,157 @@
+/*!
+ * Copyright 2010 - 2013 Pentaho Corporation.  All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.apache.jackrabbit.core.security.authorization.acl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+
+import javax.jcr.Node;
+import javax.jcr.RepositoryException;
+import javax.jcr.Workspace;
+import javax.jcr.observation.ObservationManager;
+import javax.jcr.security.AccessControlEntry;
+
+import org.apache.jackrabbit.core.NodeImpl;
+import org.apache.jackrabbit.core.SessionImpl;
+import org.apache.jackrabbit.core.id.NodeId;
+import org.junit.After;
+import org.junit.Test;
+import org.pentaho.platform.engine.core.system.PentahoSessionHolder;
+import org.pentaho.platform.engine.core.system.StandaloneSession;
+
+@SuppressWarnings( "nls" )
+public class CachingPentahoEntryCollectorTest {
+
+  private static final String MAX_PRINCIPALS_PROPERTY =
+      "org.apache.jackrabbit.core.security.authorization.acl.CachingEntryCollector.maxprincipals";
+
+  private final NodeImpl node = mockNode( new NodeId() );
+
+  @After
+  public void tearDown() {
+    PentahoSessionHolder.removeSession();
+    System.clearProperty( MAX_PRINCIPALS_PROPERTY );
+  }
+
+  @Test
+  public void testSessionsOfSameUserAndRolesShareCache() throws Exception {
+    TestCollector collector = new TestCollector();
+    collector.roles = Arrays.asList( "Authenticated", "Power User" );
+
+    PentahoSessionHolder.setSession( new StandaloneSession( "suzy", "session-1" ) );
+    Entries first = collector.getEntries( node );
+    PentahoSessionHolder.setSession( new StandaloneSession( "suzy", "session-2" ) );
+    // same roles in a different order
+    collector.roles = Arrays.asList( "Power User", "Authenticated" );
+    Entries second = collector.getEntries( node );
+
+    assertSame( first, second );
+    assertEquals( 1, collector.loads );
+    assertEquals( 1, collector.getCacheMisses() );
+    assertEquals( 1, collector.getCacheHits() );
+  }
+
+  @Test
+  public void testPrincipalsWithDifferentUsersOrRolesDontShareCache() throws Exception {
+    TestCollector collector = new TestCollector();
+    collector.roles = Arrays.asList( "Authenticated" );
+
+    PentahoSessionHolder.setSession( new StandaloneSession( "suzy", "session-1" ) );
+    collector.getEntries( node );
+    PentahoSessionHolder.setSession( new StandaloneSession( "tiffany", "session-2" ) );
+    collector.getEntries( node );
+    collector.roles = Arrays.asList( "Authenticated", "Administrator" );
+    collector.getEntries( node );
+    collector.getEntries( node );
+
+    assertEquals( 3, collector.loads );
+    assertEquals( 3, collector.getCacheMisses() );
+    assertEquals( 1, collector.getCacheHits() );
+    assertEquals( 0, collector.getCacheEvictions() );
+  }
+
+  @Test
+  public void testLeastRecentlyUsedPrincipalIsEvicted() throws Exception {
+    System.setProperty( MAX_PRINCIPALS_PROPERTY, "1" );
+    TestCollector collector = new TestCollector();
+    collector.roles = Arrays.asList( "Authenticated" );
+
+    PentahoSessionHolder.setSession( new StandaloneSession( "suzy", "session-1" ) );
+    collector.getEntries( node );
+    PentahoSessionHolder.setSession( new StandaloneSession( "tiffany", "session-2" ) );
+    collector.getEntries( node );
+    assertEquals( 1, collector.getCacheEvictions() );
+
+    // suzy's cache was dropped, so her entries are read again
+    PentahoSessionHolder.setSession( new StandaloneSession( "suzy", "session-3" ) );
+    collector.getEntries( node );
+    assertEquals( 3, collector.loads );
+    assertEquals( 0, collector.getCacheHits() );
+    assertEquals( 2, collector.getCacheEvictions() );
+  }
+
+  private static NodeImpl mockNode( final NodeId nodeId ) {
+    NodeImpl node = mock( NodeImpl.class );
+    doReturn( nodeId ).when( node ).getNodeId();
+    return node;
+  }
+
+  private static SessionImpl mockSystemSession() throws RepositoryException {
+    SessionImpl systemSession = mock( SessionImpl.class );
+    Workspace workspace = mock( Workspace.class );
+    Node rootNode = mock( Node.class );
+    doReturn( workspace ).when( systemSession ).getWorkspace();
+    doReturn( mock( ObservationManager.class ) ).when( workspace ).getObservationManager();
+    doReturn( rootNode ).when( systemSession ).getRootNode();
+    doReturn( "/" ).when( rootNode ).getPath();
+    return systemSession;
+  }
+
+  /**
+   * Serves one ACE per node and counts how often entries are read from the "repository".
+   */
+  private static class TestCollector extends CachingPentahoEntryCollector {
+
+    private List<String> roles = new ArrayList<String>();
+
+    private int loads;
+
+    TestCollector() throws RepositoryException {
+      super( mockSystemSession(), new NodeId(), new HashMap<String, String>() );
+    }
+
+    @Override
+    protected Entries collectEntries( NodeImpl node ) {
+      loads++;
+      return new Entries( Collections.singletonList( mock( AccessControlEntry.class ) ), null );
+    }
+
+    @Override
+    protected List<String> getRuntimeRoleNames() {
+      return roles;
+    }
+  }
+}
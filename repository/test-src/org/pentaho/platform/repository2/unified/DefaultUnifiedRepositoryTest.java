@@ -3208,6 +3208,87 @@ public class DefaultUnifiedRepositoryTest implements ApplicationContextAware {
     assertEquals(value5, savedMap.get(key5));
   }
 
+  @Test
+  public void testGetFileMetadataInBatch() throws Exception {
+    login(sysAdminUserName, systemTenant, new String[]{tenantAdminRoleName, tenantAuthenticatedRoleName});
+    ITenant tenantAcme = tenantManager.createTenant(systemTenant, TENANT_ID_ACME, tenantAdminRoleName, tenantAuthenticatedRoleName, "Anonymous");
+    userRoleDao.createUser(tenantAcme, USERNAME_ADMIN, "password", "", new String[]{tenantAdminRoleName});
+
+    login(USERNAME_ADMIN, tenantAcme, new String[]{tenantAdminRoleName, tenantAuthenticatedRoleName});
+    userRoleDao.createUser(tenantAcme, USERNAME_SUZY, "password", "", null);
+
+    login(USERNAME_SUZY, tenantAcme, new String[]{tenantAuthenticatedRoleName});
+
+    final String parentFolderPath = ClientRepositoryPaths.getUserHomeFolderPath(USERNAME_SUZY);
+    RepositoryFile newFile1 = createSampleFile(parentFolderPath, "helloworld.sample1", "sampleString1", true, 1, true);
+    RepositoryFile newFile2 = createSampleFile(parentFolderPath, "helloworld.sample2", "sampleString2", true, 1, true);
+
+    Map<String, Serializable> metadataMap = new HashMap<String, Serializable>();
+    metadataMap.put("myMetadataString", "value1");
+    repo.setFileMetadata(newFile1.getId(), metadataMap);
+    metadataMap.put("myMetadataString", "value2");
+    metadataMap.put(IUnifiedRepository.SYSTEM_FOLDER, Boolean.TRUE);
+    repo.setFileMetadata(newFile2.getId(), metadataMap);
+
+    List<Serializable> fileIds = new ArrayList<Serializable>();
+    fileIds.add(newFile2.getId());
+    fileIds.add(newFile1.getId());
+    List<Map<String, Serializable>> metadata = repo.getFileMetadataInBatch(fileIds);
+    assertEquals(2, metadata.size());
+    assertEquals("value2", metadata.get(0).get("myMetadataString"));
+    assertEquals(Boolean.TRUE, metadata.get(0).get(IUnifiedRepository.SYSTEM_FOLDER));
+    assertEquals("value1", metadata.get(1).get("myMetadataString"));
+    assertFalse(metadata.get(1).containsKey(IUnifiedRepository.SYSTEM_FOLDER));
+  }
+
+  @Test
+  public void testGetChildrenByMetadata() throws Exception {
+    login(sysAdminUserName, systemTenant, new String[]{tenantAdminRoleName, tenantAuthenticatedRoleName});
+    ITenant tenantAcme = tenantManager.createTenant(systemTenant, TENANT_ID_ACME, tenantAdminRoleName, tenantAuthenticatedRoleName, "Anonymous");
+    userRoleDao.createUser(tenantAcme, USERNAME_ADMIN, "password", "", new String[]{tenantAdminRoleName});
+
+    login(USERNAME_ADMIN, tenantAcme, new String[]{tenantAdminRoleName, tenantAuthenticatedRoleName});
+    userRoleDao.createUser(tenantAcme, USERNAME_SUZY, "password", "", null);
+
+    login(USERNAME_SUZY, tenantAcme, new String[]{tenantAuthenticatedRoleName});
+
+    final String parentFolderPath = ClientRepositoryPaths.getUserHomeFolderPath(USERNAME_SUZY);
+    RepositoryFile parentFolder = repo.getFile(parentFolderPath);
+    RepositoryFile subFolder = repo.createFolder(parentFolder.getId(), new RepositoryFile.Builder("sub").folder(true)
+        .build(), null);
+
+    RepositoryFile newFile1 = createSampleFile(parentFolderPath, "helloworld.sample1", "sampleString1", true, 1, true);
+    RepositoryFile newFile2 = createSampleFile(parentFolderPath, "helloworld.sample2", "sampleString2", true, 1, true);
+    RepositoryFile newFile3 = createSampleFile(parentFolderPath, "helloworld.sample3", "sampleString3", true, 1, true);
+    RepositoryFile nestedFile = createSampleFile(subFolder.getPath(), "helloworld.sample4", "sampleString4", true, 1,
+        true);
+
+    Map<String, Serializable> metadataMap = new HashMap<String, Serializable>();
+    metadataMap.put("lineage-id", "lineage1");
+    repo.setFileMetadata(newFile1.getId(), metadataMap);
+    repo.setFileMetadata(newFile3.getId(), metadataMap);
+    repo.setFileMetadata(nestedFile.getId(), metadataMap);
+    // folders are children too
+    repo.setFileMetadata(subFolder.getId(), metadataMap);
+    metadataMap.put("lineage-id", "lineage2");
+    metadataMap.put("myMetadataLong", new Long(42));
+    repo.setFileMetadata(newFile2.getId(), metadataMap);
+
+    List<RepositoryFile> children = repo.getChildrenByMetadata(parentFolder.getId(), "lineage-id", "lineage1");
+    assertEquals(3, children.size());
+    assertEquals(newFile1.getId(), children.get(0).getId());
+    assertEquals(newFile3.getId(), children.get(1).getId());
+    assertEquals(subFolder.getId(), children.get(2).getId());
+
+    children = repo.getChildrenByMetadata(parentFolder.getId(), "myMetadataLong", new Long(42));
+    assertEquals(1, children.size());
+    assertEquals(newFile2.getId(), children.get(0).getId());
+
+    assertTrue(repo.getChildrenByMetadata(parentFolder.getId(), "lineage-id", "lineage3").isEmpty());
+    assertTrue(repo.getChildrenByMetadata(subFolder.getId(), "lineage-id", "lineage2").isEmpty());
+    assertEquals(1, repo.getChildrenByMetadata(subFolder.getId(), "lineage-id", "lineage1").size());
+  }
+
   @Test
   public void testFileCreator() throws Exception {
     login(sysAdminUserName, systemTenant, new String[]{tenantAdminRoleName, tenantAuthenticatedRoleName});
@@ -0,0 +1,127 @@
+/*
+ * This program is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License, version 2 as published by the Free Software
+ * Foundation.
+ *
+ * You should have received a copy of the GNU General Public License along with this
+ * program; if not, you can obtain a copy at http://www.gnu.org/licenses/gpl-2.0.html
+ * or from the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ *
+ * Copyright 2006 - 2013 Pentaho Corporation.  All rights reserved.
+ */
+
+package org.pentaho.platform.repository2.unified;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+import org.pentaho.platform.api.engine.IAuthorizationPolicy;
+import org.pentaho.platform.api.engine.IPentahoSession;
+import org.pentaho.platform.api.repository2.unified.IRepositoryAccessVoter;
+import org.pentaho.platform.api.repository2.unified.RepositoryFile;
+import org.pentaho.platform.api.repository2.unified.RepositoryFileAcl;
+import org.pentaho.platform.api.repository2.unified.RepositoryFilePermission;
+
+@SuppressWarnings( "nls" )
+public class RepositoryAccessVoterManagerTest {
+
+  private static final String ADMIN = "admin";
+
+  private final RepositoryFile visible = new RepositoryFile.Builder( "1", "visible.prpt" ).build();
+
+  private final RepositoryFile denied = new RepositoryFile.Builder( "2", "denied.prpt" ).build();
+
+  @Test
+  public void testFilterAccessibleKeepsOrderAndDropsDenied() throws Exception {
+    IAuthorizationPolicy policy = mock( IAuthorizationPolicy.class );
+    doReturn( false ).when( policy ).isAllowed( anyString() );
+    RepositoryAccessVoterManager manager =
+        new RepositoryAccessVoterManager( Arrays.<IRepositoryAccessVoter> asList( new DenyingVoter( denied ) ),
+            policy, ADMIN );
+
+    List<RepositoryFile> files = Arrays.asList( denied, visible );
+    List<RepositoryFileAcl> acls = new ArrayList<RepositoryFileAcl>();
+    acls.add( null );
+    acls.add( null );
+
+    IPentahoSession session = session( "suzy" );
+    List<RepositoryFile> accessible =
+        manager.filterAccessible( files, RepositoryFilePermission.READ, acls, session );
+    assertEquals( 1, accessible.size() );
+    assertEquals( visible, accessible.get( 0 ) );
+    // the authorization policy is consulted once per batch, not once per file
+    verify( policy, times( 1 ) ).isAllowed( anyString() );
+  }
+
+  @Test
+  public void testVotingNotRequiredForAdministrators() throws Exception {
+    IAuthorizationPolicy policy = mock( IAuthorizationPolicy.class );
+    doReturn( true ).when( policy ).isAllowed( anyString() );
+    IRepositoryAccessVoter voter = mock( IRepositoryAccessVoter.class );
+    RepositoryAccessVoterManager manager =
+        new RepositoryAccessVoterManager( Arrays.asList( voter ), policy, ADMIN );
+
+    IPentahoSession session = session( "joe" );
+    assertFalse( manager.isVotingRequired( session ) );
+    List<RepositoryFile> accessible =
+        manager.filterAccessible( Arrays.asList( denied, visible ), RepositoryFilePermission.READ, Arrays
+            .asList( new RepositoryFileAcl[] { null, null } ), session );
+    assertEquals( 2, accessible.size() );
+    verify( voter, times( 0 ) ).hasAccess( any( RepositoryFile.class ), any( RepositoryFilePermission.class ),
+        any( RepositoryFileAcl.class ), any( IPentahoSession.class ) );
+  }
+
+  @Test
+  public void testVotingNotRequiredForRepositoryAdmin() throws Exception {
+    IAuthorizationPolicy policy = mock( IAuthorizationPolicy.class );
+    doReturn( false ).when( policy ).isAllowed( anyString() );
+    RepositoryAccessVoterManager manager =
+        new RepositoryAccessVoterManager( Arrays.<IRepositoryAccessVoter> asList( new DenyingVoter( denied ) ),
+            policy, ADMIN );
+
+    assertFalse( manager.isVotingRequired( session( ADMIN ) ) );
+    assertTrue( manager.isVotingRequired( session( "suzy" ) ) );
+    assertTrue( manager.hasAccess( denied, RepositoryFilePermission.READ, null, session( ADMIN ) ) );
+    assertFalse( manager.hasAccess( denied, RepositoryFilePermission.READ, null, session( "suzy" ) ) );
+  }
+
+  private IPentahoSession session( final String name ) {
+    IPentahoSession session = mock( IPentahoSession.class );
+    doReturn( name ).when( session ).getName();
+    return session;
+  }
+
+  private static class DenyingVoter implements IRepositoryAccessVoter {
+
+    private final RepositoryFile deniedFile;
+
+    DenyingVoter( final RepositoryFile deniedFile ) {
+      this.deniedFile = deniedFile;
+    }
+
+    @Override
+    public boolean hasAccess( RepositoryFile file, RepositoryFilePermission operation, RepositoryFileAcl acl,
+        IPentahoSession session ) {
+      return !deniedFile.getId().equals( file.getId() );
+    }
+  }
+
+}
@@ -18,9 +18,13 @@
 
 package org.pentaho.platform.repository2.unified.fileio;
 
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.anyString;
 import static org.mockito.Matchers.argThat;
 import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.verify;
@@ -29,13 +33,20 @@ import static org.pentaho.platform.repository2.unified.UnifiedRepositoryTestUtil
 
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 
 import org.apache.commons.io.IOUtils;
 import org.junit.AfterClass;
 import org.junit.BeforeClass;
 import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.pentaho.platform.api.repository2.unified.IRepositoryFileData;
+import org.pentaho.platform.api.repository2.unified.IStreamListener;
 import org.pentaho.platform.api.repository2.unified.IUnifiedRepository;
 import org.pentaho.platform.api.repository2.unified.RepositoryFile;
+import org.pentaho.platform.api.repository2.unified.data.simple.SimpleRepositoryFileData;
 import org.pentaho.platform.repository2.ClientRepositoryPaths;
 import org.pentaho.test.platform.engine.core.MicroPlatform;
 
@@ -133,6 +144,100 @@ public class RepositoryFileIoTest {
         argThat( hasData( expectedPayload, "application/octet-stream" ) ), anyString() );
   }
 
+  @Test
+  public void testWriteBinarySpillsToDisk() throws IOException {
+    final String fileName = "test-large.bin";
+    final String filePath = publicDirPath + "/" + fileName;
+    IUnifiedRepository repo = mock( IUnifiedRepository.class );
+    RepositoryFile publicDir =
+        new RepositoryFile.Builder( "123", ClientRepositoryPaths.getPublicFolderName() ).folder( true ).build();
+    doReturn( publicDir ).when( repo ).getFile( publicDirPath );
+    // the payload stream is only valid during the call; capture it there
+    final List<byte[]> stored = new ArrayList<byte[]>();
+    doAnswer( new Answer<RepositoryFile>() {
+      public RepositoryFile answer( InvocationOnMock invocation ) throws Throwable {
+        SimpleRepositoryFileData data = (SimpleRepositoryFileData) invocation.getArguments()[2];
+        stored.add( IOUtils.toByteArray( data.getInputStream() ) );
+        return new RepositoryFile.Builder( "456", fileName ).path( filePath ).build();
+      }
+    } ).when( repo ).createFile( eq( "123" ), any( RepositoryFile.class ), any( IRepositoryFileData.class ),
+        anyString() );
+    mp.defineInstance( IUnifiedRepository.class, repo );
+
+    final byte[] expectedPayload = new byte[1000];
+    for ( int i = 0; i < expectedPayload.length; i++ ) {
+      expectedPayload[i] = (byte) i;
+    }
+    final List<String> created = new ArrayList<String>();
+    RepositoryFileOutputStream rfos = new RepositoryFileOutputStream( filePath );
+    rfos.setSpillThreshold( 100 );
+    rfos.addListener( new IStreamListener() {
+      public void fileCreated( String createdPath ) {
+        created.add( createdPath );
+      }
+    } );
+    rfos.write( expectedPayload, 0, 50 );
+    rfos.write( expectedPayload, 50, expectedPayload.length - 50 );
+    assertEquals( expectedPayload.length, rfos.size() );
+    assertArrayEquals( expectedPayload, rfos.toByteArray() );
+    rfos.close();
+
+    assertEquals( 1, stored.size() );
+    assertArrayEquals( expectedPayload, stored.get( 0 ) );
+    assertEquals( 1, created.size() );
+    assertEquals( 0, rfos.size() );
+  }
+
+  @Test
+  public void testSpilledContentAsString() throws IOException {
+    RepositoryFileOutputStream rfos = new RepositoryFileOutputStream( publicDirPath + "/test.txt", true );
+    rfos.setSpillThreshold( 4 );
+    rfos.write( "abc".getBytes() );
+    rfos.write( "defgh".getBytes() );
+    assertEquals( 8L, rfos.getContentLength() );
+    assertEquals( 8, rfos.size() );
+    assertEquals( "abcdefgh", rfos.toString() );
+    assertEquals( "abcdefgh", rfos.toString( "UTF-8" ) );
+    rfos.reset();
+    assertEquals( 0L, rfos.getContentLength() );
+    assertEquals( "", rfos.toString() );
+  }
+
+  @Test
+  public void testStoredContentIgnoresLaterWrites() throws IOException {
+    assertStoredContentIgnoresLaterWrites( -1 );
+    assertStoredContentIgnoresLaterWrites( 2 );
+  }
+
+  private void assertStoredContentIgnoresLaterWrites( final int spillThreshold ) throws IOException {
+    final String fileName = "test-isolated.bin";
+    final String filePath = publicDirPath + "/" + fileName;
+    IUnifiedRepository repo = mock( IUnifiedRepository.class );
+    RepositoryFile publicDir =
+        new RepositoryFile.Builder( "123", ClientRepositoryPaths.getPublicFolderName() ).folder( true ).build();
+    doReturn( publicDir ).when( repo ).getFile( publicDirPath );
+    mp.defineInstance( IUnifiedRepository.class, repo );
+
+    final RepositoryFileOutputStream rfos = new RepositoryFileOutputStream( filePath );
+    rfos.setSpillThreshold( spillThreshold );
+    // write more content while the repository is still reading the payload
+    final List<byte[]> stored = new ArrayList<byte[]>();
+    doAnswer( new Answer<RepositoryFile>() {
+      public RepositoryFile answer( InvocationOnMock invocation ) throws Throwable {
+        SimpleRepositoryFileData data = (SimpleRepositoryFileData) invocation.getArguments()[2];
+        rfos.write( new byte[] { 9, 9 } );
+        stored.add( IOUtils.toByteArray( data.getInputStream() ) );
+        return new RepositoryFile.Builder( "456", fileName ).path( filePath ).build();
+      }
+    } ).when( repo ).createFile( eq( "123" ), any( RepositoryFile.class ), any( IRepositoryFileData.class ),
+        anyString() );
+
+    rfos.write( new byte[] { 1, 2, 3 } );
+    rfos.flush();
+    assertArrayEquals( new byte[] { 1, 2, 3 }, stored.get( 0 ) );
+    rfos.reset();
+  }
+
   @Test( expected = FileNotFoundException.class )
   public void testReadNonExistentPath() throws IOException {
     final String filePath = ClientRepositoryPaths.getPublicFolderPath() + "/doesnotexist";
@@ -371,4 +371,43 @@ public class UnifiedRepositoryToWebServiceAdapterTest implements ApplicationCont
     
   }
 
+  @Test
+  public void testGetChildrenByMetadataMatchesRepository() throws Exception {
+    login(sysAdminUserName, systemTenant, new String[]{tenantAdminAuthorityName, tenantAuthenticatedAuthorityName});
+    ITenant mainTenant_1 = tenantManager.createTenant(systemTenant, MAIN_TENANT_1, tenantAdminAuthorityName, tenantAuthenticatedAuthorityName, "Anonymous");
+    userRoleDao.createUser(mainTenant_1, "admin", "password", "", new String[]{tenantAdminAuthorityName});
+    login("admin", mainTenant_1, new String[]{tenantAuthenticatedAuthorityName});
+    RepositoryFile publicFolder = repository.getFile(ClientRepositoryPaths.getPublicFolderPath());
+    final RepositoryFile matchingFile = repository.createFile(publicFolder.getId(),
+        new RepositoryFile.Builder("matchingfile").build(),
+        new SimpleRepositoryFileData(new ByteArrayInputStream("test".getBytes()), "UTF-8", "text/plain"), null);
+    final RepositoryFile otherFile = repository.createFile(publicFolder.getId(),
+        new RepositoryFile.Builder("otherfile").build(),
+        new SimpleRepositoryFileData(new ByteArrayInputStream("test".getBytes()), "UTF-8", "text/plain"), null);
+    final RepositoryFile matchingFolder = repository.createFolder(publicFolder.getId(),
+        new RepositoryFile.Builder("matchingfolder").folder(true).build(), null);
+
+    final Map<String, Serializable> metadata = new HashMap<String, Serializable>();
+    metadata.put("lineage-id", "lineage1");
+    repository.setFileMetadata(matchingFile.getId(), metadata);
+    repository.setFileMetadata(matchingFolder.getId(), metadata);
+    metadata.put("lineage-id", "lineage2");
+    repository.setFileMetadata(otherFile.getId(), metadata);
+
+    // folders are matched the same way by the repository and by the web service
+    List<RepositoryFile> expected = repository.getChildrenByMetadata(publicFolder.getId(), "lineage-id", "lineage1");
+    List<RepositoryFile> children = adapter.getChildrenByMetadata(publicFolder.getId(), "lineage-id", "lineage1");
+    assertEquals(2, expected.size());
+    assertEquals(2, children.size());
+    List<Serializable> childIds = new ArrayList<Serializable>();
+    for (RepositoryFile child : children) {
+      childIds.add(child.getId());
+    }
+    assertTrue(childIds.contains(matchingFile.getId()));
+    assertTrue(childIds.contains(matchingFolder.getId()));
+
+    cleanupUserAndRoles(sysAdminUserName, systemTenant, mainTenant_1);
+    cleanupUserAndRoles(sysAdminUserName, systemTenant, systemTenant);
+  }
+
 }
@@ -257,6 +257,17 @@ public class EmptyUnifiedRepository implements IUnifiedRepository {
     return null;
   }
 
+  @Override
+  public List<Map<String, Serializable>> getFileMetadataInBatch( final List<Serializable> fileIds ) {
+    return null;
+  }
+
+  @Override
+  public List<RepositoryFile> getChildrenByMetadata( final Serializable folderId, final String metadataKey,
+      final Serializable metadataValue ) {
+    return null;
+  }
+
   @Override
   public List<Character> getReservedChars() {
     throw new UnsupportedOperationException();
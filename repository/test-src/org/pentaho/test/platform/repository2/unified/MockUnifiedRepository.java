@@ -760,6 +760,28 @@ public class MockUnifiedRepository implements IUnifiedRepository {
     return r.getMetadata();
   }
 
+  @Override
+  public List<Map<String, Serializable>> getFileMetadataInBatch( final List<Serializable> fileIds ) {
+    List<Map<String, Serializable>> metadata = new ArrayList<Map<String, Serializable>>( fileIds.size() );
+    for ( Serializable fileId : fileIds ) {
+      metadata.add( getFileMetadata( fileId ) );
+    }
+    return metadata;
+  }
+
+  @Override
+  public List<RepositoryFile> getChildrenByMetadata( final Serializable folderId, final String metadataKey,
+      final Serializable metadataValue ) {
+    List<RepositoryFile> children = new ArrayList<RepositoryFile>();
+    for ( RepositoryFile child : getChildren( folderId ) ) {
+      Map<String, Serializable> metadata = idManager.getFileById( child.getId() ).getMetadata();
+      if ( metadata != null && metadataValue != null && metadataValue.equals( metadata.get( metadataKey ) ) ) {
+        children.add( child );
+      }
+    }
+    return children;
+  }
+
   // ~ Helper classes ==================================================================================================
 
   @SuppressWarnings( "serial" )
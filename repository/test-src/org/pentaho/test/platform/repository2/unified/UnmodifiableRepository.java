@@ -721,6 +721,17 @@ public class UnmodifiableRepository implements IUnifiedRepository {
     return repository.getFileMetadata( fileId );
   }
 
+  @Override
+  public List<Map<String, Serializable>> getFileMetadataInBatch( final List<Serializable> fileIds ) {
+    return repository.getFileMetadataInBatch( fileIds );
+  }
+
+  @Override
+  public List<RepositoryFile> getChildrenByMetadata( final Serializable folderId, final String metadataKey,
+      final Serializable metadataValue ) {
+    return repository.getChildrenByMetadata( folderId, metadataKey, metadataValue );
+  }
+
   /**
    * Exception which indicates an operation is trying to modify the content of this unmodifiable repository
    */
@@ -248,6 +248,24 @@ public interface IScheduler {
    */
   public List<Job> getJobs( IJobFilter filter ) throws SchedulerException;
 
+  /**
+   * Lists a page of the currently scheduled jobs.
+   * 
+   * @param query
+   *          the criteria, sort order and page of the jobs to return
+   * @return the scheduled jobs on the requested page
+   */
+  public List<Job> queryJobs( JobQuery query ) throws SchedulerException;
+
+  /**
+   * Counts the currently scheduled jobs matching a query, ignoring its offset and limit.
+   * 
+   * @param query
+   *          the criteria of the jobs to count
+   * @return the number of matching jobs
+   */
+  public int countJobs( JobQuery query ) throws SchedulerException;
+
   /**
    * Returns a history of the runs for a particular job.
    * 
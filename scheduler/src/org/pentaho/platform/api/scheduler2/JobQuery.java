@@ -0,0 +1,163 @@
+/*!
+ * This program is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License, version 2.1 as published by the Free Software
+ * Foundation.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with this
+ * program; if not, you can obtain a copy at http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+ * or from the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * Copyright (c) 2002-2013 Pentaho Corporation..  All rights reserved.
+ */
+
+package org.pentaho.platform.api.scheduler2;
+
+import java.util.Set;
+
+import org.pentaho.platform.api.scheduler2.Job.JobState;
+
+/**
+ * Describes a page of scheduled jobs to be returned by {@link IScheduler#queryJobs(JobQuery)}. Every criterion left
+ * unset matches all jobs.
+ * <p>
+ * The user, state, job name and action criteria are evaluated by the scheduler without loading the parameters of the
+ * jobs. The optional {@link IJobFilter} is applied after them, to jobs whose parameters only hold the reserved
+ * entries identifying their action, so it should not rely on any other parameter. The parameters of the jobs that
+ * make it onto the page are loaded last, and only if {@link #isIncludeParams()} is set.
+ */
+public class JobQuery {
+
+  public enum SortField {
+    JOB_NAME, USER_NAME, STATE, NEXT_RUN, LAST_RUN
+  };
+
+  private String userName;
+
+  private String jobName;
+
+  private String actionClass;
+
+  private Set<JobState> states;
+
+  private IJobFilter filter;
+
+  private SortField sortField;
+
+  private boolean ascending = true;
+
+  private int offset;
+
+  private int limit = -1;
+
+  private boolean includeParams = true;
+
+  /**
+   * @return the user owning the jobs, or <code>null</code> for jobs of every user
+   */
+  public String getUserName() {
+    return userName;
+  }
+
+  public void setUserName( String userName ) {
+    this.userName = userName;
+  }
+
+  /**
+   * @return the name the jobs were scheduled with, or <code>null</code> for any name
+   */
+  public String getJobName() {
+    return jobName;
+  }
+
+  public void setJobName( String jobName ) {
+    this.jobName = jobName;
+  }
+
+  /**
+   * @return the class name or bean id of the action run by the jobs, or <code>null</code> for any action
+   */
+  public String getActionClass() {
+    return actionClass;
+  }
+
+  public void setActionClass( String actionClass ) {
+    this.actionClass = actionClass;
+  }
+
+  /**
+   * @return the states the jobs must be in, or <code>null</code> for any state
+   */
+  public Set<JobState> getStates() {
+    return states;
+  }
+
+  public void setStates( Set<JobState> states ) {
+    this.states = states;
+  }
+
+  public IJobFilter getFilter() {
+    return filter;
+  }
+
+  public void setFilter( IJobFilter filter ) {
+    this.filter = filter;
+  }
+
+  /**
+   * @return the field the jobs are sorted on, or <code>null</code> to return them in the order the scheduler keeps
+   *         them
+   */
+  public SortField getSortField() {
+    return sortField;
+  }
+
+  public void setSortField( SortField sortField ) {
+    this.sortField = sortField;
+  }
+
+  public boolean isAscending() {
+    return ascending;
+  }
+
+  public void setAscending( boolean ascending ) {
+    this.ascending = ascending;
+  }
+
+  /**
+   * @return the number of matching jobs skipped before the page starts
+   */
+  public int getOffset() {
+    return offset;
+  }
+
+  public void setOffset( int offset ) {
+    this.offset = offset;
+  }
+
+  /**
+   * @return the maximum number of jobs on the page, or a negative number for all of them
+   */
+  public int getLimit() {
+    return limit;
+  }
+
+  public void setLimit( int limit ) {
+    this.limit = limit;
+  }
+
+  /**
+   * @return whether the returned jobs carry all of their parameters
+   */
+  public boolean isIncludeParams() {
+    return includeParams;
+  }
+
+  public void setIncludeParams( boolean includeParams ) {
+    this.includeParams = includeParams;
+  }
+}
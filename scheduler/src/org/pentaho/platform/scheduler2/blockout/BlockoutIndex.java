@@ -0,0 +1,283 @@
+/*!
+ * This program is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License, version 2.1 as published by the Free Software
+ * Foundation.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with this
+ * program; if not, you can obtain a copy at http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+ * or from the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * Copyright (c) 2002-2013 Pentaho Corporation..  All rights reserved.
+ */
+
+package org.pentaho.platform.scheduler2.blockout;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+import org.pentaho.platform.api.scheduler2.IJobTrigger;
+import org.pentaho.platform.api.scheduler2.IScheduler;
+
+/**
+ * The windows of a set of block outs, computed once so that many schedules can be tested against them.
+ * <p>
+ * Block outs with a simple trigger are evaluated arithmetically. The fire times of block outs with a complex or cron
+ * trigger are expanded once, over the horizon of {@link BlockoutManagerUtil#getFireTimes(IJobTrigger, IScheduler)},
+ * into sorted, merged windows that are binary searched, so testing a fire time against a block out costs
+ * O(log n) in the number of its windows. Fire times of a schedule are computed at most once per query.
+ * <p>
+ * An index reflects the block outs it was built from at the time it was built; callers holding on to one should
+ * rebuild it when the block outs change and every so often as time passes.
+ */
+public class BlockoutIndex {
+
+  private final IScheduler scheduler;
+
+  private final List<IJobTrigger> blockOutTriggers;
+
+  private final List<Window> windows;
+
+  private final long createdTime;
+
+  public BlockoutIndex( List<IJobTrigger> blockOutTriggers, IScheduler scheduler ) {
+    this.scheduler = scheduler;
+    this.blockOutTriggers = Collections.unmodifiableList( new ArrayList<IJobTrigger>( blockOutTriggers ) );
+    this.windows = new ArrayList<Window>( blockOutTriggers.size() );
+    for ( IJobTrigger blockOutTrigger : blockOutTriggers ) {
+      windows.add( new Window( blockOutTrigger ) );
+    }
+    this.createdTime = System.currentTimeMillis();
+  }
+
+  public List<IJobTrigger> getBlockOutTriggers() {
+    return blockOutTriggers;
+  }
+
+  public long getCreatedTime() {
+    return createdTime;
+  }
+
+  /**
+   * @return whether any block out is active at <code>date</code>
+   */
+  public boolean isBlocked( Date date ) {
+    long time = date.getTime();
+    for ( Window window : windows ) {
+      if ( window.blocks( time ) ) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * @return whether any block out blocks at least one fire time of <code>scheduleTrigger</code>
+   */
+  public boolean willBlockSchedule( IJobTrigger scheduleTrigger ) {
+    Schedule schedule = new Schedule( scheduleTrigger );
+    for ( Window window : windows ) {
+      if ( window.willBlock( schedule ) ) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * @return false if a single block out blocks every fire time of <code>scheduleTrigger</code>
+   */
+  public boolean willFire( IJobTrigger scheduleTrigger ) {
+    Schedule schedule = new Schedule( scheduleTrigger );
+    for ( Window window : windows ) {
+
+      // We must verify further if the schedule is blocked completely or if it will fire
+      if ( !window.willBlock( schedule ) ) {
+        continue;
+      }
+
+      // If recurrence intervals are the same, it will never fire
+      if ( !window.complex && !schedule.complex
+          && BlockoutManagerUtil.getRecurrenceInterval( window.trigger ) == BlockoutManagerUtil
+              .getRecurrenceInterval( scheduleTrigger ) ) {
+        return false;
+      }
+
+      // Loop through fire times and verify whether block out is blocking the schedule completely
+      boolean scheduleCompletelyBlocked = true;
+      for ( Date fireTime : schedule.getFireTimes() ) {
+        if ( !window.blocks( fireTime.getTime() ) ) {
+          scheduleCompletelyBlocked = false;
+          break;
+        }
+      }
+
+      if ( scheduleCompletelyBlocked ) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * A schedule under test, with its fire times computed on first use.
+   */
+  private class Schedule {
+
+    private final IJobTrigger trigger;
+
+    private final boolean complex;
+
+    private List<Date> fireTimes;
+
+    Schedule( IJobTrigger trigger ) {
+      this.trigger = trigger;
+      this.complex = BlockoutManagerUtil.isComplexTrigger( trigger );
+    }
+
+    List<Date> getFireTimes() {
+      if ( fireTimes == null ) {
+        fireTimes = BlockoutManagerUtil.getFireTimes( trigger, scheduler );
+      }
+      return fireTimes;
+    }
+  }
+
+  /**
+   * The windows of one block out. For a complex trigger, <code>starts</code> and <code>ends</code> hold its windows
+   * sorted by start, with overlapping windows merged so that the ends are sorted as well.
+   */
+  private class Window {
+
+    private final IJobTrigger trigger;
+
+    private final boolean complex;
+
+    private long[] starts;
+
+    private long[] ends;
+
+    private int size;
+
+    Window( IJobTrigger trigger ) {
+      this.trigger = trigger;
+      this.complex = BlockoutManagerUtil.isComplexTrigger( trigger );
+      if ( complex ) {
+        expand();
+      }
+    }
+
+    private void expand() {
+      List<Date> fireTimes = BlockoutManagerUtil.getFireTimes( trigger, scheduler );
+      long duration = trigger.getDuration();
+      starts = new long[fireTimes.size()];
+      ends = new long[fireTimes.size()];
+      for ( Date fireTime : fireTimes ) {
+        long start = fireTime.getTime();
+        long end = start + duration;
+        if ( size > 0 && start <= ends[size - 1] ) {
+          ends[size - 1] = Math.max( ends[size - 1], end );
+        } else {
+          starts[size] = start;
+          ends[size] = end;
+          size++;
+        }
+      }
+    }
+
+    /**
+     * @return whether this block out is active at <code>time</code>
+     */
+    boolean blocks( long time ) {
+      if ( !complex ) {
+        return BlockoutManagerUtil.willSimpleBlockOutBlockDate( trigger, time );
+      }
+      return BlockoutManagerUtil.isDateInTriggerRange( trigger, time ) && isInWindow( time );
+    }
+
+    /**
+     * @return whether <code>time</code> falls in one of the expanded windows, regardless of the trigger's end time
+     */
+    private boolean isInWindow( long time ) {
+      int low = 0;
+      int high = size - 1;
+      // find the last window starting at or before time
+      while ( low <= high ) {
+        int mid = ( low + high ) >>> 1;
+        if ( starts[mid] <= time ) {
+          low = mid + 1;
+        } else {
+          high = mid - 1;
+        }
+      }
+      return high >= 0 && time <= ends[high];
+    }
+
+    /**
+     * @return the index of the first window ending at or after <code>time</code>
+     */
+    private int firstWindowEndingAfter( long time ) {
+      int low = 0;
+      int high = size;
+      while ( low < high ) {
+        int mid = ( low + high ) >>> 1;
+        if ( ends[mid] < time ) {
+          low = mid + 1;
+        } else {
+          high = mid;
+        }
+      }
+      return low;
+    }
+
+    /**
+     * @return whether this block out blocks at least one fire time of <code>schedule</code>
+     */
+    boolean willBlock( Schedule schedule ) {
+      if ( !complex && !schedule.complex ) {
+        return BlockoutManagerUtil.willSimpleBlockOutBlockSimpleSchedule( schedule.trigger, trigger );
+      }
+
+      if ( !complex ) {
+        for ( Date fireTime : schedule.getFireTimes() ) {
+          if ( blocks( fireTime.getTime() ) ) {
+            return true;
+          }
+        }
+        return false;
+      }
+
+      if ( schedule.complex ) {
+        for ( Date fireTime : schedule.getFireTimes() ) {
+          if ( isInWindow( fireTime.getTime() ) ) {
+            return true;
+          }
+        }
+        return false;
+      }
+
+      // Short circuit if schedule trigger after end time of block out trigger
+      IJobTrigger scheduleTrigger = schedule.trigger;
+      if ( ( trigger.getEndTime() != null && scheduleTrigger.getStartTime().after( trigger.getEndTime() ) )
+          || ( scheduleTrigger.getEndTime() != null
+            && trigger.getStartTime().after( scheduleTrigger.getEndTime() ) ) ) {
+        return false;
+      }
+
+      // windows ending before the schedule starts cannot hold any of its fire times
+      for ( int i = firstWindowEndingAfter( scheduleTrigger.getStartTime().getTime() ); i < size; i++ ) {
+        if ( BlockoutManagerUtil.willBlockOutRangeBlockSimpleTrigger( starts[i], ends[i], scheduleTrigger ) ) {
+          return true;
+        }
+      }
+      return false;
+    }
+  }
+
+}
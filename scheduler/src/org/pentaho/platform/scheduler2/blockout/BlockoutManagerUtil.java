@@ -18,6 +18,7 @@
 package org.pentaho.platform.scheduler2.blockout;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
 import java.util.List;
 
@@ -54,72 +55,19 @@ public class BlockoutManagerUtil {
       return true;
     }
 
-    List<Date> fireTimes = getFireTimes( jobTrigger, scheduler );
-
-    for ( IJobTrigger blockOutJobTrigger : blockOutTriggers ) {
-
-      // We must verify further if the schedule is blocked completely or if it will fire
-      if ( willBlockSchedule( jobTrigger, blockOutJobTrigger, scheduler ) ) {
-
-        boolean isBlockoutComplex = isComplexTrigger( blockOutJobTrigger );
-
-        // If recurrence intervals are the same, it will never fire
-        if ( !isBlockoutComplex && !isComplexTrigger( jobTrigger )
-            && getRecurrenceInterval( blockOutJobTrigger ) == getRecurrenceInterval( jobTrigger ) ) {
-          return false;
-        }
-
-        List<Date> blockoutFireTimes = null;
-        if ( isBlockoutComplex ) {
-          blockoutFireTimes = getFireTimes( blockOutJobTrigger, scheduler );
-        }
-
-        // Loop through fire times and verify whether block out is blocking the schedule completely
-        boolean scheduleCompletelyBlocked = true;
-        for ( Date fireTime : fireTimes ) {
-          scheduleCompletelyBlocked =
-              isBlockoutComplex ? willComplexBlockOutTriggerBlockDate( blockOutJobTrigger, blockoutFireTimes, fireTime )
-                  : willBlockDate( blockOutJobTrigger, fireTime, scheduler );
-
-          if ( !scheduleCompletelyBlocked ) {
-            break;
-          }
-        }
-
-        // Return false if after n iterations
-        if ( scheduleCompletelyBlocked ) {
-          return false;
-        }
-      }
-    }
-
-    return true;
+    return new BlockoutIndex( blockOutTriggers, scheduler ).willFire( jobTrigger );
   }
 
   public static boolean willBlockSchedule( IJobTrigger scheduleTrigger, IJobTrigger blockOutJobTrigger,
       IScheduler scheduler ) {
+    return new BlockoutIndex( Collections.singletonList( blockOutJobTrigger ), scheduler )
+        .willBlockSchedule( scheduleTrigger );
+  }
 
-    boolean isScheduleTriggerComplex = isComplexTrigger( scheduleTrigger );
-    boolean isBlockOutTriggerComplex = isComplexTrigger( blockOutJobTrigger );
-
-    // Both Schedule and BlockOut are complex
-    if ( isScheduleTriggerComplex && isBlockOutTriggerComplex ) {
-      return willComplexBlockOutBlockComplexScheduleTrigger( blockOutJobTrigger, scheduleTrigger, scheduler );
-    }
-
-    // Complex Schedule Trigger
-    if ( isScheduleTriggerComplex ) {
-      return willBlockComplexScheduleTrigger( scheduleTrigger, blockOutJobTrigger, scheduler );
-    }
-
-    // Complex BlockOut Trigger
-    if ( isBlockOutTriggerComplex ) {
-      return willComplexBlockOutTriggerBlockSchedule( blockOutJobTrigger, scheduleTrigger, scheduler );
-    }
-
-    /*
-     * Both blockOut and schedule triggers are simple. Continue with mathematical calculations
-     */
+  /**
+   * Both blockOut and schedule triggers are simple. Continue with mathematical calculations
+   */
+  static boolean willSimpleBlockOutBlockSimpleSchedule( IJobTrigger scheduleTrigger, IJobTrigger blockOutJobTrigger ) {
     long blockOutRecurrence = getRecurrenceInterval( blockOutJobTrigger );
     long scheduleRecurrence = getRecurrenceInterval( scheduleTrigger );
 
@@ -156,139 +104,49 @@ public class BlockoutManagerUtil {
     return false;
   }
 
-  private static boolean willComplexBlockOutTriggerBlockSchedule( IJobTrigger blockOutJobTrigger,
-      IJobTrigger scheduleTrigger, IScheduler scheduler ) {
-
-    // Short circuit if schedule trigger after end time of block out trigger
-    if ( ( blockOutJobTrigger.getEndTime() != null && scheduleTrigger.getStartTime().after(
-        blockOutJobTrigger.getEndTime() ) )
-        || ( scheduleTrigger.getEndTime() != null && blockOutJobTrigger.getStartTime().after(
-            scheduleTrigger.getEndTime() ) ) ) {
-      return false;
-    }
-
-    long duration = blockOutJobTrigger.getDuration();
-
-    // Loop through fire times of block out trigger
-    for ( Date blockOutStartDate : getFireTimes( blockOutJobTrigger, scheduler ) ) {
-      Date blockOutEndDate = new Date( blockOutStartDate.getTime() + duration );
-
-      if ( willBlockOutRangeBlockSimpleTrigger( blockOutStartDate, blockOutEndDate, scheduleTrigger, scheduler ) ) {
-        return true;
-      }
-    }
-
-    return false;
-  }
-
-  private static boolean willBlockOutRangeBlockSimpleTrigger( Date startBlockOutRange, Date endBlockOutRange,
-      IJobTrigger scheduleTrigger, IScheduler scheduler ) {
+  static boolean willBlockOutRangeBlockSimpleTrigger( long startBlockOutRange, long endBlockOutRange,
+      IJobTrigger scheduleTrigger ) {
     // ( S1 - S ) / R <= x <= ( S2 - S ) / R
 
     double recurrence = getRecurrenceInterval( scheduleTrigger );
     recurrence = recurrence != 0 ? recurrence : 1;
-    double x1 = ( startBlockOutRange.getTime() - scheduleTrigger.getStartTime().getTime() ) / recurrence;
-    double x2 = ( endBlockOutRange.getTime() - scheduleTrigger.getStartTime().getTime() ) / recurrence;
+    double x1 = ( startBlockOutRange - scheduleTrigger.getStartTime().getTime() ) / recurrence;
+    double x2 = ( endBlockOutRange - scheduleTrigger.getStartTime().getTime() ) / recurrence;
 
     return hasPositiveIntBetween( x1, x2 );
   }
 
-  private static boolean willBlockComplexScheduleTrigger( IJobTrigger trigger, IJobTrigger blockOut,
-      IScheduler scheduler ) {
-
-    for ( Date fireTime : getFireTimes( trigger, scheduler ) ) {
-      if ( willBlockDate( blockOut, fireTime, scheduler ) ) {
-        return true;
-      }
-    }
-
-    return false;
-  }
-
-  private static boolean willComplexBlockOutBlockComplexScheduleTrigger( IJobTrigger blockOutJobTrigger,
-      IJobTrigger jobTrigger, IScheduler scheduler ) {
-    List<Date> blockOutFireTimes = getFireTimes( blockOutJobTrigger, scheduler );
-
-    int iStart = 0;
-    for ( Date scheduleFireTime : getFireTimes( jobTrigger, scheduler ) ) {
-      for ( int i = iStart; i < blockOutFireTimes.size(); i++ ) {
-        Date blockOutStartDate = blockOutFireTimes.get( i );
-
-        // BlockOut start date after scheduled fire time
-        if ( blockOutStartDate.after( scheduleFireTime ) ) {
-          iStart = i;
-          break;
-        }
-
-        Date blockOutEndDate = new Date( blockOutStartDate.getTime() + blockOutJobTrigger.getDuration() );
-
-        if ( isDateIncludedInRangeInclusive( blockOutStartDate, blockOutEndDate, scheduleFireTime ) ) {
-          return true;
-        }
-      }
-
-    }
-
-    return false;
-  }
-
-  private static boolean willBlockDate( IJobTrigger blockOutJobTrigger, Date date, IScheduler scheduler ) {
+  static boolean willSimpleBlockOutBlockDate( IJobTrigger blockOutJobTrigger, long date ) {
     // S + Rx <= d <= S + Rx + D
 
     // Out of range of block out
-    if ( date.before( blockOutJobTrigger.getStartTime() )
-        || ( blockOutJobTrigger.getEndTime() != null && date.after( blockOutJobTrigger.getEndTime() ) ) ) {
+    if ( !isDateInTriggerRange( blockOutJobTrigger, date ) ) {
       return false;
     }
 
-    if ( isComplexTrigger( blockOutJobTrigger ) ) {
-      return willComplexBlockOutTriggerBlockDate( blockOutJobTrigger, getFireTimes( blockOutJobTrigger, scheduler ),
-          date );
-    }
-
     long blockOutRecurrenceInterval = getRecurrenceInterval( blockOutJobTrigger );
 
-    double x1 = ( date.getTime() - blockOutJobTrigger.getStartTime().getTime() ) / (double) blockOutRecurrenceInterval;
+    double x1 = ( date - blockOutJobTrigger.getStartTime().getTime() ) / (double) blockOutRecurrenceInterval;
     double x2 =
-        ( date.getTime() - ( blockOutJobTrigger.getStartTime().getTime() + blockOutJobTrigger.getDuration() ) )
+        ( date - ( blockOutJobTrigger.getStartTime().getTime() + blockOutJobTrigger.getDuration() ) )
             / (double) blockOutRecurrenceInterval;
 
     return hasPositiveIntBetween( x1, x2 );
   }
 
-  private static boolean willComplexBlockOutTriggerBlockDate( IJobTrigger blockOutJobTrigger, List<Date> blockOutDates,
-      Date date ) {
-
-    // Short circuit if date does not fall within a valid start/end date range
-    if ( date.before( blockOutJobTrigger.getStartTime() )
-        || ( blockOutJobTrigger.getEndTime() != null && date.after( blockOutJobTrigger.getEndTime() ) ) ) {
-      return false;
-    }
-
-    long blockOutDuration = blockOutJobTrigger.getDuration();
-    for ( Date blockOutStartDate : blockOutDates ) {
-
-      // Block out date has passed the date being tested
-      if ( blockOutStartDate.after( date ) ) {
-        break;
-      }
-
-      Date blockOutEndDate = new Date( blockOutStartDate.getTime() + blockOutDuration );
-
-      // Date falls within inclusive block out range
-      if ( isDateIncludedInRangeInclusive( blockOutStartDate, blockOutEndDate, date ) ) {
-        return true;
-      }
-    }
-
-    return false;
+  /**
+   * @return whether <code>date</code> falls between the start and end time of <code>jobTrigger</code>
+   */
+  static boolean isDateInTriggerRange( IJobTrigger jobTrigger, long date ) {
+    return date >= jobTrigger.getStartTime().getTime()
+        && ( jobTrigger.getEndTime() == null || date <= jobTrigger.getEndTime().getTime() );
   }
 
   public static boolean isComplexTrigger( IJobTrigger jobTrigger ) {
     return jobTrigger instanceof ComplexJobTrigger || jobTrigger instanceof CronJobTrigger;
   }
 
-  private static long getRecurrenceInterval( IJobTrigger jobTrigger ) {
+  static long getRecurrenceInterval( IJobTrigger jobTrigger ) {
 
     if ( !isComplexTrigger( jobTrigger ) ) {
       return ( (SimpleJobTrigger) jobTrigger ).getRepeatInterval() * 1000; // Have to convert to milliseconds
@@ -336,29 +194,12 @@ public class BlockoutManagerUtil {
   }
 
   public static boolean shouldFireNow( List<IJobTrigger> blockOutJobTriggers, IScheduler scheduler ) {
-
-    Date currentTime = new Date( System.currentTimeMillis() );
-    for ( IJobTrigger blockOutJobTrigger : blockOutJobTriggers ) {
-
-      if ( willBlockDate( blockOutJobTrigger, currentTime, scheduler ) ) {
-        return false;
-      }
-    }
-
-    return true;
+    return !new BlockoutIndex( blockOutJobTriggers, scheduler ).isBlocked( new Date( System.currentTimeMillis() ) );
   }
 
   public static boolean isPartiallyBlocked( IJobTrigger scheduleJobTrigger, List<IJobTrigger> blockOutJobTriggers,
       IScheduler scheduler ) {
-
-    // Loop through blockout triggers
-    for ( IJobTrigger blockOut : blockOutJobTriggers ) {
-      if ( willBlockSchedule( scheduleJobTrigger, blockOut, scheduler ) ) {
-        return true;
-      }
-    }
-
-    return false;
+    return new BlockoutIndex( blockOutJobTriggers, scheduler ).willBlockSchedule( scheduleJobTrigger );
   }
 
   /**
@@ -391,18 +232,4 @@ public class BlockoutManagerUtil {
     return ( x1 < x2 ? x2 >= 0 : x1 >= 0 ) && hasIntBetween( x1, x2 );
   }
 
-  /**
-   * @param dateRangeStart
-   *          {@link Date} start of range
-   * @param dateRangeEnd
-   *          {@link Date} end of range
-   * @param date
-   *          {@link Date}
-   * @return whether the date falls within the date inclusive date range
-   */
-  private static boolean isDateIncludedInRangeInclusive( Date dateRangeStart, Date dateRangeEnd, Date date ) {
-    long dateTime = date.getTime();
-    return dateRangeStart.getTime() <= dateTime && dateTime <= dateRangeEnd.getTime();
-  }
-
 }
@@ -18,18 +18,46 @@
 package org.pentaho.platform.scheduler2.blockout;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.pentaho.platform.api.scheduler2.IBlockoutManager;
 import org.pentaho.platform.api.scheduler2.IJobFilter;
 import org.pentaho.platform.api.scheduler2.IJobTrigger;
 import org.pentaho.platform.api.scheduler2.IScheduler;
 import org.pentaho.platform.api.scheduler2.Job;
+import org.pentaho.platform.api.scheduler2.JobQuery;
 import org.pentaho.platform.api.scheduler2.SchedulerException;
 import org.pentaho.platform.engine.core.system.PentahoSystem;
+import org.pentaho.platform.scheduler2.quartz.QuartzScheduler;
 
 public class PentahoBlockoutManager implements IBlockoutManager {
 
+  /**
+   * How long a {@link BlockoutIndex} is reused while the block outs do not change. Block out windows are computed
+   * from the time the index is built, so it is refreshed every so often to keep its horizon current.
+   */
+  private static final long INDEX_MAX_AGE = BlockoutManagerUtil.TIME.HOUR.time;
+
+  /**
+   * How long a {@link BlockoutIndex} is reused before it is checked against the block outs in the job store, which may
+   * have been changed by another node of a cluster, or have fired since, without this node knowing.
+   */
+  private static final long VALIDATION_INTERVAL = 10 * BlockoutManagerUtil.TIME.SECOND.time;
+
+  /**
+   * The index of the current block outs, shared by every manager since one is created for each job that fires.
+   */
+  private static volatile IndexEntry currentIndex;
+
+  /**
+   * Incremented by {@link #blockOutsChanged()}; an index is only reused while it matches the generation it was built
+   * in.
+   */
+  private static final AtomicLong generation = new AtomicLong();
+
   private IScheduler scheduler;
 
   public PentahoBlockoutManager() {
@@ -51,15 +79,12 @@ public class PentahoBlockoutManager implements IBlockoutManager {
   @Override
   public List<Job> getBlockOutJobs() {
     try {
-      List<Job> jobs = scheduler.getJobs( new IJobFilter() {
-        public boolean accept( Job job ) {
-          if ( BLOCK_OUT_JOB_NAME.equals( job.getJobName() ) ) {
-            job.getJobTrigger().setDuration( ( (Number) job.getJobParams().get( DURATION_PARAM ) ).longValue() );
-            return true;
-          }
-          return false;
-        }
-      } );
+      JobQuery query = new JobQuery();
+      query.setJobName( BLOCK_OUT_JOB_NAME );
+      List<Job> jobs = scheduler.queryJobs( query );
+      for ( Job job : jobs ) {
+        job.getJobTrigger().setDuration( ( (Number) job.getJobParams().get( DURATION_PARAM ) ).longValue() );
+      }
       return jobs;
 
     } catch ( SchedulerException e ) {
@@ -71,12 +96,12 @@ public class PentahoBlockoutManager implements IBlockoutManager {
   @Override
   public boolean willFire( IJobTrigger scheduleTrigger ) {
 
-    return BlockoutManagerUtil.willFire( scheduleTrigger, getBlockOutJobTriggers(), this.scheduler );
+    return getBlockOutIndex().willFire( scheduleTrigger );
   }
 
   @Override
   public boolean shouldFireNow() {
-    return BlockoutManagerUtil.shouldFireNow( getBlockOutJobTriggers(), this.scheduler );
+    return !getBlockOutIndex().isBlocked( new Date( System.currentTimeMillis() ) );
   }
 
   @Override
@@ -85,23 +110,30 @@ public class PentahoBlockoutManager implements IBlockoutManager {
 
     List<Job> scheduledJobs = new ArrayList<Job>();
     try {
-      scheduledJobs = this.scheduler.getJobs( new IJobFilter() {
+      // only the triggers are needed, so leave the job parameters unread
+      JobQuery query = new JobQuery();
+      query.setIncludeParams( false );
+      query.setFilter( new IJobFilter() {
 
         @Override
         public boolean accept( Job job ) {
           return !BLOCK_OUT_JOB_NAME.equals( job.getJobName() );
         }
       } );
+      scheduledJobs = this.scheduler.queryJobs( query );
     } catch ( SchedulerException e ) {
       throw new RuntimeException( e );
     }
 
+    // The block out's windows are computed once for all of the schedules
+    BlockoutIndex testBlockOutIndex =
+        new BlockoutIndex( Collections.singletonList( testBlockOutJobTrigger ), this.scheduler );
+
     // Loop over trigger group names
     for ( Job scheduledJob : scheduledJobs ) {
 
       // Add schedule to list if block out conflicts at all
-      if ( BlockoutManagerUtil.willBlockSchedule( scheduledJob.getJobTrigger(),
-              testBlockOutJobTrigger, this.scheduler ) ) {
+      if ( testBlockOutIndex.willBlockSchedule( scheduledJob.getJobTrigger() ) ) {
         blockedSchedules.add( scheduledJob.getJobTrigger() );
       }
     }
@@ -111,17 +143,113 @@ public class PentahoBlockoutManager implements IBlockoutManager {
 
   @Override
   public boolean isPartiallyBlocked( IJobTrigger scheduleJobTrigger ) {
-    return BlockoutManagerUtil.isPartiallyBlocked( scheduleJobTrigger, getBlockOutJobTriggers(), this.scheduler );
+    return getBlockOutIndex().willBlockSchedule( scheduleJobTrigger );
   }
 
-  private List<IJobTrigger> getBlockOutJobTriggers() {
-    List<IJobTrigger> blockOutJobTriggers = new ArrayList<IJobTrigger>();
+  /**
+   * Discards the index of the current block outs, so the next manager to need it rebuilds it. Called by the scheduler
+   * whenever a block out is added, updated or removed.
+   */
+  public static void blockOutsChanged() {
+    generation.incrementAndGet();
+    currentIndex = null;
+  }
 
-    for ( Job blockOutJob : getBlockOutJobs() ) {
+  /**
+   * Returns the index of the current block outs, rebuilding it when a block out has been added, removed or changed
+   * since it was built, or when it has grown older than {@link #INDEX_MAX_AGE}. Changes made on this node are known at
+   * once; other changes are found by comparing the block outs in the job store with those the index was built from,
+   * at most every {@link #VALIDATION_INTERVAL}.
+   */
+  BlockoutIndex getBlockOutIndex() {
+    IndexEntry entry = currentIndex;
+    long now = System.currentTimeMillis();
+    if ( entry != null && entry.scheduler == this.scheduler && entry.generation == generation.get()
+        && now - entry.index.getCreatedTime() < INDEX_MAX_AGE ) {
+      if ( now - entry.validatedTime < getValidationInterval() ) {
+        return entry.index;
+      }
+    } else {
+      entry = null;
+    }
+
+    // read before querying, so an index built from block outs that change meanwhile is not kept
+    long builtGeneration = generation.get();
+    List<Job> blockOutJobs = readBlockOutJobs();
+    List<String> signature = getSignature( blockOutJobs );
+    if ( entry != null && entry.signature.equals( signature ) ) {
+      entry.validatedTime = now;
+      return entry.index;
+    }
+    List<IJobTrigger> blockOutJobTriggers = new ArrayList<IJobTrigger>();
+    for ( Job blockOutJob : blockOutJobs ) {
       blockOutJobTriggers.add( blockOutJob.getJobTrigger() );
     }
+    BlockoutIndex index = new BlockoutIndex( blockOutJobTriggers, this.scheduler );
+    currentIndex = new IndexEntry( this.scheduler, builtGeneration, signature, index, now );
+    return index;
+  }
 
-    return blockOutJobTriggers;
+  long getValidationInterval() {
+    return VALIDATION_INTERVAL;
+  }
+
+  /**
+   * Reads the block outs from the job store itself when the scheduler is Quartz, as its job listings are cached.
+   */
+  private List<Job> readBlockOutJobs() {
+    if ( !( scheduler instanceof QuartzScheduler ) ) {
+      return getBlockOutJobs();
+    }
+    try {
+      List<Job> jobs = ( (QuartzScheduler) scheduler ).getBlockOutJobs();
+      for ( Job job : jobs ) {
+        job.getJobTrigger().setDuration( ( (Number) job.getJobParams().get( DURATION_PARAM ) ).longValue() );
+      }
+      return jobs;
+    } catch ( SchedulerException e ) {
+      throw new RuntimeException( e );
+    }
+  }
+
+  /**
+   * @return what an index built from these block outs depends on, in a stable order
+   */
+  private static List<String> getSignature( List<Job> blockOutJobs ) {
+    List<String> signature = new ArrayList<String>();
+    for ( Job job : blockOutJobs ) {
+      IJobTrigger trigger = job.getJobTrigger();
+      signature.add( job.getJobId() + "|" + getTime( job.getNextRun() ) + "|" + getTime( trigger.getStartTime() ) //$NON-NLS-1$ //$NON-NLS-2$
+          + "|" + getTime( trigger.getEndTime() ) + "|" + trigger.getDuration() ); //$NON-NLS-1$ //$NON-NLS-2$
+    }
+    Collections.sort( signature );
+    return signature;
+  }
+
+  private static long getTime( Date date ) {
+    return ( date == null ) ? -1 : date.getTime();
+  }
+
+  private static class IndexEntry {
+
+    private final IScheduler scheduler;
+
+    private final long generation;
+
+    private final List<String> signature;
+
+    private final BlockoutIndex index;
+
+    private volatile long validatedTime;
+
+    IndexEntry( IScheduler scheduler, long generation, List<String> signature, BlockoutIndex index,
+        long validatedTime ) {
+      this.scheduler = scheduler;
+      this.generation = generation;
+      this.signature = signature;
+      this.index = index;
+      this.validatedTime = validatedTime;
+    }
   }
 
 }
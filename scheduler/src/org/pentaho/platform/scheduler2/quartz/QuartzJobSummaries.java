@@ -0,0 +1,367 @@
+/*!
+ * This program is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License, version 2.1 as published by the Free Software
+ * Foundation.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with this
+ * program; if not, you can obtain a copy at http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+ * or from the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * Copyright (c) 2002-2013 Pentaho Corporation..  All rights reserved.
+ */
+
+package org.pentaho.platform.scheduler2.quartz;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.pentaho.platform.api.scheduler2.Job.JobState;
+import org.pentaho.platform.api.scheduler2.SchedulerException;
+import org.quartz.Calendar;
+import org.quartz.JobDataMap;
+import org.quartz.JobDetail;
+import org.quartz.JobExecutionContext;
+import org.quartz.Scheduler;
+import org.quartz.Trigger;
+import org.quartz.listeners.SchedulerListenerSupport;
+import org.quartz.listeners.TriggerListenerSupport;
+
+/**
+ * A summary of every job held by a Quartz scheduler: its trigger, state and the reserved parameters identifying its
+ * action, but none of its other parameters. {@link QuartzScheduler#queryJobs} filters, sorts and pages on these
+ * summaries instead of reading every job detail from the job store on each call.
+ * <p>
+ * Summaries are refreshed lazily. Jobs are marked stale by the listeners returned by {@link #getSchedulerListener()}
+ * and {@link #getTriggerListener()} and by {@link QuartzScheduler} itself whenever it changes a job, and are reloaded
+ * one by one on the next read. Changes made by other nodes of a clustered job store are not seen by the listeners, so
+ * when the job store is clustered the whole summary is also reloaded once it is older than {@link #getMaxAge()}. A job
+ * store that is not clustered is only changed through this node, so it is never reloaded in full unless invalidated.
+ */
+class QuartzJobSummaries {
+
+  public static final long DEFAULT_MAX_AGE = 60000L;
+
+  private static final Log logger = LogFactory.getLog( QuartzJobSummaries.class );
+
+  private static final String[] SUMMARY_PARAMS = { QuartzScheduler.RESERVEDMAPKEY_ACTIONCLASS,
+    QuartzScheduler.RESERVEDMAPKEY_ACTIONID, QuartzScheduler.RESERVEDMAPKEY_ACTIONUSER,
+    QuartzScheduler.RESERVEDMAPKEY_UIPASSPARAM, QuartzScheduler.RESERVEDMAPKEY_LINEAGE_ID };
+
+  /** group name to job id to summary, both sorted so that results come back in a stable order */
+  private final Map<String, Map<String, Summary>> groups = new TreeMap<String, Map<String, Summary>>();
+
+  private final Set<String> staleJobs = Collections.newSetFromMap( new ConcurrentHashMap<String, Boolean>() );
+
+  private final Set<String> staleGroups = Collections.newSetFromMap( new ConcurrentHashMap<String, Boolean>() );
+
+  private volatile boolean stale = true;
+
+  private long loadedTime;
+
+  private volatile long maxAge = DEFAULT_MAX_AGE;
+
+  private final String listenerName = getClass().getName() + "-" + System.identityHashCode( this ); //$NON-NLS-1$
+
+  public long getMaxAge() {
+    return maxAge;
+  }
+
+  /**
+   * @param maxAge
+   *          the time in milliseconds after which every summary is reloaded from a clustered job store, or a
+   *          negative number to only reload the jobs reported as changed
+   */
+  public void setMaxAge( long maxAge ) {
+    this.maxAge = maxAge;
+  }
+
+  public void invalidate( String jobId ) {
+    if ( jobId != null ) {
+      staleJobs.add( jobId );
+    }
+  }
+
+  public void invalidateGroup( String groupName ) {
+    if ( groupName != null ) {
+      staleGroups.add( groupName );
+    } else {
+      invalidateAll();
+    }
+  }
+
+  public void invalidateAll() {
+    stale = true;
+  }
+
+  /**
+   * Returns the summaries of the jobs in <code>groupName</code>, or of every job if it is <code>null</code>, after
+   * reloading whatever has gone stale.
+   */
+  public synchronized List<Summary> getSummaries( Scheduler scheduler, String groupName )
+    throws org.quartz.SchedulerException {
+    refresh( scheduler );
+    List<Summary> summaries = new ArrayList<Summary>();
+    if ( groupName != null ) {
+      Map<String, Summary> group = groups.get( groupName );
+      if ( group != null ) {
+        summaries.addAll( group.values() );
+      }
+    } else {
+      for ( Map<String, Summary> group : groups.values() ) {
+        summaries.addAll( group.values() );
+      }
+    }
+    return summaries;
+  }
+
+  private void refresh( Scheduler scheduler ) throws org.quartz.SchedulerException {
+    if ( stale || ( maxAge >= 0 && System.currentTimeMillis() - loadedTime > maxAge && isClustered( scheduler ) ) ) {
+      // clear the flags first so that changes made while loading are picked up by the next read
+      stale = false;
+      staleGroups.clear();
+      staleJobs.clear();
+      loadedTime = System.currentTimeMillis();
+      groups.clear();
+      try {
+        for ( String groupName : scheduler.getJobGroupNames() ) {
+          loadGroup( scheduler, groupName );
+        }
+      } catch ( org.quartz.SchedulerException e ) {
+        stale = true;
+        throw e;
+      }
+      return;
+    }
+
+    for ( Iterator<String> i = staleGroups.iterator(); i.hasNext(); ) {
+      String groupName = i.next();
+      i.remove();
+      loadGroup( scheduler, groupName );
+    }
+
+    for ( Iterator<String> i = staleJobs.iterator(); i.hasNext(); ) {
+      String jobId = i.next();
+      i.remove();
+      String groupName = getGroupName( jobId );
+      if ( groupName == null ) {
+        continue;
+      }
+      Map<String, Summary> group = groups.get( groupName );
+      Summary summary = load( scheduler, jobId, groupName );
+      if ( summary != null ) {
+        if ( group == null ) {
+          group = new TreeMap<String, Summary>();
+          groups.put( groupName, group );
+        }
+        group.put( jobId, summary );
+      } else if ( group != null ) {
+        group.remove( jobId );
+        if ( group.isEmpty() ) {
+          groups.remove( groupName );
+        }
+      }
+    }
+  }
+
+  private static boolean isClustered( Scheduler scheduler ) throws org.quartz.SchedulerException {
+    return scheduler.getMetaData().isJobStoreClustered();
+  }
+
+  private void loadGroup( Scheduler scheduler, String groupName ) throws org.quartz.SchedulerException {
+    Map<String, Summary> group = new TreeMap<String, Summary>();
+    for ( String jobId : scheduler.getJobNames( groupName ) ) {
+      Summary summary = load( scheduler, jobId, groupName );
+      if ( summary != null ) {
+        group.put( jobId, summary );
+      }
+    }
+    if ( group.isEmpty() ) {
+      groups.remove( groupName );
+    } else {
+      groups.put( groupName, group );
+    }
+  }
+
+  private Summary load( Scheduler scheduler, String jobId, String groupName ) throws org.quartz.SchedulerException {
+    Trigger[] triggers = scheduler.getTriggersOfJob( jobId, groupName );
+    if ( triggers == null || triggers.length == 0 ) {
+      return null;
+    }
+    Summary summary = new Summary();
+    summary.jobId = jobId;
+    summary.groupName = groupName;
+    summary.trigger = (Trigger) triggers[0].clone();
+    if ( summary.trigger.getCalendarName() != null ) {
+      summary.calendar = scheduler.getCalendar( summary.trigger.getCalendarName() );
+    }
+    summary.state = QuartzScheduler.toJobState( scheduler.getTriggerState( jobId, groupName ) );
+    try {
+      summary.jobName = QuartzJobKey.parse( jobId ).getJobName();
+    } catch ( SchedulerException e ) {
+      logger.debug( e.getMessage() );
+      summary.jobName = jobId;
+    }
+
+    JobDetail jobDetail = scheduler.getJobDetail( jobId, groupName );
+    if ( jobDetail != null ) {
+      summary.userName = jobDetail.getGroup();
+      JobDataMap jobDataMap = jobDetail.getJobDataMap();
+      if ( jobDataMap != null ) {
+        for ( String key : SUMMARY_PARAMS ) {
+          Object value = jobDataMap.get( key );
+          if ( value instanceof Serializable ) {
+            summary.params.put( key, (Serializable) value );
+          }
+        }
+      }
+    }
+    return summary;
+  }
+
+  private String getGroupName( String jobId ) {
+    try {
+      return QuartzJobKey.parse( jobId ).getUserName();
+    } catch ( SchedulerException e ) {
+      // not one of ours, so its group is unknown: reload everything on the next read
+      stale = true;
+      return null;
+    }
+  }
+
+  /**
+   * @return a listener marking jobs stale when they are scheduled, unscheduled, paused or resumed
+   */
+  public SchedulerListenerSupport getSchedulerListener() {
+    return new SchedulerListenerSupport() {
+
+      public void jobScheduled( Trigger trigger ) {
+        invalidate( trigger.getJobName() );
+      }
+
+      public void jobUnscheduled( String triggerName, String triggerGroup ) {
+        // triggers are named after the job they fire
+        invalidate( triggerName );
+      }
+
+      public void triggerFinalized( Trigger trigger ) {
+        invalidate( trigger.getJobName() );
+      }
+
+      public void triggersPaused( String triggerName, String triggerGroup ) {
+        invalidate( triggerName, triggerGroup );
+      }
+
+      public void triggersResumed( String triggerName, String triggerGroup ) {
+        invalidate( triggerName, triggerGroup );
+      }
+
+      public void jobsPaused( String jobName, String jobGroup ) {
+        invalidate( jobName, jobGroup );
+      }
+
+      public void jobsResumed( String jobName, String jobGroup ) {
+        invalidate( jobName, jobGroup );
+      }
+
+      private void invalidate( String name, String group ) {
+        if ( name != null ) {
+          QuartzJobSummaries.this.invalidate( name );
+        } else {
+          invalidateGroup( group );
+        }
+      }
+    };
+  }
+
+  /**
+   * @return a listener marking jobs stale when their trigger fires or misfires, which moves its fire times
+   */
+  public TriggerListenerSupport getTriggerListener() {
+    return new TriggerListenerSupport() {
+
+      public String getName() {
+        return listenerName;
+      }
+
+      public void triggerMisfired( Trigger trigger ) {
+        invalidate( trigger.getJobName() );
+      }
+
+      public void triggerComplete( Trigger trigger, JobExecutionContext context, int triggerInstructionCode ) {
+        invalidate( trigger.getJobName() );
+      }
+    };
+  }
+
+  /**
+   * What is known of a job without reading its parameters. The trigger is a copy private to the summary.
+   */
+  static class Summary {
+
+    private String jobId;
+
+    private String groupName;
+
+    private String userName;
+
+    private String jobName;
+
+    private Trigger trigger;
+
+    private Calendar calendar;
+
+    private JobState state;
+
+    private final Map<String, Serializable> params = new HashMap<String, Serializable>();
+
+    public String getJobId() {
+      return jobId;
+    }
+
+    public String getGroupName() {
+      return groupName;
+    }
+
+    public String getUserName() {
+      return userName;
+    }
+
+    public String getJobName() {
+      return jobName;
+    }
+
+    public Trigger getTrigger() {
+      return trigger;
+    }
+
+    public Calendar getCalendar() {
+      return calendar;
+    }
+
+    public JobState getState() {
+      return state;
+    }
+
+    /**
+     * @return the reserved parameters identifying the job's action and lineage
+     */
+    public Map<String, Serializable> getParams() {
+      return params;
+    }
+  }
+}
@@ -23,6 +23,8 @@ import java.text.MessageFormat;
 import java.text.ParseException;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
@@ -37,6 +39,7 @@ import org.pentaho.platform.api.action.IAction;
 import org.pentaho.platform.api.engine.IPentahoSession;
 import org.pentaho.platform.api.scheduler2.ComplexJobTrigger;
 import org.pentaho.platform.api.scheduler2.IBackgroundExecutionStreamProvider;
+import org.pentaho.platform.api.scheduler2.IBlockoutManager;
 import org.pentaho.platform.api.scheduler2.IJobFilter;
 import org.pentaho.platform.api.scheduler2.IJobResult;
 import org.pentaho.platform.api.scheduler2.IJobTrigger;
@@ -45,12 +48,14 @@ import org.pentaho.platform.api.scheduler2.IScheduler;
 import org.pentaho.platform.api.scheduler2.ISchedulerListener;
 import org.pentaho.platform.api.scheduler2.Job;
 import org.pentaho.platform.api.scheduler2.Job.JobState;
+import org.pentaho.platform.api.scheduler2.JobQuery;
 import org.pentaho.platform.api.scheduler2.JobTrigger;
 import org.pentaho.platform.api.scheduler2.SchedulerException;
 import org.pentaho.platform.api.scheduler2.SimpleJobTrigger;
 import org.pentaho.platform.api.scheduler2.recur.ITimeRecurrence;
 import org.pentaho.platform.engine.core.system.PentahoSessionHolder;
 import org.pentaho.platform.engine.security.SecurityHelper;
+import org.pentaho.platform.scheduler2.blockout.PentahoBlockoutManager;
 import org.pentaho.platform.scheduler2.messsages.Messages;
 import org.pentaho.platform.scheduler2.recur.IncrementalRecurrence;
 import org.pentaho.platform.scheduler2.recur.QualifiedDayOfMonth;
@@ -98,6 +103,8 @@ public class QuartzScheduler implements IScheduler {
 
   private ArrayList<ISchedulerListener> listeners = new ArrayList<ISchedulerListener>();
 
+  private final QuartzJobSummaries jobSummaries = new QuartzJobSummaries();
+
   private static final Pattern listPattern = Pattern.compile( "\\d+" ); //$NON-NLS-1$
 
   private static final Pattern dayOfWeekRangePattern = Pattern.compile( ".*\\-.*" ); //$NON-NLS-1$
@@ -130,6 +137,19 @@ public class QuartzScheduler implements IScheduler {
   public void setQuartzSchedulerFactory( SchedulerFactory quartzSchedulerFactory ) {
     this.quartzSchedulerFactory = quartzSchedulerFactory;
     quartzScheduler = null;
+    jobSummaries.invalidateAll();
+  }
+
+  /**
+   * Sets how long the job summaries used by {@link #queryJobs(JobQuery)} are trusted before being reloaded in full.
+   * Changes made through this node are picked up right away; the reload catches up with changes made by other nodes
+   * sharing a clustered job store, and is skipped when the job store is not clustered.
+   * 
+   * @param maxAge
+   *          the time in milliseconds, or a negative number to never reload in full
+   */
+  public void setJobSummaryMaxAge( long maxAge ) {
+    jobSummaries.setMaxAge( maxAge );
   }
 
   public Scheduler getQuartzScheduler() throws org.quartz.SchedulerException {
@@ -141,6 +161,9 @@ public class QuartzScheduler implements IScheduler {
        * us in that regard.
        */
       quartzScheduler = quartzSchedulerFactory.getScheduler();
+      quartzScheduler.addSchedulerListener( jobSummaries.getSchedulerListener() );
+      quartzScheduler.addGlobalTriggerListener( jobSummaries.getTriggerListener() );
+      jobSummaries.invalidateAll();
     }
 
     logger.debug( "Using quartz scheduler " + quartzScheduler ); //$NON-NLS-1$
@@ -283,6 +306,8 @@ public class QuartzScheduler implements IScheduler {
               .format(
                   "Scheduling job {0} with trigger {1} and job parameters [ {2} ]", jobId.toString(), trigger, prettyPrintMap( jobParams ) ) ); //$NON-NLS-1$
       scheduler.scheduleJob( jobDetail, quartzTrigger );
+      jobSummaries.invalidate( jobId.toString() );
+      blockOutChanged( jobName );
     } catch ( org.quartz.SchedulerException e ) {
       throw new SchedulerException( Messages.getInstance().getString(
           "QuartzScheduler.ERROR_0001_FAILED_TO_SCHEDULE_JOB", jobName ), e ); //$NON-NLS-1$
@@ -344,6 +369,8 @@ public class QuartzScheduler implements IScheduler {
         quartzTrigger.setCalendarName( jobId.toString() );
       }
       scheduler.rescheduleJob( jobId, jobKey.getUserName(), quartzTrigger );
+      jobSummaries.invalidate( jobId );
+      blockOutChanged( jobKey.getJobName() );
       // if (triggerState != Trigger.STATE_PAUSED) {
       // scheduler.resumeTrigger(jobId, jobKey.getUserName());
       // }
@@ -386,6 +413,7 @@ public class QuartzScheduler implements IScheduler {
       }
 
       scheduler.triggerJob( jobId, jobKey.getUserName() );
+      jobSummaries.invalidate( jobId );
     } catch ( org.quartz.SchedulerException e ) {
       throw new SchedulerException( Messages.getInstance().getString(
           "QuartzScheduler.ERROR_0007_FAILED_TO_GET_JOB", jobId ), e ); //$NON-NLS-1$
@@ -461,67 +489,206 @@ public class QuartzScheduler implements IScheduler {
     return jobs;
   }
 
+  /**
+   * Reads the block out jobs straight from the job store rather than from the cached job summaries, so that block outs
+   * added, changed or removed by another node of a cluster, or in the job store itself, are seen. Only the names of
+   * the other jobs are read.
+   */
+  @SuppressWarnings( "unchecked" )
+  public List<Job> getBlockOutJobs() throws SchedulerException {
+    List<Job> jobs = new ArrayList<Job>();
+    try {
+      Scheduler scheduler = getQuartzScheduler();
+      for ( String groupName : scheduler.getJobGroupNames() ) {
+        for ( String jobId : scheduler.getJobNames( groupName ) ) {
+          if ( !isBlockOutJobId( jobId ) ) {
+            continue;
+          }
+          JobDetail jobDetail = scheduler.getJobDetail( jobId, groupName );
+          for ( Trigger trigger : scheduler.getTriggersOfJob( jobId, groupName ) ) {
+            Job job = new Job();
+            job.setGroupName( groupName );
+            if ( jobDetail != null ) {
+              job.setUserName( jobDetail.getGroup() );
+              JobDataMap jobDataMap = jobDetail.getJobDataMap();
+              if ( jobDataMap != null ) {
+                Map<String, Serializable> wrappedMap = jobDataMap.getWrappedMap();
+                job.setJobParams( wrappedMap );
+              }
+            }
+            job.setJobId( jobId );
+            setJobTrigger( scheduler, job, trigger );
+            jobs.add( job );
+          }
+        }
+      }
+    } catch ( org.quartz.SchedulerException e ) {
+      throw new SchedulerException(
+          Messages.getInstance().getString( "QuartzScheduler.ERROR_0004_FAILED_TO_LIST_JOBS" ), e ); //$NON-NLS-1$
+    }
+    return jobs;
+  }
+
+  private static boolean isBlockOutJobId( String jobId ) {
+    try {
+      return IBlockoutManager.BLOCK_OUT_JOB_NAME.equals( QuartzJobKey.parse( jobId ).getJobName() );
+    } catch ( SchedulerException e ) {
+      // not created by this scheduler
+      return false;
+    }
+  }
+
+  /** {@inheritDoc} */
+  @SuppressWarnings( "unchecked" )
+  public List<Job> queryJobs( JobQuery query ) throws SchedulerException {
+    try {
+      Scheduler scheduler = getQuartzScheduler();
+      List<Job> jobs = findJobs( scheduler, query );
+      if ( query.getSortField() != null ) {
+        Collections.sort( jobs, new JobComparator( query.getSortField(), query.isAscending() ) );
+      }
+
+      int from = Math.min( Math.max( query.getOffset(), 0 ), jobs.size() );
+      int to = query.getLimit() < 0 ? jobs.size() : Math.min( from + query.getLimit(), jobs.size() );
+      List<Job> page = new ArrayList<Job>( jobs.subList( from, to ) );
+
+      if ( query.isIncludeParams() ) {
+        for ( Job job : page ) {
+          JobDetail jobDetail = scheduler.getJobDetail( job.getJobId(), job.getGroupName() );
+          if ( jobDetail != null && jobDetail.getJobDataMap() != null ) {
+            job.setJobParams( jobDetail.getJobDataMap().getWrappedMap() );
+          }
+        }
+      }
+      return page;
+    } catch ( org.quartz.SchedulerException e ) {
+      throw new SchedulerException(
+          Messages.getInstance().getString( "QuartzScheduler.ERROR_0004_FAILED_TO_LIST_JOBS" ), e ); //$NON-NLS-1$
+    }
+  }
+
+  /** {@inheritDoc} */
+  public int countJobs( JobQuery query ) throws SchedulerException {
+    try {
+      return findJobs( getQuartzScheduler(), query ).size();
+    } catch ( org.quartz.SchedulerException e ) {
+      throw new SchedulerException(
+          Messages.getInstance().getString( "QuartzScheduler.ERROR_0004_FAILED_TO_LIST_JOBS" ), e ); //$NON-NLS-1$
+    }
+  }
+
+  /**
+   * Matches the cached job summaries against the query, returning the matches as jobs whose parameters only hold the
+   * reserved entries kept in the summaries.
+   */
+  private List<Job> findJobs( Scheduler scheduler, JobQuery query ) throws org.quartz.SchedulerException {
+    List<Job> jobs = new ArrayList<Job>();
+    for ( QuartzJobSummaries.Summary summary : jobSummaries.getSummaries( scheduler, query.getUserName() ) ) {
+      if ( query.getStates() != null && !query.getStates().contains( summary.getState() ) ) {
+        continue;
+      }
+      if ( query.getJobName() != null && !query.getJobName().equals( summary.getJobName() ) ) {
+        continue;
+      }
+      if ( query.getActionClass() != null
+          && !query.getActionClass().equals( summary.getParams().get( RESERVEDMAPKEY_ACTIONCLASS ) )
+          && !query.getActionClass().equals( summary.getParams().get( RESERVEDMAPKEY_ACTIONID ) ) ) {
+        continue;
+      }
+      Job job = toJob( summary );
+      if ( query.getFilter() == null || query.getFilter().accept( job ) ) {
+        jobs.add( job );
+      }
+    }
+    return jobs;
+  }
+
+  private Job toJob( QuartzJobSummaries.Summary summary ) {
+    Job job = new Job();
+    job.setJobId( summary.getJobId() );
+    job.setGroupName( summary.getGroupName() );
+    job.setUserName( summary.getUserName() );
+    job.setJobName( summary.getJobName() );
+    job.setJobParams( new HashMap<String, Serializable>( summary.getParams() ) );
+    JobTrigger jobTrigger =
+        createJobTrigger( summary.getTrigger(), summary.getCalendar(), (String) summary.getParams().get(
+            RESERVEDMAPKEY_UIPASSPARAM ) );
+    if ( jobTrigger != null ) {
+      job.setJobTrigger( jobTrigger );
+    }
+    job.setState( summary.getState() );
+    job.setNextRun( summary.getTrigger().getNextFireTime() );
+    job.setLastRun( summary.getTrigger().getPreviousFireTime() );
+    return job;
+  }
+
   private void setJobTrigger( Scheduler scheduler, Job job, Trigger trigger ) throws SchedulerException,
     org.quartz.SchedulerException {
     QuartzJobKey jobKey = QuartzJobKey.parse( job.getJobId() );
     String groupName = jobKey.getUserName();
 
+    Calendar calendar = null;
+    if ( trigger instanceof CronTrigger && trigger.getCalendarName() != null ) {
+      calendar = scheduler.getCalendar( trigger.getCalendarName() );
+    }
+    JobTrigger jobTrigger =
+        createJobTrigger( trigger, calendar, (String) job.getJobParams().get( RESERVEDMAPKEY_UIPASSPARAM ) );
+    if ( jobTrigger != null ) {
+      job.setJobTrigger( jobTrigger );
+    }
+
+    job.setState( toJobState( scheduler.getTriggerState( job.getJobId(), groupName ) ) );
+
+    job.setJobName( QuartzJobKey.parse( job.getJobId() ).getJobName() );
+    job.setNextRun( trigger.getNextFireTime() );
+    job.setLastRun( trigger.getPreviousFireTime() );
+
+  }
+
+  private static JobTrigger createJobTrigger( Trigger trigger, Calendar calendar, String uiPassParam ) {
     if ( trigger instanceof SimpleTrigger ) {
       SimpleTrigger simpleTrigger = (SimpleTrigger) trigger;
       SimpleJobTrigger simpleJobTrigger = new SimpleJobTrigger();
       simpleJobTrigger.setStartTime( simpleTrigger.getStartTime() );
       simpleJobTrigger.setEndTime( simpleTrigger.getEndTime() );
-      simpleJobTrigger.setUiPassParam( (String) job.getJobParams().get( RESERVEDMAPKEY_UIPASSPARAM ) );
+      simpleJobTrigger.setUiPassParam( uiPassParam );
       long interval = simpleTrigger.getRepeatInterval();
       if ( interval > 0 ) {
         interval /= 1000;
       }
       simpleJobTrigger.setRepeatInterval( interval );
       simpleJobTrigger.setRepeatCount( simpleTrigger.getRepeatCount() );
-      job.setJobTrigger( simpleJobTrigger );
+      return simpleJobTrigger;
     } else if ( trigger instanceof CronTrigger ) {
       CronTrigger cronTrigger = (CronTrigger) trigger;
       ComplexJobTrigger complexJobTrigger = createComplexTrigger( cronTrigger.getCronExpression() );
-      complexJobTrigger.setUiPassParam( (String) job.getJobParams().get( RESERVEDMAPKEY_UIPASSPARAM ) );
-      complexJobTrigger.setCronString( ( (CronTrigger) trigger ).getCronExpression() );
-      job.setJobTrigger( complexJobTrigger );
-      if ( trigger.getCalendarName() != null ) {
-        Calendar calendar = scheduler.getCalendar( trigger.getCalendarName() );
-        if ( calendar instanceof QuartzSchedulerAvailability ) {
-          QuartzSchedulerAvailability quartzSchedulerAvailability = (QuartzSchedulerAvailability) calendar;
-          complexJobTrigger.setStartTime( quartzSchedulerAvailability.getStartTime() );
-          complexJobTrigger.setEndTime( quartzSchedulerAvailability.getEndTime() );
-        }
+      complexJobTrigger.setUiPassParam( uiPassParam );
+      if ( calendar instanceof QuartzSchedulerAvailability ) {
+        QuartzSchedulerAvailability quartzSchedulerAvailability = (QuartzSchedulerAvailability) calendar;
+        complexJobTrigger.setStartTime( quartzSchedulerAvailability.getStartTime() );
+        complexJobTrigger.setEndTime( quartzSchedulerAvailability.getEndTime() );
       }
-      complexJobTrigger.setCronString( ( (CronTrigger) trigger ).getCronExpression() );
+      complexJobTrigger.setCronString( cronTrigger.getCronExpression() );
+      return complexJobTrigger;
     }
+    return null;
+  }
 
-    int triggerState = scheduler.getTriggerState( job.getJobId(), groupName );
+  static JobState toJobState( int triggerState ) {
     switch ( triggerState ) {
       case Trigger.STATE_NORMAL:
-        job.setState( JobState.NORMAL );
-        break;
+        return JobState.NORMAL;
       case Trigger.STATE_BLOCKED:
-        job.setState( JobState.BLOCKED );
-        break;
+        return JobState.BLOCKED;
       case Trigger.STATE_COMPLETE:
-        job.setState( JobState.COMPLETE );
-        break;
+        return JobState.COMPLETE;
       case Trigger.STATE_ERROR:
-        job.setState( JobState.ERROR );
-        break;
+        return JobState.ERROR;
       case Trigger.STATE_PAUSED:
-        job.setState( JobState.PAUSED );
-        break;
+        return JobState.PAUSED;
       default:
-        job.setState( JobState.UNKNOWN );
-        break;
+        return JobState.UNKNOWN;
     }
-
-    job.setJobName( QuartzJobKey.parse( job.getJobId() ).getJobName() );
-    job.setNextRun( trigger.getNextFireTime() );
-    job.setLastRun( trigger.getPreviousFireTime() );
-
   }
 
   /** {@inheritDoc} */
@@ -550,6 +717,7 @@ public class QuartzScheduler implements IScheduler {
     try {
       Scheduler scheduler = getQuartzScheduler();
       scheduler.pauseJob( jobId, QuartzJobKey.parse( jobId ).getUserName() );
+      jobSummaries.invalidate( jobId );
     } catch ( org.quartz.SchedulerException e ) {
       throw new SchedulerException( Messages.getInstance()
           .getString( "QuartzScheduler.ERROR_0005_FAILED_TO_PAUSE_JOBS" ), e ); //$NON-NLS-1$
@@ -560,13 +728,25 @@ public class QuartzScheduler implements IScheduler {
   public void removeJob( String jobId ) throws SchedulerException {
     try {
       Scheduler scheduler = getQuartzScheduler();
-      scheduler.deleteJob( jobId, QuartzJobKey.parse( jobId ).getUserName() );
+      QuartzJobKey jobKey = QuartzJobKey.parse( jobId );
+      scheduler.deleteJob( jobId, jobKey.getUserName() );
+      jobSummaries.invalidate( jobId );
+      blockOutChanged( jobKey.getJobName() );
     } catch ( org.quartz.SchedulerException e ) {
       throw new SchedulerException( Messages.getInstance()
           .getString( "QuartzScheduler.ERROR_0005_FAILED_TO_PAUSE_JOBS" ), e ); //$NON-NLS-1$
     }
   }
 
+  /**
+   * Lets the block out manager know to rebuild its index when the job added, updated or removed is a block out.
+   */
+  private static void blockOutChanged( String jobName ) {
+    if ( IBlockoutManager.BLOCK_OUT_JOB_NAME.equals( jobName ) ) {
+      PentahoBlockoutManager.blockOutsChanged();
+    }
+  }
+
   /** {@inheritDoc} */
   public void start() throws SchedulerException {
     try {
@@ -581,6 +761,7 @@ public class QuartzScheduler implements IScheduler {
     try {
       Scheduler scheduler = getQuartzScheduler();
       scheduler.resumeJob( jobId, QuartzJobKey.parse( jobId ).getUserName() );
+      jobSummaries.invalidate( jobId );
     } catch ( org.quartz.SchedulerException e ) {
       throw new SchedulerException( Messages.getInstance().getString(
           "QuartzScheduler.ERROR_0005_FAILED_TO_RESUME_JOBS" ), e ); //$NON-NLS-1$
@@ -605,6 +786,49 @@ public class QuartzScheduler implements IScheduler {
 
   }
 
+  /**
+   * Orders jobs on one of the {@link JobQuery.SortField}s, with jobs lacking a value last.
+   */
+  private static class JobComparator implements Comparator<Job> {
+
+    private final JobQuery.SortField sortField;
+
+    private final boolean ascending;
+
+    JobComparator( JobQuery.SortField sortField, boolean ascending ) {
+      this.sortField = sortField;
+      this.ascending = ascending;
+    }
+
+    public int compare( Job job1, Job job2 ) {
+      switch ( sortField ) {
+        case JOB_NAME:
+          return compare( job1.getJobName(), job2.getJobName() );
+        case USER_NAME:
+          return compare( job1.getUserName(), job2.getUserName() );
+        case STATE:
+          return compare( job1.getState(), job2.getState() );
+        case NEXT_RUN:
+          return compare( job1.getNextRun(), job2.getNextRun() );
+        case LAST_RUN:
+          return compare( job1.getLastRun(), job2.getLastRun() );
+        default:
+          return 0;
+      }
+    }
+
+    @SuppressWarnings( "unchecked" )
+    private int compare( Comparable value1, Comparable value2 ) {
+      if ( value1 == null || value2 == null ) {
+        return value1 == value2 ? 0 : value1 == null ? 1 : -1;
+      }
+      int result =
+          value1 instanceof String ? String.CASE_INSENSITIVE_ORDER.compare( (String) value1, (String) value2 )
+              : value1.compareTo( value2 );
+      return ascending ? result : -result;
+    }
+  }
+
   /**
    * @return
    */
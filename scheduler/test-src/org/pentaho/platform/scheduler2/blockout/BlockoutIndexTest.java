@@ -0,0 +1,157 @@
+/*
+ * Copyright 2002 - 2013 Pentaho Corporation.  All rights reserved.
+ *
+ * This software was developed by Pentaho Corporation and is provided under the terms
+ * of the Mozilla Public License, Version 1.1, or any later version. You may not use
+ * this file except in compliance with the license. If you need a copy of the license,
+ * please go to http://www.mozilla.org/MPL/MPL-1.1.txt. TThe Initial Developer is Pentaho Corporation.
+ *
+ * Software distributed under the Mozilla Public License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or  implied. Please refer to
+ * the license for the specific language governing your rights and limitations.
+ */
+
+package org.pentaho.platform.scheduler2.blockout;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.GregorianCalendar;
+import java.util.List;
+
+import org.junit.Test;
+import org.pentaho.platform.api.scheduler2.ComplexJobTrigger;
+import org.pentaho.platform.api.scheduler2.IJobTrigger;
+import org.pentaho.platform.api.scheduler2.IScheduler;
+import org.pentaho.platform.api.scheduler2.SimpleJobTrigger;
+import org.pentaho.platform.scheduler2.blockout.BlockoutManagerUtil.TIME;
+import org.pentaho.platform.scheduler2.quartz.QuartzScheduler;
+
+public class BlockoutIndexTest {
+
+  private static final int EQUIVALENCE_SCHEDULES = 200;
+
+  private static final int EQUIVALENCE_BLOCKOUTS = 12;
+
+  private final IScheduler scheduler = new QuartzScheduler();
+
+  private final Date start = new GregorianCalendar( 2013, Calendar.JANUARY, 7 ).getTime();
+
+  private IJobTrigger complexTrigger( String cronString, long duration ) {
+    IJobTrigger trigger = new ComplexJobTrigger();
+    trigger.setStartTime( start );
+    trigger.setCronString( cronString );
+    trigger.setDuration( duration );
+    return trigger;
+  }
+
+  private IJobTrigger simpleTrigger( long offset, long interval, long duration ) {
+    IJobTrigger trigger = new SimpleJobTrigger( new Date( start.getTime() + offset ), null, -1, interval / 1000 );
+    trigger.setDuration( duration );
+    return trigger;
+  }
+
+  /**
+   * The next Monday after today at the given hour, as the windows of a complex block out start from now.
+   */
+  private Date nextMonday( int hour ) {
+    Calendar calendar = new GregorianCalendar();
+    calendar.set( Calendar.HOUR_OF_DAY, hour );
+    calendar.set( Calendar.MINUTE, 0 );
+    calendar.set( Calendar.SECOND, 0 );
+    calendar.set( Calendar.MILLISECOND, 0 );
+    do {
+      calendar.add( Calendar.DAY_OF_MONTH, 1 );
+    } while ( calendar.get( Calendar.DAY_OF_WEEK ) != Calendar.MONDAY );
+    return calendar.getTime();
+  }
+
+  @Test
+  public void testIsBlockedByComplexBlockout() {
+    // Mondays from midnight to 2 am
+    BlockoutIndex index =
+        new BlockoutIndex( Arrays.asList( complexTrigger( "0 0 0 ? * 2 *", TIME.HOUR.time * 2 ) ), scheduler ); //$NON-NLS-1$
+
+    assertTrue( index.isBlocked( nextMonday( 1 ) ) );
+    assertTrue( index.isBlocked( nextMonday( 2 ) ) );
+    assertFalse( index.isBlocked( nextMonday( 3 ) ) );
+    assertFalse( index.isBlocked( new Date( nextMonday( 1 ).getTime() + TIME.DAY.time ) ) );
+  }
+
+  @Test
+  public void testOverlappingWindowsAreMerged() {
+    // Every hour for 90 minutes, so windows overlap and the block out never ends
+    BlockoutIndex index =
+        new BlockoutIndex( Arrays.asList( complexTrigger( "0 0 * ? * * *", TIME.MINUTE.time * 90 ) ), scheduler ); //$NON-NLS-1$
+
+    for ( int minute = 0; minute < 24 * 60; minute += 17 ) {
+      assertTrue( index.isBlocked( new Date( nextMonday( 0 ).getTime() + minute * TIME.MINUTE.time ) ) );
+    }
+  }
+
+  @Test
+  public void testWillBlockSchedule() {
+    BlockoutIndex index =
+        new BlockoutIndex( Arrays.asList( complexTrigger( "0 0 0 ? * 2 *", TIME.HOUR.time * 2 ) ), scheduler ); //$NON-NLS-1$
+
+    assertTrue( index.willBlockSchedule( simpleTrigger( TIME.HOUR.time, TIME.DAY.time, -1 ) ) );
+    assertFalse( index.willBlockSchedule( simpleTrigger( TIME.HOUR.time * 3, TIME.DAY.time, -1 ) ) );
+    assertTrue( index.willBlockSchedule( complexTrigger( "0 0 1 ? * 2-3 *", -1 ) ) ); //$NON-NLS-1$
+    assertFalse( index.willBlockSchedule( complexTrigger( "0 0 1 ? * 3 *", -1 ) ) ); //$NON-NLS-1$
+
+    assertTrue( index.willFire( complexTrigger( "0 0 1 ? * 2-3 *", -1 ) ) ); //$NON-NLS-1$
+    assertFalse( index.willFire( complexTrigger( "0 0 1 ? * 2 *", -1 ) ) ); //$NON-NLS-1$
+  }
+
+  /**
+   * Tests a mix of simple and complex schedules against a dozen block outs through one index, and checks every answer
+   * against the pair by pair test the index replaced.
+   */
+  @Test
+  public void testWillBlockScheduleMatchesPairwiseTest() {
+    List<IJobTrigger> blockOuts = new ArrayList<IJobTrigger>();
+    for ( int i = 0; i < EQUIVALENCE_BLOCKOUTS; i++ ) {
+      if ( i % 2 == 0 ) {
+        blockOuts.add( complexTrigger( "0 " + ( i * 5 ) + " " + ( i % 24 ) + " ? * " + ( i % 7 + 1 ) + " *", //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$ //$NON-NLS-5$
+            TIME.MINUTE.time * 45 ) );
+      } else {
+        blockOuts.add( simpleTrigger( TIME.HOUR.time * i, TIME.WEEK.time, TIME.MINUTE.time * 30 ) );
+      }
+    }
+
+    List<IJobTrigger> schedules = new ArrayList<IJobTrigger>();
+    for ( int i = 0; i < EQUIVALENCE_SCHEDULES; i++ ) {
+      if ( i % 5 == 0 ) {
+        schedules.add( complexTrigger( "0 " + ( i % 60 ) + " " + ( i % 24 ) + " ? * " + ( i % 7 + 1 ) + " *", -1 ) ); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$ //$NON-NLS-5$
+      } else {
+        schedules.add( simpleTrigger( TIME.MINUTE.time * ( i * 7 % 1440 ), TIME.DAY.time * ( 1 + i % 7 ), -1 ) );
+      }
+    }
+
+    BlockoutIndex index = new BlockoutIndex( blockOuts, scheduler );
+    int blocked = 0;
+    for ( int i = 0; i < schedules.size(); i++ ) {
+      boolean pairBlocked = false;
+      for ( IJobTrigger blockOut : blockOuts ) {
+        if ( PairwiseBlockoutOracle.willBlockSchedule( schedules.get( i ), blockOut, scheduler ) ) {
+          pairBlocked = true;
+          break;
+        }
+      }
+      assertEquals( "schedule " + i, pairBlocked, index.willBlockSchedule( schedules.get( i ) ) ); //$NON-NLS-1$
+      if ( pairBlocked ) {
+        blocked++;
+      }
+    }
+
+    // the schedules should exercise both answers
+    assertTrue( blocked > 0 );
+    assertTrue( blocked < schedules.size() );
+  }
+
+}
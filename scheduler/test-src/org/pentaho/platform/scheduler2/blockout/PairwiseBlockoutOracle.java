@@ -0,0 +1,244 @@
+/*
+ * Copyright 2002 - 2013 Pentaho Corporation.  All rights reserved.
+ *
+ * This software was developed by Pentaho Corporation and is provided under the terms
+ * of the Mozilla Public License, Version 1.1, or any later version. You may not use
+ * this file except in compliance with the license. If you need a copy of the license,
+ * please go to http://www.mozilla.org/MPL/MPL-1.1.txt. TThe Initial Developer is Pentaho Corporation.
+ *
+ * Software distributed under the Mozilla Public License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or  implied. Please refer to
+ * the license for the specific language governing your rights and limitations.
+ */
+
+package org.pentaho.platform.scheduler2.blockout;
+
+import static org.pentaho.platform.scheduler2.blockout.BlockoutManagerUtil.getFireTimes;
+import static org.pentaho.platform.scheduler2.blockout.BlockoutManagerUtil.getRecurrenceInterval;
+import static org.pentaho.platform.scheduler2.blockout.BlockoutManagerUtil.isComplexTrigger;
+
+import java.util.Date;
+import java.util.List;
+
+import org.pentaho.platform.api.scheduler2.IJobTrigger;
+import org.pentaho.platform.api.scheduler2.IScheduler;
+
+/**
+ * The pair by pair block out test {@link BlockoutManagerUtil} used before {@link BlockoutIndex}, kept unchanged so the
+ * index can be checked against it.
+ */
+class PairwiseBlockoutOracle {
+
+  private PairwiseBlockoutOracle() {
+  }
+
+  static boolean willBlockSchedule( IJobTrigger scheduleTrigger, IJobTrigger blockOutJobTrigger,
+      IScheduler scheduler ) {
+
+    boolean isScheduleTriggerComplex = isComplexTrigger( scheduleTrigger );
+    boolean isBlockOutTriggerComplex = isComplexTrigger( blockOutJobTrigger );
+
+    // Both Schedule and BlockOut are complex
+    if ( isScheduleTriggerComplex && isBlockOutTriggerComplex ) {
+      return willComplexBlockOutBlockComplexScheduleTrigger( blockOutJobTrigger, scheduleTrigger, scheduler );
+    }
+
+    // Complex Schedule Trigger
+    if ( isScheduleTriggerComplex ) {
+      return willBlockComplexScheduleTrigger( scheduleTrigger, blockOutJobTrigger, scheduler );
+    }
+
+    // Complex BlockOut Trigger
+    if ( isBlockOutTriggerComplex ) {
+      return willComplexBlockOutTriggerBlockSchedule( blockOutJobTrigger, scheduleTrigger, scheduler );
+    }
+
+    /*
+     * Both blockOut and schedule triggers are simple. Continue with mathematical calculations
+     */
+    long blockOutRecurrence = getRecurrenceInterval( blockOutJobTrigger );
+    long scheduleRecurrence = getRecurrenceInterval( scheduleTrigger );
+
+    for ( int i = 0; i < 1000; i++ ) {
+      double shiftBy = ( blockOutRecurrence - scheduleRecurrence ) * i / (double) scheduleRecurrence;
+
+      double x1 =
+          ( blockOutJobTrigger.getStartTime().getTime() - scheduleTrigger.getStartTime().getTime() )
+              / (double) scheduleRecurrence + shiftBy;
+
+      double x2 =
+          ( blockOutJobTrigger.getStartTime().getTime() + blockOutJobTrigger.getDuration() - scheduleTrigger
+              .getStartTime().getTime() )
+              / (double) scheduleRecurrence + shiftBy;
+
+      if ( hasIntBetween( x1, x2 ) ) {
+
+        int xShift = (int) Math.ceil( x1 < x2 ? x1 : x2 );
+
+        long scheduleDate = scheduleTrigger.getStartTime().getTime() + scheduleRecurrence * ( i + xShift );
+        long blockOutStartDate = blockOutJobTrigger.getStartTime().getTime() + blockOutRecurrence * i;
+
+        // Test intersection of dates fall within range
+        if ( scheduleTrigger.getStartTime().getTime() <= scheduleDate
+            && ( scheduleTrigger.getEndTime() == null || scheduleDate <= scheduleTrigger.getEndTime().getTime() )
+            && blockOutJobTrigger.getStartTime().getTime() <= blockOutStartDate
+            && ( blockOutJobTrigger.getEndTime() == null || blockOutStartDate <= blockOutJobTrigger.getEndTime()
+                .getTime() ) ) {
+          return true;
+        }
+      }
+    }
+
+    return false;
+  }
+
+  private static boolean willComplexBlockOutTriggerBlockSchedule( IJobTrigger blockOutJobTrigger,
+      IJobTrigger scheduleTrigger, IScheduler scheduler ) {
+
+    // Short circuit if schedule trigger after end time of block out trigger
+    if ( ( blockOutJobTrigger.getEndTime() != null && scheduleTrigger.getStartTime().after(
+        blockOutJobTrigger.getEndTime() ) )
+        || ( scheduleTrigger.getEndTime() != null && blockOutJobTrigger.getStartTime().after(
+            scheduleTrigger.getEndTime() ) ) ) {
+      return false;
+    }
+
+    long duration = blockOutJobTrigger.getDuration();
+
+    // Loop through fire times of block out trigger
+    for ( Date blockOutStartDate : getFireTimes( blockOutJobTrigger, scheduler ) ) {
+      Date blockOutEndDate = new Date( blockOutStartDate.getTime() + duration );
+
+      if ( willBlockOutRangeBlockSimpleTrigger( blockOutStartDate, blockOutEndDate, scheduleTrigger ) ) {
+        return true;
+      }
+    }
+
+    return false;
+  }
+
+  private static boolean willBlockOutRangeBlockSimpleTrigger( Date startBlockOutRange, Date endBlockOutRange,
+      IJobTrigger scheduleTrigger ) {
+    // ( S1 - S ) / R <= x <= ( S2 - S ) / R
+
+    double recurrence = getRecurrenceInterval( scheduleTrigger );
+    recurrence = recurrence != 0 ? recurrence : 1;
+    double x1 = ( startBlockOutRange.getTime() - scheduleTrigger.getStartTime().getTime() ) / recurrence;
+    double x2 = ( endBlockOutRange.getTime() - scheduleTrigger.getStartTime().getTime() ) / recurrence;
+
+    return hasPositiveIntBetween( x1, x2 );
+  }
+
+  private static boolean willBlockComplexScheduleTrigger( IJobTrigger trigger, IJobTrigger blockOut,
+      IScheduler scheduler ) {
+
+    for ( Date fireTime : getFireTimes( trigger, scheduler ) ) {
+      if ( willBlockDate( blockOut, fireTime, scheduler ) ) {
+        return true;
+      }
+    }
+
+    return false;
+  }
+
+  private static boolean willComplexBlockOutBlockComplexScheduleTrigger( IJobTrigger blockOutJobTrigger,
+      IJobTrigger jobTrigger, IScheduler scheduler ) {
+    List<Date> blockOutFireTimes = getFireTimes( blockOutJobTrigger, scheduler );
+
+    int iStart = 0;
+    for ( Date scheduleFireTime : getFireTimes( jobTrigger, scheduler ) ) {
+      for ( int i = iStart; i < blockOutFireTimes.size(); i++ ) {
+        Date blockOutStartDate = blockOutFireTimes.get( i );
+
+        // BlockOut start date after scheduled fire time
+        if ( blockOutStartDate.after( scheduleFireTime ) ) {
+          iStart = i;
+          break;
+        }
+
+        Date blockOutEndDate = new Date( blockOutStartDate.getTime() + blockOutJobTrigger.getDuration() );
+
+        if ( isDateIncludedInRangeInclusive( blockOutStartDate, blockOutEndDate, scheduleFireTime ) ) {
+          return true;
+        }
+      }
+
+    }
+
+    return false;
+  }
+
+  private static boolean willBlockDate( IJobTrigger blockOutJobTrigger, Date date, IScheduler scheduler ) {
+    // S + Rx <= d <= S + Rx + D
+
+    // Out of range of block out
+    if ( date.before( blockOutJobTrigger.getStartTime() )
+        || ( blockOutJobTrigger.getEndTime() != null && date.after( blockOutJobTrigger.getEndTime() ) ) ) {
+      return false;
+    }
+
+    if ( isComplexTrigger( blockOutJobTrigger ) ) {
+      return willComplexBlockOutTriggerBlockDate( blockOutJobTrigger, getFireTimes( blockOutJobTrigger, scheduler ),
+          date );
+    }
+
+    long blockOutRecurrenceInterval = getRecurrenceInterval( blockOutJobTrigger );
+
+    double x1 = ( date.getTime() - blockOutJobTrigger.getStartTime().getTime() ) / (double) blockOutRecurrenceInterval;
+    double x2 =
+        ( date.getTime() - ( blockOutJobTrigger.getStartTime().getTime() + blockOutJobTrigger.getDuration() ) )
+            / (double) blockOutRecurrenceInterval;
+
+    return hasPositiveIntBetween( x1, x2 );
+  }
+
+  private static boolean willComplexBlockOutTriggerBlockDate( IJobTrigger blockOutJobTrigger, List<Date> blockOutDates,
+      Date date ) {
+
+    // Short circuit if date does not fall within a valid start/end date range
+    if ( date.before( blockOutJobTrigger.getStartTime() )
+        || ( blockOutJobTrigger.getEndTime() != null && date.after( blockOutJobTrigger.getEndTime() ) ) ) {
+      return false;
+    }
+
+    long blockOutDuration = blockOutJobTrigger.getDuration();
+    for ( Date blockOutStartDate : blockOutDates ) {
+
+      // Block out date has passed the date being tested
+      if ( blockOutStartDate.after( date ) ) {
+        break;
+      }
+
+      Date blockOutEndDate = new Date( blockOutStartDate.getTime() + blockOutDuration );
+
+      // Date falls within inclusive block out range
+      if ( isDateIncludedInRangeInclusive( blockOutStartDate, blockOutEndDate, date ) ) {
+        return true;
+      }
+    }
+
+    return false;
+  }
+
+  private static boolean hasIntBetween( double x1, double x2 ) {
+    double ceilX = Math.ceil( x1 );
+    double floorX = Math.floor( x2 );
+
+    if ( x1 > x2 ) {
+      ceilX = Math.ceil( x2 );
+      floorX = Math.floor( x1 );
+    }
+
+    return ( floorX - ceilX ) >= 0;
+  }
+
+  private static boolean hasPositiveIntBetween( double x1, double x2 ) {
+    return ( x1 < x2 ? x2 >= 0 : x1 >= 0 ) && hasIntBetween( x1, x2 );
+  }
+
+  private static boolean isDateIncludedInRangeInclusive( Date dateRangeStart, Date dateRangeEnd, Date date ) {
+    long dateTime = date.getTime();
+    return dateRangeStart.getTime() <= dateTime && dateTime <= dateRangeEnd.getTime();
+  }
+
+}
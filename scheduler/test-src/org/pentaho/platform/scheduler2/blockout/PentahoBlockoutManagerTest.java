@@ -16,6 +16,7 @@ package org.pentaho.platform.scheduler2.blockout;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 
 import java.io.Serializable;
@@ -41,6 +42,7 @@ import org.pentaho.platform.api.scheduler2.Job;
 import org.pentaho.platform.api.scheduler2.SimpleJobTrigger;
 import org.pentaho.platform.engine.core.system.PentahoSystem;
 import org.pentaho.platform.scheduler2.blockout.BlockoutManagerUtil.TIME;
+import org.pentaho.platform.scheduler2.quartz.QuartzScheduler;
 import org.pentaho.platform.scheduler2.quartz.test.StubUserDetailsService;
 import org.pentaho.platform.scheduler2.quartz.test.StubUserRoleListService;
 import org.pentaho.platform.scheduler2.ws.test.JaxWsSchedulerServiceTest.TestQuartzScheduler;
@@ -266,6 +268,51 @@ public class PentahoBlockoutManagerTest {
     assertTrue( this.blockOutManager.shouldFireNow() );
   }
 
+  @Test
+  public void testBlockOutIndexIsRebuiltOnlyWhenBlockOutsChange() throws Exception {
+    PentahoBlockoutManager manager = (PentahoBlockoutManager) this.blockOutManager;
+    BlockoutIndex index = manager.getBlockOutIndex();
+    assertSame( index, manager.getBlockOutIndex() );
+    assertSame( index, new PentahoBlockoutManager().getBlockOutIndex() );
+
+    IJobTrigger blockOutJobTrigger = new SimpleJobTrigger( new Date(), null, -1, TIME.WEEK.time / 1000 );
+    blockOutJobTrigger.setDuration( duration );
+    Job blockOutJob = addBlockOutJob( blockOutJobTrigger );
+    BlockoutIndex added = manager.getBlockOutIndex();
+    assertNotSame( index, added );
+    assertEquals( 1, added.getBlockOutTriggers().size() );
+
+    // other jobs leave the index alone
+    addJob( new SimpleJobTrigger( new Date(), null, -1, TIME.DAY.time / 1000 ), "scheduleTrigger" ); //$NON-NLS-1$
+    assertSame( added, manager.getBlockOutIndex() );
+
+    deleteJob( blockOutJob.getJobId() );
+    assertEquals( 0, manager.getBlockOutIndex().getBlockOutTriggers().size() );
+  }
+
+  @Test
+  public void testBlockOutIndexSeesBlockOutsChangedElsewhere() throws Exception {
+    PentahoBlockoutManager manager = new PentahoBlockoutManager() {
+      @Override
+      long getValidationInterval() {
+        return 0;
+      }
+    };
+    IJobTrigger blockOutJobTrigger = new SimpleJobTrigger( new Date(), null, -1, TIME.WEEK.time / 1000 );
+    blockOutJobTrigger.setDuration( duration );
+    Job blockOutJob = addBlockOutJob( blockOutJobTrigger );
+    BlockoutIndex index = manager.getBlockOutIndex();
+    assertEquals( 1, index.getBlockOutTriggers().size() );
+    assertSame( "an index matching the job store should be kept", index, manager.getBlockOutIndex() );
+
+    // as another node of a cluster would, remove the block out without going through this node's scheduler
+    ( (QuartzScheduler) this.scheduler ).getQuartzScheduler().deleteJob( blockOutJob.getJobId(),
+        blockOutJob.getUserName() );
+    this.jobIdsToClear.remove( blockOutJob.getJobId() );
+
+    assertEquals( 0, manager.getBlockOutIndex().getBlockOutTriggers().size() );
+  }
+
   /**
    * Test method for
    * {@link org.pentaho.platform.scheduler2.blockout.PentahoBlockoutManager#willBlockSchedules
@@ -21,6 +21,7 @@ import java.io.Serializable;
 import java.security.Principal;
 import java.util.Calendar;
 import java.util.Date;
+import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.List;
 
@@ -34,6 +35,8 @@ import org.pentaho.platform.api.engine.IAuditEntry;
 import org.pentaho.platform.api.engine.IUserRoleListService;
 import org.pentaho.platform.api.scheduler2.ComplexJobTrigger;
 import org.pentaho.platform.api.scheduler2.Job;
+import org.pentaho.platform.api.scheduler2.Job.JobState;
+import org.pentaho.platform.api.scheduler2.JobQuery;
 import org.pentaho.platform.api.scheduler2.JobTrigger;
 import org.pentaho.platform.api.scheduler2.SchedulerException;
 import org.pentaho.platform.api.scheduler2.SimpleJobTrigger;
@@ -404,6 +407,51 @@ public class QuartzSchedulerTest {
     Assert.assertEquals( 0, jobs.size() );
   }
 
+  @Test
+  public void testQueryJobs() throws SchedulerException {
+    scheduler.pause();
+    ComplexJobTrigger trigger = new ComplexJobTrigger();
+    trigger.addYearlyRecurrence( 2050 );
+    jobParams.put( "customParam", "value" );
+    scheduler.createJob( "jobB", TestAction.class, jobParams, trigger );
+    Job jobA = scheduler.createJob( "jobA", TestAction.class, jobParams, trigger );
+    scheduler.createJob( "jobC", TestAction2.class, jobParams, trigger );
+    scheduler.pauseJob( jobA.getJobId() );
+
+    JobQuery query = new JobQuery();
+    Assert.assertEquals( 3, scheduler.countJobs( query ) );
+
+    query.setSortField( JobQuery.SortField.JOB_NAME );
+    query.setOffset( 1 );
+    query.setLimit( 1 );
+    List<Job> page = scheduler.queryJobs( query );
+    Assert.assertEquals( 1, page.size() );
+    Assert.assertEquals( "jobB", page.get( 0 ).getJobName() );
+    Assert.assertEquals( "value", page.get( 0 ).getJobParams().get( "customParam" ) );
+
+    query.setAscending( false );
+    query.setIncludeParams( false );
+    page = scheduler.queryJobs( query );
+    Assert.assertEquals( "jobB", page.get( 0 ).getJobName() );
+    Assert.assertNull( page.get( 0 ).getJobParams().get( "customParam" ) );
+
+    query = new JobQuery();
+    query.setStates( EnumSet.of( JobState.PAUSED ) );
+    Assert.assertEquals( jobA.getJobId(), scheduler.queryJobs( query ).get( 0 ).getJobId() );
+    Assert.assertEquals( 1, scheduler.countJobs( query ) );
+
+    query = new JobQuery();
+    query.setActionClass( TestAction.class.getName() );
+    query.setUserName( TEST_USER );
+    Assert.assertEquals( 2, scheduler.countJobs( query ) );
+    query.setUserName( "someoneElse" );
+    Assert.assertEquals( 0, scheduler.countJobs( query ) );
+
+    // changes made through the scheduler show up in the next query
+    scheduler.removeJob( jobA.getJobId() );
+    Assert.assertEquals( 2, scheduler.countJobs( new JobQuery() ) );
+  }
+
   @Test( expected = SchedulerException.class )
   public void testNullAction() throws SchedulerException {
     scheduler.createJob( "testName", (Class<IAction>) null, jobParams, JobTrigger.ONCE_NOW );